@@ -42,6 +42,8 @@ select_stmt
         |   scoring_model = score_model_clause
         |   boost_by = boost_by_clause
         |   in_top = in_top_clause
+        |   search_after = search_after_clause
+        |   timeout = timeout_clause
         )*
     ;
 
@@ -106,6 +108,26 @@ limit_clause
     :   LIMIT (n1=numeric_value COMMA)? n2=numeric_value
     ;
 
+// deadline of the search in milliseconds
+timeout_clause
+    :   TIMEOUT t=numeric_value
+    ;
+
+// sort values of the last hit, followed by its document id
+search_after_clause
+    :   SEARCH_AFTER
+        (   LPAR v=search_after_value
+            (   COMMA v=search_after_value
+            )*
+            RPAR
+        )?
+    ;
+
+search_after_value
+    :   value
+    |   NULL
+    ;
+
 group_by_clause
     :   GROUP BY column_name (TOP top = (INTEGER | PLACEHOLDER))?
     ;
@@ -270,7 +292,7 @@ range_predicate
     ;
 
 flexible_query_predicate
-    :   FLEXIBLE_QUERY IS STRING_LITERAL ((fm=FULL_MATCH)|(MATCH mrt=numeric_value))? (gi=GLOBAL_IDF (OF gfd=global_fields)?)? IN flexible_fields
+    :   FLEXIBLE_QUERY IS STRING_LITERAL ((fm=FULL_MATCH)|(MATCH mrt=numeric_value))? (gi=GLOBAL_IDF (OF gfd=global_fields)?)? (pr=PRUNING)? IN flexible_fields
         USING MODEL (PLUGIN)? (OVERRIDE)? IDENT (flexible_params=formal_parameters)?
         model=score_model?
     ;
@@ -914,16 +936,19 @@ OVERALL_IDF: [Oo][Vv][Ee][Rr][Aa][Ll][Ll][_][Ii][Dd][Ff] ;
 OVERRIDE: [Oo][Vv][Ee][Rr][Rr][Ii][Dd][Ee] ;
 ORDER : [Oo][Rr][Dd][Ee][Rr] ;
 PLUGIN: [Pp][Ll][Uu][Gg][Ii][Nn] ;
+PRUNING: [Pp][Rr][Uu][Nn][Ii][Nn][Gg] ;
 QUERY : [Qq][Uu][Ee][Rr][Yy] ;
 ROUTE : [Rr][Oo][Uu][Tt][Ee] ;
 REPLICA_KEY : [Rr][Ee][Pp][Ll][Ii][Cc][Aa][_][Kk][Ee][Yy] ;
 SCORE: [Ss][Cc][Oo][Rr][Ee] ;
+SEARCH_AFTER : [Ss][Ee][Aa][Rr][Cc][Hh][_][Aa][Ff][Tt][Ee][Rr] ;
 SELECT : [Ss][Ee][Ll][Ee][Cc][Tt] ;
 SIDEWAYS : [Ss][Ii][Dd][Ee][Ww][Aa][Yy][Ss] ;
 SNIPPET: [Ss][Nn][Ii][Pp][Pp][Ee][Tt] ;
 SOURCE: [Ss][Oo][Uu][Rr][Cc][Ee] ;
 STORED : [Ss][Tt][Oo][Rr][Ee][Dd] ;
 STRING : [Ss][Tt][Rr][Ii][Nn][Gg] ;
+TIMEOUT : [Tt][Ii][Mm][Ee][Oo][Uu][Tt] ;
 TOP : [Tt][Oo][Pp] ;
 TRUE : [Tt][Rr][Uu][Ee] ;
 USING : [Uu][Ss][Ii][Nn][Gg] ;
@@ -0,0 +1,118 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.common.compiler;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+public class ClassFileHelper {
+
+  private static final int CLASS_MAGIC = 0xCAFEBABE;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_FLOAT = 4;
+  private static final int CONSTANT_LONG = 5;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELD_REF = 9;
+  private static final int CONSTANT_METHOD_REF = 10;
+  private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+  private static final int CONSTANT_METHOD_HANDLE = 15;
+  private static final int CONSTANT_METHOD_TYPE = 16;
+  private static final int CONSTANT_DYNAMIC = 17;
+  private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+  private static final int CONSTANT_MODULE = 19;
+  private static final int CONSTANT_PACKAGE = 20;
+
+  /**
+   * All the methods the class invokes as owner.name, read from the method references of its constant pool.
+   * Owner is the internal name of the class the method is referenced on, e.g. java/lang/System.currentTimeMillis,
+   * and constructors are named &lt;init&gt;. Methods the class calls on itself, including the inherited ones,
+   * are referenced on the class itself.
+   */
+  public static Set<String> getInvokedMethods(InputStream classFile) throws IOException {
+    DataInputStream in = new DataInputStream(classFile);
+    if (in.readInt() != CLASS_MAGIC) {
+      throw new IOException("Not a class file");
+    }
+    // minor and major version
+    in.readUnsignedShort();
+    in.readUnsignedShort();
+    int count = in.readUnsignedShort();
+    String[] utf8s = new String[count];
+    int[] classNames = new int[count];
+    int[] nameAndTypeNames = new int[count];
+    int[] methodRefClasses = new int[count];
+    int[] methodRefNameAndTypes = new int[count];
+    for (int i = 1; i < count; ++i) {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case CONSTANT_UTF8:
+          utf8s[i] = in.readUTF();
+          break;
+        case CONSTANT_CLASS:
+          classNames[i] = in.readUnsignedShort();
+          break;
+        case CONSTANT_METHOD_REF:
+        case CONSTANT_INTERFACE_METHOD_REF:
+          methodRefClasses[i] = in.readUnsignedShort();
+          methodRefNameAndTypes[i] = in.readUnsignedShort();
+          break;
+        case CONSTANT_NAME_AND_TYPE:
+          nameAndTypeNames[i] = in.readUnsignedShort();
+          // descriptor index
+          in.readUnsignedShort();
+          break;
+        case CONSTANT_STRING:
+        case CONSTANT_METHOD_TYPE:
+        case CONSTANT_MODULE:
+        case CONSTANT_PACKAGE:
+          in.skipBytes(2);
+          break;
+        case CONSTANT_METHOD_HANDLE:
+          in.skipBytes(3);
+          break;
+        case CONSTANT_INTEGER:
+        case CONSTANT_FLOAT:
+        case CONSTANT_FIELD_REF:
+        case CONSTANT_DYNAMIC:
+        case CONSTANT_INVOKE_DYNAMIC:
+          in.skipBytes(4);
+          break;
+        case CONSTANT_LONG:
+        case CONSTANT_DOUBLE:
+          in.skipBytes(8);
+          // 8 byte constants take two entries
+          ++i;
+          break;
+        default:
+          throw new IOException("Unknown constant pool tag " + tag + " at " + i);
+      }
+    }
+    Set<String> methods = new HashSet<>();
+    for (int i = 1; i < count; ++i) {
+      if (methodRefNameAndTypes[i] > 0) {
+        methods.add(utf8s[classNames[methodRefClasses[i]]] + "." + utf8s[nameAndTypeNames[methodRefNameAndTypes[i]]]);
+      }
+    }
+    return methods;
+  }
+}
@@ -15,14 +15,17 @@
 package com.xiaomi.linden.common.compiler;
 
 import javax.tools.*;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.security.SecureClassLoader;
 
 public class ClassFileManager extends ForwardingJavaFileManager {
   private JavaClassObject jclassObject;
+  private String className;
 
   public ClassFileManager(StandardJavaFileManager
                               standardManager) {
@@ -39,6 +42,15 @@ public class ClassFileManager extends ForwardingJavaFileManager {
         return super.defineClass(name, jclassObject
             .getBytes(), 0, b.length);
       }
+
+      // serves the compiled class file, so that its byte code can be inspected
+      @Override
+      public InputStream getResourceAsStream(String name) {
+        if (className != null && name.equals(className.replace('.', '/') + JavaFileObject.Kind.CLASS.extension)) {
+          return new ByteArrayInputStream(jclassObject.getBytes());
+        }
+        return super.getResourceAsStream(name);
+      }
     };
   }
 
@@ -46,6 +58,7 @@ public class ClassFileManager extends ForwardingJavaFileManager {
   public JavaFileObject getJavaFileForOutput(Location location,
                                              String className, JavaFileObject.Kind kind, FileObject sibling)
       throws IOException {
+    this.className = className;
     jclassObject = new JavaClassObject(className, kind);
     return jclassObject;
   }
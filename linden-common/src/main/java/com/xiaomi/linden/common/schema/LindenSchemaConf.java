@@ -20,6 +20,7 @@ public class LindenSchemaConf {
   public static final String GEO_FIELD = "geo_field";
 
   public static final String DYNAMICS = "_dynamic";
+  public static final String SOURCE = "_source";
   public static final String DYNAMIC_TYPE_SEPARATOR = ".";
   public static final String INT = "int";
   public static final String LONG = "long";
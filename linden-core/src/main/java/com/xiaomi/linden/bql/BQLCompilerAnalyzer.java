@@ -60,11 +60,13 @@ import com.xiaomi.linden.thrift.common.LindenQueryFilter;
 import com.xiaomi.linden.thrift.common.LindenRequest;
 import com.xiaomi.linden.thrift.common.LindenSchema;
 import com.xiaomi.linden.thrift.common.LindenScoreModel;
+import com.xiaomi.linden.thrift.common.LindenSearchAfter;
 import com.xiaomi.linden.thrift.common.LindenSearchField;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
 import com.xiaomi.linden.thrift.common.LindenSort;
 import com.xiaomi.linden.thrift.common.LindenSortField;
 import com.xiaomi.linden.thrift.common.LindenSortType;
+import com.xiaomi.linden.thrift.common.LindenSortValue;
 import com.xiaomi.linden.thrift.common.LindenType;
 import com.xiaomi.linden.thrift.common.LindenValue;
 import com.xiaomi.linden.thrift.common.LindenWildcardQuery;
@@ -251,6 +253,16 @@ public class BQLCompilerAnalyzer extends BQLBaseListener {
                                                                  "USING SCORE MODEL clause can only appear once."));
     }
 
+    if (ctx.search_after_clause().size() > 1) {
+      throw new ParseCancellationException(new SemanticException(ctx.search_after_clause(1),
+                                                                 "SEARCH_AFTER clause can only appear once."));
+    }
+
+    if (ctx.timeout_clause().size() > 1) {
+      throw new ParseCancellationException(new SemanticException(ctx.timeout_clause(1),
+                                                                 "TIMEOUT clause can only appear once."));
+    }
+
     LindenSearchRequest lindenRequest = new LindenSearchRequest();
     if (ctx.cols != null) {
       lindenRequest.setSourceFields((List<String>) valProperty.get(ctx.cols));
@@ -314,6 +326,12 @@ public class BQLCompilerAnalyzer extends BQLBaseListener {
     if (ctx.route_param != null) {
       lindenRequest.setRouteParam((SearchRouteParam) valProperty.get(ctx.route_param));
     }
+    if (ctx.search_after != null) {
+      lindenRequest.setSearchAfter((LindenSearchAfter) valProperty.get(ctx.search_after));
+    }
+    if (ctx.timeout != null && valProperty.get(ctx.timeout) != null) {
+      lindenRequest.setTimeout((Integer) valProperty.get(ctx.timeout));
+    }
 
     if (facetRequest.isSetFacetParams() || facetRequest.isSetDrillDownDimAndPaths() ||
         facetRequest.isSetAggregations()) {
@@ -726,6 +744,62 @@ public class BQLCompilerAnalyzer extends BQLBaseListener {
     }
   }
 
+  @Override
+  public void exitTimeout_clause(BQLParser.Timeout_clauseContext ctx) {
+    if (ctx.t.PLACEHOLDER() == null) {
+      int timeout = Integer.parseInt(ctx.t.getText());
+      if (timeout <= 0) {
+        throw new ParseCancellationException(new SemanticException(ctx, "TIMEOUT must be positive."));
+      }
+      valProperty.put(ctx, timeout);
+    }
+  }
+
+  @Override
+  public void exitSearch_after_clause(BQLParser.Search_after_clauseContext ctx) {
+    LindenSearchAfter searchAfter = new LindenSearchAfter();
+    List<BQLParser.Search_after_valueContext> values = ctx.search_after_value();
+    // no values means the first page
+    if (!values.isEmpty()) {
+      if (values.size() < 2) {
+        throw new ParseCancellationException(
+            new SemanticException(ctx, "SEARCH_AFTER needs sort values and document id of the last hit."));
+      }
+      List<LindenSortValue> sortValues = new ArrayList<>();
+      for (int i = 0; i < values.size() - 1; ++i) {
+        sortValues.add((LindenSortValue) valProperty.get(values.get(i)));
+      }
+      searchAfter.setSortValues(sortValues);
+      LindenSortValue id = (LindenSortValue) valProperty.get(values.get(values.size() - 1));
+      if (id.isSetStringValue()) {
+        searchAfter.setId(id.getStringValue());
+      } else if (id.isSetLongValue()) {
+        searchAfter.setId(String.valueOf(id.getLongValue()));
+      } else {
+        throw new ParseCancellationException(new SemanticException(ctx, "Document id must be a string."));
+      }
+    }
+    valProperty.put(ctx, searchAfter);
+  }
+
+  @Override
+  public void exitSearch_after_value(BQLParser.Search_after_valueContext ctx) {
+    LindenSortValue sortValue = new LindenSortValue();
+    if (ctx.value() != null) {
+      Object value = valProperty.get(ctx.value());
+      if (ctx.value().PLACEHOLDER() != null) {
+        throw new ParseCancellationException(new SemanticException(ctx, "Placeholder is not supported here."));
+      } else if (value instanceof Long) {
+        sortValue.setLongValue((Long) value);
+      } else if (value instanceof Double) {
+        sortValue.setDoubleValue((Double) value);
+      } else {
+        sortValue.setStringValue(value.toString());
+      }
+    }
+    valProperty.put(ctx, sortValue);
+  }
+
   @Override
   public void exitIn_predicate(BQLParser.In_predicateContext ctx) {
     String col = unescapeColumnName(ctx.column_name());
@@ -999,6 +1073,14 @@ public class BQLCompilerAnalyzer extends BQLBaseListener {
       double ratio = Double.valueOf(ctx.mrt.getText());
       lindenFlexibleQuery.setMatchRatio(ratio);
     }
+    if (ctx.pr != null) {
+      // inline score models can not declare the upper bound pruning needs
+      if (ctx.PLUGIN() == null) {
+        throw new ParseCancellationException(
+            new SemanticException(ctx, "PRUNING needs a plugin score model which declares an upper bound."));
+      }
+      lindenFlexibleQuery.setPruning(true);
+    }
     LindenQuery lindenQuery = new LindenQuery();
     if (inQueryWhere) {
       if (ctx.gi != null) {
@@ -15,7 +15,11 @@
 package com.xiaomi.linden.cluster;
 
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -44,11 +48,16 @@ import com.xiaomi.linden.common.util.LindenZKPathManager;
 import com.xiaomi.linden.core.LindenConfig;
 import com.xiaomi.linden.core.indexing.LindenIndexRequestParser;
 import com.xiaomi.linden.core.indexing.ShardingStrategy;
+import com.xiaomi.linden.core.search.LindenCore;
+import com.xiaomi.linden.thrift.common.BulkResponse;
 import com.xiaomi.linden.thrift.common.CacheInfo;
 import com.xiaomi.linden.thrift.common.LindenDeleteRequest;
+import com.xiaomi.linden.thrift.common.LindenFetchRequest;
+import com.xiaomi.linden.thrift.common.LindenHit;
 import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+import com.xiaomi.linden.thrift.common.ReplicaInfo;
 import com.xiaomi.linden.thrift.common.Response;
 import com.xiaomi.linden.thrift.common.ShardRouteParam;
 import com.xiaomi.linden.thrift.service.LindenService;
@@ -64,14 +73,18 @@ public class CoreLindenCluster extends LindenCluster {
   private final LindenService.ServiceIface localClient;
   private final LindenZKPathManager zkPathManager;
   private final ShardingStrategy shardingStrategy;
+  // searches the shard of this node on the coordinating thread, null if inline search is disabled
+  private final LindenCore localCore;
   private LoadingCache<LindenSearchRequest, LindenResult> cache;
+  private OffHeapResultCache offHeapCache;
   private int clusterFutureAwaitTimeout;
   private static final String SHARD = "shard";
 
 
   public CoreLindenCluster(LindenConfig lindenConf, ShardingStrategy shardingStrategy,
-                           LindenService.ServiceIface localClient) {
+                           LindenService.ServiceIface localClient, LindenCore localCore) {
     this.shardingStrategy = shardingStrategy;
+    this.localCore = lindenConf.isEnableInlineLocalSearch() ? localCore : null;
     this.clusterFutureAwaitTimeout = lindenConf.getClusterFutureAwaitTimeout();
     this.localClient = localClient;
     this.lindenConfig = lindenConf;
@@ -97,7 +110,10 @@ public class CoreLindenCluster extends LindenCluster {
       }
     });
 
-    if (lindenConfig.isEnableCache()) {
+    if (lindenConfig.isEnableCache() && lindenConf.getCacheMemoryMB() > 0) {
+      offHeapCache = new OffHeapResultCache(lindenConf.getCacheMemoryMB() * 1024L * 1024L,
+                                            TimeUnit.SECONDS.toMillis(lindenConf.getCacheDuration()));
+    } else if (lindenConfig.isEnableCache()) {
       cache = CacheBuilder.newBuilder().maximumSize(lindenConf.getCacheSize())
           .expireAfterAccess(lindenConf.getCacheDuration(), TimeUnit.SECONDS)
           .recordStats()
@@ -113,8 +129,13 @@ public class CoreLindenCluster extends LindenCluster {
   private void buildAllClient(String parent, List<String> children, List<String> newAdded, List<String> deleted) {
     for (String shardId : newAdded) {
       String shardPath = zkPathManager.getShardPath(shardId);
+      HedgePolicy hedgePolicy = null;
+      if (lindenConfig.isEnableHedgedSearch()) {
+        hedgePolicy = new HedgePolicy(lindenConfig.getHedgeLatencyPercentile(), lindenConfig.getHedgeBudgetPercent());
+      }
       ShardClient client = new ShardClient(zkClient, zkPathManager.getZK(), shardPath, localClient,
-                                           lindenConfig.getPort(), Integer.valueOf(shardId));
+                                           lindenConfig.getPort(), Integer.valueOf(shardId),
+                                           clusterFutureAwaitTimeout, hedgePolicy);
       clients.put(Integer.valueOf(shardId), client);
       LOGGER.info("Shard [{}] joined cluster.", shardId);
     }
@@ -128,9 +149,21 @@ public class CoreLindenCluster extends LindenCluster {
   @Override
   public LindenResult search(final LindenSearchRequest request) throws IOException {
     if (cache != null) {
+      if (request.isSetTimeout()) {
+        // the loader can not see the deadline, requests differing only in it share the entry
+        LindenSearchRequest key = cacheKey(request);
+        LindenResult result = cache.getIfPresent(key);
+        if (result == null) {
+          result = coreSearch(request);
+          if (result.isSuccess() && !result.isPartial()) {
+            cache.put(key, result);
+          }
+        }
+        return result;
+      }
       try {
         LindenResult result = cache.get(request);
-        if (!result.isSuccess()) {
+        if (!result.isSuccess() || result.isPartial()) {
           cache.invalidate(request);
         }
         return result;
@@ -138,9 +171,29 @@ public class CoreLindenCluster extends LindenCluster {
         throw new IOException(Throwables.getStackTraceAsString(e));
       }
     }
+    if (offHeapCache != null) {
+      LindenSearchRequest key = cacheKey(request);
+      LindenResult result = offHeapCache.get(key);
+      if (result == null) {
+        result = coreSearch(request);
+        if (result.isSuccess() && !result.isPartial()) {
+          offHeapCache.put(key, result);
+        }
+      }
+      return result;
+    }
     return coreSearch(request);
   }
 
+  private static LindenSearchRequest cacheKey(LindenSearchRequest request) {
+    if (!request.isSetTimeout()) {
+      return request;
+    }
+    LindenSearchRequest key = new LindenSearchRequest(request);
+    key.unsetTimeout();
+    return key;
+  }
+
   static private String getHostFutureInfo(List<String> hosts, List<Future<BoxedUnit>> futures) {
     StringBuilder sb = new StringBuilder();
     sb.append("Future info:\n");
@@ -222,24 +275,221 @@ public class CoreLindenCluster extends LindenCluster {
   }
 
   public LindenResult coreSearch(final LindenSearchRequest request) throws IOException {
+    long deadline = request.isSetTimeout() ? System.currentTimeMillis() + request.getTimeout() : 0;
+    if (!isTwoPhaseSearch(request)) {
+      return query(request, false, deadline);
+    }
+    // query phase ranks hits of every shard without source, explanation and snippets,
+    // which are built for the returned page only in fetch phase
+    LindenSearchRequest queryRequest = new LindenSearchRequest(request);
+    queryRequest.setSource(false).setExplain(false).setSnippetParam(null);
+    LindenResult result = query(queryRequest, true, deadline);
+    if (!result.isSuccess() || result.getHitsSize() == 0) {
+      return result;
+    }
+    List<LindenHit> unfetched = fetch(request, result.getHits(), deadline);
+    if (!unfetched.isEmpty()) {
+      // only the failed shards are asked again, searching all shards once more would double the load
+      unfetched = fetch(request, unfetched, deadline);
+    }
+    if (!unfetched.isEmpty()) {
+      // ranked hits are returned without what fetch phase builds
+      LOGGER.warn("Fetch phase failed for {} hits of request {}", unfetched.size(), request.getOriginQuery());
+      result.setPartial(true);
+    }
+    // shard ids and hosts only serve the fetch phase
+    for (LindenHit hit : result.getHits()) {
+      hit.unsetShardId();
+      hit.unsetShardHost();
+    }
+    return result;
+  }
+
+  /**
+   * @return the request with the time left before deadline, or null if the deadline is exceeded
+   */
+  private static LindenSearchRequest withRemainingTimeout(LindenSearchRequest request, long deadline) {
+    if (deadline <= 0) {
+      return request;
+    }
+    long remaining = deadline - System.currentTimeMillis();
+    if (remaining <= 0) {
+      return null;
+    }
+    return new LindenSearchRequest(request).setTimeout((int) remaining);
+  }
+
+  /**
+   * wait for shards until the deadline of the request, bounded by the cluster await timeout
+   */
+  private void await(Future<?> collected, long deadline) throws Exception {
+    long timeout = clusterFutureAwaitTimeout;
+    if (deadline > 0) {
+      long remaining = Math.max(1, deadline - System.currentTimeMillis());
+      timeout = timeout == 0 ? remaining : Math.min(timeout, remaining);
+    }
+    if (timeout == 0) {
+      Await.result(collected);
+    } else {
+      Await.result(collected, Duration.apply(timeout, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  private boolean isTwoPhaseSearch(LindenSearchRequest request) {
+    if (!lindenConfig.isEnableTwoPhaseSearch() || request.isSetGroupParam()) {
+      return false;
+    }
+    if (!request.isSource() && !request.isExplain() && !request.isSetSnippetParam()) {
+      return false;
+    }
+    // a single shard returns exactly the requested page, there is nothing to save
+    int shardNum = request.isSetRouteParam() && request.getRouteParam().isSetShardParams()
+                   ? request.getRouteParam().getShardParamsSize() : clients.size();
+    return shardNum > 1;
+  }
+
+  private static void setShardId(LindenResult result, int shardId) {
+    if (result.isSetHits()) {
+      for (LindenHit hit : result.getHits()) {
+        hit.setShardId(shardId);
+      }
+    }
+  }
+
+  /**
+   * Fill source, explanation and snippets of hits from the replicas which scored them.
+   *
+   * @return hits which failed to fetch, of failed shards or not found by them
+   */
+  private List<LindenHit> fetch(LindenSearchRequest request, List<LindenHit> hits, long deadline) {
+    request = withRemainingTimeout(request, deadline);
+    if (request == null) {
+      return hits;
+    }
+    // shard id and shard host -> ids of the hits
+    Map<Map.Entry<Integer, String>, List<String>> shardIds = new HashMap<>();
+    for (LindenHit hit : hits) {
+      Map.Entry<Integer, String> shard = new AbstractMap.SimpleEntry<>(hit.getShardId(), hit.getShardHost());
+      List<String> ids = shardIds.get(shard);
+      if (ids == null) {
+        ids = new ArrayList<>();
+        shardIds.put(shard, ids);
+      }
+      ids.add(hit.getId());
+    }
+
+    List<Future<BoxedUnit>> futures = new ArrayList<>();
+    List<String> hosts = new ArrayList<>();
+    final Map<String, LindenHit> fetchedHits = new HashMap<>();
+    for (final Map.Entry<Map.Entry<Integer, String>, List<String>> shardEntry : shardIds.entrySet()) {
+      final Map.Entry<Integer, String> entry = shardEntry.getKey();
+      ShardClient client = clients.get(entry.getKey());
+      if (client == null || !client.isAvailable()) {
+        LOGGER.warn("Fetch from Shard [{}] failed, shard is not available.", entry.getKey());
+        continue;
+      }
+      LindenFetchRequest fetchRequest = new LindenFetchRequest().setIds(shardEntry.getValue())
+          .setSearchRequest(request);
+      final Map.Entry<String, Future<LindenResult>> hostFuturePair = client.fetch(fetchRequest, entry.getValue());
+      hosts.add(hostFuturePair.getKey());
+      futures.add(hostFuturePair.getValue().transformedBy(new FutureTransformer<LindenResult, BoxedUnit>() {
+        @Override
+        public BoxedUnit map(LindenResult lindenResult) {
+          synchronized (fetchedHits) {
+            if (!lindenResult.isSuccess()) {
+              LOGGER.error("Shard [{}] host [{}] failed to get fetch result : {}",
+                           entry.getKey(), hostFuturePair.getKey(), lindenResult.getError());
+              return BoxedUnit.UNIT;
+            }
+            if (lindenResult.isSetHits()) {
+              for (LindenHit hit : lindenResult.getHits()) {
+                fetchedHits.put(hit.getId(), hit);
+              }
+            }
+          }
+          return BoxedUnit.UNIT;
+        }
+
+        @Override
+        public BoxedUnit handle(Throwable t) {
+          LOGGER.error("Shard [{}] host [{}] failed to get fetch result : {}",
+                       entry.getKey(), hostFuturePair.getKey(), Throwables.getStackTraceAsString(t));
+          return BoxedUnit.UNIT;
+        }
+      }));
+    }
+
+    Future<List<BoxedUnit>> collected = Future.collect(futures);
+    try {
+      await(collected, deadline);
+    } catch (Exception e) {
+      LOGGER.error("Failed to get all fetch results, exception: {}", Throwables.getStackTraceAsString(e));
+      LOGGER.error(getHostFutureInfo(hosts, futures));
+    }
+
+    List<LindenHit> unfetched = new ArrayList<>();
+    synchronized (fetchedHits) {
+      for (LindenHit hit : hits) {
+        // a hit missing from the fetch result, e.g. deleted between the two phases, is not fetched either
+        LindenHit fetchedHit = fetchedHits.get(hit.getId());
+        if (fetchedHit == null) {
+          unfetched.add(hit);
+          continue;
+        }
+        if (fetchedHit.isSetSource()) {
+          hit.setSource(fetchedHit.getSource());
+        }
+        if (fetchedHit.isSetExplanation()) {
+          hit.setExplanation(fetchedHit.getExplanation());
+        }
+        if (fetchedHit.isSetSnippets()) {
+          hit.setSnippets(fetchedHit.getSnippets());
+        }
+      }
+    }
+    return unfetched;
+  }
+
+  private LindenResult query(final LindenSearchRequest request, final boolean queryPhase, long deadline)
+      throws IOException {
+    // shards get the time left, so they stop before the coordinator gives up on them
+    LindenSearchRequest shardRequest = withRemainingTimeout(request, deadline);
+    if (shardRequest == null) {
+      return new LindenResult().setSuccess(false).setError("Deadline exceeded before searching shards");
+    }
     List<Future<BoxedUnit>> futures = new ArrayList<>();
     List<String> hosts = new ArrayList<>();
+    List<Integer> shards = new ArrayList<>();
     final List<LindenResult> resultList = new ArrayList<>();
+    // shards of this node, searched inline after the remote shards are dispatched
+    List<ShardClient> localClients = new ArrayList<>();
+    List<Integer> localShards = new ArrayList<>();
+    List<LindenSearchRequest> localRequests = new ArrayList<>();
     if (request.isSetRouteParam() && request.getRouteParam().isSetShardParams()) {
       for (final ShardRouteParam routeParam : request.getRouteParam().getShardParams()) {
         ShardClient client = clients.get(routeParam.getShardId());
         if (client != null && client.isAvailable()) {
-          LindenSearchRequest subRequest = request;
+          LindenSearchRequest subRequest = shardRequest;
           if (routeParam.isSetEarlyParam()) {
-            subRequest = new LindenSearchRequest(request);
+            subRequest = new LindenSearchRequest(shardRequest);
             subRequest.setEarlyParam(routeParam.getEarlyParam());
           }
-          final Map.Entry<String, Future<LindenResult>> hostFuturePair = client.search(subRequest);
+          if (localCore != null && client.isLocalPreferred(subRequest)) {
+            localClients.add(client);
+            localShards.add(routeParam.getShardId());
+            localRequests.add(subRequest);
+            continue;
+          }
+          final Map.Entry<String, Future<LindenResult>> hostFuturePair = client.search(subRequest, queryPhase);
           hosts.add(hostFuturePair.getKey());
+          shards.add(routeParam.getShardId());
           futures.add(hostFuturePair.getValue().transformedBy(new FutureTransformer<LindenResult, BoxedUnit>() {
             @Override
             public BoxedUnit map(LindenResult lindenResult) {
               synchronized (resultList) {
+                if (queryPhase) {
+                  setShardId(lindenResult, routeParam.getShardId());
+                }
                 resultList.add(lindenResult);
                 if (!lindenResult.isSuccess()) {
                   LOGGER.error("Shard [{}] host [{}] failed to get search result : {}",
@@ -261,15 +511,25 @@ public class CoreLindenCluster extends LindenCluster {
         }
       }
     } else {
-      LindenSearchRequest subRequest = request;
       for (final Map.Entry<Integer, ShardClient> entry : clients.entrySet()) {
         if (entry.getValue().isAvailable()) {
-          final Map.Entry<String, Future<LindenResult>> hostFuturePair = entry.getValue().search(subRequest);
+          if (localCore != null && entry.getValue().isLocalPreferred(shardRequest)) {
+            localClients.add(entry.getValue());
+            localShards.add(entry.getKey());
+            localRequests.add(shardRequest);
+            continue;
+          }
+          final Map.Entry<String, Future<LindenResult>> hostFuturePair =
+              entry.getValue().search(shardRequest, queryPhase);
           hosts.add(hostFuturePair.getKey());
+          shards.add(entry.getKey());
           futures.add(hostFuturePair.getValue().transformedBy(new FutureTransformer<LindenResult, BoxedUnit>() {
             @Override
             public BoxedUnit map(LindenResult lindenResult) {
               synchronized (resultList) {
+                if (queryPhase) {
+                  setShardId(lindenResult, entry.getKey());
+                }
                 resultList.add(lindenResult);
                 if (!lindenResult.isSuccess()) {
                   LOGGER.error("Shard [{}] host [{}] failed to get search result : {}",
@@ -290,36 +550,239 @@ public class CoreLindenCluster extends LindenCluster {
       }
     }
 
+    List<Integer> timedOutShards = new ArrayList<>();
+    for (int i = 0; i < localClients.size(); ++i) {
+      int shardId = localShards.get(i);
+      // dispatching the remote shards took some of the time
+      LindenSearchRequest localRequest = withRemainingTimeout(localRequests.get(i), deadline);
+      if (localRequest == null) {
+        timedOutShards.add(shardId);
+        continue;
+      }
+      LindenResult lindenResult = localClients.get(i).searchLocally(localCore, localRequest);
+      synchronized (resultList) {
+        if (queryPhase) {
+          setShardId(lindenResult, shardId);
+          ShardClient.setShardHost(lindenResult, localClients.get(i).getLocalHostPort());
+        }
+        resultList.add(lindenResult);
+      }
+      if (!lindenResult.isSuccess()) {
+        LOGGER.error("Shard [{}] local search failed : {}", shardId, lindenResult.getError());
+      }
+    }
+
     Future<List<BoxedUnit>> collected = Future.collect(futures);
     try {
-      if (clusterFutureAwaitTimeout == 0) {
-        Await.result(collected);
-      } else {
-        Await.result(collected, Duration.apply(clusterFutureAwaitTimeout, TimeUnit.MILLISECONDS));
-      }
+      await(collected, deadline);
     } catch (Exception e) {
       LOGGER.error("Failed to get all results, exception: {}", Throwables.getStackTraceAsString(e));
       LOGGER.error(getHostFutureInfo(hosts, futures));
-      if (resultList.size() == 0) {
-        return new LindenResult().setSuccess(false)
-            .setError("Failed to get any shard result, " + Throwables.getStackTraceAsString(e));
+      for (int i = 0; i < futures.size(); ++i) {
+        if (!futures.get(i).isDefined()) {
+          timedOutShards.add(shards.get(i));
+        }
+      }
+    }
+    List<LindenResult> results;
+    synchronized (resultList) {
+      // late shards may still be adding results
+      results = new ArrayList<>(resultList);
+    }
+    if (results.isEmpty() && !timedOutShards.isEmpty()) {
+      return new LindenResult().setSuccess(false).setError("Failed to get any shard result, shards "
+                                                           + timedOutShards + " timed out");
+    }
+    LindenResult result = ResultMerger.merge(request, results);
+    if (result.isSuccess() && !timedOutShards.isEmpty()) {
+      result.setPartial(true).setTimedOutShards(timedOutShards);
+    }
+    return result;
+  }
+
+  /**
+   * Sub-requests of every shard are bundled into one call, the shard runs them in parallel on one search view.
+   * Results of each request are merged as in search, without cache and two phase search. The shards are awaited
+   * until the latest deadline, a shard answering after the deadline of a sub-request is timed out for it.
+   */
+  @Override
+  public List<LindenResult> multiSearch(List<LindenSearchRequest> requests) throws IOException {
+    int size = requests.size();
+    LindenResult[] results = new LindenResult[size];
+    List<LindenSearchRequest> shardRequests = new ArrayList<>(size);
+    final List<List<LindenResult>> shardResults = new ArrayList<>(size);
+    final List<List<Integer>> timedOutShards = new ArrayList<>(size);
+    // shards whose call is done, guarded by shardResults
+    final Set<Integer> answeredShards = new HashSet<>();
+    // the latest deadline bounds the wait for all shards, a sub-request without timeout waits as long as allowed
+    final long[] deadlines = new long[size];
+    long deadline = 0;
+    boolean unbounded = false;
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < size; ++i) {
+      LindenSearchRequest request = requests.get(i);
+      deadlines[i] = request.isSetTimeout() ? now + request.getTimeout() : 0;
+      if (deadlines[i] == 0) {
+        unbounded = true;
+      }
+      deadline = Math.max(deadline, deadlines[i]);
+      LindenSearchRequest shardRequest = withRemainingTimeout(request, deadlines[i]);
+      if (shardRequest == null) {
+        results[i] = new LindenResult().setSuccess(false).setError("Deadline exceeded before searching shards");
+      }
+      shardRequests.add(shardRequest);
+      shardResults.add(new ArrayList<LindenResult>());
+      timedOutShards.add(new ArrayList<Integer>());
+    }
+    if (unbounded) {
+      deadline = 0;
+    }
+
+    List<Future<BoxedUnit>> futures = new ArrayList<>();
+    List<String> hosts = new ArrayList<>();
+    List<Integer> shards = new ArrayList<>();
+    List<List<Integer>> futurePositions = new ArrayList<>();
+    for (final Map.Entry<Integer, ShardClient> entry : clients.entrySet()) {
+      if (!entry.getValue().isAvailable()) {
+        continue;
+      }
+      final List<Integer> positions = new ArrayList<>();
+      List<LindenSearchRequest> batch = new ArrayList<>();
+      for (int i = 0; i < size; ++i) {
+        LindenSearchRequest subRequest = routeToShard(shardRequests.get(i), entry.getKey());
+        if (subRequest != null) {
+          positions.add(i);
+          batch.add(subRequest);
+        }
+      }
+      if (batch.isEmpty()) {
+        continue;
+      }
+      final Map.Entry<String, Future<List<LindenResult>>> hostFuturePair = entry.getValue().multiSearch(batch);
+      hosts.add(hostFuturePair.getKey());
+      shards.add(entry.getKey());
+      futurePositions.add(positions);
+      futures.add(hostFuturePair.getValue().transformedBy(new FutureTransformer<List<LindenResult>, BoxedUnit>() {
+        @Override
+        public BoxedUnit map(List<LindenResult> lindenResults) {
+          long answered = System.currentTimeMillis();
+          if (lindenResults.size() != positions.size()) {
+            // results can not be matched to their requests, the shard fails for all of them
+            String error = "Shard [" + entry.getKey() + "] host [" + hostFuturePair.getKey() + "] returned "
+                           + lindenResults.size() + " multi search results for " + positions.size() + " requests";
+            LOGGER.error(error);
+            lindenResults = Collections.nCopies(positions.size(), new LindenResult().setSuccess(false).setError(error));
+          }
+          synchronized (shardResults) {
+            for (int i = 0; i < positions.size(); ++i) {
+              int position = positions.get(i);
+              if (deadlines[position] > 0 && answered > deadlines[position]) {
+                timedOutShards.get(position).add(entry.getKey());
+                continue;
+              }
+              LindenResult lindenResult = lindenResults.get(i);
+              shardResults.get(position).add(lindenResult);
+              if (!lindenResult.isSuccess()) {
+                LOGGER.error("Shard [{}] host [{}] failed to get multi search result : {}",
+                             entry.getKey(), hostFuturePair.getKey(), lindenResult.getError());
+              }
+            }
+            answeredShards.add(entry.getKey());
+          }
+          return BoxedUnit.UNIT;
+        }
+
+        @Override
+        public BoxedUnit handle(Throwable t) {
+          LOGGER.error("Shard [{}] host [{}] failed to get multi search result : {}",
+                       entry.getKey(), hostFuturePair.getKey(), Throwables.getStackTraceAsString(t));
+          synchronized (shardResults) {
+            answeredShards.add(entry.getKey());
+          }
+          return BoxedUnit.UNIT;
+        }
+      }));
+    }
+
+    Future<List<BoxedUnit>> collected = Future.collect(futures);
+    try {
+      await(collected, deadline);
+    } catch (Exception e) {
+      LOGGER.error("Failed to get all multi search results, exception: {}", Throwables.getStackTraceAsString(e));
+      LOGGER.error(getHostFutureInfo(hosts, futures));
+    }
+
+    for (int i = 0; i < size; ++i) {
+      if (results[i] != null) {
+        continue;
+      }
+      List<LindenResult> resultList;
+      List<Integer> timedOut;
+      synchronized (shardResults) {
+        for (int j = 0; j < futures.size(); ++j) {
+          if (!answeredShards.contains(shards.get(j)) && futurePositions.get(j).contains(i)) {
+            timedOutShards.get(i).add(shards.get(j));
+          }
+        }
+        resultList = new ArrayList<>(shardResults.get(i));
+        timedOut = new ArrayList<>(timedOutShards.get(i));
+      }
+      if (resultList.isEmpty() && !timedOut.isEmpty()) {
+        results[i] = new LindenResult().setSuccess(false).setError("Failed to get any shard result, shards "
+                                                                   + timedOut + " timed out");
+        continue;
+      }
+      results[i] = ResultMerger.merge(requests.get(i), resultList);
+      if (results[i].isSuccess() && !timedOut.isEmpty()) {
+        results[i].setPartial(true).setTimedOutShards(timedOut);
       }
     }
-    return ResultMerger.merge(request, resultList);
+    return Arrays.asList(results);
+  }
+
+  /**
+   * @return the request sent to the shard, or null if the request is routed to other shards only
+   */
+  private static LindenSearchRequest routeToShard(LindenSearchRequest request, int shardId) {
+    if (request == null || !request.isSetRouteParam() || !request.getRouteParam().isSetShardParams()) {
+      return request;
+    }
+    for (ShardRouteParam routeParam : request.getRouteParam().getShardParams()) {
+      if (routeParam.getShardId() == shardId) {
+        if (routeParam.isSetEarlyParam()) {
+          return new LindenSearchRequest(request).setEarlyParam(routeParam.getEarlyParam());
+        }
+        return request;
+      }
+    }
+    return null;
   }
 
   @Override
   public Response index(String content) throws IOException {
+    return index(LindenIndexRequestParser.parse(lindenConfig.getSchema(), content), content);
+  }
+
+  @Override
+  public Response index(LindenIndexRequest indexRequest) throws IOException {
+    return index(indexRequest, null);
+  }
+
+  /**
+   * replicas get the parsed request, so the document is parsed once in the cluster
+   *
+   * @param content json of the request for replicas of older versions, null if there is none
+   */
+  private Response index(LindenIndexRequest indexRequest, String content) {
     List<Future<BoxedUnit>> futures = new ArrayList<>();
     List<String> hosts = new ArrayList<>();
     final StringBuilder errorInfo = new StringBuilder();
-    LindenIndexRequest indexRequest = LindenIndexRequestParser.parse(lindenConfig.getSchema(), content);
     for (final Map.Entry<Integer, ShardClient> entry : clients.entrySet()) {
       ShardClient shardClient = entry.getValue();
       if (shardClient.isAvailable()) {
         if (shardingStrategy
             .accept(indexRequest.getId(), indexRequest.getRouteParam(), shardClient.getShardId())) {
-          final List<Map.Entry<String, Future<Response>>> hostFuturePairs = shardClient.index(content);
+          final List<Map.Entry<String, Future<Response>>> hostFuturePairs = shardClient.index(indexRequest, content);
           for (final Map.Entry<String, Future<Response>> hostFuturePair : hostFuturePairs) {
             hosts.add(hostFuturePair.getKey());
             futures.add(hostFuturePair.getValue().transformedBy(new FutureTransformer<Response, BoxedUnit>() {
@@ -364,12 +827,162 @@ public class CoreLindenCluster extends LindenCluster {
       }
       return ResponseUtils.SUCCESS;
     } catch (Exception e) {
-      LOGGER.error("Handle request failed, content : {} - {}", content, Throwables.getStackTraceAsString(e));
+      LOGGER.error("Handle request failed, id : {} - {}", indexRequest.getId(), Throwables.getStackTraceAsString(e));
       LOGGER.error(getHostFutureInfo(hosts, futures));
       return ResponseUtils.buildFailedResponse(e);
     }
   }
 
+  @Override
+  public BulkResponse bulkIndex(List<String> contents) throws IOException {
+    Response[] responses = new Response[contents.size()];
+    List<LindenIndexRequest> indexRequests = new ArrayList<>(contents.size());
+    for (int i = 0; i < contents.size(); ++i) {
+      try {
+        indexRequests.add(LindenIndexRequestParser.parse(lindenConfig.getSchema(), contents.get(i)));
+      } catch (Exception e) {
+        indexRequests.add(null);
+        responses[i] = ResponseUtils.buildFailedResponse(e);
+      }
+    }
+    return bulkIndex(indexRequests, responses, contents);
+  }
+
+  @Override
+  public BulkResponse bulkIndexRequests(List<LindenIndexRequest> indexRequests) throws IOException {
+    return bulkIndex(indexRequests, new Response[indexRequests.size()], null);
+  }
+
+  /**
+   * @param indexRequests null for requests already failed, whose responses are set
+   * @param contents json of the requests for replicas of older versions, null if there are none
+   */
+  private BulkResponse bulkIndex(List<LindenIndexRequest> indexRequests, final Response[] responses,
+                                 List<String> contents) {
+    // documents are grouped by shard, every replica of a shard gets its documents in one request
+    List<Future<BoxedUnit>> futures = new ArrayList<>();
+    List<String> hosts = new ArrayList<>();
+    List<List<Integer>> futurePositions = new ArrayList<>();
+    boolean[] routed = new boolean[indexRequests.size()];
+    Map<Integer, Map.Entry<Integer, ShardClient>> availableClients = new HashMap<>();
+    for (Map.Entry<Integer, ShardClient> entry : clients.entrySet()) {
+      if (entry.getValue().isAvailable()) {
+        availableClients.put(entry.getValue().getShardId(), entry);
+      }
+    }
+    // every document is routed once, then each shard takes the positions of its documents
+    Map<Integer, List<Integer>> shardPositions = new HashMap<>();
+    for (int i = 0; i < indexRequests.size(); ++i) {
+      LindenIndexRequest indexRequest = indexRequests.get(i);
+      if (indexRequest == null) {
+        continue;
+      }
+      for (Integer shardId : shardingStrategy.route(indexRequest.getId(), indexRequest.getRouteParam(),
+                                                    availableClients.keySet())) {
+        List<Integer> positions = shardPositions.get(shardId);
+        if (positions == null) {
+          positions = new ArrayList<>();
+          shardPositions.put(shardId, positions);
+        }
+        positions.add(i);
+        routed[i] = true;
+      }
+    }
+    for (Map.Entry<Integer, List<Integer>> shardEntry : shardPositions.entrySet()) {
+      final Map.Entry<Integer, ShardClient> entry = availableClients.get(shardEntry.getKey());
+      ShardClient shardClient = entry.getValue();
+      final List<Integer> positions = shardEntry.getValue();
+      List<LindenIndexRequest> batch = new ArrayList<>(positions.size());
+      List<String> batchContents = contents == null ? null : new ArrayList<String>(positions.size());
+      for (int position : positions) {
+        batch.add(indexRequests.get(position));
+        if (batchContents != null) {
+          batchContents.add(contents.get(position));
+        }
+      }
+      List<Map.Entry<String, Future<BulkResponse>>> hostFuturePairs =
+          shardClient.bulkIndexRequests(batch, batchContents);
+      for (final Map.Entry<String, Future<BulkResponse>> hostFuturePair : hostFuturePairs) {
+        hosts.add(hostFuturePair.getKey());
+        futurePositions.add(positions);
+        futures.add(hostFuturePair.getValue().transformedBy(new FutureTransformer<BulkResponse, BoxedUnit>() {
+          @Override
+          public BoxedUnit map(BulkResponse response) {
+            if (response.getResponsesSize() != positions.size()) {
+              LOGGER.error("Shard [{}] host [{}] failed to get bulk index response : {}",
+                           entry.getKey(), hostFuturePair.getKey(), response.getError());
+              fail(response.getError());
+              return BoxedUnit.UNIT;
+            }
+            synchronized (responses) {
+              for (int i = 0; i < positions.size(); ++i) {
+                Response itemResponse = response.getResponses().get(i);
+                if (!itemResponse.isSuccess() && responses[positions.get(i)] == null) {
+                  responses[positions.get(i)] = ResponseUtils.buildFailedResponse(
+                      "Shard " + entry.getKey() + " host " + hostFuturePair.getKey() + ":" + itemResponse.getError());
+                }
+              }
+            }
+            return BoxedUnit.UNIT;
+          }
+
+          @Override
+          public BoxedUnit handle(Throwable t) {
+            LOGGER.error("Shard [{}] host [{}] failed to get bulk index response : {}",
+                         entry.getKey(), hostFuturePair.getKey(), Throwables.getStackTraceAsString(t));
+            fail(Throwables.getStackTraceAsString(t));
+            return BoxedUnit.UNIT;
+          }
+
+          private void fail(String error) {
+            synchronized (responses) {
+              for (int position : positions) {
+                if (responses[position] == null) {
+                  responses[position] = ResponseUtils.buildRetryableResponse(
+                      "Shard " + entry.getKey() + " host " + hostFuturePair.getKey() + ":" + error);
+                }
+              }
+            }
+          }
+        }));
+      }
+    }
+
+    try {
+      Future<List<BoxedUnit>> collected = Future.collect(futures);
+      if (clusterFutureAwaitTimeout == 0) {
+        Await.result(collected);
+      } else {
+        Await.result(collected, Duration.apply(clusterFutureAwaitTimeout, TimeUnit.MILLISECONDS));
+      }
+    } catch (Exception e) {
+      LOGGER.error("Failed to get all bulk index responses, exception: {}", Throwables.getStackTraceAsString(e));
+      LOGGER.error(getHostFutureInfo(hosts, futures));
+      synchronized (responses) {
+        for (int i = 0; i < futures.size(); ++i) {
+          if (futures.get(i).isDefined()) {
+            continue;
+          }
+          for (int position : futurePositions.get(i)) {
+            if (responses[position] == null) {
+              responses[position] = ResponseUtils.buildRetryableResponse("Host " + hosts.get(i) + " timed out");
+            }
+          }
+        }
+      }
+    }
+
+    synchronized (responses) {
+      for (int i = 0; i < responses.length; ++i) {
+        if (responses[i] == null) {
+          responses[i] = routed[i] ? ResponseUtils.SUCCESS
+                                   : ResponseUtils.buildRetryableResponse("No available shard accepts the document");
+        }
+      }
+      return ResponseUtils.buildBulkResponse(Arrays.asList(responses));
+    }
+  }
+
   @Override
   public Response executeCommand(final String command) throws IOException {
     LOGGER.info("Receive cluster command {}", command);
@@ -437,6 +1050,9 @@ public class CoreLindenCluster extends LindenCluster {
 
   @Override
   public CacheInfo getCacheInfo() throws IOException {
+    if (offHeapCache != null) {
+      return offHeapCache.getCacheInfo();
+    }
     if (cache == null) {
       return null;
     }
@@ -452,6 +1068,15 @@ public class CoreLindenCluster extends LindenCluster {
     return cacheInfo;
   }
 
+  @Override
+  public List<ReplicaInfo> getReplicaInfos() {
+    List<ReplicaInfo> replicaInfos = new ArrayList<>();
+    for (ShardClient client : clients.values()) {
+      replicaInfos.addAll(client.getReplicaInfos());
+    }
+    return replicaInfos;
+  }
+
   @Override
   public void close() throws IOException {
     for (Map.Entry<Integer, ShardClient> entry : clients.entrySet()) {
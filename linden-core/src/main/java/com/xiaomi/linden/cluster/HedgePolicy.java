@@ -0,0 +1,256 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.finagle.CancelledRequestException;
+import com.twitter.util.Future;
+import com.twitter.util.FutureCancelledException;
+import com.twitter.util.FutureEventListener;
+import com.twitter.util.Promise;
+import com.twitter.util.Return;
+import com.twitter.util.Throw;
+
+/**
+ * Hedged requests of a shard: if a request has not answered within a percentile of the recent latency
+ * of the shard, a backup request is sent to another replica. The first success wins and the other request
+ * is cancelled, a failure waits for the other request. Every request earns budgetPercent / 100 of a hedge,
+ * so hedges never exceed budgetPercent extra load, apart from a small burst.
+ */
+public class HedgePolicy {
+  private static final int WINDOW = 1024;
+  // no hedge before the latency percentile is known
+  private static final int MIN_SAMPLES = 100;
+  private static final int REFRESH_INTERVAL = 64;
+  // budget is counted in thousandths of a hedge
+  private static final long HEDGE_COST = 1000;
+  private static final long MAX_BUDGET = 10 * HEDGE_COST;
+  private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("linden-hedge-timer").build());
+
+  private final int percentile;
+  private final int budgetPercent;
+  private final AtomicLongArray latencies = new AtomicLongArray(WINDOW);
+  private final AtomicLong samples = new AtomicLong();
+  private final AtomicLong budget = new AtomicLong();
+  private volatile long delayNanos = -1;
+
+  public HedgePolicy(int percentile, int budgetPercent) {
+    this.percentile = Math.min(Math.max(percentile, 1), 100);
+    this.budgetPercent = budgetPercent;
+  }
+
+  void record(long latencyNanos) {
+    long n = samples.getAndIncrement();
+    latencies.set((int) (n % WINDOW), latencyNanos);
+    ++n;
+    if (n >= MIN_SAMPLES && n % REFRESH_INTERVAL == 0) {
+      int size = (int) Math.min(n, WINDOW);
+      long[] sorted = new long[size];
+      for (int i = 0; i < size; ++i) {
+        sorted[i] = latencies.get(i);
+      }
+      Arrays.sort(sorted);
+      delayNanos = sorted[Math.min(size - 1, size * percentile / 100)];
+    }
+  }
+
+  long getSampleCount() {
+    return samples.get();
+  }
+
+  /**
+   * @return the hedge delay in nanoseconds, or -1 if there are not enough samples yet
+   */
+  public long getDelayNanos() {
+    return delayNanos;
+  }
+
+  private void earnBudget() {
+    while (true) {
+      long current = budget.get();
+      long updated = Math.min(MAX_BUDGET, current + budgetPercent * HEDGE_COST / 100);
+      if (current == updated || budget.compareAndSet(current, updated)) {
+        return;
+      }
+    }
+  }
+
+  boolean tryAcquireBudget() {
+    while (true) {
+      long current = budget.get();
+      if (current < HEDGE_COST) {
+        return false;
+      }
+      if (budget.compareAndSet(current, current - HEDGE_COST)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @param primary the request sent to the selected replica
+   * @param backup sends the backup request to another replica, returns null if there is no other replica
+   */
+  public <T> Future<T> hedge(final Future<T> primary, final Supplier<Future<T>> backup) {
+    earnBudget();
+    final long start = System.nanoTime();
+    long delay = delayNanos;
+    if (delay < 0) {
+      primary.addEventListener(new FutureEventListener<T>() {
+        @Override
+        public void onSuccess(T value) {
+          record(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+        }
+      });
+      return primary;
+    }
+
+    final Attempts<T> attempts = new Attempts<>(primary, start);
+    final ScheduledFuture<?> timer = TIMER.schedule(new Runnable() {
+      @Override
+      public void run() {
+        attempts.sendBackup(backup);
+      }
+    }, delay, TimeUnit.NANOSECONDS);
+    primary.addEventListener(new FutureEventListener<T>() {
+      @Override
+      public void onSuccess(T value) {
+        timer.cancel(false);
+        record(System.nanoTime() - start);
+        attempts.succeed(value, attempts.backup);
+      }
+
+      @Override
+      public void onFailure(Throwable cause) {
+        timer.cancel(false);
+        attempts.primaryFailed(cause);
+      }
+    });
+    return attempts.promise;
+  }
+
+  /**
+   * The primary and the backup request of one hedge. The first success completes the promise and cancels the
+   * other request. A failure completes it only if the other request is not sent or has failed too, so one bad
+   * replica doesn't fail the shard while the other one may still answer.
+   */
+  private class Attempts<T> {
+    private final Promise<T> promise = new Promise<>();
+    private final Future<T> primary;
+    private final long start;
+    // set under the lock, read by the primary to cancel it
+    private volatile Future<T> backup;
+    // guarded by this
+    private Throwable primaryFailure;
+    private boolean backupFailed;
+    // the backup is sent, or will never be
+    private boolean backupDecided;
+
+    private Attempts(Future<T> primary, long start) {
+      this.primary = primary;
+      this.start = start;
+    }
+
+    private void sendBackup(Supplier<Future<T>> sender) {
+      final Future<T> future;
+      synchronized (this) {
+        if (backupDecided || promise.isDefined() || primary.isDefined() || !tryAcquireBudget()) {
+          return;
+        }
+        backupDecided = true;
+        future = sender.get();
+        if (future == null) {
+          return;
+        }
+        backup = future;
+      }
+      future.addEventListener(new FutureEventListener<T>() {
+        @Override
+        public void onSuccess(T value) {
+          // the primary lost, its latency is at least the time the backup took to win
+          if (!primary.isDefined()) {
+            record(System.nanoTime() - start);
+          }
+          succeed(value, primary);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+          backupFailed(cause);
+        }
+      });
+      // the primary answered before the backup was registered
+      if (promise.isDefined() && !future.isDefined()) {
+        future.raise(new FutureCancelledException());
+      }
+    }
+
+    private void succeed(T value, Future<T> loser) {
+      if (promise.updateIfEmpty(new Return<>(value)) && loser != null && !loser.isDefined()) {
+        loser.raise(new FutureCancelledException());
+      }
+    }
+
+    private void primaryFailed(Throwable cause) {
+      synchronized (this) {
+        primaryFailure = cause;
+        if (backup != null && !backupFailed) {
+          // the backup may still answer
+          return;
+        }
+        backupDecided = true;
+      }
+      fail(cause);
+    }
+
+    private void backupFailed(Throwable cause) {
+      Throwable failure;
+      synchronized (this) {
+        backupFailed = true;
+        if (primaryFailure == null) {
+          // the primary may still answer
+          return;
+        }
+        failure = primaryFailure;
+      }
+      fail(failure);
+    }
+
+    private void fail(Throwable cause) {
+      promise.updateIfEmpty(new Throw<T>(cause));
+    }
+  }
+
+  /**
+   * a request cancelled because the other one answered first
+   */
+  public static boolean isCancelled(Throwable cause) {
+    return cause instanceof FutureCancelledException || cause instanceof CancelledRequestException;
+  }
+}
@@ -17,12 +17,18 @@ package com.xiaomi.linden.cluster;
 import com.xiaomi.linden.thrift.common.*;
 
 import java.io.IOException;
+import java.util.List;
 
 abstract public class LindenCluster {
   abstract public LindenResult search(LindenSearchRequest request) throws IOException;
+  abstract public List<LindenResult> multiSearch(List<LindenSearchRequest> requests) throws IOException;
   abstract public Response delete(LindenDeleteRequest request) throws IOException;
   abstract public Response index(String content) throws IOException;
+  abstract public Response index(LindenIndexRequest request) throws IOException;
+  abstract public BulkResponse bulkIndex(List<String> contents) throws IOException;
+  abstract public BulkResponse bulkIndexRequests(List<LindenIndexRequest> requests) throws IOException;
   abstract public Response executeCommand(String command) throws IOException;
   abstract public void close() throws IOException;
   abstract public CacheInfo getCacheInfo() throws IOException;
+  abstract public List<ReplicaInfo> getReplicaInfos();
 }
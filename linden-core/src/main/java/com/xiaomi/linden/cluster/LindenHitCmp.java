@@ -17,8 +17,13 @@ package com.xiaomi.linden.cluster;
 import java.util.Comparator;
 import java.util.List;
 
+import org.apache.lucene.util.BytesRef;
+
+import com.xiaomi.linden.core.search.SearchAfterUtil;
 import com.xiaomi.linden.thrift.common.LindenHit;
 import com.xiaomi.linden.thrift.common.LindenSortField;
+import com.xiaomi.linden.thrift.common.LindenSortType;
+import com.xiaomi.linden.thrift.common.LindenSortValue;
 
 /**
  * compare for LindenHit
@@ -44,8 +49,18 @@ public class LindenHitCmp implements Comparator<LindenHit> {
       cmp = Double.compare(o1.getScore(), o2.getScore());
       return cmp * -1;
     }
-    for (LindenSortField field : sortFields) {
+    // shards send typed sort values, string fields are only parsed for hits from older shards
+    boolean typed = o1.isSetSortValues() && o2.isSetSortValues();
+    for (int i = 0; i < sortFields.size(); ++i) {
+      LindenSortField field = sortFields.get(i);
       int isReverse = field.isReverse() ? -1 : 1;
+      if (typed && field.getType() != LindenSortType.SCORE && field.getType() != LindenSortType.DISTANCE) {
+        cmp = compare(o1.getSortValues().get(i), o2.getSortValues().get(i));
+        if (cmp != 0) {
+          return isReverse * cmp;
+        }
+        continue;
+      }
       String v1 = o1.getFields().get(field.getName());
       String v2 = o2.getFields().get(field.getName());
       switch (field.getType()) {
@@ -81,4 +96,23 @@ public class LindenHitCmp implements Comparator<LindenHit> {
     }
     return 0;
   }
+
+  /**
+   * missing value is the smallest, strings are compared in the same byte order as lucene
+   */
+  static int compare(LindenSortValue v1, LindenSortValue v2) {
+    boolean null1 = SearchAfterUtil.isNull(v1);
+    boolean null2 = SearchAfterUtil.isNull(v2);
+    if (null1 || null2) {
+      return null1 == null2 ? 0 : (null1 ? -1 : 1);
+    }
+    if (v1.isSetStringValue() || v2.isSetStringValue()) {
+      BytesRef b1 = new BytesRef(String.valueOf(v1.getStringValue()));
+      return b1.compareTo(new BytesRef(String.valueOf(v2.getStringValue())));
+    }
+    if (v1.isSetLongValue() && v2.isSetLongValue()) {
+      return Long.compare(v1.getLongValue(), v2.getLongValue());
+    }
+    return Double.compare(SearchAfterUtil.toDouble(v1), SearchAfterUtil.toDouble(v2));
+  }
 }
@@ -0,0 +1,324 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Throwables;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xiaomi.linden.thrift.common.CacheInfo;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+
+/**
+ * Cluster search result cache bounded by bytes.
+ * Results are stored TCompact serialized off heap, so cached hits neither count as heap objects
+ * nor get promoted to the old generation. The memory is one direct buffer per segment allocated up front and cut
+ * into fixed size pages; an entry takes as many pages as its serialized size needs, and evicted entries hand their
+ * pages back to the segment free list at once instead of waiting for the GC to release a direct buffer.
+ * The cache is split into lock striped segments, each one a segmented LRU: new entries enter a probation
+ * area, and entries hit again move to a protected area, so a burst of one-off requests can only evict
+ * other one-off requests until the protected area shrinks.
+ */
+public class OffHeapResultCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(OffHeapResultCache.class);
+  private static final int SEGMENT_NUM = 16;
+  // share of a segment budget kept for entries hit more than once
+  private static final double PROTECTED_RATIO = 0.8;
+  private static final int PAGE_SIZE = 1024;
+
+  private final Segment[] segments;
+  private final long expireAfterAccessMillis;
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  public OffHeapResultCache(long maxBytes, long expireAfterAccessMillis) {
+    this.expireAfterAccessMillis = expireAfterAccessMillis;
+    segments = new Segment[SEGMENT_NUM];
+    // a direct buffer holds at most 2GB
+    int segmentPages = (int) Math.min(maxBytes / SEGMENT_NUM / PAGE_SIZE, Integer.MAX_VALUE / PAGE_SIZE);
+    for (int i = 0; i < SEGMENT_NUM; ++i) {
+      segments[i] = new Segment(segmentPages);
+    }
+  }
+
+  private Segment segmentFor(Key key) {
+    int hash = key.hashCode();
+    hash ^= (hash >>> 16);
+    return segments[(hash & Integer.MAX_VALUE) % SEGMENT_NUM];
+  }
+
+  /**
+   * @return a private copy of the cached result of request, or null
+   */
+  public LindenResult get(LindenSearchRequest request) {
+    try {
+      Key key = new Key(serialize(request));
+      byte[] bytes = segmentFor(key).get(key, System.currentTimeMillis());
+      if (bytes == null) {
+        missCount.incrementAndGet();
+        return null;
+      }
+      hitCount.incrementAndGet();
+      LindenResult result = new LindenResult();
+      new TDeserializer(new TCompactProtocol.Factory()).deserialize(result, bytes);
+      return result;
+    } catch (TException e) {
+      LOGGER.warn("Read cached result failed : {}", Throwables.getStackTraceAsString(e));
+      return null;
+    }
+  }
+
+  public void put(LindenSearchRequest request, LindenResult result) {
+    try {
+      Key key = new Key(serialize(request));
+      segmentFor(key).put(key, serialize(result), System.currentTimeMillis());
+    } catch (TException e) {
+      LOGGER.warn("Cache result failed : {}", Throwables.getStackTraceAsString(e));
+    }
+  }
+
+  public void invalidateAll() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  public long bytesUsed() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += segment.bytesUsed();
+    }
+    return bytes;
+  }
+
+  public long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  public CacheInfo getCacheInfo() {
+    long hits = hitCount.get();
+    long misses = missCount.get();
+    long requests = hits + misses;
+    return new CacheInfo()
+        .setHitCount(hits)
+        .setMissCount(misses)
+        .setHitRate(requests == 0 ? 1.0 : (double) hits / requests)
+        .setMissRate(requests == 0 ? 0.0 : (double) misses / requests)
+        .setEvictionCount(evictionCount.get())
+        .setRamBytesUsed(bytesUsed());
+  }
+
+  private static byte[] serialize(TBase thrift) throws TException {
+    return new TSerializer(new TCompactProtocol.Factory()).serialize(thrift);
+  }
+
+  private static class Key {
+
+    private final byte[] bytes;
+    private final int hash;
+
+    Key(byte[] bytes) {
+      this.bytes = bytes;
+      this.hash = Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Key && Arrays.equals(((Key) o).bytes, bytes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static class Entry {
+
+    private final int[] pages;
+    private final int length;
+    private long accessTime;
+
+    Entry(int[] pages, int length, long accessTime) {
+      this.pages = pages;
+      this.length = length;
+      this.accessTime = accessTime;
+    }
+  }
+
+  private class Segment {
+
+    private final ByteBuffer slab;
+    private final int maxPages;
+    private final int maxProtectedPages;
+    // indexes of the unused pages of the slab
+    private final int[] freePages;
+    private int freePageNum;
+    // both in access order, eldest first
+    private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Key, Entry> protect = new LinkedHashMap<>(16, 0.75f, true);
+    private int protectedPages;
+
+    Segment(int maxPages) {
+      this.maxPages = maxPages;
+      this.maxProtectedPages = (int) (maxPages * PROTECTED_RATIO);
+      slab = ByteBuffer.allocateDirect(maxPages * PAGE_SIZE);
+      freePages = new int[maxPages];
+      for (int i = 0; i < maxPages; ++i) {
+        freePages[i] = maxPages - 1 - i;
+      }
+      freePageNum = maxPages;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+      return expireAfterAccessMillis > 0 && now - entry.accessTime > expireAfterAccessMillis;
+    }
+
+    private byte[] read(Entry entry) {
+      byte[] bytes = new byte[entry.length];
+      ByteBuffer buffer = slab.duplicate();
+      for (int i = 0; i < entry.pages.length; ++i) {
+        int offset = i * PAGE_SIZE;
+        buffer.position(entry.pages[i] * PAGE_SIZE);
+        buffer.get(bytes, offset, Math.min(PAGE_SIZE, entry.length - offset));
+      }
+      return bytes;
+    }
+
+    private void release(Entry entry) {
+      for (int page : entry.pages) {
+        freePages[freePageNum++] = page;
+      }
+    }
+
+    synchronized byte[] get(Key key, long now) {
+      Entry entry = protect.get(key);
+      if (entry != null) {
+        if (isExpired(entry, now)) {
+          protect.remove(key);
+          protectedPages -= entry.pages.length;
+          release(entry);
+          return null;
+        }
+        entry.accessTime = now;
+        return read(entry);
+      }
+
+      entry = probation.remove(key);
+      if (entry == null) {
+        return null;
+      }
+      if (isExpired(entry, now)) {
+        release(entry);
+        return null;
+      }
+      entry.accessTime = now;
+      // promote, and demote the least recently used protected entries beyond the protected budget
+      protect.put(key, entry);
+      protectedPages += entry.pages.length;
+      Iterator<Map.Entry<Key, Entry>> iterator = protect.entrySet().iterator();
+      while (protectedPages > maxProtectedPages && iterator.hasNext()) {
+        Map.Entry<Key, Entry> eldest = iterator.next();
+        if (eldest.getKey().equals(key)) {
+          continue;
+        }
+        iterator.remove();
+        protectedPages -= eldest.getValue().pages.length;
+        probation.put(eldest.getKey(), eldest.getValue());
+      }
+      return read(entry);
+    }
+
+    synchronized void put(Key key, byte[] bytes, long now) {
+      Entry old = protect.remove(key);
+      if (old != null) {
+        protectedPages -= old.pages.length;
+        release(old);
+      }
+      old = probation.remove(key);
+      if (old != null) {
+        release(old);
+      }
+      int pageNum = (bytes.length + PAGE_SIZE - 1) / PAGE_SIZE;
+      if (pageNum > maxPages) {
+        return;
+      }
+      evict(probation, pageNum, false);
+      evict(protect, pageNum, true);
+      int[] pages = new int[pageNum];
+      ByteBuffer buffer = slab.duplicate();
+      for (int i = 0; i < pageNum; ++i) {
+        pages[i] = freePages[--freePageNum];
+        int offset = i * PAGE_SIZE;
+        buffer.position(pages[i] * PAGE_SIZE);
+        buffer.put(bytes, offset, Math.min(PAGE_SIZE, bytes.length - offset));
+      }
+      probation.put(key, new Entry(pages, bytes.length, now));
+    }
+
+    /**
+     * evicts the least recently used entries of area until pageNum pages are free
+     */
+    private void evict(LinkedHashMap<Key, Entry> area, int pageNum, boolean isProtected) {
+      Iterator<Entry> iterator = area.values().iterator();
+      while (freePageNum < pageNum && iterator.hasNext()) {
+        Entry entry = iterator.next();
+        iterator.remove();
+        if (isProtected) {
+          protectedPages -= entry.pages.length;
+        }
+        release(entry);
+        evictionCount.incrementAndGet();
+      }
+    }
+
+    synchronized void clear() {
+      probation.clear();
+      protect.clear();
+      protectedPages = 0;
+      for (int i = 0; i < maxPages; ++i) {
+        freePages[i] = maxPages - 1 - i;
+      }
+      freePageNum = maxPages;
+    }
+
+    synchronized long bytesUsed() {
+      return (long) (maxPages - freePageNum) * PAGE_SIZE;
+    }
+
+    synchronized int size() {
+      return probation.size() + protect.size();
+    }
+  }
+}
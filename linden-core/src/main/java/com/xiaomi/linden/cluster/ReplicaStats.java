@@ -0,0 +1,127 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+
+import com.xiaomi.linden.thrift.common.ReplicaInfo;
+
+/**
+ * Response time and load of a replica, updated without locks by every request sent to it.
+ * A replica failing or timing out several times in a row is ejected for a while.
+ */
+public class ReplicaStats {
+  // weight of the latest response time in the moving average
+  private static final double EWMA_DECAY = 0.3;
+  static final int EJECT_FAILURES = 3;
+  static final long EJECT_MILLIS = 10000;
+
+  private final String hostPort;
+  private final Ticker ticker;
+  private final AtomicLong ewmaNanos = new AtomicLong();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong failureCount = new AtomicLong();
+  // in ticker nanoseconds
+  private volatile long ejectedUntil;
+
+  public ReplicaStats(String hostPort) {
+    this(hostPort, Ticker.systemTicker());
+  }
+
+  ReplicaStats(String hostPort, Ticker ticker) {
+    this.hostPort = hostPort;
+    this.ticker = ticker;
+    ejectedUntil = ticker.read();
+  }
+
+  /**
+   * @return start time of the request in nanoseconds
+   */
+  public long start() {
+    inFlight.incrementAndGet();
+    requestCount.incrementAndGet();
+    return ticker.read();
+  }
+
+  public void finish(long startNanos, boolean failed) {
+    inFlight.decrementAndGet();
+    long now = ticker.read();
+    long latency = now - startNanos;
+    while (true) {
+      long ewma = ewmaNanos.get();
+      long updated = ewma == 0 ? latency : ewma + (long) ((latency - ewma) * EWMA_DECAY);
+      if (ewmaNanos.compareAndSet(ewma, updated)) {
+        break;
+      }
+    }
+    if (failed) {
+      failureCount.incrementAndGet();
+      if (consecutiveFailures.incrementAndGet() >= EJECT_FAILURES) {
+        consecutiveFailures.set(0);
+        ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(EJECT_MILLIS);
+      }
+    } else {
+      consecutiveFailures.set(0);
+    }
+  }
+
+  /**
+   * the request was cancelled, it tells nothing about the replica
+   */
+  public void cancel() {
+    inFlight.decrementAndGet();
+  }
+
+  public boolean isEjected() {
+    return ticker.read() - ejectedUntil < 0;
+  }
+
+  /**
+   * expected wait of a new request, unknown replicas have the lowest load so they get probed
+   */
+  public double load() {
+    return (ewmaNanos.get() + 1.0) * (inFlight.get() + 1);
+  }
+
+  public String getHostPort() {
+    return hostPort;
+  }
+
+  /**
+   * power of two choices: the healthy replica with lower load
+   */
+  public static ReplicaStats choose(ReplicaStats a, ReplicaStats b) {
+    boolean aEjected = a.isEjected();
+    if (aEjected != b.isEjected()) {
+      return aEjected ? b : a;
+    }
+    return a.load() <= b.load() ? a : b;
+  }
+
+  public ReplicaInfo toReplicaInfo(int shardId) {
+    return new ReplicaInfo(shardId, hostPort)
+        .setLatencyEwma(ewmaNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1))
+        .setInFlight(inFlight.get())
+        .setRequestCount(requestCount.get())
+        .setFailureCount(failureCount.get())
+        .setEjected(isEjected());
+  }
+}
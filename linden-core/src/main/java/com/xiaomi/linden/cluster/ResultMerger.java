@@ -16,15 +16,14 @@ package com.xiaomi.linden.cluster;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -88,16 +87,17 @@ public class ResultMerger {
       }
       //merge LindenHit
       List<LindenSortField> sortFields = lindenRequest.isSetSort() ? lindenRequest.getSort().getFields() : null;
-      Iterable<LindenHit> mergedHits = Iterables.mergeSorted(hits, new LindenHitCmp(sortFields));
-      List<LindenHit> topNHits = Lists.newArrayList(mergedHits);
-      if (lindenRequest.getOffset() <= topNHits.size()) {
-        List<LindenHit>
-            subHits =
-            topNHits.subList(lindenRequest.getOffset(),
-                             Math.min(lindenRequest.getOffset() + lindenRequest.getLength(), topNHits.size()));
+      if (lindenRequest.isSetSearchAfter()) {
+        // search after cursor replaces the offset, every shard returns hits after the cursor only
+        List<LindenHit> subHits = mergeSortedHits(hits, new SearchAfterHitCmp(sortFields), 0,
+                                                  lindenRequest.getLength());
         mergedResult.setHits(subHits);
+        if (!subHits.isEmpty()) {
+          mergedResult.setSearchAfter(subHits.get(subHits.size() - 1).getSearchAfter());
+        }
       } else {
-        mergedResult.setHits(new ArrayList<LindenHit>());
+        mergedResult.setHits(mergeSortedHits(hits, new LindenHitCmp(sortFields), lindenRequest.getOffset(),
+                                             lindenRequest.getLength()));
       }
     }
 
@@ -106,74 +106,148 @@ public class ResultMerger {
       mergeFacet(lindenRequest, resultList, mergedResult);
     }
 
+    // a shard cut short by its deadline makes the whole result partial
+    for (LindenResult result : resultList) {
+      if (result.isPartial()) {
+        mergedResult.setPartial(true);
+        break;
+      }
+    }
+
     if (failureCount > 0) {
       mergedResult.setError(failureCount + " shards failed.");
     }
     return mergedResult;
   }
 
+  /**
+   * k-way merge of sorted shard hits with a heap of shard heads, which stops after offset + length hits
+   */
+  private static List<LindenHit> mergeSortedHits(List<List<LindenHit>> hits, final Comparator<LindenHit> cmp,
+                                                 int offset, int length) {
+    PriorityQueue<ShardHits> queue = new PriorityQueue<>(Math.max(1, hits.size()), new Comparator<ShardHits>() {
+      @Override
+      public int compare(ShardHits s1, ShardHits s2) {
+        int c = cmp.compare(s1.head(), s2.head());
+        // keep the order of shards for equal hits
+        return c != 0 ? c : Integer.compare(s1.shard, s2.shard);
+      }
+    });
+    int total = 0;
+    for (int i = 0; i < hits.size(); ++i) {
+      List<LindenHit> shardHits = hits.get(i);
+      if (shardHits != null && !shardHits.isEmpty()) {
+        queue.add(new ShardHits(i, shardHits));
+        total += shardHits.size();
+      }
+    }
+    long end = Math.min((long) offset + length, total);
+    List<LindenHit> mergedHits = new ArrayList<>((int) Math.max(0, end - offset));
+    for (long n = 0; n < end; ++n) {
+      ShardHits shardHits = queue.poll();
+      LindenHit hit = shardHits.next();
+      if (n >= offset) {
+        mergedHits.add(hit);
+      }
+      if (shardHits.hasNext()) {
+        queue.add(shardHits);
+      }
+    }
+    return mergedHits;
+  }
+
+  private static class ShardHits {
+    private final int shard;
+    private final List<LindenHit> hits;
+    private int pos = 0;
+
+    ShardHits(int shard, List<LindenHit> hits) {
+      this.shard = shard;
+      this.hits = hits;
+    }
+
+    LindenHit head() {
+      return hits.get(pos);
+    }
+
+    LindenHit next() {
+      return hits.get(pos++);
+    }
+
+    boolean hasNext() {
+      return pos < hits.size();
+    }
+  }
+
   private static LindenResult mergeGroupSearch(LindenSearchRequest lindenRequest, List<LindenResult> resultList) {
     LindenResult mergedResult = resultList.get(0);
-    if (!mergedResult.isSetHits()) {
-      mergedResult.setHits(new ArrayList<LindenHit>());
-    }
     String groupField = lindenRequest.getGroupParam().getGroupField();
     int innerLimit = lindenRequest.getGroupParam().getGroupInnerLimit();
-    //traverse LindenResults from shards
-    for (int i = 1; i < resultList.size(); ++i) {
+    //group value -> the group from all shards
+    Map<String, MergedGroup> groups = new HashMap<>();
+    for (int i = 0; i < resultList.size(); ++i) {
       LindenResult subResult = resultList.get(i);
+      if (i > 0) {
+        mergedResult.totalHits += subResult.totalHits;
+        mergedResult.totalGroups = Math.max(mergedResult.totalGroups, subResult.totalGroups);
+        mergedResult.totalGroupHits += subResult.totalGroupHits;
+      }
       if (!subResult.isSetHits()) {
         continue;
       }
-      mergedResult.totalHits += subResult.totalHits;
-      mergedResult.totalGroups = Math.max(mergedResult.totalGroups, subResult.totalGroups);
-      mergedResult.totalGroupHits += subResult.totalGroupHits;
-      //traverse groups in waiting LindenResult
       for (LindenHit subGroup : subResult.getHits()) {
         String groupName = subGroup.getFields().get(groupField);
-        boolean isFound = false;
-        //find the group in the merged groupList
-        for (int j = 0; j < mergedResult.getHitsSize(); ++j) {
-          LindenHit mergedHit = mergedResult.getHits().get(j);
-          if (mergedHit.getFields().get(groupField).equals(groupName)) {
-            Iterable<LindenHit> groupIterable = Iterables.mergeSorted(
-                ImmutableList.of(subGroup.getGroupHits(), mergedHit.getGroupHits()), new LindenHitCmp(null));
-            List<LindenHit> hits = Lists.newArrayList(Iterables.limit(groupIterable, innerLimit));
-            if (mergedHit.getScore() < subGroup.getScore()) {
-              mergedHit = subGroup;
-            }
-            mergedHit.setGroupHits(hits);
-            mergedResult.getHits().set(j, mergedHit);
-            isFound = true;
-            break;
-          }
-        }
-        if (!isFound) {
-          mergedResult.getHits().add(subGroup);
+        MergedGroup group = groups.get(groupName);
+        if (group == null) {
+          groups.put(groupName, new MergedGroup(subGroup));
+        } else {
+          group.add(subGroup);
         }
       }
     }
-    //sort the group by score
-    Ordering<LindenHit> ordering = new Ordering<LindenHit>() {
+
+    //sort the group by score, only offset -> offset+size groups are kept
+    Ordering<MergedGroup> ordering = new Ordering<MergedGroup>() {
       @Override
-      public int compare(@Nullable LindenHit left, @Nullable LindenHit right) {
-        return Double.compare(left.getScore(), right.getScore());
+      public int compare(@Nullable MergedGroup left, @Nullable MergedGroup right) {
+        return Double.compare(left.hit.getScore(), right.hit.getScore());
       }
     };
-    List<LindenHit>
-        orderedHits =
-        ordering.greatestOf(mergedResult.getHits(), mergedResult.getHitsSize());    //offset -> offset+size groups
     int from = lindenRequest.getOffset();
     int size = lindenRequest.getLength();
-    if (from < orderedHits.size()) {
-      List<LindenHit> subHits = orderedHits.subList(from, Math.min(from + size, orderedHits.size()));
-      mergedResult.setHits(subHits);
-    } else {
-      mergedResult.setHits(new ArrayList<LindenHit>());
+    int topN = (int) Math.min((long) from + size, groups.size());
+    List<MergedGroup> topGroups = ordering.greatestOf(groups.values(), topN);
+    List<LindenHit> subHits = new ArrayList<>();
+    for (int i = from; i < topGroups.size(); ++i) {
+      MergedGroup group = topGroups.get(i);
+      //inner hits are merged for returned groups only
+      if (group.groupHits.size() > 1) {
+        group.hit.setGroupHits(mergeSortedHits(group.groupHits, new LindenHitCmp(null), 0, innerLimit));
+      }
+      subHits.add(group.hit);
     }
+    mergedResult.setHits(subHits);
     return mergedResult;
   }
 
+  private static class MergedGroup {
+    // the group hit with the highest score
+    private LindenHit hit;
+    private final List<List<LindenHit>> groupHits = new ArrayList<>();
+
+    MergedGroup(LindenHit hit) {
+      this.hit = hit;
+      groupHits.add(hit.getGroupHits());
+    }
+
+    void add(LindenHit subGroup) {
+      if (hit.getScore() < subGroup.getScore()) {
+        hit = subGroup;
+      }
+      groupHits.add(subGroup.getGroupHits());
+    }
+  }
+
   private static void mergeFacet(final LindenSearchRequest lindenRequest, final List<LindenResult> resultList,
                                  LindenResult mergedResult) {
     if (resultList.size() == 1) {
@@ -0,0 +1,65 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+
+import com.xiaomi.linden.thrift.common.LindenHit;
+import com.xiaomi.linden.thrift.common.LindenSearchAfter;
+import com.xiaomi.linden.thrift.common.LindenSortField;
+import com.xiaomi.linden.thrift.common.LindenSortType;
+
+/**
+ * compare LindenHits by their search after cursors, in the same order the shards collected them.
+ * hits with equal sort values are ordered by document id, so every hit has a unique position
+ */
+public class SearchAfterHitCmp implements Comparator<LindenHit> {
+  private List<LindenSortField> sortFields;
+
+  SearchAfterHitCmp(List<LindenSortField> sortFields) {
+    this.sortFields = sortFields;
+  }
+
+  @Override
+  public int compare(LindenHit o1, LindenHit o2) {
+    LindenSearchAfter a1 = o1.getSearchAfter();
+    LindenSearchAfter a2 = o2.getSearchAfter();
+    int cmp;
+    if (null == sortFields || sortFields.isEmpty()) {
+      // score is from high to low
+      cmp = -1 * LindenHitCmp.compare(a1.getSortValues().get(0), a2.getSortValues().get(0));
+      if (cmp != 0) {
+        return cmp;
+      }
+    } else {
+      for (int i = 0; i < sortFields.size(); ++i) {
+        LindenSortField field = sortFields.get(i);
+        cmp = LindenHitCmp.compare(a1.getSortValues().get(i), a2.getSortValues().get(i));
+        // distance is always from near to far
+        if (field.isReverse() && field.getType() != LindenSortType.DISTANCE) {
+          cmp = cmp * -1;
+        }
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+    }
+    // in the byte order lucene sorts the id field in
+    return new BytesRef(a1.getId()).compareTo(new BytesRef(a2.getId()));
+  }
+}
@@ -20,47 +20,92 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import com.alibaba.fastjson.JSONObject;
 import com.github.zkclient.ZkClient;
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
 import com.twitter.finagle.Thrift;
 import com.twitter.thrift.ServiceInstance;
 import com.twitter.util.Future;
+import com.twitter.util.FutureEventListener;
+import com.twitter.util.FutureTransformer;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.thrift.TApplicationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xiaomi.linden.common.LindenZKListener;
 import com.xiaomi.linden.common.util.CommonUtils;
+import com.xiaomi.linden.core.search.LindenCore;
+import com.xiaomi.linden.thrift.common.BulkResponse;
 import com.xiaomi.linden.thrift.common.LindenDeleteRequest;
+import com.xiaomi.linden.thrift.common.LindenFetchRequest;
+import com.xiaomi.linden.thrift.common.LindenHit;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+import com.xiaomi.linden.thrift.common.ReplicaInfo;
 import com.xiaomi.linden.thrift.common.Response;
 import com.xiaomi.linden.thrift.service.LindenService;
+import com.xiaomi.linden.util.ResponseUtils;
 
 public class ShardClient {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ShardClient.class);
-  private static final Random random = new Random();
   private final String zk;
   private final String path;
   private final String localHostPort;
   private boolean haslocalClient = false;
   private final Integer shardId;
   private final LindenService.ServiceIface localClient;
+  private final long timeoutNanos;
+  private final HedgePolicy hedgePolicy;
   private static final String HOST = "host";
+  // a failed result counts as a failure of the replica, as in searchLocally
+  private static final Predicate<LindenResult> FAILED_RESULT = new Predicate<LindenResult>() {
+    @Override
+    public boolean apply(LindenResult result) {
+      return !result.isSuccess();
+    }
+  };
+  private static final Predicate<List<LindenResult>> FAILED_RESULTS = new Predicate<List<LindenResult>>() {
+    @Override
+    public boolean apply(List<LindenResult> results) {
+      for (LindenResult result : results) {
+        if (!result.isSuccess()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  };
 
   private volatile List<Map.Entry<String, LindenService.ServiceIface>> clients;
+  // host:port -> stats of the replica
+  private final ConcurrentHashMap<String, ReplicaStats> replicaStats = new ConcurrentHashMap<>();
+  // host:port of replicas running an older version, which only take index requests in json
+  private final Set<String> legacyReplicas = Sets.newConcurrentHashSet();
 
+  /**
+   * @param timeout search requests taking longer than timeout milliseconds count as failures, 0 means no timeout
+   * @param hedgePolicy hedges slow search requests, null means no hedged requests
+   */
   public ShardClient(final ZkClient zkClient, final String zk, final String path,
-                     final LindenService.ServiceIface localClient, final int localPort, final int shardId) {
+                     final LindenService.ServiceIface localClient, final int localPort, final int shardId,
+                     final int timeout, final HedgePolicy hedgePolicy) {
     this.zk = zk;
     this.path = path;
     this.localClient = localClient;
     this.shardId = shardId;
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    this.hedgePolicy = hedgePolicy;
     this.localHostPort = String.format("%s:%s", CommonUtils.getLocalHost(), localPort);
 
     // if the path does not exist, create it.
@@ -82,7 +127,10 @@ public class ShardClient {
           ServiceInstance instance = JSONObject.parseObject(new String(bytes), ServiceInstance.class);
           String hostPort = String.format("%s:%s", instance.getServiceEndpoint().getHost(),
                                           instance.getServiceEndpoint().getPort());
-          if (localHostPort.equals(hostPort)) {
+          // a node registering again may have been upgraded, it is asked for index requests again
+          legacyReplicas.remove(hostPort);
+          // a smart client has no local service even if it runs on a node host
+          if (localClient != null && localHostPort.equals(hostPort)) {
             haslocalClient = true;
             lindenClients.put(node, new AbstractMap.SimpleEntry<>(hostPort, localClient));
             LOGGER.info("Linden local node {} {} joined shard {}.", node, hostPort, shardId);
@@ -125,6 +173,11 @@ public class ShardClient {
           String hostPort = lindenClients.get(node).getKey();
           LOGGER.info("Linden node {} {} on service in shard {}.", node, hostPort, shardId);
         }
+        for (String hostPort : uniqueClients) {
+          getReplicaStats(hostPort);
+        }
+        replicaStats.keySet().retainAll(uniqueClients);
+        legacyReplicas.retainAll(uniqueClients);
         clients = tempClients;
       }
     });
@@ -134,27 +187,207 @@ public class ShardClient {
     return !clients.isEmpty();
   }
 
+  private ReplicaStats getReplicaStats(String hostPort) {
+    ReplicaStats stats = replicaStats.get(hostPort);
+    if (stats == null) {
+      stats = new ReplicaStats(hostPort);
+      ReplicaStats previous = replicaStats.putIfAbsent(hostPort, stats);
+      if (previous != null) {
+        stats = previous;
+      }
+    }
+    return stats;
+  }
+
   /**
-   * if there's the replica hash key, select replica by the key; or random one
+   * if there's the replica hash key, select replica by the key; or the local one if it is healthy;
+   * or the less loaded one of two random replicas
    *
    * @param request
    * @return
    */
-  private synchronized Map.Entry<String, LindenService.ServiceIface> getClient(LindenSearchRequest request) {
+  private Map.Entry<String, LindenService.ServiceIface> getClient(LindenSearchRequest request) {
+    List<Map.Entry<String, LindenService.ServiceIface>> currentClients = clients;
     if (request.isSetRouteParam() && request.getRouteParam().isSetReplicaRouteKey()) {
-      int index = Math.abs(request.getRouteParam().getReplicaRouteKey().hashCode() % clients.size());
-      return clients.get(index);
+      int index = Math.abs(request.getRouteParam().getReplicaRouteKey().hashCode() % currentClients.size());
+      return currentClients.get(index);
     }
-    if (haslocalClient) {
+    if (haslocalClient && !getReplicaStats(localHostPort).isEjected()) {
       return new AbstractMap.SimpleEntry<>(localHostPort, localClient);
     }
-    int index = random.nextInt(clients.size());
-    return clients.get(index);
+    return chooseReplica(currentClients);
+  }
+
+  /**
+   * power of two choices, the less loaded one of two random replicas
+   */
+  private Map.Entry<String, LindenService.ServiceIface> chooseReplica(
+      List<Map.Entry<String, LindenService.ServiceIface>> candidates) {
+    int size = candidates.size();
+    if (size == 1) {
+      return candidates.get(0);
+    }
+    int first = ThreadLocalRandom.current().nextInt(size);
+    int second = ThreadLocalRandom.current().nextInt(size - 1);
+    if (second >= first) {
+      ++second;
+    }
+    ReplicaStats firstStats = getReplicaStats(candidates.get(first).getKey());
+    ReplicaStats secondStats = getReplicaStats(candidates.get(second).getKey());
+    return ReplicaStats.choose(firstStats, secondStats) == firstStats ? candidates.get(first)
+                                                                       : candidates.get(second);
+  }
+
+  /**
+   * @return a replica other than the given one for a hedged request, or null if there is none
+   */
+  private Map.Entry<String, LindenService.ServiceIface> getBackupClient(String hostPort) {
+    List<Map.Entry<String, LindenService.ServiceIface>> candidates = new ArrayList<>();
+    for (Map.Entry<String, LindenService.ServiceIface> client : clients) {
+      if (!client.getKey().equals(hostPort)) {
+        candidates.add(client);
+      }
+    }
+    return candidates.isEmpty() ? null : chooseReplica(candidates);
+  }
+
+  /**
+   * record response time and failures of the replica, a response slower than the timeout is a failure
+   *
+   * @param isFailure tells a reply reporting a failure, e.g. of an overloaded replica
+   */
+  private <T> Future<T> track(String hostPort, Future<T> future, final Predicate<T> isFailure) {
+    final ReplicaStats stats = getReplicaStats(hostPort);
+    final long start = stats.start();
+    future.addEventListener(new FutureEventListener<T>() {
+      @Override
+      public void onSuccess(T value) {
+        stats.finish(start, isFailure.apply(value) || (timeoutNanos > 0 && System.nanoTime() - start > timeoutNanos));
+      }
+
+      @Override
+      public void onFailure(Throwable cause) {
+        if (HedgePolicy.isCancelled(cause)) {
+          stats.cancel();
+        } else {
+          stats.finish(start, true);
+        }
+      }
+    });
+    return future;
+  }
+
+  /**
+   * @return true if search would pick the local replica for the request
+   */
+  public boolean isLocalPreferred(LindenSearchRequest request) {
+    return haslocalClient && !(request.isSetRouteParam() && request.getRouteParam().isSetReplicaRouteKey())
+           && !getReplicaStats(localHostPort).isEjected();
+  }
+
+  /**
+   * Search the local replica on the calling thread, skipping the service and its instance future pool.
+   * The response time still counts in the stats of the local replica.
+   */
+  public LindenResult searchLocally(LindenCore lindenCore, LindenSearchRequest request) {
+    ReplicaStats stats = getReplicaStats(localHostPort);
+    long start = stats.start();
+    LindenResult result;
+    try {
+      result = lindenCore.search(request);
+    } catch (Exception e) {
+      result = new LindenResult().setSuccess(false).setError(Throwables.getStackTraceAsString(e));
+    }
+    stats.finish(start, !result.isSuccess() || (timeoutNanos > 0 && System.nanoTime() - start > timeoutNanos));
+    return result;
   }
 
   public Map.Entry<String, Future<LindenResult>> search(LindenSearchRequest request) {
-    Map.Entry<String, LindenService.ServiceIface> client = getClient(request);
-    return new AbstractMap.SimpleEntry<>(client.getKey(), client.getValue().search(request));
+    return search(request, false);
+  }
+
+  /**
+   * @param pinHits set the replica answering on every hit as its shard host, so the fetch phase asks the
+   *                replica which scored the hit, whether the primary or the hedged request answered
+   */
+  public Map.Entry<String, Future<LindenResult>> search(final LindenSearchRequest request, final boolean pinHits) {
+    final Map.Entry<String, LindenService.ServiceIface> client = getClient(request);
+    Future<LindenResult> future = pin(client.getKey(), track(client.getKey(), client.getValue().search(request),
+                                                             FAILED_RESULT), pinHits);
+    // requests routed to a replica by key are never hedged
+    if (hedgePolicy != null
+        && !(request.isSetRouteParam() && request.getRouteParam().isSetReplicaRouteKey())) {
+      future = hedgePolicy.hedge(future, new Supplier<Future<LindenResult>>() {
+        @Override
+        public Future<LindenResult> get() {
+          Map.Entry<String, LindenService.ServiceIface> backup = getBackupClient(client.getKey());
+          if (backup == null) {
+            return null;
+          }
+          LOGGER.debug("Hedge request of shard {} from {} to {}.", shardId, client.getKey(), backup.getKey());
+          return pin(backup.getKey(), track(backup.getKey(), backup.getValue().search(request), FAILED_RESULT),
+                     pinHits);
+        }
+      });
+    }
+    return new AbstractMap.SimpleEntry<>(client.getKey(), future);
+  }
+
+  /**
+   * all requests go to one replica in one call, routed by the first request and never hedged
+   */
+  public Map.Entry<String, Future<List<LindenResult>>> multiSearch(List<LindenSearchRequest> requests) {
+    Map.Entry<String, LindenService.ServiceIface> client = getClient(requests.get(0));
+    return new AbstractMap.SimpleEntry<>(
+        client.getKey(), track(client.getKey(), client.getValue().multiSearch(requests), FAILED_RESULTS));
+  }
+
+  private static Future<LindenResult> pin(final String hostPort, Future<LindenResult> future, boolean pinHits) {
+    if (!pinHits) {
+      return future;
+    }
+    return future.transformedBy(new FutureTransformer<LindenResult, LindenResult>() {
+      @Override
+      public LindenResult map(LindenResult result) {
+        setShardHost(result, hostPort);
+        return result;
+      }
+    });
+  }
+
+  public static void setShardHost(LindenResult result, String hostPort) {
+    if (result.isSetHits()) {
+      for (LindenHit hit : result.getHits()) {
+        hit.setShardHost(hostPort);
+      }
+    }
+  }
+
+  public String getLocalHostPort() {
+    return localHostPort;
+  }
+
+  /**
+   * fetch hits of the query phase from the replica which scored them, another replica may not see the same
+   * version of the documents
+   *
+   * @param hostPort the shard host of the hits, routed as the search request if it is null or has left
+   */
+  public Map.Entry<String, Future<LindenResult>> fetch(LindenFetchRequest request, String hostPort) {
+    Map.Entry<String, LindenService.ServiceIface> client = null;
+    if (hostPort != null) {
+      for (Map.Entry<String, LindenService.ServiceIface> candidate : clients) {
+        if (candidate.getKey().equals(hostPort)) {
+          client = candidate;
+          break;
+        }
+      }
+    }
+    if (client == null) {
+      client = getClient(request.getSearchRequest());
+    }
+    return new AbstractMap.SimpleEntry<>(client.getKey(),
+                                         track(client.getKey(), client.getValue().fetch(request), FAILED_RESULT));
   }
 
   /**
@@ -172,15 +405,127 @@ public class ShardClient {
     return hostFuturePairs;
   }
 
-  public List<Map.Entry<String, Future<Response>>> index(String content) {
+  /**
+   * The local replica gets a copy of the request, since remote replicas serialize it asynchronously.
+   *
+   * @param content json of the request, sent to replicas of older versions without the indexRequest method,
+   *                null if there is none
+   */
+  public List<Map.Entry<String, Future<Response>>> index(LindenIndexRequest request, String content) {
     List<Map.Entry<String, Future<Response>>> hostFuturePairs = new ArrayList<>();
     for (Map.Entry<String, LindenService.ServiceIface> hostClientPair : clients) {
-      Future<Response> future = hostClientPair.getValue().index(content);
-      hostFuturePairs.add(new AbstractMap.SimpleEntry<>(hostClientPair.getKey(), future));
+      String hostPort = hostClientPair.getKey();
+      LindenService.ServiceIface client = hostClientPair.getValue();
+      Future<Response> future;
+      if (client == localClient) {
+        future = client.indexRequest(request.deepCopy());
+      } else {
+        future = indexRemotely(hostPort, client, request, content);
+      }
+      hostFuturePairs.add(new AbstractMap.SimpleEntry<>(hostPort, future));
     }
     return hostFuturePairs;
   }
 
+  Future<Response> indexRemotely(final String hostPort, final LindenService.ServiceIface client,
+                                 LindenIndexRequest request, final String content) {
+    if (content != null && legacyReplicas.contains(hostPort)) {
+      return client.index(content);
+    }
+    Future<Response> future = client.indexRequest(request);
+    if (content == null) {
+      return future;
+    }
+    return future.transformedBy(new FutureTransformer<Response, Response>() {
+      @Override
+      public Response map(Response response) {
+        return response;
+      }
+
+      @Override
+      public Future<Response> rescue(Throwable t) {
+        if (isUnknownMethod(hostPort, t)) {
+          return client.index(content);
+        }
+        return Future.exception(t);
+      }
+    });
+  }
+
+  /**
+   * Every replica gets the whole batch in one request, the local replica a copy of it.
+   *
+   * @param contents json of the requests, sent one by one to replicas of older versions without bulk methods,
+   *                 null if there are none
+   */
+  public List<Map.Entry<String, Future<BulkResponse>>> bulkIndexRequests(List<LindenIndexRequest> requests,
+                                                                         final List<String> contents) {
+    List<Map.Entry<String, Future<BulkResponse>>> hostFuturePairs = new ArrayList<>();
+    for (Map.Entry<String, LindenService.ServiceIface> hostClientPair : clients) {
+      final String hostPort = hostClientPair.getKey();
+      final LindenService.ServiceIface client = hostClientPair.getValue();
+      Future<BulkResponse> future;
+      if (client == localClient) {
+        List<LindenIndexRequest> copies = new ArrayList<>(requests.size());
+        for (LindenIndexRequest request : requests) {
+          copies.add(request.deepCopy());
+        }
+        future = client.bulkIndexRequests(copies);
+      } else if (contents != null && legacyReplicas.contains(hostPort)) {
+        future = indexOneByOne(client, contents);
+      } else {
+        future = client.bulkIndexRequests(requests);
+        if (contents != null) {
+          future = future.transformedBy(new FutureTransformer<BulkResponse, BulkResponse>() {
+            @Override
+            public BulkResponse map(BulkResponse response) {
+              return response;
+            }
+
+            @Override
+            public Future<BulkResponse> rescue(Throwable t) {
+              if (isUnknownMethod(hostPort, t)) {
+                return indexOneByOne(client, contents);
+              }
+              return Future.exception(t);
+            }
+          });
+        }
+      }
+      hostFuturePairs.add(new AbstractMap.SimpleEntry<>(hostPort, future));
+    }
+    return hostFuturePairs;
+  }
+
+  private static Future<BulkResponse> indexOneByOne(LindenService.ServiceIface client, List<String> contents) {
+    List<Future<Response>> futures = new ArrayList<>(contents.size());
+    for (String content : contents) {
+      futures.add(client.index(content));
+    }
+    return Future.collect(futures).transformedBy(new FutureTransformer<List<Response>, BulkResponse>() {
+      @Override
+      public BulkResponse map(List<Response> responses) {
+        return ResponseUtils.buildBulkResponse(responses);
+      }
+    });
+  }
+
+  /**
+   * @return true if the replica runs an older version without the called method, which is remembered until the
+   * replica registers again
+   */
+  private boolean isUnknownMethod(String hostPort, Throwable t) {
+    if (t instanceof TApplicationException
+        && ((TApplicationException) t).getType() == TApplicationException.UNKNOWN_METHOD) {
+      if (legacyReplicas.add(hostPort)) {
+        LOGGER.warn("Linden node {} of shard {} doesn't support index requests, json is sent instead", hostPort,
+                    shardId);
+      }
+      return true;
+    }
+    return false;
+  }
+
   public List<Map.Entry<String, Future<Response>>> executeCommand(JSONObject jsonCmd) {
     List<Map.Entry<String, Future<Response>>> hostFuturePairs = new ArrayList<>();
     String host = jsonCmd.getString(HOST);
@@ -206,4 +551,12 @@ public class ShardClient {
   public int getShardId() {
     return shardId;
   }
+
+  public List<ReplicaInfo> getReplicaInfos() {
+    List<ReplicaInfo> replicaInfos = new ArrayList<>();
+    for (Map.Entry<String, LindenService.ServiceIface> client : clients) {
+      replicaInfos.add(getReplicaStats(client.getKey()).toReplicaInfo(shardId));
+    }
+    return replicaInfos;
+  }
 }
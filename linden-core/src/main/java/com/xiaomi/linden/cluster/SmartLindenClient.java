@@ -0,0 +1,141 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Throwables;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.common.util.LindenZKPathManager;
+import com.xiaomi.linden.core.LindenConfig;
+import com.xiaomi.linden.core.indexing.DefaultShardingStrategy;
+import com.xiaomi.linden.thrift.common.BulkResponse;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
+import com.xiaomi.linden.thrift.common.LindenRequest;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+import com.xiaomi.linden.thrift.common.ReplicaInfo;
+import com.xiaomi.linden.thrift.common.Response;
+import com.xiaomi.linden.util.ResponseUtils;
+
+/**
+ * Client which talks to shards directly instead of going through a coordinating node.
+ * It watches the shards in ZK, compiles BQL locally, fans out to the replicas and merges their results
+ * like a node does, so a request saves one network hop and the coordinator work.
+ * Documents are parsed locally and sent to the replicas of the owning shard only.
+ */
+public class SmartLindenClient {
+
+  private final BQLCompiler bqlCompiler;
+  private final CoreLindenCluster cluster;
+
+  public SmartLindenClient(String clusterUrl, LindenSchema schema, int timeout) {
+    this(new LindenConfig().setClusterUrl(clusterUrl).setSchema(schema).setClusterFutureAwaitTimeout(timeout));
+  }
+
+  /**
+   * @param config cluster url, schema, timeout, hedging and cache settings of the client
+   */
+  public SmartLindenClient(LindenConfig config) {
+    bqlCompiler = new BQLCompiler(config.getSchema());
+    LindenZKPathManager zkPathManager = new LindenZKPathManager(config.getClusterUrl());
+    // the client owns no shard, the cluster routes documents by the shard id of each replica set
+    DefaultShardingStrategy shardingStrategy =
+        new DefaultShardingStrategy(zkPathManager.getZK(), zkPathManager.getClusterPath(), -1);
+    cluster = new CoreLindenCluster(config, shardingStrategy, null, null);
+  }
+
+  public LindenResult search(String bql) throws Exception {
+    LindenRequest request = bqlCompiler.compile(bql);
+    if (!request.isSetSearchRequest()) {
+      return new LindenResult().setSuccess(false).setError("invalid search Bql");
+    }
+    return cluster.search(request.getSearchRequest().setOriginQuery(bql));
+  }
+
+  /**
+   * sub-requests of every shard are sent in one call, the results are in the order of bqls
+   */
+  public List<LindenResult> multiSearch(List<String> bqls) throws Exception {
+    LindenResult[] results = new LindenResult[bqls.size()];
+    // an invalid bql fails alone
+    List<LindenSearchRequest> searchRequests = new ArrayList<>(bqls.size());
+    List<Integer> positions = new ArrayList<>(bqls.size());
+    for (int i = 0; i < bqls.size(); ++i) {
+      try {
+        LindenRequest request = bqlCompiler.compile(bqls.get(i));
+        if (request.isSetSearchRequest()) {
+          searchRequests.add(request.getSearchRequest().setOriginQuery(bqls.get(i)));
+          positions.add(i);
+        } else {
+          results[i] = new LindenResult().setSuccess(false).setError("invalid search Bql");
+        }
+      } catch (Exception e) {
+        results[i] = new LindenResult().setSuccess(false).setError(Throwables.getStackTraceAsString(e));
+      }
+    }
+    if (!searchRequests.isEmpty()) {
+      List<LindenResult> searchResults = cluster.multiSearch(searchRequests);
+      for (int i = 0; i < positions.size(); ++i) {
+        results[positions.get(i)] = searchResults.get(i);
+      }
+    }
+    return Arrays.asList(results);
+  }
+
+  public Response delete(String bql) throws Exception {
+    LindenRequest request = bqlCompiler.compile(bql);
+    if (!request.isSetDeleteRequest()) {
+      return ResponseUtils.buildFailedResponse("invalid delete Bql");
+    }
+    return cluster.delete(request.getDeleteRequest());
+  }
+
+  public Response index(String content) throws IOException {
+    return cluster.index(content);
+  }
+
+  public Response index(LindenIndexRequest request) throws IOException {
+    return cluster.index(request);
+  }
+
+  /**
+   * index documents in one pass, every shard gets one call with its documents
+   */
+  public BulkResponse bulkIndex(List<String> contents) throws IOException {
+    return cluster.bulkIndex(contents);
+  }
+
+  public BulkResponse bulkIndexRequests(List<LindenIndexRequest> requests) throws IOException {
+    return cluster.bulkIndexRequests(requests);
+  }
+
+  public Response executeCommand(String command) throws IOException {
+    return cluster.executeCommand(command);
+  }
+
+  public List<ReplicaInfo> getReplicaInfos() {
+    return cluster.getReplicaInfos();
+  }
+
+  public void close() throws IOException {
+    cluster.close();
+  }
+}
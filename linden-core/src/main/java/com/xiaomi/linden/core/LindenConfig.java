@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xiaomi.linden.common.schema.LindenSchemaConf;
+import com.xiaomi.linden.lucene.search.LindenFilterCache;
 import com.xiaomi.linden.plugin.LindenPluginManager;
 import com.xiaomi.linden.thrift.common.LindenFieldSchema;
 import com.xiaomi.linden.thrift.common.LindenType;
@@ -79,6 +80,7 @@ public class LindenConfig {
   private int cacheDuration;
   private int cacheSize;
   private boolean enableCache;
+  private int cacheMemoryMB;
   private String pluginPath;
   private int indexRefreshTime;
   private String webapp;
@@ -89,11 +91,24 @@ public class LindenConfig {
   private int searchTimeLimit;
   private String lindenMetricFactory;
   private int indexManagerThreadNum;
+  private int indexManagerParseThreadNum;
+  private int indexManagerQueueSize;
+  private int indexManagerBatchSize;
   private String searchThreadPoolConfig;
   private boolean enableSourceFieldCache;
   private int indexSearcherParallelThreadNum;
   private String lindenWarmerFactory;
   private int slowQueryThresholdMillis;
+  private int filterCacheSizeMB;
+  private int filterCacheMinFrequency;
+  private int shardCacheSizeMB;
+  private int writeCoalescingBufferSize;
+  private int incrementBufferSize;
+  private boolean enableTwoPhaseSearch;
+  private boolean enableHedgedSearch;
+  private int hedgeLatencyPercentile;
+  private int hedgeBudgetPercent;
+  private boolean enableInlineLocalSearch;
 
   private Map<String, LindenFieldSchema> fieldSchemaMap = new HashMap<>();
 
@@ -114,9 +129,20 @@ public class LindenConfig {
     this.multiIndexMaxLiveIndexNum = -1;
     this.searchTimeLimit = -1;
     this.indexManagerThreadNum = 11;
+    this.indexManagerParseThreadNum = 2;
+    this.indexManagerQueueSize = 500;
+    this.indexManagerBatchSize = 100;
     this.enableSourceFieldCache = false;
     this.indexSearcherParallelThreadNum = 2 * Runtime.getRuntime().availableProcessors();
     this.slowQueryThresholdMillis = 300;
+    this.filterCacheSizeMB = 0;
+    this.filterCacheMinFrequency = 2;
+    this.incrementBufferSize = 10000;
+    this.enableTwoPhaseSearch = false;
+    this.enableHedgedSearch = false;
+    this.hedgeLatencyPercentile = 95;
+    this.hedgeBudgetPercent = 5;
+    this.enableInlineLocalSearch = true;
   }
 
   public void putToProperties(String key, String val) {
@@ -300,6 +326,19 @@ public class LindenConfig {
     return this;
   }
 
+  public int getCacheMemoryMB() {
+    return this.cacheMemoryMB;
+  }
+
+  /**
+   * Byte budget of the cluster result cache. If positive, results are cached serialized off heap
+   * instead of cacheSize result objects on heap.
+   */
+  public LindenConfig setCacheMemoryMB(int cacheMemoryMB) {
+    this.cacheMemoryMB = cacheMemoryMB;
+    return this;
+  }
+
   public boolean isEnableCache() {
     return this.enableCache;
   }
@@ -399,6 +438,33 @@ public class LindenConfig {
     return this;
   }
 
+  public int getIndexManagerParseThreadNum() {
+    return indexManagerParseThreadNum;
+  }
+
+  public LindenConfig setIndexManagerParseThreadNum(int indexManagerParseThreadNum) {
+    this.indexManagerParseThreadNum = indexManagerParseThreadNum;
+    return this;
+  }
+
+  public int getIndexManagerQueueSize() {
+    return indexManagerQueueSize;
+  }
+
+  public LindenConfig setIndexManagerQueueSize(int indexManagerQueueSize) {
+    this.indexManagerQueueSize = indexManagerQueueSize;
+    return this;
+  }
+
+  public int getIndexManagerBatchSize() {
+    return indexManagerBatchSize;
+  }
+
+  public LindenConfig setIndexManagerBatchSize(int indexManagerBatchSize) {
+    this.indexManagerBatchSize = indexManagerBatchSize;
+    return this;
+  }
+
   public String getSearchThreadPoolConfig() {
     return this.searchThreadPoolConfig;
   }
@@ -443,6 +509,124 @@ public class LindenConfig {
     this.slowQueryThresholdMillis = slowQueryThresholdMillis;
   }
 
+  public int getShardCacheSizeMB() {
+    return shardCacheSizeMB;
+  }
+
+  /**
+   * Memory budget of the shard search result cache, 0 disables it.
+   */
+  public LindenConfig setShardCacheSizeMB(int shardCacheSizeMB) {
+    this.shardCacheSizeMB = shardCacheSizeMB;
+    return this;
+  }
+
+  public int getWriteCoalescingBufferSize() {
+    return writeCoalescingBufferSize;
+  }
+
+  /**
+   * Max documents whose writes are held until the next refresh, 0 applies every write at once.
+   */
+  public LindenConfig setWriteCoalescingBufferSize(int writeCoalescingBufferSize) {
+    this.writeCoalescingBufferSize = writeCoalescingBufferSize;
+    return this;
+  }
+
+  public int getIncrementBufferSize() {
+    return incrementBufferSize;
+  }
+
+  /**
+   * Max documents with pending increments, the index is refreshed to apply them when it is reached.
+   */
+  public LindenConfig setIncrementBufferSize(int incrementBufferSize) {
+    this.incrementBufferSize = incrementBufferSize;
+    return this;
+  }
+
+  public boolean isEnableTwoPhaseSearch() {
+    return enableTwoPhaseSearch;
+  }
+
+  /**
+   * If true, cluster search ranks hits first and fetches source, explanation and snippets
+   * for the returned page only.
+   */
+  public LindenConfig setEnableTwoPhaseSearch(boolean enableTwoPhaseSearch) {
+    this.enableTwoPhaseSearch = enableTwoPhaseSearch;
+    return this;
+  }
+
+  public boolean isEnableHedgedSearch() {
+    return enableHedgedSearch;
+  }
+
+  /**
+   * If true, a shard search slower than the hedge latency percentile is also sent to another replica.
+   */
+  public LindenConfig setEnableHedgedSearch(boolean enableHedgedSearch) {
+    this.enableHedgedSearch = enableHedgedSearch;
+    return this;
+  }
+
+  public int getHedgeLatencyPercentile() {
+    return hedgeLatencyPercentile;
+  }
+
+  public LindenConfig setHedgeLatencyPercentile(int hedgeLatencyPercentile) {
+    this.hedgeLatencyPercentile = hedgeLatencyPercentile;
+    return this;
+  }
+
+  public int getHedgeBudgetPercent() {
+    return hedgeBudgetPercent;
+  }
+
+  /**
+   * Max extra shard requests hedging may send, in percent of shard requests.
+   */
+  public LindenConfig setHedgeBudgetPercent(int hedgeBudgetPercent) {
+    this.hedgeBudgetPercent = hedgeBudgetPercent;
+    return this;
+  }
+
+  public boolean isEnableInlineLocalSearch() {
+    return enableInlineLocalSearch;
+  }
+
+  /**
+   * If true, cluster search runs the shard of the local node on the coordinating thread.
+   */
+  public LindenConfig setEnableInlineLocalSearch(boolean enableInlineLocalSearch) {
+    this.enableInlineLocalSearch = enableInlineLocalSearch;
+    return this;
+  }
+
+  public int getFilterCacheSizeMB() {
+    return filterCacheSizeMB;
+  }
+
+  /**
+   * Memory budget of the per segment filter cache, 0 disables it.
+   */
+  public LindenConfig setFilterCacheSizeMB(int filterCacheSizeMB) {
+    this.filterCacheSizeMB = filterCacheSizeMB;
+    return this;
+  }
+
+  public int getFilterCacheMinFrequency() {
+    return filterCacheMinFrequency;
+  }
+
+  /**
+   * Number of uses among the recently used filters before a filter is cached.
+   */
+  public LindenConfig setFilterCacheMinFrequency(int filterCacheMinFrequency) {
+    this.filterCacheMinFrequency = filterCacheMinFrequency;
+    return this;
+  }
+
   public LindenFieldSchema getFieldSchema(String field) {
     LindenFieldSchema fieldSchema = fieldSchemaMap.get(field);
     if (fieldSchema != null) {
@@ -521,6 +705,20 @@ public class LindenConfig {
     return searchSimilarityInstance;
   }
 
+  private LindenFilterCache filterCache;
+  @JsonIgnore
+  public LindenFilterCache getFilterCache() {
+    if (filterCache != null || filterCacheSizeMB <= 0) {
+      return filterCache;
+    }
+    synchronized (this) {
+      if (filterCache == null) {
+        filterCache = new LindenFilterCache(filterCacheSizeMB * 1024L * 1024L, filterCacheMinFrequency);
+      }
+    }
+    return filterCache;
+  }
+
   private SpatialStrategy spatialStrategy;
   @JsonIgnore
   public SpatialStrategy getSpatialStrategy() {
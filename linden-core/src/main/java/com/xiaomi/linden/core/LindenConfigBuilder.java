@@ -44,6 +44,7 @@ public class LindenConfigBuilder {
   public static final String USE_CACHE = "enable.cache";
   public static final String CACHE_DURATION = "cache.duration";
   public static final String CACHE_SIZE = "cache.size";
+  public static final String CACHE_MEMORY_MB = "cache.memory.mb";
   public static final String INDEX_REFRESH_TIME = "index.refresh.time";
   public static final String LINDEN_CORE_MODE = "linden.core.mode";
   public static final String WEBAPP = "webapp";
@@ -55,10 +56,23 @@ public class LindenConfigBuilder {
   public static final String LINDEN_METRIC_FACTORY = "linden.metric.class";
   public static final String LINDEN_WARMER_FACTORY = "linden.warmer.class";
   public static final String INDEX_MANAGER_THREAD_NUM = "index.manager.thread.num";
+  public static final String INDEX_MANAGER_PARSE_THREAD_NUM = "index.manager.parse.thread.num";
+  public static final String INDEX_MANAGER_QUEUE_SIZE = "index.manager.queue.size";
+  public static final String INDEX_MANAGER_BATCH_SIZE = "index.manager.batch.size";
   public static final String SEARCH_THREAD_POOL_JSON_CONFIG = "search.thread.pool.json.config";
   public static final String ENABLE_SOURCE_FIELD_CACHE = "enable.source.field.cache";
   public static final String INDEX_SEARCHER_PARALLEL_THREAD_NUM = "index.searcher.parallel.thread.num";
   public static final String SLOW_QUERY_THRESHOLD_MILLIS = "slow.query.threshold.millis";
+  public static final String FILTER_CACHE_SIZE_MB = "filter.cache.size.mb";
+  public static final String FILTER_CACHE_MIN_FREQUENCY = "filter.cache.min.frequency";
+  public static final String SHARD_CACHE_SIZE_MB = "shard.cache.size.mb";
+  public static final String WRITE_COALESCING_BUFFER_SIZE = "write.coalescing.buffer.size";
+  public static final String INCREMENT_BUFFER_SIZE = "increment.buffer.size";
+  public static final String ENABLE_TWO_PHASE_SEARCH = "enable.two.phase.search";
+  public static final String ENABLE_HEDGED_SEARCH = "enable.hedged.search";
+  public static final String HEDGE_LATENCY_PERCENTILE = "hedge.latency.percentile";
+  public static final String HEDGE_BUDGET_PERCENT = "hedge.budget.percent";
+  public static final String ENABLE_INLINE_LOCAL_SEARCH = "enable.inline.local.search";
 
 
   protected static class FieldInfo {
@@ -104,6 +118,7 @@ public class LindenConfigBuilder {
     fieldMap.put(ENABLE_PARALLEL_SEARCH, new FieldInfo("EnableParallelSearch", boolean.class));
     fieldMap.put(CACHE_DURATION, new FieldInfo("CacheDuration", int.class));
     fieldMap.put(CACHE_SIZE, new FieldInfo("CacheSize", int.class));
+    fieldMap.put(CACHE_MEMORY_MB, new FieldInfo("CacheMemoryMB", int.class));
     fieldMap.put(USE_CACHE, new FieldInfo("EnableCache", boolean.class));
     fieldMap.put(INDEX_REFRESH_TIME, new FieldInfo("IndexRefreshTime", int.class));
     fieldMap.put(LINDEN_CORE_MODE, new FieldInfo("LindenCoreMode", LindenConfig.LindenCoreMode.class));
@@ -117,10 +132,23 @@ public class LindenConfigBuilder {
     fieldMap.put(LINDEN_METRIC_FACTORY, new FieldInfo("LindenMetricFactory", String.class));
     fieldMap.put(LINDEN_WARMER_FACTORY, new FieldInfo("LindenWarmerFactory", String.class));
     fieldMap.put(INDEX_MANAGER_THREAD_NUM, new FieldInfo("IndexManagerThreadNum", int.class));
+    fieldMap.put(INDEX_MANAGER_PARSE_THREAD_NUM, new FieldInfo("IndexManagerParseThreadNum", int.class));
+    fieldMap.put(INDEX_MANAGER_QUEUE_SIZE, new FieldInfo("IndexManagerQueueSize", int.class));
+    fieldMap.put(INDEX_MANAGER_BATCH_SIZE, new FieldInfo("IndexManagerBatchSize", int.class));
     fieldMap.put(SEARCH_THREAD_POOL_JSON_CONFIG, new FieldInfo("SearchThreadPoolConfig", String.class));
     fieldMap.put(ENABLE_SOURCE_FIELD_CACHE, new FieldInfo("EnableSourceFieldCache", boolean.class));
     fieldMap.put(INDEX_SEARCHER_PARALLEL_THREAD_NUM, new FieldInfo("IndexSearcherParallelThreadNum", int.class));
     fieldMap.put(SLOW_QUERY_THRESHOLD_MILLIS,new FieldInfo("SlowQueryThresholdMillis",int.class));
+    fieldMap.put(FILTER_CACHE_SIZE_MB, new FieldInfo("FilterCacheSizeMB", int.class));
+    fieldMap.put(FILTER_CACHE_MIN_FREQUENCY, new FieldInfo("FilterCacheMinFrequency", int.class));
+    fieldMap.put(SHARD_CACHE_SIZE_MB, new FieldInfo("ShardCacheSizeMB", int.class));
+    fieldMap.put(WRITE_COALESCING_BUFFER_SIZE, new FieldInfo("WriteCoalescingBufferSize", int.class));
+    fieldMap.put(INCREMENT_BUFFER_SIZE, new FieldInfo("IncrementBufferSize", int.class));
+    fieldMap.put(ENABLE_TWO_PHASE_SEARCH, new FieldInfo("EnableTwoPhaseSearch", boolean.class));
+    fieldMap.put(ENABLE_HEDGED_SEARCH, new FieldInfo("EnableHedgedSearch", boolean.class));
+    fieldMap.put(HEDGE_LATENCY_PERCENTILE, new FieldInfo("HedgeLatencyPercentile", int.class));
+    fieldMap.put(HEDGE_BUDGET_PERCENT, new FieldInfo("HedgeBudgetPercent", int.class));
+    fieldMap.put(ENABLE_INLINE_LOCAL_SEARCH, new FieldInfo("EnableInlineLocalSearch", boolean.class));
 
   }
 
@@ -31,6 +31,7 @@ import com.xiaomi.linden.thrift.common.LindenType;
 public class LindenSchemaBuilder {
   public static final String TABLE = "table";
   public static final String TABLE_ID = "id";
+  public static final String TABLE_SOURCE = "source";
   public static final String TABLE_COLUMN = "column";
   public static final String NAME = "name";
   public static final String TYPE = "type";
@@ -59,6 +60,10 @@ public class LindenSchemaBuilder {
     Node colNode = table.item(0);
     LindenSchema lindenSchema = new LindenSchema();
     lindenSchema.setId(colNode.getAttributes().getNamedItem(TABLE_ID).getNodeValue());
+    Node sourceNode = colNode.getAttributes().getNamedItem(TABLE_SOURCE);
+    if (sourceNode != null) {
+      lindenSchema.setStoreSource(sourceNode.getNodeValue().toLowerCase().equals(YES));
+    }
     NodeList colList = dom.getElementsByTagName(TABLE_COLUMN);
     for (int i = 0; i < colList.getLength(); ++i) {
       Element element = (Element) colList.item(i);
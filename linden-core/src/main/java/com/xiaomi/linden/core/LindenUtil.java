@@ -16,14 +16,18 @@ package com.xiaomi.linden.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.document.CompressionTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
@@ -33,6 +37,7 @@ import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 import com.xiaomi.linden.common.schema.LindenSchemaConf;
 import com.xiaomi.linden.thrift.common.LindenFieldSchema;
@@ -40,6 +45,8 @@ import com.xiaomi.linden.thrift.common.LindenType;
 
 public class LindenUtil {
 
+  private static final Set<String> SOURCE_FIELDS = Collections.singleton(LindenSchemaConf.SOURCE);
+
   public static Float getFieldFloatValue(List<AtomicReaderContext> leaves, int docId, String fieldName)
       throws IOException {
     AtomicReaderContext atomicReaderContext = leaves.get(ReaderUtil.subIndex(docId, leaves));
@@ -99,6 +106,12 @@ public class LindenUtil {
     AtomicReaderContext atomicReaderContext = leaves.get(idx);
     AtomicReader reader = atomicReaderContext.reader();
     int locDocId = docId - atomicReaderContext.docBase;
+    if (config.getSchema().isStoreSource()) {
+      String source = getStoredSource(indexSearcher, docId, reader, locDocId, sourceFields, config);
+      if (source != null) {
+        return source;
+      }
+    }
     JSONObject src = new JSONObject();
     String idFieldName = config.getSchema().getId();
     if (id != null) {
@@ -152,34 +165,8 @@ public class LindenUtil {
       }
 
       if (fieldCache) {
-        Object val;
-        switch (fieldSchema.getType()) {
-          case STRING:
-          case FACET:
-            val = FieldCache.DEFAULT.getTerms(reader, name, false).get(locDocId).utf8ToString();
-            String v = (String) val;
-            fieldCache = !v.isEmpty() || actualContain(reader, name, locDocId);
-            break;
-          case INTEGER:
-            val = FieldCache.DEFAULT.getInts(reader, name, false).get(locDocId);
-            fieldCache = ((int) val) != 0 || actualContain(reader, name, locDocId);
-            break;
-          case LONG:
-            val = FieldCache.DEFAULT.getLongs(reader, name, false).get(locDocId);
-            fieldCache = ((long) val != 0) || actualContain(reader, name, locDocId);
-            break;
-          case FLOAT:
-            val = FieldCache.DEFAULT.getFloats(reader, name, false).get(locDocId);
-            fieldCache = ((float) val != 0) || actualContain(reader, name, locDocId);
-            break;
-          case DOUBLE:
-            val = FieldCache.DEFAULT.getDoubles(reader, name, false).get(locDocId);
-            fieldCache = ((double) val != 0) || actualContain(reader, name, locDocId);
-            break;
-          default:
-            throw new IllegalStateException("Unsupported linden type");
-        }
-        if (fieldCache) {
+        Object val = getFieldCacheValue(reader, fieldSchema, locDocId);
+        if (val != null) {
           src.put(name, val);
         }
       }
@@ -215,6 +202,115 @@ public class LindenUtil {
     return src.toJSONString();
   }
 
+  /**
+   * Get source from the compressed source blob stored at index time.
+   *
+   * @return null if the document has no source blob or a dynamic field is requested
+   */
+  private static String getStoredSource(IndexSearcher indexSearcher, int docId, AtomicReader reader, int locDocId,
+                                        List<String> sourceFields, LindenConfig config) throws IOException {
+    String idFieldName = config.getSchema().getId();
+    boolean filtered = sourceFields != null && !sourceFields.isEmpty();
+    List<LindenFieldSchema> fields = new ArrayList<>();
+    if (filtered) {
+      for (String sourceField : sourceFields) {
+        if (sourceField.equals(idFieldName)) {
+          continue;
+        }
+        LindenFieldSchema fieldSchema = config.getFieldSchema(sourceField);
+        // dynamic fields are not in the blob
+        if (fieldSchema.isDynamicSchema()) {
+          return null;
+        }
+        fields.add(fieldSchema);
+      }
+    } else {
+      fields.addAll(config.getSchema().getFields());
+    }
+
+    BytesRef blob = indexSearcher.doc(docId, SOURCE_FIELDS).getBinaryValue(LindenSchemaConf.SOURCE);
+    if (blob == null) {
+      // indexed before source is stored
+      return null;
+    }
+    String source;
+    try {
+      source = CompressionTools.decompressString(blob);
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted source of doc " + docId, e);
+    }
+
+    // doc values only fields may be updated in place after the blob is written
+    List<LindenFieldSchema> docValuesFields = new ArrayList<>();
+    for (LindenFieldSchema fieldSchema : fields) {
+      if (fieldSchema.isDocValues() && !fieldSchema.isIndexed() && !fieldSchema.isStored() && !fieldSchema.isMulti()
+          && fieldSchema.getType() != LindenType.FACET) {
+        docValuesFields.add(fieldSchema);
+      }
+    }
+    if (!filtered && docValuesFields.isEmpty()) {
+      return source;
+    }
+
+    JSONObject stored = JSON.parseObject(source);
+    JSONObject src = stored;
+    if (filtered) {
+      src = new JSONObject();
+      src.put(idFieldName, stored.get(idFieldName));
+      for (LindenFieldSchema fieldSchema : fields) {
+        Object val = stored.get(fieldSchema.getName());
+        if (val != null) {
+          src.put(fieldSchema.getName(), val);
+        }
+      }
+    }
+    for (LindenFieldSchema fieldSchema : docValuesFields) {
+      Object val = getFieldCacheValue(reader, fieldSchema, locDocId);
+      if (val != null) {
+        src.put(fieldSchema.getName(), val);
+      } else {
+        src.remove(fieldSchema.getName());
+      }
+    }
+    return src.toJSONString();
+  }
+
+  /**
+   * @return null if the doc doesn't contain this field
+   */
+  private static Object getFieldCacheValue(AtomicReader reader, LindenFieldSchema fieldSchema, int locDocId)
+      throws IOException {
+    String name = fieldSchema.getName();
+    Object val;
+    boolean exists;
+    switch (fieldSchema.getType()) {
+      case STRING:
+      case FACET:
+        val = FieldCache.DEFAULT.getTerms(reader, name, false).get(locDocId).utf8ToString();
+        exists = !((String) val).isEmpty() || actualContain(reader, name, locDocId);
+        break;
+      case INTEGER:
+        val = FieldCache.DEFAULT.getInts(reader, name, false).get(locDocId);
+        exists = ((int) val) != 0 || actualContain(reader, name, locDocId);
+        break;
+      case LONG:
+        val = FieldCache.DEFAULT.getLongs(reader, name, false).get(locDocId);
+        exists = ((long) val != 0) || actualContain(reader, name, locDocId);
+        break;
+      case FLOAT:
+        val = FieldCache.DEFAULT.getFloats(reader, name, false).get(locDocId);
+        exists = ((float) val != 0) || actualContain(reader, name, locDocId);
+        break;
+      case DOUBLE:
+        val = FieldCache.DEFAULT.getDoubles(reader, name, false).get(locDocId);
+        exists = ((double) val != 0) || actualContain(reader, name, locDocId);
+        break;
+      default:
+        throw new IllegalStateException("Unsupported linden type");
+    }
+    return exists ? val : null;
+  }
+
   public static Object parseLindenValue(String value, LindenType type) {
     switch (type) {
       case STRING:
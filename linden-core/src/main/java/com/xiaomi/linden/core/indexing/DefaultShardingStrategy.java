@@ -16,6 +16,8 @@ package com.xiaomi.linden.core.indexing;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -77,6 +79,24 @@ public class DefaultShardingStrategy extends ShardingStrategy {
     return false;
   }
 
+  /**
+   * the target shard is hashed once, instead of once for every shard as accept does
+   */
+  @Override
+  public List<Integer> route(String id, IndexRouteParam routeParam, Collection<Integer> shardIds) {
+    if (id == null) {
+      return new ArrayList<>(shardIds);
+    }
+    int target;
+    if (routeParam == null || !routeParam.isSetShardIds() || routeParam.getShardIds().isEmpty()) {
+      target = Math.abs(id.hashCode() % shardCount.get());
+    } else {
+      List<Integer> ids = new ArrayList<>(routeParam.getShardIds());
+      target = ids.get(Math.abs(id.hashCode() % routeParam.getShardIdsSize()));
+    }
+    return shardIds.contains(target) ? Collections.singletonList(target) : Collections.<Integer>emptyList();
+  }
+
   @Override
   public void close() throws IOException {
     zkClient.close();
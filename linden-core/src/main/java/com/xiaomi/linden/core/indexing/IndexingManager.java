@@ -17,11 +17,15 @@ package com.xiaomi.linden.core.indexing;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
@@ -32,23 +36,43 @@ import com.xiaomi.linden.core.LindenConfig;
 import com.xiaomi.linden.core.search.LindenCore;
 import com.xiaomi.linden.plugin.gateway.DataProvider;
 import com.xiaomi.linden.thrift.common.IndexRequestType;
+import com.xiaomi.linden.thrift.common.IndexingInfo;
 import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.Response;
 
+/**
+ * Indexing pipeline: the producer reads chunks of data from the provider, parsing threads parse the chunks
+ * in parallel, the dispatcher hands parsed requests to indexing threads in the order they were read,
+ * partitioned by id hash so requests of one id keep their order, and every indexing thread applies
+ * whatever its queue holds in one batch. Bounded queues make a slow stage hold back the ones before it.
+ */
 abstract public class IndexingManager<T> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(IndexingManager.class);
+  // a provider returning at once is polled again after this many milliseconds at most when it has no data
+  private static final long MAX_IDLE_WAIT_MILLIS = 100;
+  // a chunk is closed when the provider has no data ready, or after this many milliseconds
+  private static final long MAX_CHUNK_LINGER_MILLIS = 10;
 
   protected final DataProvider<T> provider;
-  protected final List<LinkedBlockingQueue<LindenIndexRequest>> queues = new ArrayList<>();
+  protected final List<BlockingQueue<LindenIndexRequest>> queues = new ArrayList<>();
   protected final ExecutorService indexingService;
+  protected final ExecutorService parsingService;
   protected final int threadNum;
+  protected final int batchSize;
   protected final Producer producer;
+  protected final Dispatcher dispatcher;
   protected final LindenConfig lindenConfig;
   private final LindenCore lindenCore;
   protected final List<Future<?>> consumerResponses = new ArrayList<>();
   protected final Function<T, LindenIndexRequest> indexRequestParser;
   private final ShardingStrategy shardingStrategy;
+  // chunks being parsed, in the order they were read
+  private final BlockingQueue<Future<List<LindenIndexRequest>>> parsingChunks;
+
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong indexedCount = new AtomicLong();
+  private final AtomicLong failedCount = new AtomicLong();
 
   public IndexingManager(DataProvider<T> provider, LindenConfig lindenConfig, LindenCore lindenCore,
                          Function<T, LindenIndexRequest> parser, ShardingStrategy shardingStrategy) {
@@ -59,32 +83,44 @@ abstract public class IndexingManager<T> {
       // hot swap mode need order-preserving index data, since swap command data is in the same channel with index data
       this.threadNum = 1;
     }
+    this.batchSize = Math.max(1, lindenConfig.getIndexManagerBatchSize());
     this.indexingService = Executors.newFixedThreadPool(threadNum);
+    int parseThreadNum = Math.max(1, lindenConfig.getIndexManagerParseThreadNum());
+    this.parsingService = Executors.newFixedThreadPool(parseThreadNum);
+    this.parsingChunks = new ArrayBlockingQueue<>(2 * parseThreadNum);
     this.producer = new Producer();
+    this.dispatcher = new Dispatcher();
     this.lindenConfig = lindenConfig;
     this.lindenCore = lindenCore;
     this.indexRequestParser = parser;
     this.shardingStrategy = shardingStrategy;
   }
 
-  protected void index(LindenIndexRequest indexRequest) {
-    try {
-      Response response = lindenCore.index(indexRequest);
-      if (!response.isSuccess()) {
-        LOGGER.error("Handle index request failed: type={}, {}", indexRequest.getType(), indexRequest,
+  protected void index(List<LindenIndexRequest> indexRequests) {
+    List<Response> responses = lindenCore.index(indexRequests);
+    for (int i = 0; i < responses.size(); ++i) {
+      Response response = responses.get(i);
+      if (response.isSuccess()) {
+        indexedCount.incrementAndGet();
+      } else {
+        failedCount.incrementAndGet();
+        LindenIndexRequest indexRequest = indexRequests.get(i);
+        LOGGER.error("Handle index request failed: type={}, {}, {}", indexRequest.getType(), indexRequest,
                      response.getError());
       }
-    } catch (Exception e) {
-      LOGGER.error("Handle index request failed: {}, {}", indexRequest, Throwables.getStackTraceAsString(e));
     }
   }
 
   public void start() {
-    producer.start();
+    // queues exist before any thread may use them
+    for (int i = 0; i < threadNum; ++i) {
+      queues.add(new ArrayBlockingQueue<LindenIndexRequest>(lindenConfig.getIndexManagerQueueSize()));
+    }
     for (int i = 0; i < threadNum; ++i) {
       consumerResponses.add(indexingService.submit(new Consumer(i)));
-      queues.add(new LinkedBlockingQueue<LindenIndexRequest>(500));
     }
+    dispatcher.start();
+    producer.start();
   }
 
   public void stop() {
@@ -102,6 +138,13 @@ abstract public class IndexingManager<T> {
     } catch (IOException e) {
       LOGGER.error("Fail to close dataProvider");
     }
+    parsingService.shutdownNow();
+    dispatcher.interrupt();
+    try {
+      dispatcher.join();
+    } catch (InterruptedException e) {
+      LOGGER.error("Fail to close dispatcher");
+    }
     for (Future<?> response : consumerResponses) {
       response.cancel(true);
     }
@@ -115,33 +158,77 @@ abstract public class IndexingManager<T> {
     LOGGER.info("Shutting down indexing manager...done");
   }
 
-  private class Producer extends Thread {
+  public IndexingInfo getIndexingInfo() {
+    long elapsed = System.nanoTime() - startNanos;
+    List<Integer> queueDepths = new ArrayList<>(queues.size());
+    for (BlockingQueue<LindenIndexRequest> queue : queues) {
+      queueDepths.add(queue.size());
+    }
+    return new IndexingInfo(indexedCount.get(), failedCount.get())
+        .setThroughput(elapsed == 0 ? 0 : indexedCount.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed)
+        .setQueueDepths(queueDepths)
+        .setParsingDepth(parsingChunks.size());
+  }
+
+  private List<LindenIndexRequest> parse(List<T> chunk) {
+    List<LindenIndexRequest> indexRequests = new ArrayList<>(chunk.size());
+    for (T data : chunk) {
+      try {
+        LindenIndexRequest indexRequest = indexRequestParser.apply(data);
+        if (indexRequest != null) {
+          indexRequests.add(indexRequest);
+        } else {
+          failedCount.incrementAndGet();
+        }
+      } catch (Exception e) {
+        failedCount.incrementAndGet();
+        LOGGER.error("{}", Throwables.getStackTraceAsString(e));
+      }
+    }
+    return indexRequests;
+  }
+
+  protected class Producer extends Thread {
 
     @Override
     public void run() {
+      long idleWait = 1;
       while (true) {
         try {
           if (lindenCore.isIndexingManagerPaused()) {
             Thread.sleep(500);
             continue;
           }
-          T data = provider.next();
-          if (data == null) {
-            Thread.sleep(500);
-            continue;
+          final List<T> chunk = new ArrayList<>(batchSize);
+          long lingerDeadline = 0;
+          while (chunk.size() < batchSize) {
+            T data = provider.next();
+            if (data == null) {
+              break;
+            }
+            chunk.add(data);
+            if (chunk.size() == 1) {
+              lingerDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_CHUNK_LINGER_MILLIS);
+            } else if (System.nanoTime() - lingerDeadline >= 0) {
+              break;
+            }
           }
-          LindenIndexRequest indexRequest = indexRequestParser.apply(data);
-          assert indexRequest != null;
-          if (indexRequest.getType() == IndexRequestType.DELETE || shardingStrategy
-              .accept(indexRequest.getId(), indexRequest.getRouteParam())) {
-            int queueIdx = 0;
-            // indexRequest.getId() is null when this is an operation request
-            if (indexRequest.getId() != null) {
-              int reHash = Integer.toString(indexRequest.getId().hashCode()).hashCode();
-              queueIdx = (reHash & Integer.MAX_VALUE) % threadNum;
+          if (chunk.isEmpty()) {
+            // a blocking provider has waited for new data already, sleeping on top would only delay it
+            if (provider.getPollTimeout() == 0) {
+              // back off while the provider is idle, but pick up new data quickly
+              Thread.sleep(idleWait);
+              idleWait = Math.min(2 * idleWait, MAX_IDLE_WAIT_MILLIS);
             }
-            queues.get(queueIdx).put(indexRequest);
+            continue;
           }
+          idleWait = 1;
+          parsingChunks.put(parsingService.submit(new Callable<List<LindenIndexRequest>>() {
+            @Override
+            public List<LindenIndexRequest> call() {
+              return parse(chunk);
+            }
+          }));
         } catch (InterruptedException e) {
           break;
         } catch (Exception e) {
@@ -152,6 +239,34 @@ abstract public class IndexingManager<T> {
     }
   }
 
+  protected class Dispatcher extends Thread {
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          for (LindenIndexRequest indexRequest : parsingChunks.take().get()) {
+            if (indexRequest.getType() == IndexRequestType.DELETE || shardingStrategy
+                .accept(indexRequest.getId(), indexRequest.getRouteParam())) {
+              int queueIdx = 0;
+              // indexRequest.getId() is null when this is an operation request
+              if (indexRequest.getId() != null) {
+                int reHash = Integer.toString(indexRequest.getId().hashCode()).hashCode();
+                queueIdx = (reHash & Integer.MAX_VALUE) % threadNum;
+              }
+              queues.get(queueIdx).put(indexRequest);
+            }
+          }
+        } catch (InterruptedException e) {
+          break;
+        } catch (ExecutionException e) {
+          LOGGER.error("{}", Throwables.getStackTraceAsString(e));
+        }
+      }
+      LOGGER.info("Indexing dispatcher exit.");
+    }
+  }
+
   private class Consumer extends Thread {
 
     private int cid;
@@ -162,14 +277,15 @@ abstract public class IndexingManager<T> {
 
     @Override
     public void run() {
+      BlockingQueue<LindenIndexRequest> queue = queues.get(cid);
+      List<LindenIndexRequest> batch = new ArrayList<>(batchSize);
       while (true) {
         try {
-          LindenIndexRequest request = queues.get(cid).poll(500, TimeUnit.MILLISECONDS);
-          if (request == null) {
-            Thread.sleep(500);
-            continue;
-          }
-          index(request);
+          // wait for the first request, then take what has queued up behind it
+          batch.add(queue.take());
+          queue.drainTo(batch, batchSize - 1);
+          index(batch);
+          batch.clear();
         } catch (InterruptedException e) {
           break;
         }
@@ -26,6 +26,7 @@ public class LindenIndexRequestParser {
   private static final String INDEX = "index";
   private static final String UPDATE = "update";
   private static final String REPLACE = "replace";
+  private static final String INCREMENT = "increment";
   private static final String CONTENT = "content";
   private static final String DELETE = "delete";
   private static final String ROUTE = "route";
@@ -61,6 +62,12 @@ public class LindenIndexRequestParser {
           request.setDoc(LindenDocumentBuilder.build(schema, json.getJSONObject(CONTENT)));
           request.setId(request.getDoc().getId());
           break;
+        // content values are deltas of numeric doc values fields
+        case INCREMENT:
+          request.setType(IndexRequestType.INCREMENT);
+          request.setDoc(LindenDocumentBuilder.build(schema, json.getJSONObject(CONTENT)));
+          request.setId(request.getDoc().getId());
+          break;
         // delete one index in multi core linden mode
         case DELETE_INDEX:
           request.setType(IndexRequestType.DELETE_INDEX);
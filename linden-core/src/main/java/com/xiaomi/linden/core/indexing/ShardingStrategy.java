@@ -15,6 +15,9 @@
 package com.xiaomi.linden.core.indexing;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 import com.xiaomi.linden.thrift.common.IndexRouteParam;
 
@@ -27,5 +30,18 @@ public abstract class ShardingStrategy implements Closeable {
   public abstract boolean accept(String id, IndexRouteParam routeParam);
   public abstract boolean accept(String id, IndexRouteParam routeParam, int shardId);
 
+  /**
+   * @return the shards among shardIds accepting the document
+   */
+  public List<Integer> route(String id, IndexRouteParam routeParam, Collection<Integer> shardIds) {
+    List<Integer> accepted = new ArrayList<>();
+    for (Integer shardId : shardIds) {
+      if (accept(id, routeParam, shardId)) {
+        accepted.add(shardId);
+      }
+    }
+    return accepted;
+  }
+
   public int getShardId() { return shardId; }
 }
@@ -32,6 +32,7 @@ import com.xiaomi.linden.core.RuntimeInfoUtils;
 import com.xiaomi.linden.thrift.common.FileDiskUsageInfo;
 import com.xiaomi.linden.thrift.common.IndexRequestType;
 import com.xiaomi.linden.thrift.common.LindenDeleteRequest;
+import com.xiaomi.linden.thrift.common.LindenFetchRequest;
 import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
@@ -105,6 +106,16 @@ public class HotSwapLindenCoreImpl extends LindenCore {
     return currentLindenCore.search(request);
   }
 
+  @Override
+  public LindenSearchView acquireSearchView() throws IOException {
+    return currentLindenCore.acquireSearchView();
+  }
+
+  @Override
+  public LindenResult fetch(LindenFetchRequest request) throws IOException {
+    return currentLindenCore.fetch(request);
+  }
+
   @Override
   public Response delete(LindenDeleteRequest request) throws IOException {
     if (!request.isSetIndexNames()) {
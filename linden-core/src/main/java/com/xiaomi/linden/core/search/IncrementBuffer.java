@@ -0,0 +1,267 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core.search;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xiaomi.linden.thrift.common.IndexRequestType;
+import com.xiaomi.linden.thrift.common.LindenDocument;
+import com.xiaomi.linden.thrift.common.LindenField;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
+
+/**
+ * Pending deltas of numeric doc values fields keyed by document id, increments of the same field are folded into
+ * one delta. The deltas are applied on top of the values in the current searcher, so an id written by any other
+ * request since the searcher was opened is marked dirty, and its deltas are deferred until a refresh opens a
+ * searcher which sees the write.
+ */
+public class IncrementBuffer {
+
+  private final int maxPendingDocs;
+  private Map<String, Map<String, Number>> deltas = new LinkedHashMap<>();
+  // deltas of dirty ids, waiting for the next refresh
+  private Map<String, Map<String, Number>> deferred = new LinkedHashMap<>();
+  // deferred deltas waiting for the searcher opened by the refresh going on
+  private Map<String, Map<String, Number>> ready = new LinkedHashMap<>();
+  // ids whose doc values may differ between the index writer and the current searcher
+  private Set<String> dirtyIds = new HashSet<>();
+  // dirty ids whose last write is a delete
+  private Set<String> deletedIds = new HashSet<>();
+  // dirty ids before the refresh going on, only the searcher it opens sees their writes
+  private Set<String> refreshingIds = new HashSet<>();
+  // refreshing ids whose last write is a delete
+  private Set<String> refreshingDeletedIds = new HashSet<>();
+  private final AtomicLong foldedCount = new AtomicLong();
+
+  public IncrementBuffer(int maxPendingDocs) {
+    this.maxPendingDocs = maxPendingDocs;
+  }
+
+  /**
+   * Only doc values fields can be updated in place, neither indexed nor stored.
+   */
+  public static boolean isIncrementable(LindenFieldSchema schema) {
+    if (!schema.isDocValues() || schema.isIndexed() || schema.isStored() || schema.isMulti()
+        || schema.isDynamicSchema()) {
+      return false;
+    }
+    switch (schema.getType()) {
+      case INTEGER:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return true if the current searcher tells whether the document exists, it has neither been written nor
+   * incremented since the searcher was opened
+   */
+  public synchronized boolean isUntouched(String id) {
+    return !deltas.containsKey(id) && !dirtyIds.contains(id) && !refreshingIds.contains(id)
+           && !ready.containsKey(id);
+  }
+
+  /**
+   * Deltas of a dirty id are deferred until the next refresh instead of applied on a stale searcher, those of an
+   * id dirty before the refresh going on wait for the searcher it opens.
+   *
+   * @return false if the document is deleted since the current searcher was opened, nothing is added
+   * @throws NumberFormatException if a delta is not a number of the field type
+   */
+  public synchronized boolean add(LindenDocument doc) {
+    if (deletedIds.contains(doc.getId()) || refreshingDeletedIds.contains(doc.getId())) {
+      return false;
+    }
+    // parse all deltas first, a bad value must not leave the others added
+    Map<String, Number> parsed = new HashMap<>();
+    for (LindenField field : doc.getFields()) {
+      parsed.put(field.getSchema().getName(), parseDelta(field.getValue(), field.getSchema()));
+    }
+    if (dirtyIds.contains(doc.getId())) {
+      fold(deferred, doc.getId(), parsed);
+    } else if (refreshingIds.contains(doc.getId()) || ready.containsKey(doc.getId())) {
+      fold(ready, doc.getId(), parsed);
+    } else {
+      fold(deltas, doc.getId(), parsed);
+    }
+    return true;
+  }
+
+  private void fold(Map<String, Map<String, Number>> target, String id, Map<String, Number> parsed) {
+    Map<String, Number> fields = target.get(id);
+    if (fields == null) {
+      target.put(id, parsed);
+      return;
+    }
+    for (Map.Entry<String, Number> entry : parsed.entrySet()) {
+      Number delta = entry.getValue();
+      Number previous = fields.get(entry.getKey());
+      if (previous != null) {
+        foldedCount.incrementAndGet();
+        delta = delta instanceof Long ? (Number) (previous.longValue() + delta.longValue())
+                                      : (Number) (previous.doubleValue() + delta.doubleValue());
+      }
+      fields.put(entry.getKey(), delta);
+    }
+  }
+
+  /**
+   * Called before and after any other write of the id is applied or buffered. Pending deltas it overwrites are
+   * dropped, and the id is dirty until the searcher opened by the next refresh sees the write.
+   */
+  public synchronized void written(LindenIndexRequest request) {
+    String id = request.getType() == IndexRequestType.DELETE || !request.isSetDoc() ? request.getId()
+                                                                                    : request.getDoc().getId();
+    if (id == null) {
+      return;
+    }
+    dirtyIds.add(id);
+    switch (request.getType()) {
+      case DELETE:
+        deletedIds.add(id);
+        break;
+      case INDEX:
+      case REPLACE:
+        deletedIds.remove(id);
+        refreshingDeletedIds.remove(id);
+        break;
+      default:
+        // an update doesn't bring a deleted document back
+        break;
+    }
+    drop(deltas, id, request);
+    drop(deferred, id, request);
+    drop(ready, id, request);
+  }
+
+  private static void drop(Map<String, Map<String, Number>> target, String id, LindenIndexRequest request) {
+    Map<String, Number> fields = target.get(id);
+    if (fields == null) {
+      return;
+    }
+    if (request.getType() == IndexRequestType.UPDATE) {
+      for (LindenField field : request.getDoc().getFields()) {
+        fields.remove(field.getSchema().getName());
+      }
+      if (!fields.isEmpty()) {
+        return;
+      }
+    }
+    target.remove(id);
+  }
+
+  /**
+   * Called at the beginning of a refresh, the searcher it opens sees all writes applied so far. The current
+   * searcher doesn't until the refresh ends, so the dirty ids stay refreshing till then.
+   */
+  public synchronized void beforeRefresh() {
+    refreshingIds.addAll(dirtyIds);
+    refreshingDeletedIds.addAll(deletedIds);
+    dirtyIds = new HashSet<>();
+    deletedIds = new HashSet<>();
+    for (Map.Entry<String, Map<String, Number>> entry : deferred.entrySet()) {
+      fold(ready, entry.getKey(), entry.getValue());
+    }
+    deferred = new LinkedHashMap<>();
+  }
+
+  /**
+   * @param markDirty true if the deltas are not applied right before a refresh, the next searcher won't see them
+   *                  either, otherwise they are seen once the refresh going on ends
+   * @return pending deltas by id and field name, the buffer is empty afterwards
+   */
+  public synchronized Map<String, Map<String, Number>> drain(boolean markDirty) {
+    Map<String, Map<String, Number>> drained = deltas;
+    deltas = new LinkedHashMap<>();
+    if (markDirty) {
+      dirtyIds.addAll(drained.keySet());
+    } else {
+      refreshingIds.addAll(drained.keySet());
+    }
+    return drained;
+  }
+
+  /**
+   * Called at the end of a refresh, the current searcher sees the writes applied before it began, and the
+   * deltas deferred for it can be applied on it. The searcher doesn't see them, so their ids are dirty.
+   *
+   * @return deferred deltas by id and field name
+   */
+  public synchronized Map<String, Map<String, Number>> afterRefresh() {
+    refreshingIds = new HashSet<>();
+    refreshingDeletedIds = new HashSet<>();
+    Map<String, Map<String, Number>> drained = ready;
+    ready = new LinkedHashMap<>();
+    dirtyIds.addAll(drained.keySet());
+    return drained;
+  }
+
+  /**
+   * @return true if some deltas wait for a refresh before they can be applied
+   */
+  public synchronized boolean hasDeferred() {
+    return !deferred.isEmpty() || !ready.isEmpty();
+  }
+
+  public synchronized boolean isFull() {
+    return deltas.size() + deferred.size() >= maxPendingDocs;
+  }
+
+  /**
+   * increments folded into a pending delta of the same field
+   */
+  public long getFoldedCount() {
+    return foldedCount.get();
+  }
+
+  private static Number parseDelta(String value, LindenFieldSchema schema) {
+    switch (schema.getType()) {
+      case INTEGER:
+      case LONG:
+        return Long.valueOf(value);
+      default:
+        return Double.valueOf(value);
+    }
+  }
+
+  /**
+   * @param value the doc values of field, encoded as LindenDocParser does
+   * @return the incremented doc values, in the same encoding
+   */
+  public static long increment(long value, Number delta, LindenFieldSchema schema) {
+    switch (schema.getType()) {
+      case INTEGER:
+        return (int) (value + delta.longValue());
+      case LONG:
+        return value + delta.longValue();
+      case FLOAT:
+        return Float.floatToIntBits((float) (Float.intBitsToFloat((int) value) + delta.doubleValue()));
+      case DOUBLE:
+        return Double.doubleToLongBits(Double.longBitsToDouble(value) + delta.doubleValue());
+      default:
+        throw new IllegalStateException("Field " + schema.getName() + " can not be incremented");
+    }
+  }
+}
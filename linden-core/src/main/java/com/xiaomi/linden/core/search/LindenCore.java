@@ -15,14 +15,18 @@
 package com.xiaomi.linden.core.search;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.alibaba.fastjson.JSONObject;
+import com.google.common.base.Throwables;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xiaomi.linden.core.LindenConfig;
 import com.xiaomi.linden.thrift.common.LindenDeleteRequest;
+import com.xiaomi.linden.thrift.common.LindenFetchRequest;
 import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
@@ -45,12 +49,52 @@ abstract public class LindenCore {
 
   abstract public LindenResult search(LindenSearchRequest request) throws IOException;
 
+  /**
+   * @return a view searched by several requests, cores without a single searcher search the latest documents
+   */
+  public LindenSearchView acquireSearchView() throws IOException {
+    return new LindenSearchView() {
+      @Override
+      public LindenResult search(LindenSearchRequest request) throws IOException {
+        return LindenCore.this.search(request);
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  /**
+   * Build source, explanation and snippets of the documents with the given ids, as requested by
+   * the search request of the fetch request. Ids not found are skipped.
+   */
+  abstract public LindenResult fetch(LindenFetchRequest request) throws IOException;
+
   abstract public Response delete(LindenDeleteRequest request) throws IOException;
 
   abstract public void refresh() throws IOException;
 
   abstract public Response index(LindenIndexRequest request) throws IOException;
 
+  /**
+   * Apply index requests in order, a failed request does not stop the following ones.
+   *
+   * @return one response for every request
+   */
+  public List<Response> index(List<LindenIndexRequest> requests) {
+    List<Response> responses = new ArrayList<>(requests.size());
+    for (LindenIndexRequest request : requests) {
+      try {
+        responses.add(index(request));
+      } catch (Exception e) {
+        LOGGER.error("Index request {} failed : {}", request.getId(), Throwables.getStackTraceAsString(e));
+        responses.add(ResponseUtils.buildFailedResponse(e));
+      }
+    }
+    return responses;
+  }
+
   abstract public void commit() throws IOException;
 
   abstract public void close() throws IOException;
@@ -17,7 +17,11 @@ package com.xiaomi.linden.core.search;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
@@ -34,16 +38,28 @@ import org.apache.lucene.facet.FacetsConfig;
 import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
 import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.index.TrackingIndexWriter;
 import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TimeLimitingCollector;
@@ -57,6 +73,8 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.NRTCachingDirectory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -68,15 +86,19 @@ import com.xiaomi.linden.core.search.query.QueryConstructor;
 import com.xiaomi.linden.core.search.query.filter.FilterConstructor;
 import com.xiaomi.linden.core.search.query.sort.SortConstructor;
 import com.xiaomi.linden.lucene.collector.EarlyTerminationCollector;
+import com.xiaomi.linden.lucene.collector.FlexiblePruningCollector;
 import com.xiaomi.linden.lucene.collector.LindenDocsCollector;
 import com.xiaomi.linden.lucene.merge.SortingMergePolicyDecorator;
 import com.xiaomi.linden.thrift.common.FacetDrillingType;
 import com.xiaomi.linden.thrift.common.FileDiskUsageInfo;
+import com.xiaomi.linden.thrift.common.IndexRequestType;
 import com.xiaomi.linden.thrift.common.LindenDeleteRequest;
 import com.xiaomi.linden.thrift.common.LindenDocument;
 import com.xiaomi.linden.thrift.common.LindenFacet;
 import com.xiaomi.linden.thrift.common.LindenFacetDimAndPath;
+import com.xiaomi.linden.thrift.common.LindenFetchRequest;
 import com.xiaomi.linden.thrift.common.LindenField;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
 import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
@@ -95,6 +117,13 @@ public class LindenCoreImpl extends LindenCore {
   private final CommitStrategy commitStrategy;
   private final LindenSnippetGenerator snippetGenerator;
   private final FacetsConfig facetsConfig;
+  private final LindenRequestCache requestCache;
+  // null if write coalescing is disabled
+  private final WriteCoalescingBuffer writeBuffer;
+  // null if no field of the schema can be incremented
+  private final IncrementBuffer incrementBuffer;
+  // pending writes are applied by one thread at a time, in the order they were drained
+  private final Object applyLock = new Object();
   private String idFieldName;
 
   public LindenCoreImpl(LindenConfig lindenConfig) throws IOException {
@@ -124,6 +153,40 @@ public class LindenCoreImpl extends LindenCore {
     lindenNRTSearcherManager = new LindenNRTSearcherManager(config,
                                                             trackingIndexWriter, taxoWriter);
     snippetGenerator = new LindenSnippetGenerator();
+    requestCache = config.getShardCacheSizeMB() > 0
+                   ? new LindenRequestCache(config.getShardCacheSizeMB() * 1024L * 1024L) : null;
+    writeBuffer = config.getWriteCoalescingBufferSize() > 0
+                  ? new WriteCoalescingBuffer(config.getWriteCoalescingBufferSize()) : null;
+    boolean incrementable = false;
+    for (LindenFieldSchema fieldSchema : config.getSchema().getFields()) {
+      incrementable |= IncrementBuffer.isIncrementable(fieldSchema);
+    }
+    incrementBuffer = incrementable ? new IncrementBuffer(config.getIncrementBufferSize()) : null;
+    if (writeBuffer != null || incrementBuffer != null) {
+      lindenNRTSearcherManager.addRefreshListener(new ReferenceManager.RefreshListener() {
+        @Override
+        public void beforeRefresh() throws IOException {
+          if (incrementBuffer != null) {
+            incrementBuffer.beforeRefresh();
+          }
+          if (writeBuffer != null) {
+            writeBuffer.beforeRefresh();
+          }
+          applyPendingWrites(true);
+          applyIncrements(true);
+        }
+
+        @Override
+        public void afterRefresh(boolean didRefresh) throws IOException {
+          if (writeBuffer != null) {
+            writeBuffer.afterRefresh();
+          }
+          if (incrementBuffer != null) {
+            applyIncrements(incrementBuffer.afterRefresh());
+          }
+        }
+      });
+    }
   }
 
 
@@ -153,6 +216,56 @@ public class LindenCoreImpl extends LindenCore {
 
   public LindenResult search(LindenSearchRequest request) throws IOException {
     SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy = lindenNRTSearcherManager.acquire();
+    try {
+      return cachedSearch(request, searcherAndTaxonomy);
+    } finally {
+      lindenNRTSearcherManager.release(searcherAndTaxonomy);
+    }
+  }
+
+  /**
+   * all searches of the view see the same point in time, the searcher is acquired once
+   */
+  @Override
+  public LindenSearchView acquireSearchView() throws IOException {
+    final SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy = lindenNRTSearcherManager.acquire();
+    return new LindenSearchView() {
+      private final AtomicBoolean closed = new AtomicBoolean();
+
+      @Override
+      public LindenResult search(LindenSearchRequest request) throws IOException {
+        return cachedSearch(request, searcherAndTaxonomy);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+          lindenNRTSearcherManager.release(searcherAndTaxonomy);
+        }
+      }
+    };
+  }
+
+  private LindenResult cachedSearch(LindenSearchRequest request,
+                                    SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy)
+      throws IOException {
+    IndexReader indexReader = searcherAndTaxonomy.searcher.getIndexReader();
+    if (requestCache == null || !(indexReader instanceof DirectoryReader)
+        || !LindenRequestCache.isCacheable(request, config)) {
+      return search(request, searcherAndTaxonomy);
+    }
+    // the reader version changes whenever a refresh changes the index
+    long version = ((DirectoryReader) indexReader).getVersion();
+    LindenResult result = requestCache.get(request, version);
+    if (result == null) {
+      result = search(request, searcherAndTaxonomy);
+      requestCache.put(request, version, result);
+    }
+    return result;
+  }
+
+  private LindenResult search(LindenSearchRequest request,
+                              SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy) throws IOException {
     try {
       IndexSearcher indexSearcher = searcherAndTaxonomy.searcher;
       Filter filter = FilterConstructor.constructFilter(request.getFilter(), config);
@@ -166,16 +279,36 @@ public class LindenCoreImpl extends LindenCore {
 
       int from = request.getOffset();
       int size = request.getLength();
+      // search after cursor replaces the offset, only hits after the cursor are collected
+      ScoreDoc after = null;
+      if (request.isSetSearchAfter()) {
+        if (request.isSetGroupParam()) {
+          throw new IOException("Search after is not supported in group search");
+        }
+        from = 0;
+        sort = SearchAfterUtil.withIdTiebreak(sort, idFieldName);
+        after = SearchAfterUtil.toAfter(request.getSearchAfter(), sort);
+      }
       LindenResultParser resultParser = new LindenResultParser(config, request,
                                                                indexSearcher, snippetGenerator, query, filter, sort);
+      // top-k pruning needs hits sorted by score and can not serve facets, which count every matched doc
+      boolean pruning = sort == null && !request.isSetGroupParam() && !request.isSetFacet() && after == null
+                        && FlexiblePruningCollector.isPruning(query);
+
+      // the tighter of the configured search time limit and the deadline of the request
+      long timeLimit = config.getSearchTimeLimit();
+      if (request.isSetTimeout() && (timeLimit <= 0 || request.getTimeout() < timeLimit)) {
+        timeLimit = request.getTimeout();
+      }
+
       // very common search, no group, no facet, no early termination, no search time limit
       if (!request.isSetGroupParam() && !request.isSetFacet()
-          && !request.isSetEarlyParam() && config.getSearchTimeLimit() <= 0) {
+          && !request.isSetEarlyParam() && timeLimit <= 0 && !pruning) {
         TopDocs docs;
         if (sort != null) {
-          docs = indexSearcher.search(query, from + size, sort);
+          docs = indexSearcher.searchAfter(after, query, from + size, sort);
         } else {
-          docs = indexSearcher.search(query, from + size);
+          docs = indexSearcher.searchAfter(after, query, from + size);
         }
         return resultParser.parse(docs, null, null, null);
       }
@@ -198,9 +331,9 @@ public class LindenCoreImpl extends LindenCore {
 
       TopDocsCollector topDocsCollector;
       if (sort != null) {
-        topDocsCollector = TopFieldCollector.create(sort, from + size, null, true, false, false, false);
+        topDocsCollector = TopFieldCollector.create(sort, from + size, (FieldDoc) after, true, false, false, false);
       } else {
-        topDocsCollector = TopScoreDocCollector.create(from + size, false);
+        topDocsCollector = TopScoreDocCollector.create(from + size, after, false);
       }
 
       LindenDocsCollector lindenDocsCollector;
@@ -219,16 +352,18 @@ public class LindenCoreImpl extends LindenCore {
       }
 
       Collector collector = lindenDocsCollector;
-      if (config.getSearchTimeLimit() > 0) {
-        collector = new TimeLimitingCollector(lindenDocsCollector,
-                                              TimeLimitingCollector.getGlobalCounter(),
-                                              config.getSearchTimeLimit());
+      if (pruning) {
+        collector = new FlexiblePruningCollector(collector, from + size);
+      }
+      if (timeLimit > 0) {
+        collector = new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(), timeLimit);
       }
 
       // no facet param
       if (!request.isSetFacet()) {
-        indexSearcher.search(query, collector);
-        return resultParser.parse(lindenDocsCollector.topDocs(), null, null, null);
+        boolean partial = searchInTime(indexSearcher, query, collector);
+        LindenResult result = resultParser.parse(lindenDocsCollector.topDocs(), null, null, null);
+        return partial ? result.setPartial(true) : result;
       }
 
       // facet search
@@ -237,6 +372,7 @@ public class LindenCoreImpl extends LindenCore {
       lindenDocsCollector.wrap(facetsCollector);
 
       Facets facets = null;
+      boolean partial = false;
       if (facetRequest.isSetDrillDownDimAndPaths()) {
         // drillDown or drillSideways
         DrillDownQuery drillDownQuery = new DrillDownQuery(facetsConfig, query);
@@ -254,21 +390,64 @@ public class LindenCoreImpl extends LindenCore {
         if (facetRequest.getFacetDrillingType() == FacetDrillingType.DRILLSIDEWAYS) {
           DrillSideways dillSideways = new DrillSideways(indexSearcher, facetsConfig,
                                                          searcherAndTaxonomy.taxonomyReader);
-          DrillSideways.DrillSidewaysResult drillSidewaysResult = dillSideways.search(drillDownQuery, collector);
-          facets = drillSidewaysResult.facets;
+          try {
+            DrillSideways.DrillSidewaysResult drillSidewaysResult = dillSideways.search(drillDownQuery, collector);
+            facets = drillSidewaysResult.facets;
+          } catch (TimeLimitingCollector.TimeExceededException e) {
+            // sideways counts are lost, hits collected so far are still returned
+            partial = true;
+          }
         } else {
           // drillDown
-          indexSearcher.search(drillDownQuery, collector);
+          partial = searchInTime(indexSearcher, drillDownQuery, collector);
           facets = new FastTaxonomyFacetCounts(searcherAndTaxonomy.taxonomyReader, facetsConfig, facetsCollector);
         }
       } else {
-        indexSearcher.search(query, collector);
+        partial = searchInTime(indexSearcher, query, collector);
         // Simple facet browsing
         if (facetRequest.isSetFacetParams()) {
           facets = new FastTaxonomyFacetCounts(searcherAndTaxonomy.taxonomyReader, facetsConfig, facetsCollector);
         }
       }
-      return resultParser.parse(lindenDocsCollector.topDocs(), null, facets, facetsCollector);
+      LindenResult result = resultParser.parse(lindenDocsCollector.topDocs(), null, facets, facetsCollector);
+      return partial ? result.setPartial(true) : result;
+    } catch (Exception e) {
+      throw new IOException(Throwables.getStackTraceAsString(e));
+    }
+  }
+
+  /**
+   * @return true if the time limit stopped the search, docs collected so far are kept by the collector
+   */
+  private static boolean searchInTime(IndexSearcher indexSearcher, Query query, Collector collector)
+      throws IOException {
+    try {
+      indexSearcher.search(query, collector);
+      return false;
+    } catch (TimeLimitingCollector.TimeExceededException e) {
+      return true;
+    }
+  }
+
+  @Override
+  public LindenResult fetch(LindenFetchRequest request) throws IOException {
+    SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy = lindenNRTSearcherManager.acquire();
+    try {
+      IndexSearcher indexSearcher = searcherAndTaxonomy.searcher;
+      LindenSearchRequest searchRequest = request.getSearchRequest();
+      Filter filter = FilterConstructor.constructFilter(searchRequest.getFilter(), config);
+      indexSearcher.setSimilarity(config.getSearchSimilarityInstance());
+
+      // explanations and snippets are built against the query of the search request
+      Query query = QueryConstructor.constructQuery(searchRequest.getQuery(), config);
+      if (filter != null) {
+        query = new FilteredQuery(query, filter);
+      }
+
+      List<ScoreDoc> hits = lookupIds(indexSearcher, request.getIds());
+      LindenResultParser resultParser = new LindenResultParser(config, searchRequest,
+                                                               indexSearcher, snippetGenerator, query, filter, null);
+      return new LindenResult().setHits(resultParser.parseFetchedHits(hits.toArray(new ScoreDoc[hits.size()])));
     } catch (Exception e) {
       throw new IOException(Throwables.getStackTraceAsString(e));
     } finally {
@@ -276,8 +455,47 @@ public class LindenCoreImpl extends LindenCore {
     }
   }
 
+  /**
+   * Documents of ids in the order of ids, ids not found are skipped.
+   * Every segment is looked up with one terms enum, seeking the ids in sorted order.
+   */
+  private List<ScoreDoc> lookupIds(IndexSearcher indexSearcher, List<String> ids) throws IOException {
+    List<String> sortedIds = new ArrayList<>(ids);
+    Collections.sort(sortedIds);
+    Map<String, ScoreDoc> docs = new HashMap<>();
+    for (AtomicReaderContext context : indexSearcher.getIndexReader().leaves()) {
+      Terms terms = context.reader().terms(idFieldName);
+      if (terms == null) {
+        continue;
+      }
+      TermsEnum termsEnum = terms.iterator(null);
+      Bits liveDocs = context.reader().getLiveDocs();
+      DocsEnum docsEnum = null;
+      for (String id : sortedIds) {
+        if (docs.containsKey(id) || !termsEnum.seekExact(new BytesRef(id))) {
+          continue;
+        }
+        docsEnum = termsEnum.docs(liveDocs, docsEnum, DocsEnum.FLAG_NONE);
+        int doc = docsEnum.nextDoc();
+        if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+          docs.put(id, new ScoreDoc(context.docBase + doc, 0));
+        }
+      }
+    }
+    List<ScoreDoc> hits = new ArrayList<>(docs.size());
+    for (String id : ids) {
+      ScoreDoc doc = docs.get(id);
+      if (doc != null) {
+        hits.add(doc);
+      }
+    }
+    return hits;
+  }
+
   @Override
   public Response delete(LindenDeleteRequest request) throws IOException {
+    // buffered documents matching the query must be deleted too
+    applyPendingWrites(false);
     SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy = lindenNRTSearcherManager.acquire();
     try {
       Query query = QueryConstructor.constructQuery(request.getQuery(), config);
@@ -293,6 +511,8 @@ public class LindenCoreImpl extends LindenCore {
   @Override
   public void close() throws IOException {
     LOGGER.info("Closing linden core");
+    applyPendingWrites(false);
+    applyAllIncrements();
     commitStrategy.close();
     LOGGER.info("commitStrategy closed");
     indexWriter.close();
@@ -327,18 +547,28 @@ public class LindenCoreImpl extends LindenCore {
     }
     List<Integer> segmentNums = new ArrayList<>();
     segmentNums.add(segmentNum);
-    return new LindenServiceInfo().setDocsNum(docNum).setJvmInfo(RuntimeInfoUtils.getJVMInfo())
-        .setFileUsedInfos(fileDiskUsageInfos).setSegmentNums(segmentNums);
+    LindenServiceInfo serviceInfo = new LindenServiceInfo().setDocsNum(docNum)
+        .setJvmInfo(RuntimeInfoUtils.getJVMInfo()).setFileUsedInfos(fileDiskUsageInfos).setSegmentNums(segmentNums);
+    if (config.getFilterCache() != null) {
+      serviceInfo.setFilterCacheInfo(config.getFilterCache().getCacheInfo());
+    }
+    if (requestCache != null) {
+      serviceInfo.setShardCacheInfo(requestCache.getCacheInfo());
+    }
+    return serviceInfo;
   }
 
   @Override
   public Response mergeIndex(int maxNumSegments) throws IOException {
+    applyPendingWrites(false);
     indexWriter.forceMerge(maxNumSegments);
     return ResponseUtils.SUCCESS;
   }
 
   @Override
   public Response flushIndex() throws IOException {
+    applyPendingWrites(false);
+    applyAllIncrements();
     indexWriter.commit();
     if (taxoWriter != null) {
       taxoWriter.commit();
@@ -353,9 +583,202 @@ public class LindenCoreImpl extends LindenCore {
 
   @Override
   public Response index(LindenIndexRequest request) throws IOException {
+    Response response = write(request);
+    if (writeBuffer != null && writeBuffer.isFull()) {
+      applyPendingWrites(false);
+    }
+    return response;
+  }
+
+  /**
+   * Documents are still written one by one, IndexWriter has no batch update of independent ids,
+   * but a full write buffer is drained once per batch instead of once per request.
+   */
+  @Override
+  public List<Response> index(List<LindenIndexRequest> requests) {
+    List<Response> responses = new ArrayList<>(requests.size());
+    for (LindenIndexRequest request : requests) {
+      try {
+        responses.add(write(request));
+      } catch (Exception e) {
+        LOGGER.error("Index request {} failed : {}", request.getId(), Throwables.getStackTraceAsString(e));
+        responses.add(ResponseUtils.buildFailedResponse(e));
+      }
+    }
+    if (writeBuffer != null && writeBuffer.isFull()) {
+      try {
+        applyPendingWrites(false);
+      } catch (Exception e) {
+        LOGGER.error("Apply buffered requests failed : {}", Throwables.getStackTraceAsString(e));
+      }
+    }
+    return responses;
+  }
+
+  private Response write(LindenIndexRequest request) throws IOException {
     if (request == null) {
       return ResponseUtils.FAILED;
     }
+    if (request.getType() == IndexRequestType.INCREMENT) {
+      return increment(request.getDoc());
+    }
+    // pending increments are overwritten by the write, including those added while it is applied
+    if (incrementBuffer != null) {
+      incrementBuffer.written(request);
+    }
+    Response response;
+    if (writeBuffer != null && WriteCoalescingBuffer.isCoalescable(request)) {
+      response = writeBuffer.add(request);
+      if (response == null) {
+        response = bufferUpdate(request);
+      }
+    } else {
+      response = applyWrite(request);
+    }
+    if (incrementBuffer != null) {
+      incrementBuffer.written(request);
+    }
+    return response;
+  }
+
+  private Response increment(LindenDocument lindenDoc) throws IOException {
+    if (lindenDoc == null || !lindenDoc.isSetFields()) {
+      return ResponseUtils.FAILED;
+    }
+    for (LindenField field : lindenDoc.getFields()) {
+      if (incrementBuffer == null || !IncrementBuffer.isIncrementable(field.getSchema())) {
+        return ResponseUtils.buildFailedResponse(
+            "Field " + field.getSchema().getName() + " can not be incremented, only numeric doc values fields"
+            + " which are neither indexed nor stored can be");
+      }
+    }
+    // as an update, an increment of a missing document fails
+    if (incrementBuffer.isUntouched(lindenDoc.getId()) && !exists(lindenDoc.getId())) {
+      return ResponseUtils.buildFailedResponse("Document " + lindenDoc.getId() + " is not found");
+    }
+    try {
+      if (!incrementBuffer.add(lindenDoc)) {
+        return ResponseUtils.buildFailedResponse("Document " + lindenDoc.getId() + " is deleted");
+      }
+    } catch (NumberFormatException e) {
+      return ResponseUtils.buildFailedResponse("Invalid increment of document " + lindenDoc.getId() + " : " + e);
+    }
+    if (incrementBuffer.isFull()) {
+      lindenNRTSearcherManager.maybeRefreshBlocking();
+    }
+    return ResponseUtils.SUCCESS;
+  }
+
+  /**
+   * apply pending increments on top of the doc values in the current searcher
+   *
+   * @param inRefresh true if the searcher opened by the refresh going on sees the results, otherwise the
+   *                  incremented ids are dirty until the next refresh
+   */
+  private void applyIncrements(boolean inRefresh) throws IOException {
+    if (incrementBuffer == null) {
+      return;
+    }
+    applyIncrements(incrementBuffer.drain(!inRefresh));
+  }
+
+  /**
+   * apply all pending increments, the deferred ones wait for a refresh
+   */
+  private void applyAllIncrements() throws IOException {
+    if (incrementBuffer == null) {
+      return;
+    }
+    if (incrementBuffer.hasDeferred()) {
+      lindenNRTSearcherManager.maybeRefreshBlocking();
+    }
+    applyIncrements(false);
+  }
+
+  private void applyIncrements(Map<String, Map<String, Number>> increments) throws IOException {
+    if (increments.isEmpty()) {
+      return;
+    }
+    synchronized (applyLock) {
+      SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy = lindenNRTSearcherManager.acquire();
+      try {
+        IndexSearcher indexSearcher = searcherAndTaxonomy.searcher;
+        List<AtomicReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+        for (Map.Entry<String, Map<String, Number>> entry : increments.entrySet()) {
+          Term term = new Term(idFieldName, entry.getKey());
+          try {
+            TopDocs results = indexSearcher.search(new TermQuery(term), 1);
+            if (results.scoreDocs.length == 0) {
+              LOGGER.warn("Increments of document {} are dropped, document not found", entry.getKey());
+              continue;
+            }
+            int docId = results.scoreDocs[0].doc;
+            AtomicReaderContext context = leaves.get(ReaderUtil.subIndex(docId, leaves));
+            for (Map.Entry<String, Number> delta : entry.getValue().entrySet()) {
+              NumericDocValues values = context.reader().getNumericDocValues(delta.getKey());
+              long value = values == null ? 0 : values.get(docId - context.docBase);
+              value = IncrementBuffer.increment(value, delta.getValue(), config.getFieldSchema(delta.getKey()));
+              indexWriter.updateNumericDocValue(term, delta.getKey(), value);
+            }
+          } catch (Exception e) {
+            LOGGER.error("Apply increments of document {} failed : {}", entry.getKey(),
+                         Throwables.getStackTraceAsString(e));
+          }
+        }
+      } finally {
+        lindenNRTSearcherManager.release(searcherAndTaxonomy);
+      }
+    }
+  }
+
+  /**
+   * An update without a pending index in the buffer: doc values are updated in place at once, indexed fields
+   * are merged into the old document now, so a missing document fails to its caller, and the merged document
+   * is buffered as an index request.
+   */
+  private Response bufferUpdate(LindenIndexRequest request) throws IOException {
+    LindenDocument lindenDoc = request.getDoc();
+    if (LindenDocParser.isDocValueFields(lindenDoc)) {
+      return updateDocValues(lindenDoc);
+    }
+    // the old document is read from the searcher, which must see the buffered writes drained so far
+    if (writeBuffer.isUnrefreshed(lindenDoc.getId())) {
+      lindenNRTSearcherManager.maybeRefreshBlocking();
+    }
+    LindenDocument newDoc = mergeIndexedFields(lindenDoc);
+    if (newDoc == null) {
+      return ResponseUtils.FAILED;
+    }
+    return writeBuffer.add(new LindenIndexRequest(request).setType(IndexRequestType.INDEX).setDoc(newDoc));
+  }
+
+  /**
+   * write buffered requests to the index writer, failures are only logged since their callers are gone
+   *
+   * @param inRefresh true if the searcher opened by the refresh going on sees the results, otherwise the
+   *                  written ids are unrefreshed until the next refresh
+   */
+  private void applyPendingWrites(boolean inRefresh) throws IOException {
+    if (writeBuffer == null) {
+      return;
+    }
+    synchronized (applyLock) {
+      for (LindenIndexRequest request : writeBuffer.drain(!inRefresh)) {
+        try {
+          Response response = applyWrite(request);
+          if (!response.isSuccess()) {
+            LOGGER.error("Apply buffered {} request {} failed : {}", request.getType(), request.getId(),
+                         response.getError());
+          }
+        } catch (Exception e) {
+          LOGGER.error("Apply buffered {} request {} failed : {}", request.getType(), request.getId(),
+                       Throwables.getStackTraceAsString(e));
+        }
+      }
+    }
+  }
+
+  private Response applyWrite(LindenIndexRequest request) throws IOException {
     switch (request.getType()) {
       case INDEX:
       case REPLACE:
@@ -384,6 +807,15 @@ public class LindenCoreImpl extends LindenCore {
     }
   }
 
+  private boolean exists(String id) throws IOException {
+    SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy = lindenNRTSearcherManager.acquire();
+    try {
+      return searcherAndTaxonomy.searcher.search(new TermQuery(new Term(idFieldName, id)), 1).totalHits > 0;
+    } finally {
+      lindenNRTSearcherManager.release(searcherAndTaxonomy);
+    }
+  }
+
   public JSONObject getInputDocument(Term term) throws IOException {
     SearcherTaxonomyManager.SearcherAndTaxonomy searcherAndTaxonomy = lindenNRTSearcherManager.acquire();
     try {
@@ -401,10 +833,26 @@ public class LindenCoreImpl extends LindenCore {
   }
 
   protected Response updateIndexedFields(LindenDocument lindenDoc) throws IOException {
+    LindenDocument newDoc = mergeIndexedFields(lindenDoc);
+    if (newDoc == null) {
+      return ResponseUtils.FAILED;
+    }
+    Document doc = LindenDocParser.parse(newDoc, config);
+    if (doc == null) {
+      return ResponseUtils.FAILED;
+    }
+    trackingIndexWriter.updateDocument(new Term(idFieldName, lindenDoc.getId()), doc);
+    return ResponseUtils.SUCCESS;
+  }
+
+  /**
+   * @return the old document in the current searcher with the updated fields, null if it is not found
+   */
+  private LindenDocument mergeIndexedFields(LindenDocument lindenDoc) throws IOException {
     JSONObject oldDoc = getInputDocument(new Term(idFieldName, lindenDoc.getId()));
     if (oldDoc == null) {
       // update failed for document not found.
-      return ResponseUtils.FAILED;
+      return null;
     }
 
     for (LindenField field : lindenDoc.getFields()) {
@@ -428,17 +876,13 @@ public class LindenCoreImpl extends LindenCore {
       oldDoc.put(fieldName, val);
     }
 
-    LindenDocument newDoc = LindenDocumentBuilder.build(config.getSchema(), oldDoc);
-    Document doc = LindenDocParser.parse(newDoc, config);
-    if (doc == null) {
-      return ResponseUtils.FAILED;
-    }
-    trackingIndexWriter.updateDocument(new Term(idFieldName, lindenDoc.getId()), doc);
-    return ResponseUtils.SUCCESS;
+    return LindenDocumentBuilder.build(config.getSchema(), oldDoc);
   }
 
   public Response updateDocValues(LindenDocument lindenDoc) throws IOException {
-    Document doc = LindenDocParser.parse(lindenDoc, config);
+    // IndexWriter keeps the bytes of a binary doc values update until it is applied, the reused fields of
+    // parse would be overwritten by the next document
+    Document doc = LindenDocParser.parseCopy(lindenDoc, config);
     if (doc != null) {
       IndexWriter writer = trackingIndexWriter.getIndexWriter();
       List<Field> fields = new ArrayList<>();
@@ -479,6 +923,8 @@ public class LindenCoreImpl extends LindenCore {
 
   @Override
   public void commit() throws IOException {
+    applyPendingWrites(false);
+    applyAllIncrements();
     indexWriter.commit();
     if (taxoWriter != null) {
       taxoWriter.commit();
@@ -14,10 +14,19 @@
 
 package com.xiaomi.linden.core.search;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
 import com.google.common.base.Strings;
 import com.spatial4j.core.context.SpatialContext;
 import com.spatial4j.core.shape.Shape;
 import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.CompressionTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.Field;
@@ -26,13 +35,17 @@ import org.apache.lucene.document.FloatField;
 import org.apache.lucene.document.IntField;
 import org.apache.lucene.document.LongField;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.facet.FacetField;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 
+import com.xiaomi.linden.common.schema.LindenSchemaConf;
 import com.xiaomi.linden.core.LindenConfig;
+import com.xiaomi.linden.core.LindenUtil;
 import com.xiaomi.linden.thrift.common.Coordinate;
 import com.xiaomi.linden.thrift.common.LindenDocument;
 import com.xiaomi.linden.thrift.common.LindenField;
@@ -42,100 +55,142 @@ import com.xiaomi.linden.thrift.common.LindenType;
 public class LindenDocParser {
 
   private static FieldType STORED_ONLY = new FieldType();
+  // frozen types of indexed string fields, see stringFieldType for the index
+  private static final FieldType[] STRING_FIELD_TYPES = new FieldType[32];
+  // a template keeping more fields than this, e.g. of many dynamic field names, is dropped
+  private static final int MAX_TEMPLATE_FIELDS = 4096;
+  private static final ThreadLocal<DocumentTemplate> TEMPLATES = new ThreadLocal<>();
+
+  // roles of lucene fields built from one linden field, each role of a name has its own fields to reuse
+  private static final int STORED = 0;
+  private static final int INDEXED = 1;
+  private static final int DOC_VALUES = 2;
 
   static {
     STORED_ONLY.setStored(true);
     STORED_ONLY.freeze();
+    for (int i = 0; i < STRING_FIELD_TYPES.length; ++i) {
+      FieldType type = new FieldType();
+      type.setTokenized((i & 1) != 0);
+      type.setIndexed(true);
+      type.setStored((i & 2) != 0);
+      type.setOmitNorms((i & 4) != 0);
+      if ((i & 8) != 0) {
+        type.setIndexOptions(FieldInfo.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        // snippet will use the stored info.
+        type.setStored(true);
+      }
+      if ((i & 16) != 0) {
+        type.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
+      }
+      type.freeze();
+      STRING_FIELD_TYPES[i] = type;
+    }
   }
 
+  private static FieldType stringFieldType(LindenFieldSchema schema) {
+    int i = (schema.isTokenized() ? 1 : 0) | (schema.isStored() ? 2 : 0) | (schema.isOmitNorms() ? 4 : 0)
+            | (schema.isSnippet() ? 8 : 0) | (schema.isOmitFreqs() ? 16 : 0);
+    return STRING_FIELD_TYPES[i];
+  }
+
+  /**
+   * The returned document and its fields are reused by the next parse on the same thread, so it must be handed
+   * to the index writer before that. Use parseCopy to keep the document.
+   */
   public static Document parse(LindenDocument lindenDoc, LindenConfig config) {
+    DocumentTemplate template = TEMPLATES.get();
+    if (template == null || template.size() > MAX_TEMPLATE_FIELDS) {
+      template = new DocumentTemplate();
+      TEMPLATES.set(template);
+    }
+    return parse(lindenDoc, config, template);
+  }
+
+  /**
+   * Same as parse, but the returned document is not reused.
+   */
+  public static Document parseCopy(LindenDocument lindenDoc, LindenConfig config) {
+    return parse(lindenDoc, config, new DocumentTemplate());
+  }
+
+  private static Document parse(LindenDocument lindenDoc, LindenConfig config, DocumentTemplate template) {
     if (!lindenDoc.isSetFields()) {
       return null;
     }
-    Document doc = new Document();
-    doc.add(new StringField(config.getSchema().getId(), lindenDoc.getId(), Field.Store.YES));
-    for (LindenField field : lindenDoc.getFields()) {
+    Document doc = template.reset();
+    doc.add(template.stringField(INDEXED, config.getSchema().getId(), lindenDoc.getId(), StringField.TYPE_STORED));
+    List<LindenField> fields = lindenDoc.getFields();
+    for (int i = 0; i < fields.size(); ++i) {
+      LindenField field = fields.get(i);
       LindenFieldSchema schema = field.getSchema();
-      Field.Store isStored = schema.isStored() ? Field.Store.YES : Field.Store.NO;
-      String name = field.getSchema().getName();
-      Object value;
+      String name = schema.getName();
+      String value = field.getValue();
 
       if (!schema.isIndexed() && schema.isStored()) {
-        doc.add(new Field(name, field.getValue(), STORED_ONLY));
+        doc.add(template.stringField(STORED, name, value, STORED_ONLY));
       }
       switch (schema.getType()) {
         case INTEGER:
-          value = Integer.valueOf(field.getValue());
+          int intValue = Integer.parseInt(value);
           if (schema.isIndexed()) {
-            doc.add(new IntField(name, (Integer) value, isStored));
+            doc.add(template.intField(name, intValue,
+                                      schema.isStored() ? IntField.TYPE_STORED : IntField.TYPE_NOT_STORED));
           }
           if (schema.isDocValues()) {
-            long docValuesBits = ((Integer) value).longValue();
-            doc.add(new NumericDocValuesField(name, docValuesBits));
+            doc.add(template.numericDocValuesField(name, intValue));
           }
           break;
         case LONG:
-          value = Long.valueOf(field.getValue());
+          long longValue = Long.parseLong(value);
           if (schema.isIndexed()) {
-            doc.add(new LongField(name, (Long) value, isStored));
+            doc.add(template.longField(name, longValue,
+                                       schema.isStored() ? LongField.TYPE_STORED : LongField.TYPE_NOT_STORED));
           }
           if (schema.isDocValues()) {
-            doc.add(new NumericDocValuesField(name, (long) value));
+            doc.add(template.numericDocValuesField(name, longValue));
           }
           break;
         case DOUBLE:
-          value = Double.valueOf(field.getValue());
+          double doubleValue = Double.parseDouble(value);
           if (schema.isIndexed()) {
-            doc.add(new DoubleField(name, (Double) value, isStored));
+            doc.add(template.doubleField(name, doubleValue,
+                                         schema.isStored() ? DoubleField.TYPE_STORED : DoubleField.TYPE_NOT_STORED));
           }
           if (schema.isDocValues()) {
-            long docValuesBits = Double.doubleToLongBits((Double) value);
-            doc.add(new NumericDocValuesField(name, docValuesBits));
+            doc.add(template.numericDocValuesField(name, Double.doubleToLongBits(doubleValue)));
           }
           break;
         case FLOAT:
-          value = Float.valueOf(field.getValue());
+          float floatValue = Float.parseFloat(value);
           if (schema.isIndexed()) {
-            doc.add(new FloatField(name, (Float) value, isStored));
+            doc.add(template.floatField(name, floatValue,
+                                        schema.isStored() ? FloatField.TYPE_STORED : FloatField.TYPE_NOT_STORED));
           }
           if (schema.isDocValues()) {
-            long docValuesBits = Float.floatToIntBits((Float) value);
-            doc.add(new NumericDocValuesField(name, docValuesBits));
+            doc.add(template.numericDocValuesField(name, Float.floatToIntBits(floatValue)));
           }
           break;
         case STRING:
-          if (Strings.isNullOrEmpty(field.getValue())) {
+          if (Strings.isNullOrEmpty(value)) {
             break;
           }
           if (schema.isIndexed()) {
-            FieldType type = new FieldType();
-            type.setTokenized(schema.isTokenized());
-            type.setIndexed(schema.isIndexed());
-            type.setStored(schema.isStored());
-            type.setOmitNorms(schema.isOmitNorms());
-            if (schema.isSnippet()) {
-              type.setIndexOptions(FieldInfo.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
-              // snippet will use the stored info.
-              type.setStored(true);
-            }
-            if (schema.isOmitFreqs()) {
-              type.setIndexOptions(FieldInfo.IndexOptions.DOCS_ONLY);
-            }
-            doc.add(new Field(name, field.getValue(), type));
+            doc.add(template.stringField(INDEXED, name, value, stringFieldType(schema)));
           }
           if (schema.isDocValues()) {
-            BytesRef bytes = new BytesRef(field.getValue());
-            doc.add(new BinaryDocValuesField(name, bytes));
+            doc.add(template.binaryDocValuesField(name, value));
           }
           break;
         case FACET:
-          String[] facetPath = field.getValue().split("/");
+          String[] facetPath = value.split("/");
           doc.add(new FacetField(name, facetPath));
           if (schema.isIndexed()) {
-            doc.add(new StringField(name, field.getValue(), isStored));
+            doc.add(template.stringField(INDEXED, name, value,
+                                         schema.isStored() ? StringField.TYPE_STORED : StringField.TYPE_NOT_STORED));
           }
           if (schema.isDocValues()) {
-            doc.add(new BinaryDocValuesField(name, new BytesRef(field.getValue())));
+            doc.add(template.binaryDocValuesField(name, value));
           }
           break;
         default:
@@ -148,9 +203,189 @@ public class LindenDocParser {
         doc.add(field);
       }
     }
+    if (config.getSchema().isStoreSource()) {
+      BytesRef source = new BytesRef(buildSource(lindenDoc, config));
+      byte[] compressed = CompressionTools.compress(source.bytes, source.offset, source.length, Deflater.BEST_SPEED);
+      doc.add(new StoredField(LindenSchemaConf.SOURCE, compressed));
+    }
     return doc;
   }
 
+  /**
+   * Lucene fields of one thread, reused from one parsed document to the next by setting new values.
+   * A field may have several values in a document, so fields are kept in a list for every role and name.
+   */
+  private static class DocumentTemplate {
+
+    private final Document doc = new Document();
+    private final List<Map<String, FieldSlots>> roles = new ArrayList<>();
+    private final List<FieldSlots> allSlots = new ArrayList<>();
+
+    private DocumentTemplate() {
+      for (int role = STORED; role <= DOC_VALUES; ++role) {
+        roles.add(new HashMap<String, FieldSlots>());
+      }
+    }
+
+    private int size() {
+      return allSlots.size();
+    }
+
+    private Document reset() {
+      doc.getFields().clear();
+      for (int i = 0; i < allSlots.size(); ++i) {
+        allSlots.get(i).used = 0;
+      }
+      return doc;
+    }
+
+    private FieldSlots slots(int role, String name) {
+      Map<String, FieldSlots> slotsByName = roles.get(role);
+      FieldSlots slots = slotsByName.get(name);
+      if (slots == null) {
+        slots = new FieldSlots();
+        slotsByName.put(name, slots);
+        allSlots.add(slots);
+      }
+      return slots;
+    }
+
+    private Field stringField(int role, String name, String value, FieldType type) {
+      FieldSlots slots = slots(role, name);
+      Field field = slots.next(type);
+      if (field == null) {
+        return slots.add(new Field(name, value, type));
+      }
+      field.setStringValue(value);
+      return field;
+    }
+
+    private Field intField(String name, int value, FieldType type) {
+      FieldSlots slots = slots(INDEXED, name);
+      Field field = slots.next(type);
+      if (field == null) {
+        return slots.add(new IntField(name, value, type));
+      }
+      field.setIntValue(value);
+      return field;
+    }
+
+    private Field longField(String name, long value, FieldType type) {
+      FieldSlots slots = slots(INDEXED, name);
+      Field field = slots.next(type);
+      if (field == null) {
+        return slots.add(new LongField(name, value, type));
+      }
+      field.setLongValue(value);
+      return field;
+    }
+
+    private Field floatField(String name, float value, FieldType type) {
+      FieldSlots slots = slots(INDEXED, name);
+      Field field = slots.next(type);
+      if (field == null) {
+        return slots.add(new FloatField(name, value, type));
+      }
+      field.setFloatValue(value);
+      return field;
+    }
+
+    private Field doubleField(String name, double value, FieldType type) {
+      FieldSlots slots = slots(INDEXED, name);
+      Field field = slots.next(type);
+      if (field == null) {
+        return slots.add(new DoubleField(name, value, type));
+      }
+      field.setDoubleValue(value);
+      return field;
+    }
+
+    private Field numericDocValuesField(String name, long value) {
+      FieldSlots slots = slots(DOC_VALUES, name);
+      Field field = slots.next(NumericDocValuesField.TYPE);
+      if (field == null) {
+        return slots.add(new NumericDocValuesField(name, value));
+      }
+      field.setLongValue(value);
+      return field;
+    }
+
+    private Field binaryDocValuesField(String name, String value) {
+      FieldSlots slots = slots(DOC_VALUES, name);
+      // every field keeps its own bytes, they are read when the document is indexed
+      BytesRefBuilder bytes = slots.nextBytes();
+      bytes.copyChars(value);
+      Field field = slots.next(BinaryDocValuesField.TYPE);
+      if (field == null) {
+        return slots.add(new BinaryDocValuesField(name, bytes.get()));
+      }
+      field.setBytesValue(bytes.get());
+      return field;
+    }
+  }
+
+  private static class FieldSlots {
+
+    private final List<Field> fields = new ArrayList<>();
+    private final List<BytesRefBuilder> bytes = new ArrayList<>();
+    // fields used by the current document
+    private int used;
+
+    /**
+     * @return the next unused field if it is of type, otherwise null and the caller adds a new one
+     */
+    private Field next(FieldType type) {
+      if (used < fields.size() && fields.get(used).fieldType() == type) {
+        return fields.get(used++);
+      }
+      return null;
+    }
+
+    private Field add(Field field) {
+      if (used < fields.size()) {
+        fields.set(used, field);
+      } else {
+        fields.add(field);
+      }
+      ++used;
+      return field;
+    }
+
+    private BytesRefBuilder nextBytes() {
+      while (bytes.size() <= used) {
+        bytes.add(new BytesRefBuilder());
+      }
+      return bytes.get(used);
+    }
+  }
+
+  /**
+   * Source JSON of the document as LindenUtil.getSource returns it: the id and the static schema fields,
+   * a multi-value field in its raw JSONArray format.
+   */
+  public static String buildSource(LindenDocument lindenDoc, LindenConfig config) {
+    JSONObject src = new JSONObject();
+    src.put(config.getSchema().getId(), lindenDoc.getId());
+    for (LindenField field : lindenDoc.getFields()) {
+      LindenFieldSchema schema = field.getSchema();
+      if (schema.isDynamicSchema()) {
+        continue;
+      }
+      if (schema.isMulti()) {
+        // the raw JSONArray is the multi docValues field built with the values
+        if (schema.isDocValues()) {
+          src.put(schema.getName(), JSON.parseArray(field.getValue()));
+        }
+        continue;
+      }
+      if (schema.getType() == LindenType.STRING && Strings.isNullOrEmpty(field.getValue())) {
+        continue;
+      }
+      src.put(schema.getName(), LindenUtil.parseLindenValue(field.getValue(), schema.getType()));
+    }
+    return src.toJSONString();
+  }
+
   public static boolean isDocValueFields(LindenDocument lindenDoc) {
     if (lindenDoc.isSetCoordinate()) {
       return false;
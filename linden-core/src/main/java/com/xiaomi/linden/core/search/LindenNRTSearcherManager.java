@@ -110,6 +110,17 @@ public class LindenNRTSearcherManager {
     indexSearcherReferenceManager.release(searcherAndTaxonomy.searcher);
   }
 
+  /**
+   * the listener is called around every refresh, whoever triggers it
+   */
+  public void addRefreshListener(ReferenceManager.RefreshListener listener) {
+    if (searcherAndTaxonomyReferenceManager != null) {
+      searcherAndTaxonomyReferenceManager.addListener(listener);
+    } else {
+      indexSearcherReferenceManager.addListener(listener);
+    }
+  }
+
   public final boolean maybeRefresh() throws IOException {
     if (searcherAndTaxonomyReferenceManager != null) {
       return searcherAndTaxonomyReferenceManager.maybeRefresh();
@@ -117,6 +128,17 @@ public class LindenNRTSearcherManager {
     return indexSearcherReferenceManager.maybeRefresh();
   }
 
+  /**
+   * refresh, waiting for a refresh in progress instead of skipping
+   */
+  public final void maybeRefreshBlocking() throws IOException {
+    if (searcherAndTaxonomyReferenceManager != null) {
+      searcherAndTaxonomyReferenceManager.maybeRefreshBlocking();
+      return;
+    }
+    indexSearcherReferenceManager.maybeRefreshBlocking();
+  }
+
   public void close() throws IOException {
     if (searcherAndTaxonomyReferenceManager != null) {
       searcherAndTaxonomyReopenThread.close();
@@ -0,0 +1,238 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core.search;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import com.xiaomi.linden.core.LindenConfig;
+import com.xiaomi.linden.core.search.query.model.LindenScoreModelStrategyBuilder;
+import com.xiaomi.linden.thrift.common.CacheInfo;
+import com.xiaomi.linden.thrift.common.LindenBooleanSubFilter;
+import com.xiaomi.linden.thrift.common.LindenBooleanSubQuery;
+import com.xiaomi.linden.thrift.common.LindenFilter;
+import com.xiaomi.linden.thrift.common.LindenQuery;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenScoreModel;
+import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+
+/**
+ * Shard level search result cache.
+ * Results are keyed on the serialized request and the version of the index reader they were computed on,
+ * so an entry is valid exactly until a refresh changes the index. Results are kept serialized, which bounds
+ * the cache by bytes and hands out a private copy on every hit.
+ * Requests with score models depending on the clock or on random numbers are never cached, see {@link #isCacheable}.
+ */
+public class LindenRequestCache {
+
+  // rough cost of the key and the cache entry objects
+  private static final int ENTRY_OVERHEAD = 128;
+
+  private final Cache<CacheKey, byte[]> cache;
+  private final AtomicLong ramBytesUsed = new AtomicLong();
+  private volatile long version = -1;
+
+  public LindenRequestCache(long maxRamBytes) {
+    cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxRamBytes)
+        .weigher(new Weigher<CacheKey, byte[]>() {
+          @Override
+          public int weigh(CacheKey key, byte[] value) {
+            return key.request.length + ENTRY_OVERHEAD + value.length;
+          }
+        })
+        .removalListener(new RemovalListener<CacheKey, byte[]>() {
+          @Override
+          public void onRemoval(RemovalNotification<CacheKey, byte[]> notification) {
+            ramBytesUsed.addAndGet(-(notification.getKey().request.length + ENTRY_OVERHEAD
+                                     + notification.getValue().length));
+          }
+        })
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * @return the cached result of request on the given index version, or null
+   */
+  public LindenResult get(LindenSearchRequest request, long version) {
+    if (version > this.version) {
+      updateVersion(version);
+    }
+    try {
+      byte[] bytes = cache.getIfPresent(new CacheKey(serializeKey(request), version));
+      if (bytes == null) {
+        return null;
+      }
+      LindenResult result = new LindenResult();
+      new TDeserializer(new TCompactProtocol.Factory()).deserialize(result, bytes);
+      return result;
+    } catch (TException e) {
+      return null;
+    }
+  }
+
+  public void put(LindenSearchRequest request, long version, LindenResult result) {
+    // results computed on an outdated reader can not be hit any more
+    if (version != this.version || !result.isSuccess() || result.isPartial()) {
+      return;
+    }
+    try {
+      CacheKey key = new CacheKey(serializeKey(request), version);
+      byte[] bytes = serialize(result);
+      ramBytesUsed.addAndGet(key.request.length + ENTRY_OVERHEAD + bytes.length);
+      cache.put(key, bytes);
+    } catch (TException e) {
+      // not cached
+    }
+  }
+
+  /**
+   * Whether the results of request only depend on the request and the index, which is false once any score model
+   * in its query or filter is not cacheable
+   */
+  public static boolean isCacheable(LindenSearchRequest request, LindenConfig config) {
+    try {
+      return isCacheable(request.getQuery(), config) && isCacheable(request.getFilter(), config);
+    } catch (Exception e) {
+      // the search fails on the same model, and failed results are not cached anyway
+      return false;
+    }
+  }
+
+  private static boolean isCacheable(LindenQuery query, LindenConfig config) throws Exception {
+    if (query == null) {
+      return true;
+    }
+    if (query.isSetScoreModel() && !isCacheable(query.getScoreModel(), false, config)) {
+      return false;
+    }
+    if (query.isSetFlexQuery() && !isCacheable(query.getFlexQuery().getModel(), true, config)) {
+      return false;
+    }
+    if (query.isSetBooleanQuery()) {
+      for (LindenBooleanSubQuery subQuery : query.getBooleanQuery().getQueries()) {
+        if (!isCacheable(subQuery.getQuery(), config)) {
+          return false;
+        }
+      }
+    }
+    if (query.isSetDisMaxQuery()) {
+      for (LindenQuery subQuery : query.getDisMaxQuery().getQueries()) {
+        if (!isCacheable(subQuery, config)) {
+          return false;
+        }
+      }
+    }
+    if (query.isSetFilteredQuery()) {
+      return isCacheable(query.getFilteredQuery().getLindenQuery(), config)
+             && isCacheable(query.getFilteredQuery().getLindenFilter(), config);
+    }
+    return true;
+  }
+
+  private static boolean isCacheable(LindenFilter filter, LindenConfig config) throws Exception {
+    if (filter == null) {
+      return true;
+    }
+    if (filter.isSetQueryFilter()) {
+      return isCacheable(filter.getQueryFilter().getQuery(), config);
+    }
+    if (filter.isSetBooleanFilter()) {
+      for (LindenBooleanSubFilter subFilter : filter.getBooleanFilter().getFilters()) {
+        if (!isCacheable(subFilter.getFilter(), config)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private static boolean isCacheable(LindenScoreModel model, boolean flexible, LindenConfig config)
+      throws Exception {
+    return LindenScoreModelStrategyBuilder.isCacheable(model, flexible, config.getPluginPath(), config.getSchema());
+  }
+
+  /**
+   * requests differing only in their deadline share the cached result
+   */
+  private static byte[] serializeKey(LindenSearchRequest request) throws TException {
+    if (request.isSetTimeout()) {
+      request = new LindenSearchRequest(request);
+      request.unsetTimeout();
+    }
+    return serialize(request);
+  }
+
+  private static byte[] serialize(TBase thrift) throws TException {
+    return new TSerializer(new TCompactProtocol.Factory()).serialize(thrift);
+  }
+
+  private synchronized void updateVersion(long version) {
+    if (version > this.version) {
+      this.version = version;
+      // entries of older versions are dead
+      cache.invalidateAll();
+    }
+  }
+
+  public CacheInfo getCacheInfo() {
+    CacheStats stats = cache.stats();
+    return new CacheInfo()
+        .setHitCount(stats.hitCount())
+        .setHitRate(stats.hitRate())
+        .setMissCount(stats.missCount())
+        .setMissRate(stats.missRate())
+        .setEvictionCount(stats.evictionCount())
+        .setRamBytesUsed(ramBytesUsed.get());
+  }
+
+  private static class CacheKey {
+
+    private final byte[] request;
+    private final long version;
+
+    CacheKey(byte[] request, long version) {
+      this.request = request;
+      this.version = version;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof CacheKey) {
+        CacheKey other = (CacheKey) o;
+        return other.version == version && Arrays.equals(other.request, request);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(request) * 31 + (int) (version ^ (version >>> 32));
+    }
+  }
+}
@@ -58,6 +58,7 @@ import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
 import com.xiaomi.linden.thrift.common.LindenSortField;
 import com.xiaomi.linden.thrift.common.LindenSortType;
+import com.xiaomi.linden.thrift.common.LindenSortValue;
 import com.xiaomi.linden.thrift.common.LindenType;
 import com.xiaomi.linden.thrift.common.QueryInfo;
 import com.xiaomi.linden.thrift.common.SnippetParam;
@@ -123,12 +124,33 @@ public class LindenResultParser {
       lindenHit = this.parseSort(hit, lindenHit);
       lindenHit = this.parseSource(hit.doc, lindenHit);
       lindenHit = this.parseExplain(hit.doc, lindenHit);
+      if (request.isSetSearchAfter()) {
+        lindenHit.setSearchAfter(SearchAfterUtil.toSearchAfter(hit));
+      }
       lindenHits.add(lindenHit);
     }
     lindenHits = this.parseSnippets(lindenHits, hits);
     return lindenHits;
   }
 
+  /**
+   * Parse hits of a fetch request, which only carry what the query phase left out:
+   * source, explanation and snippets.
+   */
+  public List<LindenHit> parseFetchedHits(ScoreDoc[] hits) throws IOException {
+    List<LindenHit> lindenHits = new ArrayList<>();
+    String idFieldName = config.getSchema().getId();
+    for (ScoreDoc hit : hits) {
+      LindenHit lindenHit = new LindenHit();
+      lindenHit.setScore(hit.score);
+      lindenHit.setId(LindenUtil.getFieldStringValue(leaves, hit.doc, idFieldName));
+      lindenHit = this.parseSource(hit.doc, lindenHit);
+      lindenHit = this.parseExplain(hit.doc, lindenHit);
+      lindenHits.add(lindenHit);
+    }
+    return this.parseSnippets(lindenHits, hits);
+  }
+
   private LindenHit parseSpatial(int doc, LindenHit lindenHit) throws IOException {
     if (request.isSetSpatialParam()) {
       Double lat = LindenUtil.getFieldDoubleValue(leaves, doc, LindenSchemaConf.LATITUDE);
@@ -176,12 +198,15 @@ public class LindenResultParser {
   private LindenHit parseSort(ScoreDoc hit, LindenHit lindenHit) {
     if (request.isSetSort()) {
       Map<String, String> fieldMap = new HashMap<>();
+      List<LindenSortValue> sortValues = new ArrayList<>();
       for (int i = 0; i < request.getSort().getFields().size(); ++i) {
         LindenSortField field = request.getSort().getFields().get(i);
+        Object value = ((FieldDoc) hit).fields[i];
+        // typed values spare the cluster from parsing strings when merging
+        sortValues.add(SearchAfterUtil.toSortValue(value));
         if (field.type == LindenSortType.SCORE || field.type == LindenSortType.DISTANCE) {
           continue;
         }
-        Object value = ((FieldDoc) hit).fields[i];
         if (value == null) {
           continue;
         }
@@ -192,6 +217,7 @@ public class LindenResultParser {
         }
       }
       lindenHit.setFields(fieldMap);
+      lindenHit.setSortValues(sortValues);
     }
     return lindenHit;
   }
@@ -240,6 +266,10 @@ public class LindenResultParser {
     }
     result.setTotalHits(totalHits);
     result.setHits(lindenHits);
+    if (request.isSetSearchAfter() && !lindenHits.isEmpty()) {
+      // cursor of the next page
+      result.setSearchAfter(lindenHits.get(lindenHits.size() - 1).getSearchAfter());
+    }
     parseFacets(result, facets, facetsCollector);
     result.setQueryInfo(new QueryInfo().setQuery(query.toString()));
     if (filter != null) {
@@ -0,0 +1,30 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core.search;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+
+/**
+ * A point in time view of the index acquired once for several searches, e.g. the sub-requests of a multi
+ * search, which all see the same documents. It is thread safe, and must be closed after the last search.
+ */
+public abstract class LindenSearchView implements Closeable {
+
+  abstract public LindenResult search(LindenSearchRequest request) throws IOException;
+}
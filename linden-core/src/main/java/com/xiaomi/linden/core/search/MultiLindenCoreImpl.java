@@ -44,6 +44,8 @@ import com.xiaomi.linden.core.indexing.TimeLimitMultiIndexStrategy;
 import com.xiaomi.linden.thrift.common.FileDiskUsageInfo;
 import com.xiaomi.linden.thrift.common.IndexRequestType;
 import com.xiaomi.linden.thrift.common.LindenDeleteRequest;
+import com.xiaomi.linden.thrift.common.LindenFetchRequest;
+import com.xiaomi.linden.thrift.common.LindenHit;
 import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
@@ -113,11 +115,7 @@ public class MultiLindenCoreImpl extends LindenCore {
     return this.lindenCoreMap;
   }
 
-  @Override
-  public LindenResult search(final LindenSearchRequest request) throws IOException {
-    final List<LindenResult> resultList = new ArrayList<>();
-    final List<Future<BoxedUnit>> futures = new ArrayList<>();
-
+  private List<String> getSearchIndexNames(LindenSearchRequest request) {
     List<String> indexNames;
     // Only INDEX_NAME division type supports specified index name request
     if (multiIndexStrategy instanceof TimeLimitMultiIndexStrategy
@@ -128,18 +126,39 @@ public class MultiLindenCoreImpl extends LindenCore {
           .equals(LINDEN))) {
         indexNames = new ArrayList<>(lindenCoreMap.keySet());
       } else {
-        indexNames = request.getIndexNames();
-        for (int i = 0; i < indexNames.size(); ++i) {
-          indexNames.set(i, MultiIndexStrategy.MULTI_INDEX_PREFIX_NAME + indexNames.get(i));
+        indexNames = new ArrayList<>();
+        for (String indexName : request.getIndexNames()) {
+          indexNames.add(MultiIndexStrategy.MULTI_INDEX_PREFIX_NAME + indexName);
         }
       }
     }
+    return indexNames;
+  }
+
+  @Override
+  public LindenResult search(final LindenSearchRequest request) throws IOException {
+    final List<LindenResult> resultList = new ArrayList<>();
+    final List<Future<BoxedUnit>> futures = new ArrayList<>();
+    long start = System.currentTimeMillis();
+    boolean partial = false;
 
+    List<String> indexNames = getSearchIndexNames(request);
     for (final String indexName : indexNames) {
       final LindenCore core = lindenCoreMap.get(indexName);
       if (core != null) {
+        LindenSearchRequest subRequest = request;
+        if (request.isSetTimeout()) {
+          // indexes are searched one by one, each gets the time left
+          int remaining = (int) (request.getTimeout() - (System.currentTimeMillis() - start));
+          if (remaining <= 0) {
+            LOGGER.warn("Deadline exceeded, index {} and the following are not searched", indexName);
+            partial = true;
+            break;
+          }
+          subRequest = new LindenSearchRequest(request).setTimeout(remaining);
+        }
         futures
-            .add(Future.value(core.search(request)).transformedBy(new FutureTransformer<LindenResult, BoxedUnit>() {
+            .add(Future.value(core.search(subRequest)).transformedBy(new FutureTransformer<LindenResult, BoxedUnit>() {
               @Override
               public BoxedUnit map(LindenResult lindenResult) {
                 synchronized (resultList) {
@@ -160,12 +179,35 @@ public class MultiLindenCoreImpl extends LindenCore {
       }
     }
     Future<List<BoxedUnit>> collected = Future.collect(futures);
+    // bounded by the deadline of the request if it has one
+    long timeout = DEFAULT_SEARCH_TIMEOUT;
+    if (request.isSetTimeout()) {
+      timeout = Math.max(1, request.getTimeout() - (System.currentTimeMillis() - start));
+    }
     try {
-      collected.apply(Duration.apply(DEFAULT_SEARCH_TIMEOUT, TimeUnit.MILLISECONDS));
+      collected.apply(Duration.apply(timeout, TimeUnit.MILLISECONDS));
     } catch (Exception e) {
       LOGGER.error("Multi-index search error: {}", Throwables.getStackTraceAsString(e));
     }
-    return ResultMerger.merge(request, resultList);
+    LindenResult result = ResultMerger.merge(request, resultList);
+    return partial ? result.setPartial(true) : result;
+  }
+
+  @Override
+  public LindenResult fetch(LindenFetchRequest request) throws IOException {
+    LindenResult result = new LindenResult().setHits(new ArrayList<LindenHit>());
+    for (String indexName : getSearchIndexNames(request.getSearchRequest())) {
+      LindenCore core = lindenCoreMap.get(indexName);
+      if (core == null) {
+        LOGGER.error("Index {} doesn't exist.", indexName);
+        continue;
+      }
+      LindenResult subResult = core.fetch(request);
+      if (subResult.isSetHits()) {
+        result.getHits().addAll(subResult.getHits());
+      }
+    }
+    return result;
   }
 
   @Override
@@ -0,0 +1,138 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
+
+import com.xiaomi.linden.thrift.common.LindenSearchAfter;
+import com.xiaomi.linden.thrift.common.LindenSortValue;
+
+/**
+ * Converts between search after cursors and lucene hits.
+ * A cursor holds the raw sort values lucene compared a hit with, or its score if the search is not sorted
+ * by fields, followed by the document id. Hits with equal sort values are ordered by document id, which unlike
+ * lucene doc ids neither changes on merges nor differs between the replicas of a shard.
+ */
+public class SearchAfterUtil {
+
+  /**
+   * @return sort, or relevance if sort is null, with the id field appended to break ties
+   */
+  public static Sort withIdTiebreak(Sort sort, String idFieldName) {
+    SortField idSortField = new SortField(idFieldName, SortField.Type.STRING);
+    if (sort == null) {
+      return new Sort(SortField.FIELD_SCORE, idSortField);
+    }
+    SortField[] sortFields = Arrays.copyOf(sort.getSort(), sort.getSort().length + 1);
+    sortFields[sortFields.length - 1] = idSortField;
+    return new Sort(sortFields);
+  }
+
+  /**
+   * @param hit a hit collected with a sort from {@link #withIdTiebreak}
+   */
+  public static LindenSearchAfter toSearchAfter(ScoreDoc hit) {
+    Object[] fields = ((FieldDoc) hit).fields;
+    List<LindenSortValue> sortValues = new ArrayList<>();
+    for (int i = 0; i < fields.length - 1; ++i) {
+      sortValues.add(toSortValue(fields[i]));
+    }
+    return new LindenSearchAfter().setSortValues(sortValues)
+        .setId(((BytesRef) fields[fields.length - 1]).utf8ToString());
+  }
+
+  /**
+   * @param sort a sort from {@link #withIdTiebreak}
+   * @return the hit lucene collects after, or null for the first page
+   */
+  public static FieldDoc toAfter(LindenSearchAfter searchAfter, Sort sort) throws IOException {
+    if (!searchAfter.isSetSortValues()) {
+      return null;
+    }
+    if (!searchAfter.isSetId()) {
+      throw new IOException("Search after has no document id");
+    }
+    List<LindenSortValue> sortValues = searchAfter.getSortValues();
+    int expected = sort.getSort().length - 1;
+    if (sortValues.size() != expected) {
+      throw new IOException("Search after has " + sortValues.size() + " sort values, but " + expected
+                            + " are expected");
+    }
+    Object[] fields = new Object[sortValues.size() + 1];
+    for (int i = 0; i < sortValues.size(); ++i) {
+      fields[i] = toFieldValue(sortValues.get(i), sort.getSort()[i].getType());
+    }
+    fields[sortValues.size()] = new BytesRef(searchAfter.getId());
+    // sort values end with the unique id, only the cursor hit itself ties with them
+    // and lucene skips it as long as the after doc is not less than its doc
+    return new FieldDoc(Integer.MAX_VALUE, Float.NaN, fields);
+  }
+
+  public static LindenSortValue toSortValue(Object value) {
+    LindenSortValue sortValue = new LindenSortValue();
+    if (value instanceof BytesRef) {
+      sortValue.setStringValue(((BytesRef) value).utf8ToString());
+    } else if (value instanceof Integer || value instanceof Long) {
+      sortValue.setLongValue(((Number) value).longValue());
+    } else if (value instanceof Number) {
+      sortValue.setDoubleValue(((Number) value).doubleValue());
+    } else if (value != null) {
+      sortValue.setStringValue(value.toString());
+    }
+    return sortValue;
+  }
+
+  public static boolean isNull(LindenSortValue value) {
+    return !value.isSetStringValue() && !value.isSetLongValue() && !value.isSetDoubleValue();
+  }
+
+  public static double toDouble(LindenSortValue value) {
+    return value.isSetDoubleValue() ? value.getDoubleValue() : value.getLongValue();
+  }
+
+  public static long toLong(LindenSortValue value) {
+    return value.isSetLongValue() ? value.getLongValue() : (long) value.getDoubleValue();
+  }
+
+  private static Object toFieldValue(LindenSortValue value, SortField.Type type) {
+    if (isNull(value)) {
+      return null;
+    }
+    switch (type) {
+      case STRING:
+      case STRING_VAL:
+        return new BytesRef(value.isSetStringValue() ? value.getStringValue() : String.valueOf(toLong(value)));
+      case INT:
+        return (int) toLong(value);
+      case LONG:
+        return toLong(value);
+      case FLOAT:
+      case SCORE:
+        return (float) toDouble(value);
+      default:
+        // double fields and distance
+        return toDouble(value);
+    }
+  }
+}
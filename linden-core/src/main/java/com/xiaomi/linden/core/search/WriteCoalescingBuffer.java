@@ -0,0 +1,174 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.xiaomi.linden.thrift.common.IndexRequestType;
+import com.xiaomi.linden.thrift.common.LindenDocument;
+import com.xiaomi.linden.thrift.common.LindenField;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
+import com.xiaomi.linden.thrift.common.Response;
+import com.xiaomi.linden.util.ResponseUtils;
+
+/**
+ * Pending index and delete requests keyed by document id, drained into the index writer before
+ * every refresh. Requests of one id within a refresh window collapse into its final state: index and delete
+ * replace the pending request, update merges its fields into a pending index.
+ * So a hot document is written once per refresh however often it changes.
+ * An update without a pending index is not buffered, the caller merges it into the old document in the searcher.
+ */
+public class WriteCoalescingBuffer {
+
+  private final int maxPendingDocs;
+  private Map<String, LindenIndexRequest> pending = new LinkedHashMap<>();
+  // ids drained outside a refresh, the current searcher doesn't see their writes
+  private Set<String> unrefreshedIds = new HashSet<>();
+  // ids drained before the refresh going on, only the searcher it opens sees their writes
+  private Set<String> refreshingIds = new HashSet<>();
+  private final AtomicLong coalescedCount = new AtomicLong();
+
+  public WriteCoalescingBuffer(int maxPendingDocs) {
+    this.maxPendingDocs = maxPendingDocs;
+  }
+
+  public static boolean isCoalescable(LindenIndexRequest request) {
+    switch (request.getType()) {
+      case INDEX:
+      case REPLACE:
+      case UPDATE:
+      case DELETE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return the response of the buffered request, or null for an update without a pending index, which the
+   * caller handles
+   */
+  public synchronized Response add(LindenIndexRequest request) {
+    String id = request.getType() == IndexRequestType.DELETE || !request.isSetDoc() ? request.getId()
+                                                                                    : request.getDoc().getId();
+    if (id == null) {
+      return ResponseUtils.FAILED;
+    }
+    // as without the buffer, a document without fields fails at once
+    if (request.getType() != IndexRequestType.DELETE && (!request.isSetDoc() || !request.getDoc().isSetFields())) {
+      return ResponseUtils.FAILED;
+    }
+    LindenIndexRequest previous = pending.get(id);
+    if (request.getType() == IndexRequestType.UPDATE) {
+      if (previous == null) {
+        return null;
+      }
+      coalescedCount.incrementAndGet();
+      if (previous.getType() == IndexRequestType.DELETE) {
+        // as without the buffer, a deleted document can not be updated
+        return ResponseUtils.FAILED;
+      }
+      // the merged request keeps the type of the previous one, an update of a new document is a new document
+      pending.put(id, new LindenIndexRequest(previous).setDoc(merge(previous.getDoc(), request.getDoc())));
+      return ResponseUtils.SUCCESS;
+    }
+    if (previous != null) {
+      coalescedCount.incrementAndGet();
+    }
+    pending.put(id, request);
+    return ResponseUtils.SUCCESS;
+  }
+
+  /**
+   * @return fields of update replace the fields of the same name in doc, multi-value fields included
+   */
+  static LindenDocument merge(LindenDocument doc, LindenDocument update) {
+    Set<String> names = new HashSet<>();
+    for (LindenField field : update.getFields()) {
+      names.add(field.getSchema().getName());
+    }
+    List<LindenField> fields = new ArrayList<>(doc.getFieldsSize() + update.getFieldsSize());
+    for (LindenField field : doc.getFields()) {
+      if (!names.contains(field.getSchema().getName())) {
+        fields.add(field);
+      }
+    }
+    fields.addAll(update.getFields());
+    LindenDocument merged = new LindenDocument(doc.getId(), fields);
+    if (update.isSetCoordinate()) {
+      merged.setCoordinate(update.getCoordinate());
+    } else if (doc.isSetCoordinate()) {
+      merged.setCoordinate(doc.getCoordinate());
+    }
+    return merged;
+  }
+
+  /**
+   * @param markUnrefreshed true if the requests are not applied right before a refresh, the next searcher
+   *                        won't see them either, otherwise they are seen once the refresh going on ends
+   * @return pending requests in the order their ids were first written, the buffer is empty afterwards
+   */
+  public synchronized Collection<LindenIndexRequest> drain(boolean markUnrefreshed) {
+    Map<String, LindenIndexRequest> drained = pending;
+    pending = new LinkedHashMap<>();
+    if (markUnrefreshed) {
+      unrefreshedIds.addAll(drained.keySet());
+    } else {
+      refreshingIds.addAll(drained.keySet());
+    }
+    return drained.values();
+  }
+
+  /**
+   * Called at the beginning of a refresh, the searcher it opens sees all writes applied so far. The current
+   * searcher doesn't until the refresh ends, so the ids stay unrefreshed till then.
+   */
+  public synchronized void beforeRefresh() {
+    refreshingIds.addAll(unrefreshedIds);
+    unrefreshedIds = new HashSet<>();
+  }
+
+  /**
+   * Called at the end of a refresh, the current searcher sees the writes applied before it began.
+   */
+  public synchronized void afterRefresh() {
+    refreshingIds = new HashSet<>();
+  }
+
+  /**
+   * @return true if a write of the id was applied since the current searcher was opened
+   */
+  public synchronized boolean isUnrefreshed(String id) {
+    return unrefreshedIds.contains(id) || refreshingIds.contains(id);
+  }
+
+  public synchronized boolean isFull() {
+    return pending.size() >= maxPendingDocs;
+  }
+
+  /**
+   * requests absorbed by a pending request of the same id
+   */
+  public long getCoalescedCount() {
+    return coalescedCount.get();
+  }
+}
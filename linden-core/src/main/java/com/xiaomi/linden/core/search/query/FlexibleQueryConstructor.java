@@ -19,6 +19,8 @@ import java.util.List;
 
 import com.google.common.collect.Lists;
 import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.xiaomi.linden.core.LindenConfig;
 import com.xiaomi.linden.lucene.query.flexiblequery.FlexibleQuery;
@@ -28,6 +30,8 @@ import com.xiaomi.linden.thrift.common.LindenSearchField;
 
 public class FlexibleQueryConstructor extends QueryConstructor {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(FlexibleQueryConstructor.class);
+
   @Override
   protected Query construct(LindenQuery lindenQuery, LindenConfig config) throws IOException {
     if (lindenQuery.isSetFlexQuery()) {
@@ -44,6 +48,13 @@ public class FlexibleQueryConstructor extends QueryConstructor {
       flexibleQuery.setFullMatch(lindenFlexibleQuery.isFullMatch());
       flexibleQuery.setGlobalIDF(lindenFlexibleQuery.isGlobalIDF());
       flexibleQuery.setMatchRatio(lindenFlexibleQuery.getMatchRatio());
+      // only plugin score models can declare the upper bound pruning needs, BQL rejects the others
+      if (lindenFlexibleQuery.isPruning() && !lindenFlexibleQuery.getModel().isPlugin()) {
+        LOGGER.warn("Pruning ignored, inline score model {} declares no upper bound",
+                    lindenFlexibleQuery.getModel().getName());
+      } else {
+        flexibleQuery.setPruning(lindenFlexibleQuery.isPruning());
+      }
       return flexibleQuery;
     }
     return null;
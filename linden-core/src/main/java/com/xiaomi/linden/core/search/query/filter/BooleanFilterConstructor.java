@@ -34,13 +34,13 @@ public class BooleanFilterConstructor extends FilterConstructor {
       LindenFilter subFilter = booleanSubFilter.getFilter();
       switch (booleanSubFilter.clause) {
         case MUST:
-          booleanFilter.add(FilterConstructor.constructFilter(subFilter, config), BooleanClause.Occur.MUST);
+          booleanFilter.add(constructSubFilter(subFilter, config), BooleanClause.Occur.MUST);
           continue;
         case SHOULD:
-          booleanFilter.add(FilterConstructor.constructFilter(subFilter, config), BooleanClause.Occur.SHOULD);
+          booleanFilter.add(constructSubFilter(subFilter, config), BooleanClause.Occur.SHOULD);
           continue;
         case MUST_NOT:
-          booleanFilter.add(FilterConstructor.constructFilter(subFilter, config), BooleanClause.Occur.MUST_NOT);
+          booleanFilter.add(constructSubFilter(subFilter, config), BooleanClause.Occur.MUST_NOT);
       }
     }
     return booleanFilter;
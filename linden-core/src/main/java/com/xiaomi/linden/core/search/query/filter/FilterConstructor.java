@@ -14,9 +14,18 @@
 
 package com.xiaomi.linden.core.search.query.filter;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.lucene.search.Filter;
 
 import com.xiaomi.linden.core.LindenConfig;
+import com.xiaomi.linden.lucene.search.LindenFilterCache;
+import com.xiaomi.linden.thrift.common.LindenBooleanSubFilter;
 import com.xiaomi.linden.thrift.common.LindenFilter;
 
 public abstract class FilterConstructor {
@@ -28,7 +37,20 @@ public abstract class FilterConstructor {
   private static final FilterConstructor SPATIAL_FILTER_CONSTRUCTOR = new SpatialFilterConstructor();
   private static final FilterConstructor NOT_NULL_FIELD_FILTER_CONSTRUCTOR = new NotNullFieldFilterConstructor();
 
+  /**
+   * Constructs the filter of a request or a filtered query. With a filter cache, the whole filter may be cached,
+   * but none of its boolean sub filters.
+   */
   public static Filter constructFilter(LindenFilter lindenFilter, LindenConfig config) throws Exception {
+    Filter filter = constructSubFilter(lindenFilter, config);
+    LindenFilterCache filterCache = config.getFilterCache();
+    if (filter != null && filterCache != null) {
+      filter = filterCache.wrap(new FilterKey(lindenFilter), filter);
+    }
+    return filter;
+  }
+
+  static Filter constructSubFilter(LindenFilter lindenFilter, LindenConfig config) throws Exception {
     if (lindenFilter == null) {
       return null;
     }
@@ -49,5 +71,68 @@ public abstract class FilterConstructor {
     return null;
   }
 
+  /**
+   * Boolean sub filters are order independent, sort them in place so that equivalent filters share filter cache
+   * entries. Sub filters are sorted by hash, which is computed bottom up in a single pass.
+   * @return the hash of the normalized filter
+   */
+  static int normalize(LindenFilter lindenFilter) {
+    if (!lindenFilter.isSetBooleanFilter()) {
+      return lindenFilter.hashCode();
+    }
+    List<LindenBooleanSubFilter> subFilters = lindenFilter.getBooleanFilter().getFilters();
+    List<Map.Entry<Integer, LindenBooleanSubFilter>> hashedSubFilters = new ArrayList<>(subFilters.size());
+    for (LindenBooleanSubFilter subFilter : subFilters) {
+      int hash = subFilter.isSetFilter() ? normalize(subFilter.getFilter()) : 0;
+      hash = hash * 31 + (subFilter.getClause() == null ? 0 : subFilter.getClause().ordinal());
+      hashedSubFilters.add(new AbstractMap.SimpleImmutableEntry<>(hash, subFilter));
+    }
+    Collections.sort(hashedSubFilters, SUB_FILTER_COMPARATOR);
+    int hash = 1;
+    subFilters.clear();
+    for (Map.Entry<Integer, LindenBooleanSubFilter> hashedSubFilter : hashedSubFilters) {
+      hash = hash * 31 + hashedSubFilter.getKey();
+      subFilters.add(hashedSubFilter.getValue());
+    }
+    return hash;
+  }
+
+  private static final Comparator<Map.Entry<Integer, LindenBooleanSubFilter>> SUB_FILTER_COMPARATOR =
+      new Comparator<Map.Entry<Integer, LindenBooleanSubFilter>>() {
+        @Override
+        public int compare(Map.Entry<Integer, LindenBooleanSubFilter> o1,
+                           Map.Entry<Integer, LindenBooleanSubFilter> o2) {
+          return Integer.compare(o1.getKey(), o2.getKey());
+        }
+      };
+
+  /**
+   * Filter cache key, a normalized copy of the filter with its hash computed once.
+   */
+  static class FilterKey {
+
+    private final LindenFilter filter;
+    private final int hash;
+
+    FilterKey(LindenFilter lindenFilter) {
+      filter = lindenFilter.deepCopy();
+      hash = normalize(filter);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof FilterKey) {
+        FilterKey other = (FilterKey) o;
+        return other.hash == hash && other.filter.equals(filter);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
   protected abstract Filter construct(LindenFilter lindenFilter, LindenConfig config) throws Exception;
 }
@@ -40,6 +40,7 @@ public abstract class LindenScoreModelStrategy {
   private boolean isExplain = false;
   private Map<String, LindenFieldSchema> fieldSchemaMap;
   private LindenScoreModel scoreModel;
+  private boolean cacheable = true;
 
   public FieldValues registerCustomCacheWrapper(CustomCacheWrapper cacheWrapper) throws IOException {
     cacheWrapper.preProcess(context, this);
@@ -165,6 +166,20 @@ public abstract class LindenScoreModelStrategy {
     return explanation;
   }
 
+  /**
+   * Whether the scores only depend on the request and the index, so that results of the model may be served
+   * from the request cache. Models reading the clock or random numbers must return false.
+   * Inline models are checked by LindenScoreModelStrategyBuilder against their compiled code,
+   * plugins are cacheable unless they override it.
+   */
+  public boolean isCacheable() {
+    return cacheable;
+  }
+
+  public void setCacheable(boolean cacheable) {
+    this.cacheable = cacheable;
+  }
+
   public static class FieldValues<T> {
     private LindenScoreModelStrategy strategy;
     private FieldWrapper<T> wrapper;
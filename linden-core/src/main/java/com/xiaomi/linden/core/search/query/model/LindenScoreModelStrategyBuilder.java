@@ -15,6 +15,8 @@
 package com.xiaomi.linden.core.search.query.model;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URL;
@@ -22,13 +24,16 @@ import java.net.URLClassLoader;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import com.xiaomi.linden.common.compiler.ClassFileHelper;
 import com.xiaomi.linden.common.compiler.JavaCompilerHelper;
 import com.xiaomi.linden.lucene.query.flexiblequery.FlexibleQuery;
+import com.xiaomi.linden.lucene.query.flexiblequery.FlexibleScoreModelStrategy;
 import com.xiaomi.linden.thrift.common.LindenFieldSchema;
 import com.xiaomi.linden.thrift.common.LindenInputParam;
 import com.xiaomi.linden.thrift.common.LindenSchema;
@@ -39,8 +44,22 @@ public class LindenScoreModelStrategyBuilder {
 
   private static final HashSet<String> importMap = Sets.newHashSet();
   private static final Map<String, Class<?>> compiledClassMap = Maps.newConcurrentMap();
+  // compiled flexible query models which never read positions
+  private static final Set<String> positionFreeClassSet = Sets.newConcurrentHashSet();
+  // FlexibleScoreModelStrategy methods exposing positions to the model
+  private static final Set<String> POSITION_METHODS = Sets.newHashSet("position", "positions", "termMatchedInfo");
+  // compiled models whose scores depend on the clock or on random numbers
+  private static final Set<String> uncacheableClassSet = Sets.newConcurrentHashSet();
+  private static final Set<String> NON_DETERMINISTIC_METHODS = Sets.newHashSet(
+      "java/lang/System.currentTimeMillis", "java/lang/System.nanoTime", "java/lang/Math.random",
+      "java/lang/StrictMath.random", "java/util/Date.<init>", "java/util/Calendar.getInstance",
+      "java/util/UUID.randomUUID");
+  private static final Set<String> NON_DETERMINISTIC_CLASSES = Sets.newHashSet(
+      "java/util/Random", "java/util/concurrent/ThreadLocalRandom", "java/security/SecureRandom");
   private static final Map<String, String> failedClassMap = Maps.newConcurrentMap();
   private static final Map<String, Class<?>> pluginClassMap = Maps.newConcurrentMap();
+  // plugin name -> whether its results may be cached, asked once per plugin
+  private static final Map<String, Boolean> pluginCacheableMap = Maps.newConcurrentMap();
   private static final String LATITUDE = "latitude";
   private static final String LONGITUDE = "longitude";
   private static volatile URLClassLoader urlClassLoader;
@@ -120,31 +139,33 @@ public class LindenScoreModelStrategyBuilder {
     return build(CLASS_HEADER_FORMAT, pluginPath, model, schema);
   }
 
-  public static LindenScoreModelStrategy build(String classHeaderFormat, String pluginPath, LindenScoreModel model,
-                                               LindenSchema schema) throws Exception {
+  /**
+   * Whether results scored by the model may be served from the request cache, see
+   * {@link LindenScoreModelStrategy#isCacheable()}. Compiled classes are shared with the searches using the model.
+   * The answer is kept per compiled class or plugin name, so a request doesn't build a strategy only to ask it.
+   */
+  public static boolean isCacheable(LindenScoreModel model, boolean flexible, String pluginPath, LindenSchema schema)
+      throws Exception {
+    String classHeaderFormat = flexible ? FLEXIBLE_QUERY_CLASS_HEADER_FORMAT : CLASS_HEADER_FORMAT;
     if (model.isPlugin()) {
-      if (pluginPath == null) {
-        throw new Exception("Does not support plugin. Plugin path is null");
-      }
-      Class<?> clazz;
-      if (model.isOverride()) {
-        clazz = loadClass(pluginPath, model.getName());
-      } else {
-        clazz = pluginClassMap.get(model.getName());
-        if (clazz != null) {
-          return (LindenScoreModelStrategy) clazz.newInstance();
-        } else {
-          clazz = loadClass(pluginPath, model.getName());
-        }
-      }
-      if (clazz != null) {
-        pluginClassMap.put(model.getName(), clazz);
-        return (LindenScoreModelStrategy) clazz.newInstance();
-      } else {
-        throw new Exception("Plugin " + model.getName() + " not found.");
+      Boolean cacheable = pluginCacheableMap.get(model.getName());
+      if (cacheable == null) {
+        cacheable = build(classHeaderFormat, pluginPath, model, schema).isCacheable();
+        pluginCacheableMap.put(model.getName(), cacheable);
       }
+      return cacheable;
     }
+    String className = getClassName(model);
+    if (!compiledClassMap.containsKey(className)) {
+      build(classHeaderFormat, pluginPath, model, schema);
+    }
+    return !uncacheableClassSet.contains(className);
+  }
 
+  /**
+   * @return name of the class compiled from the model, models with the same params and func share it
+   */
+  private static String getClassName(LindenScoreModel model) {
     StringBuilder fingerPrintBuilder = new StringBuilder();
     for (int i = 0; i < model.getParamsSize(); ++i) {
       if (!model.getParams().get(i).isSetValue()) {
@@ -173,10 +194,41 @@ public class LindenScoreModelStrategyBuilder {
     }
     fingerPrintBuilder.append(model.getFunc());
     long hash = fingerPrintBuilder.toString().hashCode();
-    String className = "LSM" + Math.abs(hash);
+    return "LSM" + Math.abs(hash);
+  }
+
+  public static LindenScoreModelStrategy build(String classHeaderFormat, String pluginPath, LindenScoreModel model,
+                                               LindenSchema schema) throws Exception {
+    if (model.isPlugin()) {
+      if (pluginPath == null) {
+        throw new Exception("Does not support plugin. Plugin path is null");
+      }
+      Class<?> clazz;
+      if (model.isOverride()) {
+        clazz = loadClass(pluginPath, model.getName());
+      } else {
+        clazz = pluginClassMap.get(model.getName());
+        if (clazz != null) {
+          return (LindenScoreModelStrategy) clazz.newInstance();
+        } else {
+          clazz = loadClass(pluginPath, model.getName());
+        }
+      }
+      if (clazz != null) {
+        // a plugin class loaded again is asked again whether it is cacheable
+        if (pluginClassMap.put(model.getName(), clazz) != clazz) {
+          pluginCacheableMap.remove(model.getName());
+        }
+        return (LindenScoreModelStrategy) clazz.newInstance();
+      } else {
+        throw new Exception("Plugin " + model.getName() + " not found.");
+      }
+    }
+
+    String className = getClassName(model);
     Class<?> clazz = compiledClassMap.get(className);
     if (clazz != null) {
-      return (LindenScoreModelStrategy) clazz.newInstance();
+      return newCompiledInstance(className, clazz);
     } else {
       if (failedClassMap.containsKey(className)) {
         throw new Exception("score model " + model.getName() + " compile failed, please check score model code");
@@ -279,9 +331,74 @@ public class LindenScoreModelStrategyBuilder {
         failedClassMap.put(className, e.getMessage());
         throw new Exception(Throwables.getStackTraceAsString(e) + "\n" + classBody.toString());
       }
+      Set<String> invokedMethods = getInvokedMethods(className, clazz);
+      if (FLEXIBLE_QUERY_CLASS_HEADER_FORMAT.equals(classHeaderFormat) && !readsPositions(invokedMethods)) {
+        positionFreeClassSet.add(className);
+      }
+      if (!isDeterministic(invokedMethods)) {
+        uncacheableClassSet.add(className);
+      }
       compiledClassMap.put(className, clazz);
-      return (LindenScoreModelStrategy) clazz.newInstance();
+      return newCompiledInstance(className, clazz);
+    }
+  }
+
+  private static LindenScoreModelStrategy newCompiledInstance(String className, Class<?> clazz) throws Exception {
+    LindenScoreModelStrategy strategy = (LindenScoreModelStrategy) clazz.newInstance();
+    if (positionFreeClassSet.contains(className)) {
+      ((FlexibleScoreModelStrategy) strategy).setNeedsPositions(false);
+    }
+    if (uncacheableClassSet.contains(className)) {
+      strategy.setCacheable(false);
+    }
+    return strategy;
+  }
+
+  /**
+   * Methods invoked by the compiled model as owner.name, null if its class file can not be read.
+   * They are taken from the byte code rather than the source, so that comments, strings and other identifiers
+   * containing the method names don't count.
+   */
+  private static Set<String> getInvokedMethods(String className, Class<?> clazz) {
+    try (InputStream classFile = clazz.getClassLoader().getResourceAsStream(className + ".class")) {
+      if (classFile == null) {
+        return null;
+      }
+      return ClassFileHelper.getInvokedMethods(classFile);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Whether the compiled model calls any method exposing positions.
+   */
+  private static boolean readsPositions(Set<String> invokedMethods) {
+    if (invokedMethods == null) {
+      return true;
+    }
+    for (String method : invokedMethods) {
+      if (POSITION_METHODS.contains(method.substring(method.lastIndexOf('.') + 1))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether the compiled model neither reads the clock nor draws random numbers.
+   */
+  private static boolean isDeterministic(Set<String> invokedMethods) {
+    if (invokedMethods == null) {
+      return false;
+    }
+    for (String method : invokedMethods) {
+      if (NON_DETERMINISTIC_METHODS.contains(method)
+          || NON_DETERMINISTIC_CLASSES.contains(method.substring(0, method.lastIndexOf('.')))) {
+        return false;
+      }
     }
+    return true;
   }
 
   private static boolean isDistanceMethodNeeded(LindenSchema schema) {
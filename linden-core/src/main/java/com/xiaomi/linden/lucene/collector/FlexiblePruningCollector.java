@@ -0,0 +1,143 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.lucene.collector;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+
+import com.xiaomi.linden.lucene.query.flexiblequery.FlexibleQuery;
+import com.xiaomi.linden.lucene.query.flexiblequery.FlexibleScorer;
+
+/**
+ * Tracks the scores of the top numHits collected documents, and passes the lowest of them
+ * to the FlexibleScorer as its minimum competitive score.
+ * Only valid when hits are sorted by the score of a pruning flexible query.
+ */
+public class FlexiblePruningCollector extends Collector {
+
+  private final Collector collector;
+  // min heap of the top collected scores
+  private final float[] heap;
+  private int size;
+  private Scorer scorer;
+  private FlexibleScorer flexibleScorer;
+
+  public FlexiblePruningCollector(Collector collector, int numHits) {
+    this.collector = collector;
+    this.heap = new float[Math.max(1, numHits)];
+  }
+
+  public static boolean isPruning(Query query) {
+    if (query instanceof FilteredQuery) {
+      return isPruning(((FilteredQuery) query).getQuery());
+    }
+    return query instanceof FlexibleQuery && ((FlexibleQuery) query).isPruning();
+  }
+
+  private static FlexibleScorer getFlexibleScorer(Scorer scorer) {
+    if (scorer instanceof FlexibleScorer) {
+      return (FlexibleScorer) scorer;
+    }
+    // filtered scorers keep the score of the wrapped scorer
+    Collection<Scorer.ChildScorer> children = scorer.getChildren();
+    if (children.size() == 1) {
+      Scorer.ChildScorer child = children.iterator().next();
+      if ("FILTERED".equals(child.relationship)) {
+        return getFlexibleScorer(child.child);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void setScorer(Scorer scorer) throws IOException {
+    collector.setScorer(scorer);
+    this.scorer = scorer;
+    flexibleScorer = getFlexibleScorer(scorer);
+    if (flexibleScorer != null && size == heap.length) {
+      flexibleScorer.setMinCompetitiveScore(heap[0]);
+    }
+  }
+
+  @Override
+  public void collect(int doc) throws IOException {
+    collector.collect(doc);
+    if (flexibleScorer == null) {
+      return;
+    }
+    float score = scorer.score();
+    if (size < heap.length) {
+      heap[size++] = score;
+      upHeap(size - 1);
+    } else if (score > heap[0]) {
+      heap[0] = score;
+      downHeap();
+    } else {
+      return;
+    }
+    if (size == heap.length) {
+      flexibleScorer.setMinCompetitiveScore(heap[0]);
+    }
+  }
+
+  private void upHeap(int i) {
+    float score = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (heap[parent] <= score) {
+        break;
+      }
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = score;
+  }
+
+  private void downHeap() {
+    float score = heap[0];
+    int i = 0;
+    while (true) {
+      int child = (i << 1) + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && heap[child + 1] < heap[child]) {
+        ++child;
+      }
+      if (score <= heap[child]) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = score;
+  }
+
+  @Override
+  public void setNextReader(AtomicReaderContext context) throws IOException {
+    collector.setNextReader(context);
+  }
+
+  @Override
+  public boolean acceptsDocsOutOfOrder() {
+    return collector.acceptsDocsOutOfOrder();
+  }
+}
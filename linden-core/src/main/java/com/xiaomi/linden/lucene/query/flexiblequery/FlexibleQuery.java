@@ -45,6 +45,7 @@ public class FlexibleQuery extends Query {
   private boolean isFullMatch = false;
   private double matchRatio = -1;
   private boolean globalIDF = false;
+  private boolean pruning = false;
   private final FlexibleTermInfo termsMatrix;
   private final LindenConfig config;
 
@@ -129,6 +130,14 @@ public class FlexibleQuery extends Query {
     this.globalIDF = globalIDF;
   }
 
+  public boolean isPruning() {
+    return pruning;
+  }
+
+  public void setPruning(boolean pruning) {
+    this.pruning = pruning;
+  }
+
   public FlexibleTerm[][] getTerms() {
     return termsMatrix.terms;
   }
@@ -256,6 +265,9 @@ public class FlexibleQuery extends Query {
       int minMatch = Math.max(1, (int) Math.ceil(matchRatio * termsMatrix.terms[0].length));
       buffer.append(" minMatch:").append(minMatch);
     }
+    if (pruning) {
+      buffer.append(" pruning");
+    }
     buffer.append(")");
     if (getBoost() != 1) {
       buffer.append("^").append(getBoost());
@@ -34,6 +34,7 @@ abstract public class FlexibleScoreModelStrategy extends LindenScoreModelStrateg
   private Float[] fieldScores;
   private Float[][] termScores;
   private boolean isExplain = false;
+  private boolean needsPositions = true;
 
   public void setSimilarity(Similarity similarity) {
     this.similarity = similarity;
@@ -107,6 +108,20 @@ abstract public class FlexibleScoreModelStrategy extends LindenScoreModelStrateg
     return termMatchedInfo(field, term).positions(doc());
   }
 
+  /**
+   * Whether computeScore() reads position(field, term) or positions(field, term).
+   * Postings of models returning false are opened without positions, which are then never decoded.
+   * Inline models are checked by LindenScoreModelStrategyBuilder against their compiled code,
+   * plugins always read positions unless they override it.
+   */
+  public boolean needsPositions() {
+    return needsPositions;
+  }
+
+  public void setNeedsPositions(boolean needsPositions) {
+    this.needsPositions = needsPositions;
+  }
+
   public int getTotalMatchedTerms(){
     return matchedMatrix.getTotalMatchedTerms();
   }
@@ -115,6 +130,29 @@ abstract public class FlexibleScoreModelStrategy extends LindenScoreModelStrateg
     return matchedMatrix.getMatchedField(field);
   }
 
+  /**
+   * Declares an upper bound of computeScore() used by top-k pruning.
+   * termUpperBounds[field][term] bounds getScore(field, term) of the current document and is 0 for
+   * the terms which are not matched. A model may only declare a bound if its score never decreases when a
+   * term score grows. By default no bound is declared, and pruning is disabled for the model.
+   */
+  public double upperBound(float[][] termUpperBounds) {
+    return Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Upper bound for models whose score is the sum of getScore(field, term) of all matched terms.
+   */
+  public static double sumUpperBound(float[][] termUpperBounds) {
+    double sum = 0;
+    for (float[] fieldBounds : termUpperBounds) {
+      for (float bound : fieldBounds) {
+        sum += bound;
+      }
+    }
+    return sum;
+  }
+
   public Explanation explain(Similarity similarity, Query query, int doc) throws IOException {
     Explanation expl = new Explanation();
     isExplain = true;
@@ -16,18 +16,48 @@ package com.xiaomi.linden.lucene.query.flexiblequery;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.search.Scorer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class FlexibleScorer extends Scorer {
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(FlexibleScorer.class);
+  // score models asked to prune without declaring an upper bound, only warned once
+  private static final Set<String> UNBOUNDED_MODELS =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
   private int numMatchedEnums;
   private int doc = -1;
   private TermDocsEnum[] matchedEnumsList;
+  // enums matched on the current doc, kept out of the heap and not advanced until the scorer moves on,
+  // so that their positions can still be decoded lazily while scoring
+  private TermDocsEnum[] pendingEnums;
+  private int numPendingEnums;
   private MatchedInfoMatrix matchedInfoMatrix;
   private FlexibleScoreModelStrategy strategy;
   private boolean[] termFieldHit;
   private int minMatch;
+  private long cost;
+  private int scoredDoc = -1;
+  private float score;
+
+  // top-k pruning, only enabled if the score model declares an upper bound
+  private static final double PRUNING_SLACK = 1.0001;
+  private boolean pruning;
+  private float minCompetitiveScore = Float.NEGATIVE_INFINITY;
+  private float[][] termUpperBounds;
+  private float[][] candidateUpperBounds;
+  // enums sorted by upper bound, the first numNonEssentialEnums ones can not make a document competitive
+  // by themselves, so they are kept out of the heap and only advanced to competitive candidates.
+  private TermDocsEnum[] sortedEnums;
+  private int[][] sortedRanks;
+  private int numNonEssentialEnums;
 
   protected FlexibleScorer(FlexibleWeight weight, FlexibleScoreModelStrategy strategy, TermDocsEnum[][] matchedEnumsMatrix) throws IOException {
     super(weight);
@@ -41,6 +71,7 @@ public class FlexibleScorer extends Scorer {
     this.strategy.prepare(0, 0, false);
 
     matchedEnumsList = new TermDocsEnum[numMatchedEnums];
+    pendingEnums = new TermDocsEnum[numMatchedEnums];
     int counter = 0;
     for (TermDocsEnum[] fieldEnums : matchedEnumsMatrix) {
       for (TermDocsEnum docsEnum: fieldEnums) {
@@ -58,11 +89,112 @@ public class FlexibleScorer extends Scorer {
       }
     }
 
+    if (weight.getQuery().isPruning()) {
+      initPruning(matchedEnumsMatrix, weight.getQuery().getFieldBoosts());
+    }
+
     // first time init.
-    for (TermDocsEnum termDocsEnum : matchedEnumsList) {
-      termDocsEnum.next();
+    TermDocsEnum[] allEnums = matchedEnumsList.clone();
+    numMatchedEnums = 0;
+    for (TermDocsEnum termDocsEnum : allEnums) {
+      cost += termDocsEnum.cost();
+      if (termDocsEnum.next()) {
+        matchedEnumsList[numMatchedEnums++] = termDocsEnum;
+      }
+    }
+    Arrays.fill(matchedEnumsList, numMatchedEnums, matchedEnumsList.length, null);
+
+    heapify();
+  }
+
+  private void initPruning(TermDocsEnum[][] matchedEnumsMatrix, float[] fieldBoosts) {
+    termUpperBounds = new float[matchedEnumsMatrix.length][];
+    candidateUpperBounds = new float[matchedEnumsMatrix.length][];
+    for (int i = 0; i < matchedEnumsMatrix.length; ++i) {
+      termUpperBounds[i] = new float[matchedEnumsMatrix[i].length];
+      candidateUpperBounds[i] = new float[matchedEnumsMatrix[i].length];
+      for (int j = 0; j < matchedEnumsMatrix[i].length; ++j) {
+        termUpperBounds[i][j] = fieldBoosts[i] > 0 ? matchedEnumsMatrix[i][j].maxScore() * fieldBoosts[i] : 0f;
+      }
+    }
+    double maxScore = strategy.upperBound(termUpperBounds);
+    pruning = !Double.isInfinite(maxScore) && !Double.isNaN(maxScore);
+    if (!pruning && UNBOUNDED_MODELS.add(strategy.getClass().getName())) {
+      LOGGER.warn("Score model {} declares no upper bound, flexible queries using it are not pruned",
+                  strategy.getClass().getName());
+    }
+    if (pruning) {
+      sortedEnums = Arrays.copyOf(matchedEnumsList, numMatchedEnums);
+      Arrays.sort(sortedEnums, new Comparator<TermDocsEnum>() {
+        @Override
+        public int compare(TermDocsEnum o1, TermDocsEnum o2) {
+          return Float.compare(upperBound(o1), upperBound(o2));
+        }
+      });
+      sortedRanks = new int[matchedEnumsMatrix.length][];
+      for (int i = 0; i < matchedEnumsMatrix.length; ++i) {
+        sortedRanks[i] = new int[matchedEnumsMatrix[i].length];
+      }
+      for (int i = 0; i < sortedEnums.length; ++i) {
+        sortedRanks[sortedEnums[i].getField()][sortedEnums[i].termPos] = i;
+      }
+    }
+  }
+
+  private float upperBound(TermDocsEnum termDocsEnum) {
+    return termUpperBounds[termDocsEnum.getField()][termDocsEnum.termPos];
+  }
+
+  private void setCandidateUpperBound(TermDocsEnum termDocsEnum, boolean candidate) {
+    candidateUpperBounds[termDocsEnum.getField()][termDocsEnum.termPos] = candidate ? upperBound(termDocsEnum) : 0f;
+  }
+
+  private boolean isEssential(TermDocsEnum termDocsEnum) {
+    return !pruning || sortedRanks[termDocsEnum.getField()][termDocsEnum.termPos] >= numNonEssentialEnums;
+  }
+
+  private boolean isCompetitive(double upperBound) {
+    return upperBound * PRUNING_SLACK >= minCompetitiveScore;
+  }
+
+  /**
+   * Documents scoring below minCompetitiveScore can not enter the collector's top hits any more.
+   * With pruning enabled, documents whose upper bound is below it are skipped without being scored,
+   * and terms which can not make a document competitive by themselves stop driving the iteration.
+   */
+  public void setMinCompetitiveScore(float minCompetitiveScore) {
+    if (!pruning || minCompetitiveScore <= this.minCompetitiveScore) {
+      return;
+    }
+    this.minCompetitiveScore = minCompetitiveScore;
+
+    int numNonEssential = numNonEssentialEnums;
+    for (float[] fieldBounds : candidateUpperBounds) {
+      Arrays.fill(fieldBounds, 0f);
+    }
+    for (int i = 0; i < sortedEnums.length; ++i) {
+      setCandidateUpperBound(sortedEnums[i], true);
+      if (i >= numNonEssential) {
+        if (isCompetitive(strategy.upperBound(candidateUpperBounds))) {
+          break;
+        }
+        numNonEssential = i + 1;
+      }
+    }
+    if (numNonEssential == numNonEssentialEnums) {
+      return;
     }
 
+    // rebuild the heap with the essential enums only, pending enums are still on the current doc
+    // and get back into the heap once they are advanced
+    numNonEssentialEnums = numNonEssential;
+    numMatchedEnums = 0;
+    for (int i = numNonEssentialEnums; i < sortedEnums.length; ++i) {
+      if (sortedEnums[i].doc() != NO_MORE_DOCS && sortedEnums[i].doc() != doc) {
+        matchedEnumsList[numMatchedEnums++] = sortedEnums[i];
+      }
+    }
+    Arrays.fill(matchedEnumsList, numMatchedEnums, matchedEnumsList.length, null);
     heapify();
   }
 
@@ -112,6 +244,23 @@ public class FlexibleScorer extends Scorer {
     }
   }
 
+  /**
+   * Add an enum to the heap, bubbling it up as required.
+   */
+  protected final void heapAdd(TermDocsEnum termDocsEnum) {
+    int doc = termDocsEnum.doc();
+    int i = numMatchedEnums++;
+    while (i > 0) {
+      int parent = (i - 1) >> 1;
+      if (matchedEnumsList[parent].doc() <= doc) {
+        break;
+      }
+      matchedEnumsList[i] = matchedEnumsList[parent];
+      i = parent;
+    }
+    matchedEnumsList[i] = termDocsEnum;
+  }
+
   /**
    * Remove the root Scorer from subScorers and re-establish it as a heap
    */
@@ -129,7 +278,11 @@ public class FlexibleScorer extends Scorer {
 
   @Override
   public float score() throws IOException {
-    return (float) strategy.computeScore();
+    if (scoredDoc != doc) {
+      score = (float) strategy.computeScore();
+      scoredDoc = doc;
+    }
+    return score;
   }
 
   @Override
@@ -171,47 +324,120 @@ public class FlexibleScorer extends Scorer {
   }
 
   private int getMatchedDoc() throws IOException {
-    clear();
+    while (true) {
+      clear();
+      if (doc != NO_MORE_DOCS) {
+        movePendingEnums(doc + 1);
+      }
 
-    if (matchedEnumsList.length == 0 || matchedEnumsList[0] == null || doc == NO_MORE_DOCS) {
-      return NO_MORE_DOCS;
-    }
+      if (matchedEnumsList.length == 0 || matchedEnumsList[0] == null || doc == NO_MORE_DOCS) {
+        doc = NO_MORE_DOCS;
+        return doc;
+      }
 
-    doc = matchedEnumsList[0].doc();
-    matchedInfoMatrix.setDoc(doc);
-    int matchedTerms = 0;
-    while (matchedEnumsList[0].doc() == doc) {
-      matchedEnumsList[0].saveMatchedInfo();
-      int field = matchedEnumsList[0].getField();
-      matchedInfoMatrix.setMatchedField(field);
-      if(!termFieldHit[matchedEnumsList[0].termPos]) {
-        matchedTerms++;
-        termFieldHit[matchedEnumsList[0].termPos] = true;
-      }
-      if (matchedEnumsList[0].next()) {
-        heapAdjust(0);
-      } else {
+      doc = matchedEnumsList[0].doc();
+      matchedInfoMatrix.setDoc(doc);
+      int matchedTerms = 0;
+      while (numMatchedEnums > 0 && matchedEnumsList[0].doc() == doc) {
+        matchedTerms += saveMatchedInfo(matchedEnumsList[0]);
+        pendingEnums[numPendingEnums++] = matchedEnumsList[0];
         heapRemoveRoot();
-        if (numMatchedEnums == 0) {
-          return doc;
+      }
+      if (pruning) {
+        int nonEssentialMatchedTerms = matchNonEssentialEnums();
+        if (nonEssentialMatchedTerms < 0) {
+          continue;
         }
+        matchedTerms += nonEssentialMatchedTerms;
       }
+      matchedInfoMatrix.setTotalMatchedTerms(matchedTerms);
+      return doc;
     }
-    matchedInfoMatrix.setTotalMatchedTerms(matchedTerms);
-    return doc;
+  }
+
+  /**
+   * Advance the enums left on the previous doc to target and put the essential ones back into the heap.
+   * Non-essential enums are only advanced on demand by matchNonEssentialEnums.
+   */
+  private void movePendingEnums(int target) throws IOException {
+    for (int i = 0; i < numPendingEnums; ++i) {
+      TermDocsEnum termDocsEnum = pendingEnums[i];
+      pendingEnums[i] = null;
+      if (!isEssential(termDocsEnum)) {
+        continue;
+      }
+      boolean more = target == termDocsEnum.doc() + 1 ? termDocsEnum.next() : termDocsEnum.advance(target);
+      if (more) {
+        heapAdd(termDocsEnum);
+      }
+    }
+    numPendingEnums = 0;
+  }
+
+  private int saveMatchedInfo(TermDocsEnum termDocsEnum) {
+    termDocsEnum.saveMatchedInfo();
+    matchedInfoMatrix.setMatchedField(termDocsEnum.getField());
+    if (!termFieldHit[termDocsEnum.termPos]) {
+      termFieldHit[termDocsEnum.termPos] = true;
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * Move the non-essential enums to the current doc if it may still be competitive.
+   * @return number of newly matched terms, or -1 if the current doc can not be competitive
+   */
+  private int matchNonEssentialEnums() throws IOException {
+    for (int i = numNonEssentialEnums; i < sortedEnums.length; ++i) {
+      setCandidateUpperBound(sortedEnums[i], sortedEnums[i].isMatched(doc));
+    }
+    for (int i = 0; i < numNonEssentialEnums; ++i) {
+      setCandidateUpperBound(sortedEnums[i], true);
+    }
+    if (!isCompetitive(strategy.upperBound(candidateUpperBounds))) {
+      return -1;
+    }
+    if (numNonEssentialEnums == 0) {
+      return 0;
+    }
+
+    for (int i = 0; i < numNonEssentialEnums; ++i) {
+      TermDocsEnum termDocsEnum = sortedEnums[i];
+      if (termDocsEnum.doc() < doc) {
+        termDocsEnum.advance(doc);
+      }
+      setCandidateUpperBound(termDocsEnum, termDocsEnum.doc() == doc);
+    }
+    if (!isCompetitive(strategy.upperBound(candidateUpperBounds))) {
+      return -1;
+    }
+    int matchedTerms = 0;
+    for (int i = 0; i < numNonEssentialEnums; ++i) {
+      if (sortedEnums[i].doc() == doc) {
+        matchedTerms += saveMatchedInfo(sortedEnums[i]);
+      }
+    }
+    return matchedTerms;
   }
 
   @Override
   public int advance(int target) throws IOException {
-    int doc;
-    while ((doc = nextDoc()) < target) {
+    // skip every enum lagging behind target, then collect the next matched doc as usual
+    movePendingEnums(target);
+    while (numMatchedEnums > 0 && matchedEnumsList[0].doc() < target) {
+      if (matchedEnumsList[0].advance(target)) {
+        heapAdjust(0);
+      } else {
+        heapRemoveRoot();
+      }
     }
-    return doc;
+    return nextDoc();
   }
 
   @Override
   public long cost() {
-    return 0;
+    return cost;
   }
 
   public FlexibleScoreModelStrategy getStrategy() { return strategy; }
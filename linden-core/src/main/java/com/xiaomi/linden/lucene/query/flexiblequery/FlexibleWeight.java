@@ -19,7 +19,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.lucene.index.AtomicReaderContext;
-import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.IndexReaderContext;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermContext;
@@ -33,6 +33,7 @@ import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.TermStatistics;
 import org.apache.lucene.search.Weight;
 import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.search.similarities.TFIDFSimilarity;
 import org.apache.lucene.util.Bits;
 
 import com.xiaomi.linden.core.search.query.model.LindenScoreModelStrategyBuilder;
@@ -47,6 +48,7 @@ public class FlexibleWeight extends Weight {
     public Similarity.SimWeight stats;
     public Term term;
     public TermContext termContext;
+    public float idf;
   }
 
   private TermStats[][] termStatsMatrix;
@@ -125,6 +127,10 @@ public class FlexibleWeight extends Weight {
         termStatsInfo.stats = stats;
         termStatsInfo.term = term.term;
         termStatsInfo.termContext = state;
+        if (similarity instanceof TFIDFSimilarity) {
+          termStatsInfo.idf = ((TFIDFSimilarity) similarity)
+              .idfExplain(searcher.collectionStatistics(term.term.field()), termStats).getValue();
+        }
         termStatsMatrix[i][j] = termStatsInfo;
       }
     }
@@ -132,7 +138,8 @@ public class FlexibleWeight extends Weight {
 
   @Override
   public Explanation explain(AtomicReaderContext context, int doc) throws IOException {
-    FlexibleScorer scorer = (FlexibleScorer) scorer(context, context.reader().getLiveDocs());
+    // explanations print the matched positions
+    FlexibleScorer scorer = scorer(context, context.reader().getLiveDocs(), true);
     if (scorer != null) {
       int newDoc = scorer.advance(doc);
       if (newDoc == doc) {
@@ -173,6 +180,19 @@ public class FlexibleWeight extends Weight {
 
   @Override
   public Scorer scorer(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+    return scorer(context, acceptDocs, false);
+  }
+
+  private FlexibleScorer scorer(AtomicReaderContext context, Bits acceptDocs, boolean explain) throws IOException {
+    FlexibleScoreModelStrategy strategy;
+    try {
+      strategy = (FlexibleScoreModelStrategy) LindenScoreModelStrategyBuilder
+          .buildFlexibleQueryStrategy(query);
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+    boolean needsPositions = explain || strategy.needsPositions();
+
     FlexibleQuery.FlexibleTerm[][] termMatrix = query.getTerms();
     TermDocsEnum[][] matchedEnumsMatrix = new TermDocsEnum[termMatrix.length][];
     for (int i = 0; i < termMatrix.length; ++i) {
@@ -195,32 +215,47 @@ public class FlexibleWeight extends Weight {
           Term term = termStats.term;
           final TermState state = termStats.termContext.get(context.ord);
           Similarity.SimScorer docScorer = similarity.simScorer(termStats.stats, context);
-          DocsAndPositionsEnum postings = null;
+          DocsEnum postings = null;
           int docFreq = 0;
           if (state != null) {
             termsEnum.seekExact(term.bytes(), state);
-            postings = termsEnum
-                .docsAndPositions(acceptDocs, null, DocsAndPositionsEnum.FLAG_OFFSETS);
+            // offsets are never read, and positions only if the score model asks for them
+            if (needsPositions) {
+              postings = termsEnum.docsAndPositions(acceptDocs, null, DocsEnum.FLAG_NONE);
+            }
+            // fields indexed without positions still match
+            if (postings == null) {
+              postings = termsEnum.docs(acceptDocs, null, DocsEnum.FLAG_FREQS);
+            }
             docFreq = termsEnum.docFreq();
           }
           matchedEnumsMatrix[i][j] = new TermDocsEnum(fieldTerms[j], docFreq, postings, docScorer,
                                                       i, j);
+          if (postings != null && query.isPruning() && similarity instanceof TFIDFSimilarity) {
+            matchedEnumsMatrix[i][j].setMaxScore(maxScore(termStats, docFreq, termsEnum.totalTermFreq()));
+          }
         }
       }
     }
-    FlexibleScoreModelStrategy strategy;
-    try {
-      strategy = (FlexibleScoreModelStrategy) LindenScoreModelStrategyBuilder
-          .buildFlexibleQueryStrategy(query);
-    } catch (Exception e) {
-      throw new IOException(e);
-    }
     strategy.preProcess(context, query.getConfig().getSchema(), query.getModel());
     strategy.setSimilarity(similarity);
     strategy.init();
     return new FlexibleScorer(this, strategy, matchedEnumsMatrix);
   }
 
+  /**
+   * Upper bound of the raw TF-IDF score of a term in a segment.
+   * Documents are indexed without boosts, so no norm exceeds the norm of a single term field,
+   * and no document contains more occurrences than the total term freq left by the other documents.
+   */
+  private float maxScore(TermStats termStats, int docFreq, long totalTermFreq) {
+    TFIDFSimilarity tfidfSimilarity = (TFIDFSimilarity) similarity;
+    long maxFreq = totalTermFreq < 0 ? 1 : totalTermFreq - docFreq + 1;
+    float maxNorm = Math.max(1f, tfidfSimilarity.decodeNormValue(tfidfSimilarity.encodeNormValue(1f)));
+    float weightValue = (float) Math.sqrt(termStats.stats.getValueForNormalization()) * Math.abs(termStats.idf);
+    return tfidfSimilarity.tf(maxFreq) * weightValue * maxNorm;
+  }
+
   @Override
   public boolean scoresDocsOutOfOrder() {
     return true;
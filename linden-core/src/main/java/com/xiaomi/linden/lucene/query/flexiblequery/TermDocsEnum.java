@@ -17,6 +17,7 @@ package com.xiaomi.linden.lucene.query.flexiblequery;
 import java.io.IOException;
 
 import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.search.ComplexExplanation;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.Explanation;
@@ -25,36 +26,45 @@ import org.apache.lucene.search.similarities.Similarity;
 
 public class TermDocsEnum {
 
-  protected DocsAndPositionsEnum postings;
+  protected DocsEnum postings;
+  // same enum as postings if positions are read, null otherwise
+  protected DocsAndPositionsEnum positionsEnum;
   protected FlexibleQuery.FlexibleTerm term;
   protected Similarity.SimScorer docScorer;
 
   protected int doc;
-  private int position;
-  private int[] positions;
   private int freq;
   protected int termPos = -1;
   protected int docFreq = -1;
 
   private int matchedDoc = -1;
-  private int matchedPosition = -1;
-  private int[] matchedPositions;
   private int matchedFreq = -1;
+  // positions are only decoded when the score model asks for them,
+  // decodedDoc is the doc whose positions are held in matchedPositions
+  private int[] matchedPositions;
+  private int decodedDoc = -1;
   private int field;
   private int initPositionSize = 5;
+  private float maxScore;
 
 
-  public TermDocsEnum(FlexibleQuery.FlexibleTerm term, int docFreq, DocsAndPositionsEnum postings,
+  /**
+   * @param postings a DocsAndPositionsEnum if the score model reads positions, a frequency only DocsEnum otherwise
+   */
+  public TermDocsEnum(FlexibleQuery.FlexibleTerm term, int docFreq, DocsEnum postings,
                       Similarity.SimScorer docScorer, int field, int termPos) throws IOException {
     this.doc = -1;
     this.term = term;
     this.postings = postings;
+    if (postings instanceof DocsAndPositionsEnum) {
+      this.positionsEnum = (DocsAndPositionsEnum) postings;
+    }
     this.docFreq = docFreq;
     this.docScorer = docScorer;
     this.field = field;
     this.termPos = termPos;
-    this.positions = new int[initPositionSize];
     this.matchedPositions = new int[initPositionSize];
+    this.maxScore = postings == null ? 0f : Float.POSITIVE_INFINITY;
   }
 
   public FlexibleQuery.FlexibleTerm term() {
@@ -76,20 +86,52 @@ public class TermDocsEnum {
       return false;
     }
     doc = postings.nextDoc();
+    return readFreq();
+  }
+
+  /**
+   * Skip to the first document whose number is greater than or equal to target,
+   * using the skip data of the underlying postings instead of walking them one by one.
+   */
+  public boolean advance(int target) throws IOException {
+    if (postings == null) {
+      doc = DocIdSetIterator.NO_MORE_DOCS;
+      return false;
+    }
+    doc = postings.advance(target);
+    return readFreq();
+  }
+
+  private boolean readFreq() throws IOException {
     if (doc == DocIdSetIterator.NO_MORE_DOCS) {
       return false;
     }
     freq = postings.freq();
-    if (freq > initPositionSize) {
-      int newSize = 2 * freq;
-      positions = new int[newSize];
-      matchedPositions = new int[newSize];
-      initPositionSize = newSize;
+    return true;
+  }
+
+  /**
+   * Decode the positions of the matched doc, which is only possible while the postings are still on it.
+   * FlexibleScorer leaves the enums of the current doc in place until it moves to the next doc.
+   */
+  private boolean decodePositions(int doc) {
+    if (doc != matchedDoc || positionsEnum == null || this.doc != matchedDoc) {
+      return false;
     }
-    for (int i = 0; i < freq; i++) {
-      positions[i] = postings.nextPosition();
+    if (decodedDoc != matchedDoc) {
+      if (matchedFreq > initPositionSize) {
+        initPositionSize = 2 * matchedFreq;
+        matchedPositions = new int[initPositionSize];
+      }
+      try {
+        for (int i = 0; i < matchedFreq; i++) {
+          matchedPositions[i] = positionsEnum.nextPosition();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      decodedDoc = matchedDoc;
     }
-    position = positions[0];
     return true;
   }
 
@@ -98,16 +140,31 @@ public class TermDocsEnum {
     return doc;
   }
 
+  /**
+   * Upper bound of score(doc) in this segment, infinite if unknown.
+   */
+  public float maxScore() {
+    return maxScore;
+  }
+
+  public void setMaxScore(float maxScore) {
+    this.maxScore = maxScore;
+  }
+
+  public long cost() {
+    return postings == null ? 0 : docFreq;
+  }
+
   public int freq(int doc) {
     return doc == matchedDoc ? matchedFreq : -1;
   }
 
   public int position(int doc) {
-    return doc == matchedDoc ? matchedPosition : -1;
+    return decodePositions(doc) ? matchedPositions[0] : -1;
   }
 
   public int[] positions(int doc) {
-    if (doc == matchedDoc) {
+    if (decodePositions(doc)) {
       int[] matchedPositionsData = new int[matchedFreq];
       System.arraycopy(matchedPositions, 0, matchedPositionsData, 0, matchedFreq);
       return matchedPositionsData;
@@ -118,7 +175,7 @@ public class TermDocsEnum {
   public String toString() {
     if (postings != null) {
       return "MatchedDocs(" + term.toString() + ")@" +
-             (doc == -1 ? "START" : (doc == Integer.MAX_VALUE) ? "END" : doc + "-" + position);
+             (doc == -1 ? "START" : (doc == Integer.MAX_VALUE) ? "END" : doc + "-" + freq);
     } else {
       return term + "NotMatched";
     }
@@ -145,11 +202,7 @@ public class TermDocsEnum {
 
   public void saveMatchedInfo() {
     this.matchedDoc = doc;
-    this.matchedPosition = position;
     this.matchedFreq = freq;
-    for (int i = 0; i < matchedFreq; i++) {
-      matchedPositions[i] = positions[i];
-    }
   }
 
   public int getField() {
@@ -0,0 +1,253 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.lucene.search;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Sets;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import com.xiaomi.linden.thrift.common.CacheInfo;
+
+/**
+ * Per segment cache of filter doc id sets.
+ * Doc id sets are computed without deletions, so they stay valid as long as the segment core is open,
+ * and deletions are applied on every lookup. A filter is only cached once it has been used minFrequency times
+ * among the recently used filters, so that one-off filters don't evict the hot ones. Entries are evicted
+ * in about LRU order once the cache grows over its memory budget, and dropped when their segment core is closed.
+ */
+public class LindenFilterCache {
+
+  // rough cost of the key, the map entry and the bit set object of every cached entry
+  private static final long ENTRY_OVERHEAD = 128;
+  // number of recently used filters whose usage is tracked
+  private static final int USAGE_HISTORY_SIZE = 1024;
+  // marks segments in which the filter matches nothing
+  private static final FixedBitSet EMPTY = new FixedBitSet(0);
+
+  private final int minFrequency;
+  private final Cache<CacheKey, FixedBitSet> cache;
+  private final ConcurrentMap<Object, AtomicInteger> usage;
+  private final Set<Object> coreCacheKeys = Sets.newConcurrentHashSet();
+  private final AtomicLong ramBytesUsed = new AtomicLong();
+
+  public LindenFilterCache(long maxRamBytes, int minFrequency) {
+    this.minFrequency = minFrequency;
+    cache = CacheBuilder.newBuilder()
+        .maximumWeight(maxRamBytes)
+        .weigher(new Weigher<CacheKey, FixedBitSet>() {
+          @Override
+          public int weigh(CacheKey key, FixedBitSet value) {
+            return (int) Math.min(ramBytesUsed(value), Integer.MAX_VALUE);
+          }
+        })
+        .removalListener(new RemovalListener<CacheKey, FixedBitSet>() {
+          @Override
+          public void onRemoval(RemovalNotification<CacheKey, FixedBitSet> notification) {
+            ramBytesUsed.addAndGet(-ramBytesUsed(notification.getValue()));
+          }
+        })
+        .recordStats()
+        .build();
+    usage = CacheBuilder.newBuilder().maximumSize(USAGE_HISTORY_SIZE).<Object, AtomicInteger>build().asMap();
+  }
+
+  /**
+   * Wrap filter into a filter sharing cached doc id sets with every other filter wrapped with an equal key.
+   * Called once per use of the filter, which is returned as is until it is used often enough to be cached.
+   */
+  public Filter wrap(Object filterKey, Filter filter) {
+    AtomicInteger frequency = usage.putIfAbsent(filterKey, new AtomicInteger(1));
+    int count = frequency == null ? 1 : frequency.incrementAndGet();
+    return count >= minFrequency ? new CachingFilter(filterKey, filter) : filter;
+  }
+
+  private void put(AtomicReader reader, CacheKey key, FixedBitSet bits) {
+    if (coreCacheKeys.add(key.coreCacheKey)) {
+      // first time this segment is using the cache
+      initReader(reader);
+    }
+    ramBytesUsed.addAndGet(ramBytesUsed(bits));
+    cache.put(key, bits);
+  }
+
+  /**
+   * Remove all entries of the segment core, if present.
+   */
+  public void purgeByCacheKey(Object coreCacheKey) {
+    if (!coreCacheKeys.remove(coreCacheKey)) {
+      return;
+    }
+    for (CacheKey key : cache.asMap().keySet()) {
+      if (key.coreCacheKey == coreCacheKey) {
+        cache.invalidate(key);
+      }
+    }
+  }
+
+  final SegmentReader.CoreClosedListener purgeCore = new SegmentReader.CoreClosedListener() {
+    @Override
+    public void onClose(Object ownerCoreCacheKey) {
+      LindenFilterCache.this.purgeByCacheKey(ownerCoreCacheKey);
+    }
+  };
+
+  final IndexReader.ReaderClosedListener purgeReader = new IndexReader.ReaderClosedListener() {
+    @Override
+    public void onClose(IndexReader owner) {
+      assert owner instanceof AtomicReader;
+      LindenFilterCache.this.purgeByCacheKey(((AtomicReader) owner).getCoreCacheKey());
+    }
+  };
+
+  private void initReader(AtomicReader reader) {
+    if (reader instanceof SegmentReader) {
+      reader.addCoreClosedListener(purgeCore);
+    } else {
+      // we have a slow reader of some sort, try to register a purge event
+      // rather than relying on gc:
+      Object key = reader.getCoreCacheKey();
+      if (key instanceof AtomicReader) {
+        ((AtomicReader) key).addReaderClosedListener(purgeReader);
+      } else {
+        // last chance
+        reader.addReaderClosedListener(purgeReader);
+      }
+    }
+  }
+
+  private static long ramBytesUsed(FixedBitSet bits) {
+    return ENTRY_OVERHEAD + RamUsageEstimator.sizeOf(bits.getBits());
+  }
+
+  public long ramBytesUsed() {
+    return ramBytesUsed.get();
+  }
+
+  public long size() {
+    return cache.size();
+  }
+
+  public CacheInfo getCacheInfo() {
+    CacheStats stats = cache.stats();
+    return new CacheInfo()
+        .setHitCount(stats.hitCount())
+        .setHitRate(stats.hitRate())
+        .setMissCount(stats.missCount())
+        .setMissRate(stats.missRate())
+        .setEvictionCount(stats.evictionCount())
+        .setRamBytesUsed(ramBytesUsed.get());
+  }
+
+  private static FixedBitSet toBitSet(DocIdSet docIdSet, int maxDoc) throws IOException {
+    if (docIdSet == null) {
+      return EMPTY;
+    }
+    DocIdSetIterator iterator = docIdSet.iterator();
+    if (iterator == null) {
+      return EMPTY;
+    }
+    FixedBitSet bits = new FixedBitSet(maxDoc);
+    bits.or(iterator);
+    return bits.cardinality() == 0 ? EMPTY : bits;
+  }
+
+  static class CacheKey {
+
+    final Object coreCacheKey;
+    final Object filterKey;
+
+    CacheKey(Object coreCacheKey, Object filterKey) {
+      this.coreCacheKey = coreCacheKey;
+      this.filterKey = filterKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof CacheKey) {
+        CacheKey other = (CacheKey) o;
+        return other.coreCacheKey == coreCacheKey && other.filterKey.equals(filterKey);
+      }
+      return false;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(coreCacheKey) * 31 + filterKey.hashCode();
+    }
+  }
+
+  private class CachingFilter extends Filter {
+
+    private final Object filterKey;
+    private final Filter filter;
+
+    CachingFilter(Object filterKey, Filter filter) {
+      this.filterKey = filterKey;
+      this.filter = filter;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+      AtomicReader reader = context.reader();
+      CacheKey key = new CacheKey(reader.getCoreCacheKey(), filterKey);
+      FixedBitSet bits = cache.getIfPresent(key);
+      if (bits == null) {
+        bits = toBitSet(filter.getDocIdSet(context, null), reader.maxDoc());
+        put(reader, key, bits);
+      }
+      if (bits == EMPTY) {
+        return null;
+      }
+      return BitsFilteredDocIdSet.wrap(bits, acceptDocs);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof CachingFilter && ((CachingFilter) o).filterKey.equals(filterKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return filterKey.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      // caching is transparent to query descriptions
+      return filter.toString();
+    }
+  }
+}
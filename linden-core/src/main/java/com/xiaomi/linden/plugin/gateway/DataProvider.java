@@ -27,8 +27,20 @@ public abstract class DataProvider<T> {
     return type;
   }
 
+  /**
+   * @return the next data, or null if there is none ready. It should not block long, the indexing manager
+   * closes a partial chunk only when next returns.
+   */
   public abstract T next() throws IOException;
 
+  /**
+   * @return milliseconds next waits for data before it returns null, 0 if it returns at once. The indexing
+   * manager backs off only while a provider returning at once is idle.
+   */
+  public long getPollTimeout() {
+    return 0;
+  }
+
   public abstract void close() throws IOException;
 
 }
@@ -22,6 +22,7 @@ import java.util.Properties;
 
 import kafka.consumer.ConsumerConfig;
 import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
 import kafka.consumer.KafkaStream;
 import kafka.javaapi.consumer.ConsumerConnector;
 import kafka.message.MessageAndMetadata;
@@ -30,6 +31,9 @@ import com.xiaomi.linden.plugin.gateway.DataProvider;
 
 public class KafkaDataProvider extends DataProvider<MessageAndMetadata<byte[], byte[]>> {
 
+  // next returns null after waiting this long for a message, so a partial chunk is indexed without delay
+  private static final String CONSUMER_TIMEOUT_MS = "10";
+
   private final ConsumerConnector consumer;
   private final ConsumerIterator<byte[], byte[]> iter;
 
@@ -41,6 +45,7 @@ public class KafkaDataProvider extends DataProvider<MessageAndMetadata<byte[], b
     props.put("zookeeper.session.timeout.ms", "30000");
     props.put("auto.commit.interval.ms", "1000");
     props.put("fetch.message.max.bytes", "4194304");
+    props.put("consumer.timeout.ms", CONSUMER_TIMEOUT_MS);
     consumer = kafka.consumer.Consumer.createJavaConsumerConnector(new ConsumerConfig(props));
     Map<String, Integer> topicCountMap = new HashMap<String, Integer>();
     topicCountMap.put(topic, 1);
@@ -52,12 +57,21 @@ public class KafkaDataProvider extends DataProvider<MessageAndMetadata<byte[], b
 
   @Override
   public MessageAndMetadata<byte[], byte[]> next() {
-    if (iter.hasNext()) {
-      return iter.next();
+    try {
+      if (iter.hasNext()) {
+        return iter.next();
+      }
+    } catch (ConsumerTimeoutException e) {
+      // no message ready, the iterator can be used again
     }
     return null;
   }
 
+  @Override
+  public long getPollTimeout() {
+    return Long.parseLong(CONSUMER_TIMEOUT_MS);
+  }
+
   @Override
   public void close() throws IOException {
     consumer.shutdown();
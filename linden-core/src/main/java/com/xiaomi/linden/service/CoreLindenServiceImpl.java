@@ -15,6 +15,10 @@
 package com.xiaomi.linden.service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -28,6 +32,7 @@ import com.google.common.base.Throwables;
 import com.twitter.util.ExecutorServiceFuturePool;
 import com.twitter.util.Function0;
 import com.twitter.util.Future;
+import com.twitter.util.FutureTransformer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,11 +50,14 @@ import com.xiaomi.linden.core.indexing.ShardingStrategy;
 import com.xiaomi.linden.core.search.HotSwapLindenCoreImpl;
 import com.xiaomi.linden.core.search.LindenCore;
 import com.xiaomi.linden.core.search.LindenCoreImpl;
+import com.xiaomi.linden.core.search.LindenSearchView;
 import com.xiaomi.linden.core.search.MultiLindenCoreImpl;
 import com.xiaomi.linden.plugin.metrics.MetricsManager;
 import com.xiaomi.linden.plugin.warmer.LindenWarmer;
+import com.xiaomi.linden.thrift.common.BulkResponse;
 import com.xiaomi.linden.thrift.common.CacheInfo;
 import com.xiaomi.linden.thrift.common.LindenDeleteRequest;
+import com.xiaomi.linden.thrift.common.LindenFetchRequest;
 import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
@@ -149,7 +157,7 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
     this.slowQueryThresholdMillis = config.getSlowQueryThresholdMillis();
 
     try {
-      lindenCluster = new CoreLindenCluster(config, shardingStrategy, this);
+      lindenCluster = new CoreLindenCluster(config, shardingStrategy, this, lindenCore);
     } catch (Exception e) {
       lindenCore.close();
       LOGGER.error("Init linden cluster failed : {}", Throwables.getStackTraceAsString(e));
@@ -238,7 +246,12 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
               return result;
             }
           }
-          result = lindenCore.search(request);
+          if (isDeadlineExceeded(request, eps)) {
+            result = buildLindenFailedResult("Deadline exceeded, " + eps + "ms in instance future pool");
+            logTag = "instanceDeadlineExceeded";
+            return result;
+          }
+          result = lindenCore.search(withRemainingTimeout(request, eps));
           if (result.isSuccess()) {
             logTag = "instanceSearch";
           } else {
@@ -271,6 +284,124 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
     });
   }
 
+  /**
+   * sub-requests run in parallel in the instance future pool on one acquired search view, so they see the same
+   * documents, each with the time left when it starts. The view is released when all of them are done.
+   */
+  @Override
+  public Future<List<LindenResult>> multiSearch(final List<LindenSearchRequest> requests) {
+    final Stopwatch sw = Stopwatch.createStarted();
+    final LindenSearchView view;
+    try {
+      view = lindenCore.acquireSearchView();
+    } catch (Exception e) {
+      LindenResult failed = buildLindenFailedResult(Throwables.getStackTraceAsString(e));
+      return Future.value(Collections.nCopies(requests.size(), failed));
+    }
+    List<Future<LindenResult>> futures = new ArrayList<>(requests.size());
+    for (final LindenSearchRequest request : requests) {
+      Future<LindenResult> future = instanceExecutorPool.apply(new Function0<LindenResult>() {
+        @Override
+        public LindenResult apply() {
+          long eps = sw.elapsed(TimeUnit.MILLISECONDS);
+          if (eps > 10) {
+            LOGGER.warn("Warning: instanceExecutorPool took " + eps + "ms to start multi search sub-request.");
+            if (eps > instanceFuturePoolWaitTimeout) {
+              return buildLindenFailedResult("Waiting time is too long, " + eps + "ms in instance future pool");
+            }
+          }
+          if (isDeadlineExceeded(request, eps)) {
+            return buildLindenFailedResult("Deadline exceeded, " + eps + "ms in instance future pool");
+          }
+          try {
+            return view.search(withRemainingTimeout(request, eps));
+          } catch (Exception e) {
+            return buildLindenFailedResult(Throwables.getStackTraceAsString(e));
+          }
+        }
+      });
+      // a sub-request rejected by the pool fails alone
+      futures.add(future.transformedBy(new FutureTransformer<LindenResult, LindenResult>() {
+        @Override
+        public LindenResult map(LindenResult result) {
+          return result;
+        }
+
+        @Override
+        public LindenResult handle(Throwable t) {
+          return buildLindenFailedResult(Throwables.getStackTraceAsString(t));
+        }
+      }));
+    }
+    return Future.collect(futures).transformedBy(new FutureTransformer<List<LindenResult>, List<LindenResult>>() {
+      @Override
+      public List<LindenResult> map(List<LindenResult> results) {
+        releaseSearchView(view);
+        metricsManager.time(sw.elapsed(TimeUnit.NANOSECONDS), "instanceMultiSearch");
+        LOGGER.info("Instance multi search request, size: {}, cost: {} ms.", requests.size(),
+                    sw.elapsed(TimeUnit.MILLISECONDS));
+        return results;
+      }
+
+      @Override
+      public List<LindenResult> handle(Throwable t) {
+        releaseSearchView(view);
+        LOGGER.error("Instance multi search request failed, size: {}, error: {}", requests.size(),
+                     Throwables.getStackTraceAsString(t));
+        return Collections.nCopies(requests.size(), buildLindenFailedResult(Throwables.getStackTraceAsString(t)));
+      }
+    });
+  }
+
+  private static void releaseSearchView(LindenSearchView view) {
+    try {
+      view.close();
+    } catch (Exception e) {
+      LOGGER.error("Release search view failed : {}", Throwables.getStackTraceAsString(e));
+    }
+  }
+
+  @Override
+  public Future<LindenResult> fetch(final LindenFetchRequest request) {
+    final Stopwatch sw = Stopwatch.createStarted();
+    return instanceExecutorPool.apply(new Function0<LindenResult>() {
+      @Override
+      public LindenResult apply() {
+        LindenResult result = null;
+        String logTag = null;
+        try {
+          long eps = sw.elapsed(TimeUnit.MILLISECONDS);
+          if (eps > 10) {
+            LOGGER.warn("Warning: instanceExecutorPool took " + eps + "ms to start fetch.");
+            if (eps > instanceFuturePoolWaitTimeout) {
+              result = buildLindenFailedResult("Waiting time is too long, " + eps + "ms in instance future pool");
+              logTag = "instancePoolWaitTimeout";
+              return result;
+            }
+          }
+          result = lindenCore.fetch(request);
+          logTag = "instanceFetch";
+        } catch (Exception e) {
+          String errorStackInfo = Throwables.getStackTraceAsString(e);
+          result = buildLindenFailedResult(errorStackInfo);
+          logTag = "instanceExceptionalFetch";
+        } finally {
+          metricsManager.time(sw.elapsed(TimeUnit.NANOSECONDS), logTag);
+          result.setCost((int) sw.elapsed(TimeUnit.MILLISECONDS));
+          if (result.isSuccess()) {
+            LOGGER.info("Instance fetch request succeeded, request: {}, ids: {}, hits: {}, cost: {} ms.",
+                        request.getSearchRequest().getOriginQuery(), request.getIdsSize(), result.getHitsSize(),
+                        result.getCost());
+          } else {
+            LOGGER.error("Instance fetch request failed, request: {}, error: {}, cost: {} ms.",
+                         request.getSearchRequest().getOriginQuery(), result.getError(), result.getCost());
+          }
+          return result;
+        }
+      }
+    });
+  }
+
   @Override
   public Future<Response> delete(final LindenDeleteRequest request) {
     final Stopwatch sw = Stopwatch.createStarted();
@@ -343,6 +474,109 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
     });
   }
 
+  @Override
+  public Future<BulkResponse> bulkIndex(final List<String> contents) {
+    return bulkIndex(contents, null);
+  }
+
+  @Override
+  public Future<Response> indexRequest(final LindenIndexRequest request) {
+    final Stopwatch sw = Stopwatch.createStarted();
+    return instanceExecutorPool.apply(new Function0<Response>() {
+      @Override
+      public Response apply() {
+        Response response = null;
+        try {
+          long eps = sw.elapsed(TimeUnit.MILLISECONDS);
+          if (eps > 10) {
+            LOGGER.warn("Warning: instanceExecutorPool took " + eps + "ms to start index.");
+            if (eps > instanceFuturePoolWaitTimeout) {
+              response =
+                  ResponseUtils.buildFailedResponse("Waiting time is too long, " + eps + "ms in instance future pool");
+              return response;
+            }
+          }
+          response = lindenCore.index(request);
+        } catch (Exception e) {
+          String errorStackInfo = Throwables.getStackTraceAsString(e);
+          response = ResponseUtils.buildFailedResponse(errorStackInfo);
+        } finally {
+          if (response.isSuccess()) {
+            LOGGER.info("Instance index request succeeded, id: {}, cost: {} ms.", request.getId(),
+                        sw.elapsed(TimeUnit.MILLISECONDS));
+          } else {
+            LOGGER.error("Instance index request failed, id: {}, cost: {} ms.", request.getId(),
+                         sw.elapsed(TimeUnit.MILLISECONDS));
+          }
+          return response;
+        }
+      }
+    });
+  }
+
+  @Override
+  public Future<BulkResponse> bulkIndexRequests(final List<LindenIndexRequest> requests) {
+    return bulkIndex(null, requests);
+  }
+
+  /**
+   * apply either json contents or parsed requests in one task of the instance pool
+   */
+  private Future<BulkResponse> bulkIndex(final List<String> contents, final List<LindenIndexRequest> requests) {
+    final Stopwatch sw = Stopwatch.createStarted();
+    final int size = contents != null ? contents.size() : requests.size();
+    return instanceExecutorPool.apply(new Function0<BulkResponse>() {
+      @Override
+      public BulkResponse apply() {
+        BulkResponse response = null;
+        try {
+          long eps = sw.elapsed(TimeUnit.MILLISECONDS);
+          if (eps > 10) {
+            LOGGER.warn("Warning: instanceExecutorPool took " + eps + "ms to start bulk index.");
+            if (eps > instanceFuturePoolWaitTimeout) {
+              response = new BulkResponse(false)
+                  .setError("Waiting time is too long, " + eps + "ms in instance future pool");
+              return response;
+            }
+          }
+          if (requests != null) {
+            response = ResponseUtils.buildBulkResponse(lindenCore.index(requests));
+            return response;
+          }
+          // a document failing to parse fails alone, the others are applied in one pass
+          Response[] responses = new Response[size];
+          List<LindenIndexRequest> indexRequests = new ArrayList<>(size);
+          List<Integer> positions = new ArrayList<>(size);
+          for (int i = 0; i < size; ++i) {
+            try {
+              indexRequests.add(LindenIndexRequestParser.parse(config.getSchema(), contents.get(i)));
+              positions.add(i);
+            } catch (Exception e) {
+              responses[i] = ResponseUtils.buildFailedResponse(e);
+            }
+          }
+          List<Response> indexResponses = lindenCore.index(indexRequests);
+          for (int i = 0; i < positions.size(); ++i) {
+            responses[positions.get(i)] = indexResponses.get(i);
+          }
+          response = ResponseUtils.buildBulkResponse(Arrays.asList(responses));
+        } catch (Exception e) {
+          String errorStackInfo = Throwables.getStackTraceAsString(e);
+          response = new BulkResponse(false).setError(errorStackInfo);
+        } finally {
+          if (response.isSuccess()) {
+            LOGGER.info("Instance bulk index request succeeded, size: {}, cost: {} ms.", size,
+                        sw.elapsed(TimeUnit.MILLISECONDS));
+          } else {
+            LOGGER.error("Instance bulk index request failed, size: {}, error: {}, cost: {} ms.", size,
+                         response.getError(), sw.elapsed(TimeUnit.MILLISECONDS));
+          }
+          return response;
+        }
+      }
+    });
+  }
+
   // handle single instance request called warmer
   @Override
   public Future<LindenResult> handleBqlRequest(final String bql) {
@@ -365,7 +599,11 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
           if (lindenRequest.isSetSearchRequest()) {
             LindenSearchRequest searchRequest = lindenRequest.getSearchRequest();
             searchRequest.setOriginQuery(bql);
-            result = lindenCore.search(searchRequest);
+            if (isDeadlineExceeded(searchRequest, eps)) {
+              result = buildLindenFailedResult("Deadline exceeded, " + eps + "ms in instance future pool");
+              return result;
+            }
+            result = lindenCore.search(withRemainingTimeout(searchRequest, eps));
             if (result.isSuccess()) {
               logTag = "singleInstanceSearch";
             } else {
@@ -415,6 +653,10 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
           serviceInfo = lindenCore.getServiceInfo();
           CacheInfo cacheInfo = lindenCluster.getCacheInfo();
           serviceInfo.setCacheInfo(cacheInfo);
+          serviceInfo.setReplicaInfos(lindenCluster.getReplicaInfos());
+          if (indexingManager != null) {
+            serviceInfo.setIndexingInfo(indexingManager.getIndexingInfo());
+          }
         } catch (Exception e) {
           serviceInfo = new LindenServiceInfo();
           LOGGER.error("get service info failed : {}", Throwables.getStackTraceAsString(e));
@@ -441,6 +683,36 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
     }
   }
 
+  @Override
+  public Future<BulkResponse> handleClusterBulkIndexRequest(List<String> contents) {
+    final Stopwatch sw = Stopwatch.createStarted();
+    try {
+      BulkResponse response = lindenCluster.bulkIndex(contents);
+      metricsManager.time(sw.elapsed(TimeUnit.NANOSECONDS), response.isSuccess() ? "bulkIndex" : "failureBulkIndex");
+      return Future.value(response);
+    } catch (Exception e) {
+      String errorStackInfo = Throwables.getStackTraceAsString(e);
+      LOGGER.error("Handle cluster bulk index failed, size : {} - error : {}", contents.size(), errorStackInfo);
+      metricsManager.time(sw.elapsed(TimeUnit.NANOSECONDS), "failureBulkIndex");
+      return Future.value(new BulkResponse(false).setError(errorStackInfo));
+    }
+  }
+
+  @Override
+  public Future<BulkResponse> handleClusterIndexRequests(List<LindenIndexRequest> requests) {
+    final Stopwatch sw = Stopwatch.createStarted();
+    try {
+      BulkResponse response = lindenCluster.bulkIndexRequests(requests);
+      metricsManager.time(sw.elapsed(TimeUnit.NANOSECONDS), response.isSuccess() ? "bulkIndex" : "failureBulkIndex");
+      return Future.value(response);
+    } catch (Exception e) {
+      String errorStackInfo = Throwables.getStackTraceAsString(e);
+      LOGGER.error("Handle cluster index requests failed, size : {} - error : {}", requests.size(), errorStackInfo);
+      metricsManager.time(sw.elapsed(TimeUnit.NANOSECONDS), "failureBulkIndex");
+      return Future.value(new BulkResponse(false).setError(errorStackInfo));
+    }
+  }
+
   @Override
   public Future<LindenResult> handleClusterSearchRequest(final String bql) {
     final Stopwatch sw = Stopwatch.createStarted();
@@ -462,7 +734,12 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
           if (request.isSetSearchRequest()) {
             LindenSearchRequest searchRequest = request.getSearchRequest();
             searchRequest.setOriginQuery(bql);
-            result = lindenCluster.search(searchRequest);
+            if (isDeadlineExceeded(searchRequest, eps)) {
+              result = buildLindenFailedResult("Deadline exceeded, " + eps + "ms in cluster future pool");
+              logTag = "deadlineExceeded";
+              return result;
+            }
+            result = lindenCluster.search(withRemainingTimeout(searchRequest, eps));
             if (result.isSuccess()) {
               logTag = "search";
             } else {
@@ -492,6 +769,70 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
     });
   }
 
+  @Override
+  public Future<List<LindenResult>> handleClusterMultiSearchRequest(final List<String> bqls) {
+    final Stopwatch sw = Stopwatch.createStarted();
+    return clusterExecutorPool.apply(new Function0<List<LindenResult>>() {
+      @Override
+      public List<LindenResult> apply() {
+        LindenResult[] results = new LindenResult[bqls.size()];
+        String logTag = "multiSearch";
+        try {
+          long eps = sw.elapsed(TimeUnit.MILLISECONDS);
+          if (eps > 10) {
+            LOGGER.warn("Warning: clusterExecutorPool took " + eps + "ms to start handleClusterMultiSearchRequest.");
+            if (eps > clusterFuturePoolWaitTimeout) {
+              logTag = "poolWaitTimeout";
+              Arrays.fill(results,
+                          buildLindenFailedResult("Waiting time is too long, " + eps + "ms in cluster future pool"));
+              return Arrays.asList(results);
+            }
+          }
+          // an invalid bql fails alone
+          List<LindenSearchRequest> searchRequests = new ArrayList<>(bqls.size());
+          List<Integer> positions = new ArrayList<>(bqls.size());
+          for (int i = 0; i < bqls.size(); ++i) {
+            try {
+              LindenRequest request = bqlCompiler.compile(bqls.get(i));
+              if (!request.isSetSearchRequest()) {
+                results[i] = buildLindenFailedResult("invalid search Bql");
+                continue;
+              }
+              LindenSearchRequest searchRequest = request.getSearchRequest().setOriginQuery(bqls.get(i));
+              if (isDeadlineExceeded(searchRequest, eps)) {
+                results[i] = buildLindenFailedResult("Deadline exceeded, " + eps + "ms in cluster future pool");
+                continue;
+              }
+              searchRequests.add(withRemainingTimeout(searchRequest, eps));
+              positions.add(i);
+            } catch (Exception e) {
+              results[i] = buildLindenFailedResult(Throwables.getStackTraceAsString(e));
+            }
+          }
+          if (!searchRequests.isEmpty()) {
+            List<LindenResult> searchResults = lindenCluster.multiSearch(searchRequests);
+            for (int i = 0; i < positions.size(); ++i) {
+              results[positions.get(i)] = searchResults.get(i);
+            }
+          }
+        } catch (Exception e) {
+          logTag = "exceptionalMultiSearch";
+          String errorStackInfo = Throwables.getStackTraceAsString(e);
+          for (int i = 0; i < results.length; ++i) {
+            if (results[i] == null) {
+              results[i] = buildLindenFailedResult(errorStackInfo);
+            }
+          }
+        } finally {
+          metricsManager.time(sw.elapsed(TimeUnit.NANOSECONDS), logTag);
+          LOGGER.info("Cluster multi search request, size: {}, cost: {} ms.", bqls.size(),
+                      sw.elapsed(TimeUnit.MILLISECONDS));
+          return Arrays.asList(results);
+        }
+      }
+    });
+  }
+
   @Override
   public Future<Response> handleClusterDeleteRequest(final String bql) {
     final Stopwatch sw = Stopwatch.createStarted();
@@ -561,7 +902,12 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
           if (request.isSetSearchRequest()) {
             LindenSearchRequest searchRequest = request.getSearchRequest();
             searchRequest.setOriginQuery(bql);
-            result = lindenCluster.search(searchRequest);
+            if (isDeadlineExceeded(searchRequest, eps)) {
+              result = buildLindenFailedResult("Deadline exceeded, " + eps + "ms in cluster future pool");
+              logTag = "deadlineExceeded";
+              return result;
+            }
+            result = lindenCluster.search(withRemainingTimeout(searchRequest, eps));
             if (result.isSuccess()) {
               logTag = "search";
             } else {
@@ -684,6 +1030,21 @@ public class CoreLindenServiceImpl implements LindenService.ServiceIface {
     return handleClusterBqlRequest(bql);
   }
 
+  private static boolean isDeadlineExceeded(LindenSearchRequest request, long eps) {
+    return request.isSetTimeout() && eps >= request.getTimeout();
+  }
+
+  /**
+   * time waiting in the future pool counts against the deadline, the request itself is left untouched
+   * since the local client shares it with the caller
+   */
+  private static LindenSearchRequest withRemainingTimeout(LindenSearchRequest request, long eps) {
+    if (!request.isSetTimeout() || eps == 0) {
+      return request;
+    }
+    return new LindenSearchRequest(request).setTimeout((int) (request.getTimeout() - eps));
+  }
+
   private LindenResult buildLindenFailedResult(String error) {
     return new LindenResult(false).setError(error);
   }
@@ -14,8 +14,11 @@
 
 package com.xiaomi.linden.util;
 
+import java.util.List;
+
 import com.google.common.base.Throwables;
 import com.twitter.util.Future;
+import com.xiaomi.linden.thrift.common.BulkResponse;
 import com.xiaomi.linden.thrift.common.Response;
 
 public class ResponseUtils {
@@ -38,4 +41,25 @@ public class ResponseUtils {
   public static Response buildFailedResponse(Exception e) {
     return new Response(false).setError(Throwables.getStackTraceAsString(e));
   }
+
+  /**
+   * a failure caused by the cluster instead of the request, such as a replica timeout
+   */
+  public static Response buildRetryableResponse(String error) {
+    return new Response(false).setError(error).setRetryable(true);
+  }
+
+  public static BulkResponse buildBulkResponse(List<Response> responses) {
+    int failureCount = 0;
+    for (Response response : responses) {
+      if (!response.isSuccess()) {
+        ++failureCount;
+      }
+    }
+    BulkResponse bulkResponse = new BulkResponse(failureCount == 0).setResponses(responses);
+    if (failureCount > 0) {
+      bulkResponse.setError(failureCount + " of " + responses.size() + " items failed");
+    }
+    return bulkResponse;
+  }
 }
@@ -49,6 +49,7 @@ import com.xiaomi.linden.thrift.common.LindenQueryFilter;
 import com.xiaomi.linden.thrift.common.LindenRange;
 import com.xiaomi.linden.thrift.common.LindenSchema;
 import com.xiaomi.linden.thrift.common.LindenScoreModel;
+import com.xiaomi.linden.thrift.common.LindenSearchAfter;
 import com.xiaomi.linden.thrift.common.LindenSearchField;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
 import com.xiaomi.linden.thrift.common.LindenTerm;
@@ -233,6 +234,23 @@ public class TestBQL {
             .asList(new LindenInputParam("a").setValue(new LindenValue().setDoubleValue(1)),
                 new LindenInputParam("b").setValue(new LindenValue().setLongValue(2)))));
     Assert.assertEquals(lindenFlexibleQuery, lindenRequest.getQuery().getFlexQuery());
+
+    // test pruning
+    bql = "select * from linden by flexible_query is 'test' pruning in (title)\n" +
+        "using model plugin com.xiaomi.linden.TestModel\n" +
+        "where id = 231\n";
+    lindenRequest = compiler.compile(bql).getSearchRequest();
+    Assert.assertTrue(lindenRequest.getQuery().getFlexQuery().isPruning());
+
+    // inline models declare no upper bound
+    bql = "select * from linden by flexible_query is 'test' pruning in (title)\n" +
+        "using model test begin return 1f; end\n";
+    try {
+      compiler.compile(bql);
+      Assert.fail("pruning with an inline model should be rejected");
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage().contains("PRUNING"));
+    }
   }
 
   @Test
@@ -1011,4 +1029,59 @@ public class TestBQL {
     Assert.assertFalse(
         lindenRequest.getQuery().getBooleanQuery().getQueries().get(2).getQuery().getQueryString().disableCoord);
   }
+
+  @Test
+  public void testSearchAfter() {
+    String bql = "select * from linden order by rank search_after limit 0, 10";
+    LindenSearchRequest lindenRequest = compiler.compile(bql).getSearchRequest();
+    Assert.assertTrue(lindenRequest.isSetSearchAfter());
+    Assert.assertFalse(lindenRequest.getSearchAfter().isSetSortValues());
+
+    bql = "select * from linden order by rank, title search_after (5, null, 'doc_1234') limit 0, 10";
+    lindenRequest = compiler.compile(bql).getSearchRequest();
+    LindenSearchAfter searchAfter = lindenRequest.getSearchAfter();
+    Assert.assertEquals(2, searchAfter.getSortValuesSize());
+    Assert.assertEquals(5L, searchAfter.getSortValues().get(0).getLongValue());
+    Assert.assertFalse(searchAfter.getSortValues().get(1).isSetStringValue());
+    Assert.assertEquals("doc_1234", searchAfter.getId());
+
+    bql = "select * from linden search_after (1.5, 7)";
+    lindenRequest = compiler.compile(bql).getSearchRequest();
+    Assert.assertEquals(1.5, lindenRequest.getSearchAfter().getSortValues().get(0).getDoubleValue(), 0.001);
+    Assert.assertEquals("7", lindenRequest.getSearchAfter().getId());
+
+    bql = "select * from linden search_after ('7')";
+    try {
+      compiler.compile(bql).getSearchRequest();
+      Assert.fail();
+    } catch (Exception e) {
+      Assert.assertTrue(e.getMessage().contains("SEARCH_AFTER needs sort values"));
+    }
+
+    bql = "select * from linden search_after (1.5, null)";
+    try {
+      compiler.compile(bql).getSearchRequest();
+      Assert.fail();
+    } catch (Exception e) {
+      Assert.assertTrue(e.getMessage().contains("Document id must be a string"));
+    }
+  }
+
+  @Test
+  public void testTimeout() {
+    String bql = "select * from linden where title = 'qq' timeout 50 limit 0, 10";
+    LindenSearchRequest lindenRequest = compiler.compile(bql).getSearchRequest();
+    Assert.assertEquals(50, lindenRequest.getTimeout());
+
+    bql = "select * from linden where title = 'qq' limit 0, 10";
+    Assert.assertFalse(compiler.compile(bql).getSearchRequest().isSetTimeout());
+
+    bql = "select * from linden timeout 0";
+    try {
+      compiler.compile(bql).getSearchRequest();
+      Assert.fail();
+    } catch (Exception e) {
+      Assert.assertTrue(e.getMessage().contains("TIMEOUT must be positive"));
+    }
+  }
 }
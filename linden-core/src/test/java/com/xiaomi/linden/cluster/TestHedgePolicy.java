@@ -0,0 +1,172 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Supplier;
+import com.twitter.util.Await;
+import com.twitter.util.Duration;
+import com.twitter.util.Future;
+import com.twitter.util.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHedgePolicy {
+
+  private static HedgePolicy warmedUp(int budgetPercent) {
+    HedgePolicy policy = new HedgePolicy(90, budgetPercent);
+    for (int i = 0; i < 128; ++i) {
+      policy.record(TimeUnit.MILLISECONDS.toNanos(i < 100 ? 1 : 50));
+    }
+    return policy;
+  }
+
+  @Test
+  public void testDelayPercentile() {
+    HedgePolicy policy = new HedgePolicy(90, 5);
+    Assert.assertEquals(-1, policy.getDelayNanos());
+    policy = warmedUp(5);
+    // 100 of 128 samples are 1 ms, the 90th percentile is 50 ms
+    Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(50), policy.getDelayNanos());
+  }
+
+  @Test
+  public void testBackupWins() throws Exception {
+    HedgePolicy policy = warmedUp(100);
+    final Promise<String> primary = new Promise<>();
+    Future<String> result = policy.hedge(primary, new Supplier<Future<String>>() {
+      @Override
+      public Future<String> get() {
+        return Future.value("backup");
+      }
+    });
+    Assert.assertEquals("backup", Await.result(result, Duration.apply(5, TimeUnit.SECONDS)));
+    // the slow primary is cancelled, its latency is sampled up to the backup answer
+    Assert.assertTrue(primary.isInterrupted().isDefined());
+    Assert.assertEquals(129, policy.getSampleCount());
+  }
+
+  /**
+   * @return the backup request, once the hedge has sent it
+   */
+  private static Promise<String> hedgeAndWaitForBackup(HedgePolicy policy, Promise<String> primary,
+                                                      Future<String>[] result) throws Exception {
+    final Promise<String> backup = new Promise<>();
+    final CountDownLatch sent = new CountDownLatch(1);
+    result[0] = policy.hedge(primary, new Supplier<Future<String>>() {
+      @Override
+      public Future<String> get() {
+        sent.countDown();
+        return backup;
+      }
+    });
+    Assert.assertTrue(sent.await(5, TimeUnit.SECONDS));
+    return backup;
+  }
+
+  @Test
+  public void testFailureWaitsForTheOtherRequest() throws Exception {
+    HedgePolicy policy = warmedUp(100);
+    @SuppressWarnings("unchecked")
+    Future<String>[] result = new Future[1];
+
+    // a fast failing primary doesn't fail the healthy backup
+    Promise<String> primary = new Promise<>();
+    Promise<String> backup = hedgeAndWaitForBackup(policy, primary, result);
+    primary.setException(new RuntimeException("bad replica"));
+    Assert.assertFalse(result[0].isDefined());
+    Assert.assertFalse(backup.isInterrupted().isDefined());
+    backup.setValue("backup");
+    Assert.assertEquals("backup", Await.result(result[0], Duration.apply(5, TimeUnit.SECONDS)));
+
+    // a failed backup doesn't fail the slow primary
+    primary = new Promise<>();
+    backup = hedgeAndWaitForBackup(policy, primary, result);
+    backup.setException(new RuntimeException("bad replica"));
+    Assert.assertFalse(result[0].isDefined());
+    primary.setValue("primary");
+    Assert.assertEquals("primary", Await.result(result[0], Duration.apply(5, TimeUnit.SECONDS)));
+
+    // both failed
+    primary = new Promise<>();
+    backup = hedgeAndWaitForBackup(policy, primary, result);
+    backup.setException(new RuntimeException("bad backup"));
+    primary.setException(new RuntimeException("bad primary"));
+    try {
+      Await.result(result[0], Duration.apply(5, TimeUnit.SECONDS));
+      Assert.fail("both requests failed");
+    } catch (RuntimeException e) {
+      Assert.assertEquals("bad primary", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testPrimaryFailsBeforeBackup() throws Exception {
+    HedgePolicy policy = warmedUp(100);
+    final AtomicInteger backups = new AtomicInteger();
+    Future<String> result = policy.hedge(Future.<String>exception(new RuntimeException("bad replica")),
+                                         new Supplier<Future<String>>() {
+                                           @Override
+                                           public Future<String> get() {
+                                             backups.incrementAndGet();
+                                             return Future.value("backup");
+                                           }
+                                         });
+    Assert.assertTrue(result.isDefined());
+    Assert.assertTrue(result.poll().get().isThrow());
+    Thread.sleep(100);
+    Assert.assertEquals(0, backups.get());
+  }
+
+  @Test
+  public void testPrimaryWins() throws Exception {
+    HedgePolicy policy = warmedUp(100);
+    final AtomicInteger backups = new AtomicInteger();
+    Future<String> result = policy.hedge(Future.value("primary"), new Supplier<Future<String>>() {
+      @Override
+      public Future<String> get() {
+        backups.incrementAndGet();
+        return Future.value("backup");
+      }
+    });
+    Assert.assertEquals("primary", Await.result(result, Duration.apply(5, TimeUnit.SECONDS)));
+    Thread.sleep(100);
+    Assert.assertEquals(0, backups.get());
+  }
+
+  @Test
+  public void testBudget() throws Exception {
+    HedgePolicy policy = warmedUp(10);
+    final AtomicInteger backups = new AtomicInteger();
+    Supplier<Future<String>> backup = new Supplier<Future<String>>() {
+      @Override
+      public Future<String> get() {
+        backups.incrementAndGet();
+        return Future.value("backup");
+      }
+    };
+    int requests = 50;
+    for (int i = 0; i < requests; ++i) {
+      policy.hedge(new Promise<String>(), backup);
+    }
+    Thread.sleep(500);
+    // 10% of 50 requests
+    Assert.assertEquals(5, backups.get());
+    Assert.assertFalse(policy.tryAcquireBudget());
+  }
+}
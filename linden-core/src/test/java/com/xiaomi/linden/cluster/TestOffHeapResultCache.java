@@ -0,0 +1,109 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.thrift.common.LindenHit;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+
+public class TestOffHeapResultCache {
+
+  private static LindenSearchRequest request(int i) {
+    return new LindenSearchRequest().setOffset(i).setLength(10);
+  }
+
+  private static LindenResult result(int hits) {
+    LindenResult result = new LindenResult().setTotalHits(hits);
+    for (int i = 0; i < hits; ++i) {
+      result.addToHits(new LindenHit("doc_" + i, i).setSource("{\"title\":\"lucene " + i + "\"}"));
+    }
+    return result;
+  }
+
+  @Test
+  public void testGetAndPut() {
+    OffHeapResultCache cache = new OffHeapResultCache(1024 * 1024, 0);
+    Assert.assertNull(cache.get(request(0)));
+    LindenResult result = result(10);
+    cache.put(request(0), result);
+    LindenResult cached = cache.get(request(0));
+    Assert.assertEquals(result, cached);
+    // every hit is a private copy
+    cached.setTotalHits(100);
+    Assert.assertEquals(10, cache.get(request(0)).getTotalHits());
+
+    Assert.assertEquals(2, cache.getCacheInfo().getHitCount());
+    Assert.assertEquals(1, cache.getCacheInfo().getMissCount());
+    Assert.assertTrue(cache.getCacheInfo().getRamBytesUsed() > 0);
+    cache.invalidateAll();
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.bytesUsed());
+  }
+
+  @Test
+  public void testByteBudget() {
+    long maxBytes = 256 * 1024;
+    OffHeapResultCache cache = new OffHeapResultCache(maxBytes, 0);
+    for (int i = 0; i < 1000; ++i) {
+      cache.put(request(i), result(10));
+      Assert.assertTrue(cache.bytesUsed() <= maxBytes);
+    }
+    Assert.assertTrue(cache.size() < 1000);
+    Assert.assertTrue(cache.getCacheInfo().getEvictionCount() > 0);
+
+    // one big result weighs as much as many small ones
+    long size = cache.size();
+    cache.put(request(-1), result(100));
+    Assert.assertTrue(cache.size() < size);
+    Assert.assertEquals(result(100), cache.get(request(-1)));
+
+    // pages of evicted entries are reused, the preallocated memory is never exceeded
+    for (int i = 0; i < 1000; ++i) {
+      cache.put(request(i), result(i % 50));
+      Assert.assertTrue(cache.bytesUsed() <= maxBytes);
+    }
+    Assert.assertEquals(result(49), cache.get(request(999)));
+  }
+
+  @Test
+  public void testProtectedEntriesSurviveScan() {
+    OffHeapResultCache cache = new OffHeapResultCache(256 * 1024, 0);
+    for (int i = 0; i < 16; ++i) {
+      cache.put(request(i), result(10));
+      // hit again, moves to the protected area
+      Assert.assertNotNull(cache.get(request(i)));
+    }
+    // a scan of one-off requests only evicts one-off requests
+    for (int i = 1000; i < 10000; ++i) {
+      cache.put(request(i), result(10));
+    }
+    for (int i = 0; i < 16; ++i) {
+      Assert.assertNotNull(cache.get(request(i)));
+    }
+  }
+
+  @Test
+  public void testExpireAfterAccess() throws InterruptedException {
+    OffHeapResultCache cache = new OffHeapResultCache(1024 * 1024, 50);
+    cache.put(request(0), result(10));
+    Assert.assertNotNull(cache.get(request(0)));
+    Thread.sleep(100);
+    Assert.assertNull(cache.get(request(0)));
+    Assert.assertEquals(0, cache.size());
+  }
+}
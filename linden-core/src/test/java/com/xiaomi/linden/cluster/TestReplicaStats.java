@@ -0,0 +1,104 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.thrift.common.ReplicaInfo;
+
+public class TestReplicaStats {
+
+  private static class ManualTicker extends Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+      return nanos.get();
+    }
+
+    void advance(long time, TimeUnit unit) {
+      nanos.addAndGet(unit.toNanos(time));
+    }
+  }
+
+  private final ManualTicker ticker = new ManualTicker();
+
+  @Test
+  public void testChooseLessLoaded() {
+    ReplicaStats fast = new ReplicaStats("fast:9090", ticker);
+    ReplicaStats slow = new ReplicaStats("slow:9090", ticker);
+    long start = fast.start();
+    ticker.advance(1, TimeUnit.MILLISECONDS);
+    fast.finish(start, false);
+    start = slow.start();
+    ticker.advance(20, TimeUnit.MILLISECONDS);
+    slow.finish(start, false);
+    Assert.assertSame(fast, ReplicaStats.choose(fast, slow));
+    Assert.assertSame(fast, ReplicaStats.choose(slow, fast));
+
+    // requests in flight make a replica look busier, 20 times the latency is outweighed by 19 in flight
+    for (int i = 0; i < 18; ++i) {
+      fast.start();
+    }
+    Assert.assertSame(fast, ReplicaStats.choose(fast, slow));
+    fast.start();
+    Assert.assertSame(slow, ReplicaStats.choose(fast, slow));
+  }
+
+  @Test
+  public void testEjection() {
+    ReplicaStats failing = new ReplicaStats("failing:9090", ticker);
+    ReplicaStats healthy = new ReplicaStats("healthy:9090", ticker);
+    for (int i = 0; i < ReplicaStats.EJECT_FAILURES - 1; ++i) {
+      failing.finish(failing.start(), true);
+    }
+    Assert.assertFalse(failing.isEjected());
+    // a success resets consecutive failures
+    failing.finish(failing.start(), false);
+    for (int i = 0; i < ReplicaStats.EJECT_FAILURES - 1; ++i) {
+      failing.finish(failing.start(), true);
+    }
+    Assert.assertFalse(failing.isEjected());
+    failing.finish(failing.start(), true);
+    Assert.assertTrue(failing.isEjected());
+
+    // an ejected replica loses even when it is idle
+    for (int i = 0; i < 10; ++i) {
+      healthy.start();
+    }
+    Assert.assertSame(healthy, ReplicaStats.choose(failing, healthy));
+
+    ReplicaInfo info = failing.toReplicaInfo(3);
+    Assert.assertEquals(3, info.getShardId());
+    Assert.assertEquals("failing:9090", info.getHostPort());
+    Assert.assertEquals(2 * ReplicaStats.EJECT_FAILURES, info.getRequestCount());
+    Assert.assertEquals(2 * ReplicaStats.EJECT_FAILURES - 1, info.getFailureCount());
+    Assert.assertEquals(0, info.getInFlight());
+    Assert.assertTrue(info.isEjected());
+    Assert.assertEquals(0, info.getLatencyEwma(), 0);
+
+    // ejected for a while only
+    ticker.advance(ReplicaStats.EJECT_MILLIS - 1, TimeUnit.MILLISECONDS);
+    Assert.assertTrue(failing.isEjected());
+    ticker.advance(1, TimeUnit.MILLISECONDS);
+    Assert.assertFalse(failing.isEjected());
+  }
+}
@@ -111,7 +111,7 @@ public class TestResultMerger {
   }
 
 
-  private LindenHit buildGroup(String groupName, int base) {
+  private static LindenHit buildGroup(String groupName, int base) {
     LindenHit group = new LindenHit();
     //5 elements in a group
     List<LindenHit> docs = new ArrayList<>();
@@ -174,4 +174,107 @@ public class TestResultMerger {
     Assert.assertEquals("group2", groups.get(1).getFields().get("group_name"));
     Assert.assertEquals(9f, groups.get(1).getGroupHits().get(0).score, DELTA);
   }
+
+  private static List<LindenResult> buildShardResults(int shards, int hitsPerShard, boolean typed) {
+    List<LindenResult> resultList = new ArrayList<>();
+    for (int shard = 0; shard < shards; ++shard) {
+      LindenResult result = new LindenResult().setTotalHits(hitsPerShard);
+      for (int i = 0; i < hitsPerShard; ++i) {
+        int rank = (hitsPerShard - i) * 7 + shard % 7;
+        LindenHit hit = new LindenHit(shard + "_" + i, 1);
+        hit.putToFields("rank", String.valueOf(rank));
+        hit.putToFields("price", String.valueOf(rank % 10 * 0.5));
+        if (typed) {
+          hit.addToSortValues(new LindenSortValue().setLongValue(rank));
+          hit.addToSortValues(new LindenSortValue().setDoubleValue(rank % 10 * 0.5));
+        }
+        result.addToHits(hit);
+      }
+      resultList.add(result);
+    }
+    return resultList;
+  }
+
+  private static LindenSearchRequest buildSortRequest(int offset, int length) {
+    LindenSort lindenSort = new LindenSort();
+    lindenSort.addToFields(new LindenSortField("rank", LindenSortType.INTEGER));
+    lindenSort.addToFields(new LindenSortField("price", LindenSortType.DOUBLE));
+    return new LindenSearchRequest().setOffset(offset).setLength(length).setSort(lindenSort);
+  }
+
+  @Test
+  public void testTypedSortValues() {
+    LindenResult typed = ResultMerger.merge(buildSortRequest(5, 20), buildShardResults(4, 10, true));
+    LindenResult parsed = ResultMerger.merge(buildSortRequest(5, 20), buildShardResults(4, 10, false));
+    Assert.assertEquals(40, typed.getTotalHits());
+    Assert.assertEquals(20, typed.getHitsSize());
+    for (int i = 0; i < 20; ++i) {
+      Assert.assertEquals(parsed.getHits().get(i).getId(), typed.getHits().get(i).getId());
+    }
+    Assert.assertEquals("2_1", typed.getHits().get(0).getId());
+
+    // the offset is beyond the merged hits
+    Assert.assertEquals(0, ResultMerger.merge(buildSortRequest(100, 10), buildShardResults(4, 10, true))
+        .getHitsSize());
+  }
+
+  @Test
+  public void testPartial() {
+    List<LindenResult> results = buildShardResults(4, 10, true);
+    Assert.assertFalse(ResultMerger.merge(buildSortRequest(0, 10), results).isPartial());
+
+    results = buildShardResults(4, 10, true);
+    results.get(2).setPartial(true);
+    LindenResult merged = ResultMerger.merge(buildSortRequest(0, 10), results);
+    Assert.assertTrue(merged.isPartial());
+    Assert.assertEquals(10, merged.getHitsSize());
+  }
+
+  @Test
+  public void testMergeManyShards() {
+    LindenSearchRequest request = buildSortRequest(100, 20);
+    LindenResult parsed = ResultMerger.merge(request, buildShardResults(32, 1000, false));
+    LindenResult typed = ResultMerger.merge(request, buildShardResults(32, 1000, true));
+    Assert.assertEquals(32000, typed.getTotalHits());
+    Assert.assertEquals(20, typed.getHitsSize());
+    for (int i = 0; i < 20; ++i) {
+      Assert.assertEquals(parsed.getHits().get(i).getId(), typed.getHits().get(i).getId());
+    }
+  }
+
+  private static List<LindenResult> buildGroupResults(int shards, int groupNum) {
+    List<LindenResult> resultList = new ArrayList<>();
+    for (int shard = 0; shard < shards; ++shard) {
+      LindenResult result = new LindenResult().setTotalHits(groupNum * 5).setTotalGroups(groupNum)
+          .setTotalGroupHits(groupNum * 5);
+      for (int i = 0; i < groupNum; ++i) {
+        // every shard has a different score for a group
+        result.addToHits(buildGroup("group" + i, (i * 31 + shard * 17) % 1000));
+      }
+      resultList.add(result);
+    }
+    return resultList;
+  }
+
+  private static LindenSearchRequest buildGroupRequest() {
+    GroupParam groupParam = new GroupParam("group_name").setGroupInnerLimit(10);
+    return new LindenSearchRequest().setOffset(0).setLength(10).setGroupParam(groupParam);
+  }
+
+  @Test
+  public void testMergeManyGroups() {
+    int shards = 32;
+    int groupNum = 5000;
+    LindenResult result = ResultMerger.merge(buildGroupRequest(), buildGroupResults(shards, groupNum));
+    Assert.assertEquals(groupNum, result.getTotalGroups());
+    Assert.assertEquals(shards * groupNum * 5, result.getTotalGroupHits());
+    Assert.assertEquals(10, result.getHitsSize());
+    for (int i = 0; i < result.getHitsSize(); ++i) {
+      LindenHit group = result.getHits().get(i);
+      // 1004 is the highest group score
+      Assert.assertEquals(1004f, group.getScore(), DELTA);
+      Assert.assertEquals(10, group.getGroupHitsSize());
+      Assert.assertEquals(1004f, group.getGroupHits().get(0).getScore(), DELTA);
+    }
+  }
 }
@@ -0,0 +1,101 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.cluster;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.zkclient.ZkClient;
+import com.twitter.util.Await;
+import com.twitter.util.Future;
+import org.apache.thrift.TApplicationException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.xiaomi.linden.common.ZKClientFactory;
+import com.xiaomi.linden.core.ZooKeeperService;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
+import com.xiaomi.linden.thrift.common.Response;
+import com.xiaomi.linden.thrift.service.LindenService;
+import com.xiaomi.linden.util.ResponseUtils;
+
+public class TestShardClient {
+
+  private static final String ZK = "localhost:2181";
+  private static final String PATH = "/shard_client_test/shard_0";
+  private static final String HOST_PORT = "127.0.0.1:19090";
+  private static final String NODE = "{\"serviceEndpoint\": {\"host\": \"127.0.0.1\", \"port\": 19090}}";
+
+  private static ZkClient zkClient;
+
+  // a replica of an older version, without the indexRequest method
+  private final AtomicInteger indexRequestCalls = new AtomicInteger();
+  private final AtomicInteger indexCalls = new AtomicInteger();
+  private final LindenService.ServiceIface legacyClient = (LindenService.ServiceIface) Proxy.newProxyInstance(
+      LindenService.ServiceIface.class.getClassLoader(), new Class<?>[]{LindenService.ServiceIface.class},
+      new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          switch (method.getName()) {
+            case "indexRequest":
+              indexRequestCalls.incrementAndGet();
+              return Future.exception(new TApplicationException(TApplicationException.UNKNOWN_METHOD, "unknown"));
+            case "index":
+              indexCalls.incrementAndGet();
+              return Future.value(ResponseUtils.SUCCESS);
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        }
+      });
+
+  @BeforeClass
+  public static void init() {
+    ZooKeeperService.start();
+    zkClient = ZKClientFactory.getClient(ZK);
+  }
+
+  private Response index(ShardClient client) throws Exception {
+    return Await.result(client.indexRemotely(HOST_PORT, legacyClient, new LindenIndexRequest(), "{\"id\": 1}"));
+  }
+
+  @Test
+  public void testLegacyReplicaFallback() throws Exception {
+    zkClient.createPersistent(PATH, true);
+    String node = zkClient.createPersistentSequential(PATH + "/member_", NODE.getBytes());
+    ShardClient client = new ShardClient(zkClient, ZK, PATH, null, 0, 0, 0, null);
+    Assert.assertTrue(client.isAvailable());
+
+    Assert.assertTrue(index(client).isSuccess());
+    Assert.assertEquals(1, indexRequestCalls.get());
+    Assert.assertEquals(1, indexCalls.get());
+    // the replica is remembered, json is sent at once
+    Assert.assertTrue(index(client).isSuccess());
+    Assert.assertEquals(1, indexRequestCalls.get());
+    Assert.assertEquals(2, indexCalls.get());
+
+    // the replica restarts, maybe upgraded, and is asked for index requests again
+    zkClient.delete(node);
+    zkClient.createPersistentSequential(PATH + "/member_", NODE.getBytes());
+    for (int i = 0; i < 100 && indexRequestCalls.get() == 1; ++i) {
+      Thread.sleep(100);
+      Assert.assertTrue(index(client).isSuccess());
+    }
+    Assert.assertEquals(2, indexRequestCalls.get());
+  }
+}
@@ -0,0 +1,185 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.core.search.IncrementBuffer;
+import com.xiaomi.linden.thrift.common.IndexRequestType;
+import com.xiaomi.linden.thrift.common.LindenDocument;
+import com.xiaomi.linden.thrift.common.LindenField;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenType;
+import com.xiaomi.linden.thrift.common.Response;
+
+public class TestIncrement extends TestLindenCoreBase {
+
+  public TestIncrement() throws Exception {
+    handleRequest("{\"id\":\"1\", \"title\": \"lucene 1\", \"clicks\": 10, \"score\": 1.5, \"rank\": 1}");
+    handleRequest("{\"id\":\"2\", \"title\": \"lucene 2\", \"clicks\": 10, \"score\": 1.5, \"rank\": 2}");
+    lindenCore.commit();
+    lindenCore.refresh();
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+  }
+
+  @Override
+  public void init() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("title").setIndexed(true).setTokenized(true));
+    schema.addToFields(new LindenFieldSchema().setName("clicks").setType(LindenType.INTEGER).setDocValues(true));
+    schema.addToFields(new LindenFieldSchema().setName("score").setType(LindenType.FLOAT).setDocValues(true));
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.LONG).setIndexed(true)
+                           .setStored(true));
+    lindenConfig.setSchema(schema);
+  }
+
+  private JSONObject source(String id) throws IOException {
+    LindenResult result = lindenCore.search(
+        bqlCompiler.compile("select * from linden where id = '" + id + "' source").getSearchRequest());
+    Assert.assertEquals(1, result.getHitsSize());
+    return JSONObject.parseObject(result.getHits().get(0).getSource());
+  }
+
+  private static String increment(String id, String field, Object delta) {
+    return "{\"type\": \"increment\", \"content\": {\"id\": \"" + id + "\", \"" + field + "\": " + delta + "}}";
+  }
+
+  @Test
+  public void testIncrement() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Response>> responses = new ArrayList<>();
+      for (int i = 0; i < 100; ++i) {
+        responses.add(executor.submit(new Callable<Response>() {
+          @Override
+          public Response call() throws Exception {
+            return handleRequest(increment("1", "clicks", 1));
+          }
+        }));
+      }
+      for (Future<Response> response : responses) {
+        Assert.assertTrue(response.get().isSuccess());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertTrue(handleRequest(increment("1", "score", 0.25)).isSuccess());
+    Assert.assertTrue(handleRequest(increment("2", "clicks", -3)).isSuccess());
+    // indexed or stored fields can not be updated in place
+    Assert.assertFalse(handleRequest(increment("1", "rank", 1)).isSuccess());
+    Assert.assertFalse(handleRequest(increment("1", "clicks", "\"a\"")).isSuccess());
+    // as an update, an increment of a missing document fails
+    Assert.assertFalse(handleRequest(increment("3", "clicks", 1)).isSuccess());
+
+    // increments are applied at the next refresh
+    Assert.assertEquals(10, source("1").getIntValue("clicks"));
+    lindenCore.refresh();
+    JSONObject source = source("1");
+    Assert.assertEquals(110, source.getIntValue("clicks"));
+    Assert.assertEquals(1.75f, source.getFloatValue("score"), 0.0001);
+    Assert.assertEquals(1, source.getIntValue("rank"));
+    Assert.assertEquals(7, source("2").getIntValue("clicks"));
+
+    // an increment after a write applies to the written value, it waits for the refresh showing the write
+    handleRequest("{\"type\": \"update\", \"content\": {\"id\":\"2\", \"clicks\": 100}}");
+    Assert.assertTrue(handleRequest(increment("2", "clicks", 1)).isSuccess());
+    // a write after an increment overwrites it
+    handleRequest(increment("1", "clicks", 1));
+    handleRequest("{\"id\":\"1\", \"title\": \"lucene 1\", \"clicks\": 5}");
+    // an increment after a delete fails
+    handleRequest("{\"id\":\"4\", \"title\": \"lucene 4\", \"clicks\": 4}");
+    handleRequest("{\"type\": \"delete\", \"id\" : \"4\"}");
+    Assert.assertFalse(handleRequest(increment("4", "clicks", 1)).isSuccess());
+    lindenCore.refresh();
+    Assert.assertEquals(100, source("2").getIntValue("clicks"));
+    Assert.assertEquals(5, source("1").getIntValue("clicks"));
+    lindenCore.refresh();
+    Assert.assertEquals(101, source("2").getIntValue("clicks"));
+
+    // increments are committed
+    handleRequest(increment("1", "clicks", 2));
+    lindenCore.commit();
+    lindenCore.refresh();
+    Assert.assertEquals(7, source("1").getIntValue("clicks"));
+  }
+
+  @Test
+  public void testIncrementDuringRefresh() {
+    IncrementBuffer buffer = new IncrementBuffer(100);
+    LindenFieldSchema clicks = lindenConfig.getFieldSchema("clicks");
+    LindenDocument doc = new LindenDocument().setId("1");
+    doc.addToFields(new LindenField(clicks, "1"));
+    buffer.written(new LindenIndexRequest().setType(IndexRequestType.INDEX).setDoc(doc));
+
+    // the current searcher doesn't see the write until the refresh swaps in a new one
+    buffer.beforeRefresh();
+    Assert.assertFalse(buffer.isUntouched("1"));
+    Assert.assertTrue(buffer.add(doc));
+    // the delta is not applied on the current searcher right before the refresh
+    Assert.assertTrue(buffer.drain(false).isEmpty());
+    Assert.assertEquals(1, buffer.afterRefresh().get("1").get("clicks").longValue());
+
+    buffer.written(new LindenIndexRequest().setType(IndexRequestType.DELETE).setId("1"));
+    buffer.beforeRefresh();
+    Assert.assertFalse(buffer.add(doc));
+    buffer.afterRefresh();
+  }
+
+  @Test
+  public void testConcurrentRefresh() throws Exception {
+    final AtomicBoolean stopped = new AtomicBoolean();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> refresher = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          while (!stopped.get()) {
+            lindenCore.refresh();
+          }
+          return null;
+        }
+      });
+      for (int i = 0; i < 100; ++i) {
+        handleRequest("{\"id\":\"c" + i + "\", \"title\": \"lucene\", \"clicks\": " + i + "}");
+        // the new document is found whenever the refresh swaps in a searcher
+        Assert.assertTrue(handleRequest(increment("c" + i, "clicks", 1)).isSuccess());
+      }
+      stopped.set(true);
+      refresher.get();
+    } finally {
+      executor.shutdown();
+    }
+    lindenCore.refresh();
+    lindenCore.refresh();
+    for (int i = 0; i < 100; ++i) {
+      Assert.assertEquals(i + 1, source("c" + i).getIntValue("clicks"));
+    }
+  }
+}
@@ -0,0 +1,129 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.core.indexing.ShardingStrategy;
+import com.xiaomi.linden.core.indexing.StringIndexingManager;
+import com.xiaomi.linden.plugin.gateway.DataProvider;
+import com.xiaomi.linden.thrift.common.IndexRouteParam;
+import com.xiaomi.linden.thrift.common.IndexingInfo;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenType;
+
+public class TestIndexingManager extends TestLindenCoreBase {
+
+  public TestIndexingManager() throws Exception {
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+  }
+
+  @Override
+  public void init() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.INTEGER).setIndexed(true)
+                           .setStored(true));
+    lindenConfig.setSchema(schema);
+    lindenConfig.setIndexManagerThreadNum(3).setIndexManagerParseThreadNum(2).setIndexManagerBatchSize(10);
+  }
+
+  private static String indexRequest(int id, int rank) {
+    JSONObject content = new JSONObject();
+    content.put("id", Integer.toString(id));
+    content.put("rank", rank);
+    JSONObject json = new JSONObject();
+    json.put("type", "index");
+    json.put("content", content);
+    return json.toJSONString();
+  }
+
+  private long totalHits(String bql) throws IOException {
+    LindenResult result = lindenCore.search(bqlCompiler.compile(bql).getSearchRequest());
+    Assert.assertTrue(result.isSuccess());
+    return result.getTotalHits();
+  }
+
+  @Test
+  public void testPipeline() throws Exception {
+    final ConcurrentLinkedQueue<String> data = new ConcurrentLinkedQueue<>();
+    DataProvider<String> provider = new DataProvider<String>(String.class) {
+      @Override
+      public String next() {
+        return data.poll();
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    ShardingStrategy acceptAll = new ShardingStrategy(0) {
+      @Override
+      public boolean accept(String id) {
+        return true;
+      }
+
+      @Override
+      public boolean accept(String id, IndexRouteParam routeParam) {
+        return true;
+      }
+
+      @Override
+      public boolean accept(String id, IndexRouteParam routeParam, int shardId) {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    StringIndexingManager manager = new StringIndexingManager(lindenConfig, acceptAll, lindenCore, provider);
+    manager.start();
+    for (int i = 0; i < 200; ++i) {
+      data.add(indexRequest(i, 0));
+    }
+    // later requests of an id are applied after earlier ones, even when parsed by another thread
+    for (int i = 0; i < 200; i += 2) {
+      data.add(indexRequest(i, 1));
+    }
+    for (int i = 0; i < 10; ++i) {
+      data.add("{\"type\": \"delete\", \"id\" : \"" + i + "\"}");
+    }
+    data.add("not a json");
+
+    IndexingInfo info = manager.getIndexingInfo();
+    for (int i = 0; i < 100 && info.getIndexedCount() + info.getFailedCount() < 311; ++i) {
+      Thread.sleep(100);
+      info = manager.getIndexingInfo();
+    }
+    manager.stop();
+    Assert.assertEquals(310, info.getIndexedCount());
+    Assert.assertEquals(1, info.getFailedCount());
+    Assert.assertEquals(3, info.getQueueDepthsSize());
+    Assert.assertTrue(info.getThroughput() > 0);
+
+    lindenCore.commit();
+    lindenCore.refresh();
+    Assert.assertEquals(190, totalHits("select * from linden"));
+    Assert.assertEquals(95, totalHits("select * from linden where rank = 1"));
+  }
+}
@@ -15,8 +15,13 @@
 package com.xiaomi.linden.core;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import com.alibaba.fastjson.JSON;
+import com.twitter.util.Await;
+import com.twitter.util.ExecutorServiceFuturePool;
+import com.twitter.util.Function0;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.DisjunctionMaxQuery;
 import org.apache.lucene.search.Filter;
@@ -28,17 +33,20 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.core.search.LindenSearchView;
 import com.xiaomi.linden.core.search.query.QueryConstructor;
 import com.xiaomi.linden.core.search.query.filter.FilterConstructor;
 import com.xiaomi.linden.lucene.query.flexiblequery.FlexibleQuery;
 import com.xiaomi.linden.thrift.builder.query.LindenFlexibleQueryBuilder;
 import com.xiaomi.linden.thrift.builder.query.LindenQueryBuilder;
+import com.xiaomi.linden.thrift.common.GroupParam;
 import com.xiaomi.linden.thrift.common.LindenDeleteRequest;
 import com.xiaomi.linden.thrift.common.LindenFieldSchema;
 import com.xiaomi.linden.thrift.common.LindenQuery;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSchema;
 import com.xiaomi.linden.thrift.common.LindenScoreModel;
+import com.xiaomi.linden.thrift.common.LindenSearchAfter;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
 import com.xiaomi.linden.thrift.common.LindenType;
 
@@ -121,6 +129,61 @@ public class TestLindenCore extends TestLindenCoreBase {
     Assert.assertEquals(4, result.getTotalHits());
   }
 
+  @Test
+  public void multiSearchTest() throws Exception {
+    LindenSearchRequest request = new LindenSearchRequest().setQuery(
+        LindenQueryBuilder.buildTermQuery("title", "lucene"));
+    // search after is not supported in group search, this request fails alone
+    LindenSearchRequest invalid = new LindenSearchRequest(request).setGroupParam(new GroupParam("title"))
+        .setSearchAfter(new LindenSearchAfter());
+    LindenSearchRequest limited = new LindenSearchRequest(request).setLength(1);
+    LindenSearchView view = lindenCore.acquireSearchView();
+    try {
+      Assert.assertEquals(4, view.search(request).getTotalHits());
+      try {
+        view.search(invalid);
+        Assert.fail("search after in group search should fail");
+      } catch (IOException e) {
+        // expected, the view is still usable
+      }
+      LindenResult result = view.search(limited);
+      Assert.assertEquals(4, result.getTotalHits());
+      Assert.assertEquals(1, result.getHitsSize());
+
+      // all searches of the view see the documents of the time it is acquired
+      handleRequest("{\"id\":\"8\",\"title\":\"lucene 8\"}");
+      lindenCore.refresh();
+      Assert.assertEquals(5, lindenCore.search(request).getTotalHits());
+      Assert.assertEquals(4, view.search(request).getTotalHits());
+    } finally {
+      view.close();
+    }
+  }
+
+  @Test
+  public void inlineSearch() throws Exception {
+    final LindenSearchRequest request = new LindenSearchRequest().setQuery(
+        LindenQueryBuilder.buildTermQuery("title", "lucene"));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      LindenResult pooled = Await.result(new ExecutorServiceFuturePool(executor).apply(new Function0<LindenResult>() {
+        @Override
+        public LindenResult apply() {
+          try {
+            return lindenCore.search(request);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }));
+      LindenResult inline = lindenCore.search(request);
+      Assert.assertEquals(4, inline.getTotalHits());
+      Assert.assertEquals(pooled.getHits(), inline.getHits());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void flexibleQueryTest() throws IOException {
     String function = "    float sum = 0;\n" +
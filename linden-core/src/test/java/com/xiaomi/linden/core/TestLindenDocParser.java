@@ -0,0 +1,104 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.core.search.LindenDocParser;
+import com.xiaomi.linden.thrift.common.LindenDocument;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenType;
+
+public class TestLindenDocParser {
+
+  private final LindenConfig lindenConfig;
+  private final List<LindenDocument> docs = new ArrayList<>();
+
+  public TestLindenDocParser() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("title").setIndexed(true).setStored(true).setTokenized(true)
+                           .setSnippet(true));
+    schema.addToFields(new LindenFieldSchema().setName("cat").setIndexed(true).setOmitFreqs(true).setDocValues(true));
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.FLOAT).setIndexed(true)
+                           .setStored(true).setDocValues(true));
+    schema.addToFields(new LindenFieldSchema().setName("clicks").setType(LindenType.INTEGER).setDocValues(true));
+    schema.addToFields(new LindenFieldSchema().setName("time").setType(LindenType.LONG).setIndexed(true));
+    schema.addToFields(new LindenFieldSchema().setName("price").setType(LindenType.DOUBLE).setStored(true));
+    schema.addToFields(new LindenFieldSchema().setName("tags").setIndexed(true).setMulti(true));
+    lindenConfig = new LindenConfig().setSchema(schema);
+
+    for (int i = 0; i < 100; ++i) {
+      JSONObject json = new JSONObject();
+      json.put("id", Integer.toString(i));
+      json.put("title", "lucene " + i + " document parser");
+      json.put("cat", "cat" + i % 7);
+      json.put("rank", i / 3f);
+      json.put("clicks", i * 10);
+      json.put("time", 1400000000000L + i);
+      json.put("price", i * 1.5);
+      JSONArray tags = new JSONArray();
+      // documents have different numbers of values of a multi-value field
+      for (int j = 0; j <= i % 4; ++j) {
+        tags.add("tag" + j);
+      }
+      json.put("tags", tags);
+      if (i % 5 == 0) {
+        JSONArray dynamics = new JSONArray();
+        JSONObject dynamic = new JSONObject();
+        // a dynamic field may have different types in different documents
+        dynamic.put("color", i % 10 == 0 ? "red" : Integer.toString(i));
+        dynamic.put("_type", i % 10 == 0 ? "string" : "int");
+        dynamics.add(dynamic);
+        json.put("_dynamic", dynamics);
+      }
+      docs.add(LindenDocumentBuilder.build(schema, json));
+    }
+  }
+
+  private static String describe(Document doc) {
+    StringBuilder sb = new StringBuilder();
+    for (IndexableField field : doc.getFields()) {
+      sb.append(field.name()).append(' ').append(field.fieldType()).append(' ');
+      if (field.numericValue() != null) {
+        sb.append(field.numericValue());
+      } else if (field.binaryValue() != null) {
+        sb.append(field.binaryValue().utf8ToString());
+      } else {
+        sb.append(field.stringValue());
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testReusedDocument() throws Exception {
+    for (int round = 0; round < 2; ++round) {
+      for (LindenDocument doc : docs) {
+        String expected = describe(LindenDocParser.parseCopy(doc, lindenConfig));
+        Assert.assertEquals(expected, describe(LindenDocParser.parse(doc, lindenConfig)));
+      }
+    }
+  }
+}
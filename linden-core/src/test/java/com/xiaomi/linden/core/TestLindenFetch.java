@@ -0,0 +1,119 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.thrift.common.LindenFetchRequest;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenHit;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+import com.xiaomi.linden.thrift.common.LindenType;
+
+public class TestLindenFetch extends TestLindenCoreBase {
+
+  public TestLindenFetch() throws Exception {
+    for (int i = 0; i < 10; ++i) {
+      JSONObject json = new JSONObject();
+      json.put("id", Integer.toString(i));
+      json.put("title", "lucene " + i + ". Just a test of fetching hits.");
+      json.put("rank", i);
+      handleRequest(json.toJSONString());
+    }
+    lindenCore.commit();
+    lindenCore.refresh();
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+  }
+
+  @Override
+  public void init() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("title").setIndexed(true).setTokenized(true).setStored(true)
+                           .setSnippet(true));
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.INTEGER).setIndexed(true)
+                           .setStored(true));
+    lindenConfig.setSchema(schema);
+  }
+
+  @Test
+  public void testFetch() throws IOException {
+    LindenSearchRequest request = bqlCompiler.compile("select * from linden by query is 'title:lucene' "
+                                                      + "order by rank desc source snippet title").getSearchRequest();
+    LindenResult result = lindenCore.search(request);
+    Assert.assertEquals(10, result.getHitsSize());
+
+    List<String> ids = new ArrayList<>();
+    ids.add("3");
+    ids.add("missing");
+    ids.add("7");
+    LindenResult fetched = lindenCore.fetch(new LindenFetchRequest().setIds(ids).setSearchRequest(request));
+    Assert.assertTrue(fetched.isSuccess());
+    // unknown ids are skipped, the others keep their order
+    Assert.assertEquals(2, fetched.getHitsSize());
+    Assert.assertEquals("3", fetched.getHits().get(0).getId());
+    Assert.assertEquals("7", fetched.getHits().get(1).getId());
+
+    for (LindenHit fetchedHit : fetched.getHits()) {
+      LindenHit hit = result.getHits().get(9 - Integer.parseInt(fetchedHit.getId()));
+      Assert.assertEquals(hit.getId(), fetchedHit.getId());
+      Assert.assertEquals(hit.getSource(), fetchedHit.getSource());
+      Assert.assertEquals(hit.getSnippets(), fetchedHit.getSnippets());
+    }
+  }
+
+  @Test
+  public void testFetchUpdatedDocument() throws IOException {
+    JSONObject json = new JSONObject();
+    json.put("id", "3");
+    json.put("title", "lucene updated");
+    json.put("rank", 3);
+    handleRequest(json.toJSONString());
+    lindenCore.refresh();
+
+    LindenSearchRequest request = bqlCompiler.compile("select * from linden by query is 'title:lucene' source")
+        .getSearchRequest();
+    List<String> ids = new ArrayList<>();
+    ids.add("3");
+    LindenResult fetched = lindenCore.fetch(new LindenFetchRequest().setIds(ids).setSearchRequest(request));
+    // the deleted older version in another segment is skipped
+    Assert.assertEquals(1, fetched.getHitsSize());
+    Assert.assertTrue(fetched.getHits().get(0).getSource().contains("lucene updated"));
+  }
+
+  @Test
+  public void testQueryPhaseRequest() throws IOException {
+    LindenSearchRequest request = bqlCompiler.compile("select * from linden by query is 'title:lucene' "
+                                                      + "order by rank desc source snippet title").getSearchRequest();
+    LindenSearchRequest queryRequest = new LindenSearchRequest(request);
+    queryRequest.setSource(false).setExplain(false).setSnippetParam(null);
+    LindenResult result = lindenCore.search(queryRequest);
+    Assert.assertEquals(10, result.getHitsSize());
+    for (LindenHit hit : result.getHits()) {
+      // query phase hits keep everything needed to merge shard results
+      Assert.assertFalse(hit.isSetSource());
+      Assert.assertFalse(hit.isSetSnippets());
+      Assert.assertTrue(hit.getFields().containsKey("rank"));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.io.IOException;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.thrift.common.CacheInfo;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenType;
+
+public class TestLindenFilterCache extends TestLindenCoreBase {
+
+  public TestLindenFilterCache() throws Exception {
+    for (int i = 0; i < 10; ++i) {
+      JSONObject json = new JSONObject();
+      json.put("id", Integer.toString(i));
+      json.put("title", "lucene " + i);
+      json.put("cat", "c" + (i % 2));
+      json.put("rank", i * 10);
+      handleRequest(json.toJSONString());
+    }
+    lindenCore.commit();
+    lindenCore.refresh();
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+  }
+
+  @Override
+  public void init() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("title").setIndexed(true).setTokenized(true));
+    schema.addToFields(new LindenFieldSchema().setName("cat").setIndexed(true));
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.INTEGER).setIndexed(true));
+    lindenConfig.setSchema(schema);
+    lindenConfig.setFilterCacheSizeMB(64);
+  }
+
+  private LindenResult search(String bql) throws IOException {
+    return lindenCore.search(bqlCompiler.compile(bql).getSearchRequest());
+  }
+
+  private CacheInfo cacheInfo() throws IOException {
+    return lindenCore.getServiceInfo().getFilterCacheInfo();
+  }
+
+  @Test
+  public void testFilterCache() throws IOException {
+    // a filter is only cached from its second use on
+    LindenResult result = search("select * from linden where cat = 'c0'");
+    Assert.assertEquals(5, result.getTotalHits());
+    Assert.assertEquals(0, cacheInfo().getMissCount());
+    Assert.assertEquals(0, cacheInfo().getRamBytesUsed());
+
+    result = search("select * from linden where cat = 'c0'");
+    Assert.assertEquals(5, result.getTotalHits());
+    long hitCount = cacheInfo().getHitCount();
+    long missCount = cacheInfo().getMissCount();
+    Assert.assertTrue(missCount > 0);
+    Assert.assertTrue(cacheInfo().getRamBytesUsed() > 0);
+
+    result = search("select * from linden where cat = 'c0'");
+    Assert.assertEquals(5, result.getTotalHits());
+    Assert.assertTrue(cacheInfo().getHitCount() > hitCount);
+    Assert.assertEquals(missCount, cacheInfo().getMissCount());
+
+    // sub filters in another order share the cached entries
+    search("select * from linden where cat = 'c0' and rank > 10");
+    result = search("select * from linden where cat = 'c0' and rank > 10");
+    Assert.assertEquals(4, result.getTotalHits());
+    missCount = cacheInfo().getMissCount();
+    result = search("select * from linden where rank > 10 and cat = 'c0'");
+    Assert.assertEquals(4, result.getTotalHits());
+    Assert.assertEquals(missCount, cacheInfo().getMissCount());
+
+    // sub filters are not cached, nor counted as uses
+    result = search("select * from linden where rank > 10");
+    Assert.assertEquals(8, result.getTotalHits());
+    Assert.assertEquals(missCount, cacheInfo().getMissCount());
+
+    // deletions are applied on cached doc id sets
+    JSONObject json = new JSONObject();
+    json.put("type", "delete");
+    json.put("id", "2");
+    handleRequest(json.toJSONString());
+    lindenCore.refresh();
+    result = search("select * from linden where cat = 'c0'");
+    Assert.assertEquals(4, result.getTotalHits());
+    result = search("select * from linden where rank > 10 and cat = 'c0'");
+    Assert.assertEquals(3, result.getTotalHits());
+  }
+}
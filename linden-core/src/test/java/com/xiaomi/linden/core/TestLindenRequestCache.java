@@ -0,0 +1,138 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.io.IOException;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.thrift.common.CacheInfo;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenScoreModel;
+import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+import com.xiaomi.linden.thrift.common.LindenType;
+
+public class TestLindenRequestCache extends TestLindenCoreBase {
+
+  public TestLindenRequestCache() throws Exception {
+    for (int i = 0; i < 10; ++i) {
+      handleRequest(buildDoc(i));
+    }
+    lindenCore.commit();
+    lindenCore.refresh();
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+  }
+
+  @Override
+  public void init() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("title").setIndexed(true).setTokenized(true));
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.INTEGER).setIndexed(true)
+                           .setStored(true));
+    lindenConfig.setSchema(schema);
+    lindenConfig.setShardCacheSizeMB(16);
+  }
+
+  private static String buildDoc(int i) {
+    JSONObject json = new JSONObject();
+    json.put("id", Integer.toString(i));
+    json.put("title", "lucene " + i);
+    json.put("rank", i);
+    return json.toJSONString();
+  }
+
+  private CacheInfo cacheInfo() throws IOException {
+    return lindenCore.getServiceInfo().getShardCacheInfo();
+  }
+
+  @Test
+  public void testRequestCache() throws IOException {
+    LindenSearchRequest request = bqlCompiler.compile("select * from linden by query is 'title:lucene' "
+                                                      + "order by rank desc source").getSearchRequest();
+    LindenResult result = lindenCore.search(request);
+    Assert.assertEquals(10, result.getTotalHits());
+    Assert.assertEquals(0, cacheInfo().getHitCount());
+    Assert.assertTrue(cacheInfo().getRamBytesUsed() > 0);
+
+    LindenResult cached = lindenCore.search(request);
+    Assert.assertEquals(1, cacheInfo().getHitCount());
+    Assert.assertEquals(result, cached);
+
+    // refresh without any change keeps the entry
+    lindenCore.refresh();
+    lindenCore.search(request);
+    Assert.assertEquals(2, cacheInfo().getHitCount());
+
+    // index change makes it stale
+    handleRequest(buildDoc(10));
+    lindenCore.refresh();
+    result = lindenCore.search(request);
+    Assert.assertEquals(11, result.getTotalHits());
+    Assert.assertEquals("10", result.getHits().get(0).getId());
+    Assert.assertEquals(2, cacheInfo().getHitCount());
+  }
+
+  @Test
+  public void testTimeout() throws IOException {
+    String bql = "select * from linden by query is 'title:lucene' order by rank desc";
+    LindenSearchRequest request = bqlCompiler.compile(bql + " timeout 10000").getSearchRequest();
+    LindenResult result = lindenCore.search(request);
+    Assert.assertEquals(10, result.getTotalHits());
+    Assert.assertFalse(result.isPartial());
+
+    // the deadline is not part of the cache key
+    long hitCount = cacheInfo().getHitCount();
+    Assert.assertEquals(result, lindenCore.search(bqlCompiler.compile(bql + " timeout 5000").getSearchRequest()));
+    Assert.assertEquals(hitCount + 1, cacheInfo().getHitCount());
+    // nor is whether it has one
+    Assert.assertEquals(result, lindenCore.search(bqlCompiler.compile(bql).getSearchRequest()));
+    Assert.assertEquals(hitCount + 2, cacheInfo().getHitCount());
+  }
+
+  private LindenSearchRequest buildModelRequest(String func) {
+    LindenSearchRequest request = bqlCompiler.compile("select * from linden by query is 'title:lucene'")
+        .getSearchRequest();
+    request.getQuery().setScoreModel(new LindenScoreModel().setName("test").setFunc(func));
+    return request;
+  }
+
+  @Test
+  public void testNonDeterministicModel() throws IOException {
+    LindenSearchRequest request = buildModelRequest("return System.currentTimeMillis() % 7;");
+    long hitCount = cacheInfo().getHitCount();
+    long missCount = cacheInfo().getMissCount();
+    Assert.assertEquals(10, lindenCore.search(request).getTotalHits());
+    Assert.assertEquals(10, lindenCore.search(request).getTotalHits());
+    // bypassed, neither looked up nor stored
+    Assert.assertEquals(hitCount, cacheInfo().getHitCount());
+    Assert.assertEquals(missCount, cacheInfo().getMissCount());
+
+    request = buildModelRequest("return new java.util.Random().nextFloat();");
+    lindenCore.search(request);
+    lindenCore.search(request);
+    Assert.assertEquals(hitCount, cacheInfo().getHitCount());
+
+    // mentioning the clock in a comment is fine
+    request = buildModelRequest("/* System.currentTimeMillis() */ return rank();");
+    lindenCore.search(request);
+    lindenCore.search(request);
+    Assert.assertEquals(hitCount + 1, cacheInfo().getHitCount());
+  }
+}
@@ -29,6 +29,7 @@ public class TestLindenSchemaBuilder {
     LindenSchema schema = LindenSchemaBuilder.build(new File(schemaPath));
 
     Assert.assertEquals("aid", schema.getId());
+    Assert.assertFalse(schema.isStoreSource());
     Assert.assertEquals(9, schema.getFieldsSize());
     Assert.assertTrue(schema.getFields().get(0).isSnippet());
     Assert.assertTrue(schema.getFields().get(0).isOmitFreqs());
@@ -0,0 +1,149 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenHit;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenSearchAfter;
+import com.xiaomi.linden.thrift.common.LindenSearchRequest;
+import com.xiaomi.linden.thrift.common.LindenType;
+
+public class TestLindenSearchAfter extends TestLindenCoreBase {
+
+  public TestLindenSearchAfter() throws Exception {
+    for (int i = 0; i < 50; ++i) {
+      JSONObject json = new JSONObject();
+      json.put("id", Integer.toString(i));
+      json.put("title", "lucene " + (i % 3 == 0 ? "lucene" : "") + " search after");
+      // many ties, pages must break them by document id
+      json.put("rank", i % 7);
+      handleRequest(json.toJSONString());
+    }
+    lindenCore.commit();
+    lindenCore.refresh();
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+  }
+
+  @Override
+  public void init() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("title").setIndexed(true).setTokenized(true));
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.INTEGER).setIndexed(true)
+                           .setStored(true));
+    lindenConfig.setSchema(schema);
+  }
+
+  private List<String> pageThrough(String bql, int pageSize) throws IOException {
+    LindenSearchRequest request = bqlCompiler.compile(bql + " search_after limit 0, " + pageSize)
+        .getSearchRequest();
+    List<String> ids = new ArrayList<>();
+    while (true) {
+      LindenResult result = lindenCore.search(request);
+      Assert.assertTrue(result.isSuccess());
+      Assert.assertTrue(result.getHitsSize() <= pageSize);
+      for (LindenHit hit : result.getHits()) {
+        Assert.assertTrue(hit.isSetSearchAfter());
+        ids.add(hit.getId());
+      }
+      if (result.getHitsSize() < pageSize) {
+        return ids;
+      }
+      LindenSearchAfter searchAfter = result.getSearchAfter();
+      Assert.assertEquals(result.getHits().get(pageSize - 1).getSearchAfter(), searchAfter);
+      request.setSearchAfter(searchAfter);
+    }
+  }
+
+  private List<String> searchAll(String bql) throws IOException {
+    LindenSearchRequest request = bqlCompiler.compile(bql + " limit 0, 100").getSearchRequest();
+    List<String> ids = new ArrayList<>();
+    for (LindenHit hit : lindenCore.search(request).getHits()) {
+      ids.add(hit.getId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void testOrderBy() throws IOException {
+    String bql = "select * from linden order by rank desc";
+    List<String> ids = pageThrough(bql, 6);
+    Assert.assertEquals(50, ids.size());
+    Assert.assertEquals(50, new HashSet<>(ids).size());
+    Assert.assertEquals(searchAll(bql), ids);
+
+    bql = "select * from linden by query is 'title:lucene' order by rank asc";
+    Assert.assertEquals(searchAll(bql), pageThrough(bql, 4));
+  }
+
+  @Test
+  public void testRelevance() throws IOException {
+    String bql = "select * from linden by query is 'title:lucene'";
+    List<String> ids = pageThrough(bql, 7);
+    Set<String> uniqueIds = new HashSet<>(ids);
+    Assert.assertEquals(50, uniqueIds.size());
+    Assert.assertEquals(searchAll(bql), ids);
+  }
+
+  @Test
+  public void testCursorSurvivesReindex() throws IOException {
+    String bql = "select * from linden order by rank desc";
+    LindenSearchRequest request = bqlCompiler.compile(bql + " search_after limit 0, 10").getSearchRequest();
+    LindenResult result = lindenCore.search(request);
+    Set<String> ids = new HashSet<>();
+    for (LindenHit hit : result.getHits()) {
+      ids.add(hit.getId());
+    }
+
+    // documents indexed again in reverse order get new lucene doc ids in a new segment
+    for (int i = 49; i >= 0; --i) {
+      JSONObject json = new JSONObject();
+      json.put("id", Integer.toString(i));
+      json.put("title", "lucene search after");
+      json.put("rank", i % 7);
+      handleRequest(json.toJSONString());
+    }
+    lindenCore.commit();
+    lindenCore.refresh();
+
+    request.setSearchAfter(result.getSearchAfter());
+    request.setLength(100);
+    for (LindenHit hit : lindenCore.search(request).getHits()) {
+      // no hit of the first page comes again
+      Assert.assertTrue(ids.add(hit.getId()));
+    }
+    Assert.assertEquals(50, ids.size());
+  }
+
+  @Test(expected = IOException.class)
+  public void testSortValuesMismatch() throws IOException {
+    // two sort values for one sort field
+    LindenSearchRequest request = bqlCompiler.compile("select * from linden order by rank search_after (1, 2, '3')")
+        .getSearchRequest();
+    lindenCore.search(request);
+  }
+}
@@ -15,12 +15,17 @@
 package com.xiaomi.linden.core;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.alibaba.fastjson.JSONObject;
 import org.junit.Assert;
 import org.junit.Test;
 
 import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.core.indexing.LindenIndexRequestParser;
 import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenSchema;
 import com.xiaomi.linden.thrift.common.LindenSearchRequest;
@@ -98,6 +103,23 @@ public class TestLindenUpdate extends TestLindenCoreBase {
         result.getHits().get(0).getSource());
   }
 
+  @Test
+  public void updateDocValuesBeforeRefresh() throws Exception {
+    // binary doc values updates are pending in the index writer until the refresh, each keeps its own bytes
+    handleRequest("{\"type\": \"update\", \"content\": {\"id\":1, \"field1\":\"aaa_1\"}}");
+    handleRequest("{\"type\": \"update\", \"content\": {\"id\":2, \"field1\":\"bbb_2\"}}");
+    lindenCore.refresh();
+
+    for (int id = 1; id <= 2; ++id) {
+      LindenSearchRequest request = bqlCompiler.compile("select * from linden by query is 'id:" + id + "' source")
+          .getSearchRequest();
+      LindenResult result = lindenCore.search(request);
+      Assert.assertEquals(1, result.getHitsSize());
+      Assert.assertEquals(id == 1 ? "aaa_1" : "bbb_2",
+                          JSONObject.parseObject(result.getHits().get(0).getSource()).getString("field1"));
+    }
+  }
+
   @Test
   public void updateIndex() throws Exception {
     // update document 3
@@ -128,4 +150,26 @@ public class TestLindenUpdate extends TestLindenCoreBase {
     Response response = handleRequest("{\"type\": \"update\", \"content\": {\"id\":6, \"title\":\"lucene 6\"}}");
     Assert.assertFalse(response.isSuccess());
   }
+
+  @Test
+  public void bulkIndex() throws Exception {
+    List<LindenIndexRequest> requests = new ArrayList<>();
+    requests.add(LindenIndexRequestParser.parse(lindenConfig.getSchema(),
+        "{\"id\":6, \"title\": \"lucene 6\", \"field1\": \"fff\", \"rank\": 6.0, \"cat1\":6, \"cat2\":6.5}"));
+    // fails alone, the following requests are still applied
+    requests.add(LindenIndexRequestParser.parse(lindenConfig.getSchema(),
+        "{\"type\": \"update\", \"content\": {\"id\":7, \"title\":\"lucene 7\"}}"));
+    requests.add(LindenIndexRequestParser.parse(lindenConfig.getSchema(), "{\"type\": \"delete\", \"id\" : \"1\"}"));
+    List<Response> responses = lindenCore.index(requests);
+    Assert.assertEquals(3, responses.size());
+    Assert.assertTrue(responses.get(0).isSuccess());
+    Assert.assertFalse(responses.get(1).isSuccess());
+    Assert.assertTrue(responses.get(2).isSuccess());
+
+    lindenCore.refresh();
+    LindenSearchRequest request = bqlCompiler.compile("select * from linden by query is 'title:lucene'")
+        .getSearchRequest();
+    LindenResult result = lindenCore.search(request);
+    Assert.assertEquals(4, result.getTotalHits());
+  }
 }
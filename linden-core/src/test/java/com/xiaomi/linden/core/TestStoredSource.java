@@ -0,0 +1,109 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.io.IOException;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenType;
+
+public class TestStoredSource extends TestLindenCoreBase {
+
+  private static final int DOC_NUM = 2000;
+
+  public TestStoredSource() throws Exception {
+    for (int i = 0; i < DOC_NUM; ++i) {
+      handleRequest(doc(i));
+    }
+    lindenCore.commit();
+    lindenCore.refresh();
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+  }
+
+  @Override
+  public void init() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id").setStoreSource(true);
+    schema.addToFields(new LindenFieldSchema().setName("title").setIndexed(true).setStored(true).setTokenized(true));
+    schema.addToFields(new LindenFieldSchema().setName("cat").setIndexed(true));
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.FLOAT).setIndexed(true)
+                           .setStored(true));
+    schema.addToFields(new LindenFieldSchema().setName("tags").setIndexed(true).setMulti(true));
+    schema.addToFields(new LindenFieldSchema().setName("hot").setType(LindenType.LONG).setDocValues(true));
+    schema.addToFields(new LindenFieldSchema().setName("note").setStored(true));
+    lindenConfig.setSchema(schema);
+  }
+
+  private static String doc(int i) {
+    JSONObject content = new JSONObject();
+    content.put("id", Integer.toString(i));
+    content.put("title", "lucene " + i + " stored source");
+    content.put("cat", "cat" + i % 10);
+    content.put("rank", i / 10f);
+    JSONArray tags = new JSONArray();
+    tags.add("tag" + i % 3);
+    tags.add("tag" + i % 5);
+    content.put("tags", tags);
+    content.put("hot", i);
+    content.put("note", "note of " + i);
+    return content.toJSONString();
+  }
+
+  private JSONObject source(String id, String fields) throws IOException {
+    String bql = "select " + fields + " from linden where id = '" + id + "' source";
+    LindenResult result = lindenCore.search(bqlCompiler.compile(bql).getSearchRequest());
+    Assert.assertEquals(1, result.getHitsSize());
+    return JSONObject.parseObject(result.getHits().get(0).getSource());
+  }
+
+  @Test
+  public void testSource() throws Exception {
+    JSONObject source = source("7", "*");
+    Assert.assertEquals(JSONObject.parseObject(doc(7)), source);
+
+    source = source("7", "title, hot");
+    Assert.assertEquals(3, source.size());
+    Assert.assertEquals("7", source.getString("id"));
+    Assert.assertEquals("lucene 7 stored source", source.getString("title"));
+    Assert.assertEquals(7, source.getLongValue("hot"));
+
+    // doc values update in place doesn't rewrite the blob
+    handleRequest("{\"type\": \"update\", \"content\": {\"id\":\"7\", \"hot\": 100}}");
+    // partial update rebuilds the document from the blob
+    handleRequest("{\"type\": \"update\", \"content\": {\"id\":\"8\", \"rank\": 1000.5}}");
+    lindenCore.refresh();
+    source = source("7", "*");
+    Assert.assertEquals(100, source.getLongValue("hot"));
+    Assert.assertEquals("note of 7", source.getString("note"));
+
+    JSONObject expected = JSONObject.parseObject(doc(8));
+    expected.put("rank", 1000.5f);
+    Assert.assertEquals(JSONObject.parseObject(expected.toJSONString()), source("8", "*"));
+    Assert.assertEquals(1, lindenCore.search(bqlCompiler.compile(
+        "select * from linden where cat = 'cat8' and rank > 1000").getSearchRequest()).getTotalHits());
+
+    // dynamic fields are not in the blob, they are read field by field
+    handleRequest("{\"id\":\"9\", \"title\": \"lucene 9\", \"_dynamic\": [{\"color\": \"red\"}]}");
+    lindenCore.refresh();
+    Assert.assertEquals("red", source("9", "color").getString("color"));
+  }
+}
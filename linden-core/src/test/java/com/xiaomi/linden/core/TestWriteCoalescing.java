@@ -0,0 +1,132 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.core;
+
+import java.io.IOException;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.core.search.WriteCoalescingBuffer;
+import com.xiaomi.linden.thrift.common.IndexRequestType;
+import com.xiaomi.linden.thrift.common.LindenDocument;
+import com.xiaomi.linden.thrift.common.LindenField;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
+import com.xiaomi.linden.thrift.common.LindenResult;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+import com.xiaomi.linden.thrift.common.LindenType;
+
+public class TestWriteCoalescing extends TestLindenCoreBase {
+
+  public TestWriteCoalescing() throws Exception {
+    handleRequest("{\"id\":1, \"title\": \"lucene 1\", \"rank\": 1, \"cat\": \"a\"}");
+    lindenCore.commit();
+    lindenCore.refresh();
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+  }
+
+  @Override
+  public void init() throws Exception {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("title").setIndexed(true).setStored(true).setTokenized(true));
+    schema.addToFields(new LindenFieldSchema().setName("rank").setType(LindenType.INTEGER).setIndexed(true)
+                           .setStored(true));
+    schema.addToFields(new LindenFieldSchema().setName("cat").setIndexed(true).setStored(true));
+    lindenConfig.setSchema(schema);
+    lindenConfig.setWriteCoalescingBufferSize(100);
+  }
+
+  private LindenResult search(String bql) throws IOException {
+    LindenResult result = lindenCore.search(bqlCompiler.compile(bql).getSearchRequest());
+    Assert.assertTrue(result.isSuccess());
+    return result;
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    for (int i = 2; i <= 10; ++i) {
+      Assert.assertTrue(
+          handleRequest("{\"type\": \"update\", \"content\": {\"id\":1, \"rank\":" + i + "}}").isSuccess());
+    }
+    handleRequest("{\"type\": \"update\", \"content\": {\"id\":1, \"cat\": \"b\"}}");
+    handleRequest("{\"id\":2, \"title\": \"lucene 2\", \"rank\": 2, \"cat\": \"a\"}");
+    handleRequest("{\"type\": \"update\", \"content\": {\"id\":2, \"rank\": 20}}");
+    handleRequest("{\"id\":3, \"title\": \"lucene 3\", \"rank\": 3, \"cat\": \"a\"}");
+    handleRequest("{\"type\": \"delete\", \"id\" : \"3\"}");
+    // a deleted document can not be updated
+    Assert.assertFalse(handleRequest("{\"type\": \"update\", \"content\": {\"id\":3, \"rank\": 30}}").isSuccess());
+
+    // nothing is written before the refresh
+    Assert.assertEquals(1, search("select * from linden").getTotalHits());
+    Assert.assertEquals(1, search("select * from linden where rank = 1").getTotalHits());
+
+    lindenCore.refresh();
+    Assert.assertEquals(2, search("select * from linden").getTotalHits());
+    LindenResult result = search("select * from linden where id = '1' source");
+    JSONObject source = JSONObject.parseObject(result.getHits().get(0).getSource());
+    Assert.assertEquals(10, source.getIntValue("rank"));
+    Assert.assertEquals("b", source.getString("cat"));
+    Assert.assertEquals("lucene 1", source.getString("title"));
+
+    // updates merged into a new document, which never existed in the index
+    result = search("select * from linden where id = '2' source");
+    source = JSONObject.parseObject(result.getHits().get(0).getSource());
+    Assert.assertEquals(20, source.getIntValue("rank"));
+    Assert.assertEquals("lucene 2", source.getString("title"));
+    Assert.assertEquals(0, search("select * from linden where id = '3'").getTotalHits());
+
+    // an update of a missing document fails to its caller
+    Assert.assertFalse(handleRequest("{\"type\": \"update\", \"content\": {\"id\":5, \"rank\": 50}}").isSuccess());
+
+    // an update after the buffer is drained by a commit sees the drained document
+    handleRequest("{\"id\":5, \"title\": \"lucene 5\", \"rank\": 5, \"cat\": \"a\"}");
+    lindenCore.commit();
+    Assert.assertTrue(handleRequest("{\"type\": \"update\", \"content\": {\"id\":5, \"rank\": 50}}").isSuccess());
+    lindenCore.refresh();
+    result = search("select * from linden where id = '5' source");
+    source = JSONObject.parseObject(result.getHits().get(0).getSource());
+    Assert.assertEquals(50, source.getIntValue("rank"));
+    Assert.assertEquals("lucene 5", source.getString("title"));
+
+    // delete by query sees the buffered documents
+    handleRequest("{\"id\":4, \"title\": \"lucene 4\", \"rank\": 4, \"cat\": \"c\"}");
+    lindenCore.delete(bqlCompiler.compile("delete from linden where cat = 'c'").getDeleteRequest());
+    lindenCore.refresh();
+    Assert.assertEquals(0, search("select * from linden where id = '4'").getTotalHits());
+  }
+
+  @Test
+  public void testUnrefreshedDuringRefresh() {
+    WriteCoalescingBuffer buffer = new WriteCoalescingBuffer(100);
+    LindenDocument doc = new LindenDocument().setId("1");
+    doc.addToFields(new LindenField(new LindenFieldSchema().setName("title"), "lucene 1"));
+    buffer.add(new LindenIndexRequest().setType(IndexRequestType.INDEX).setDoc(doc));
+    buffer.drain(true);
+    Assert.assertTrue(buffer.isUnrefreshed("1"));
+
+    // the current searcher doesn't see the write until the refresh swaps in a new one
+    buffer.beforeRefresh();
+    Assert.assertTrue(buffer.isUnrefreshed("1"));
+    buffer.add(new LindenIndexRequest().setType(IndexRequestType.INDEX).setDoc(doc.setId("2")));
+    buffer.drain(false);
+    Assert.assertTrue(buffer.isUnrefreshed("2"));
+    buffer.afterRefresh();
+    Assert.assertFalse(buffer.isUnrefreshed("1"));
+    Assert.assertFalse(buffer.isUnrefreshed("2"));
+  }
+}
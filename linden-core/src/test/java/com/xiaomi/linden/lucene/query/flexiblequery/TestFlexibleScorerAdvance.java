@@ -0,0 +1,254 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.lucene.query.flexiblequery;
+
+import java.io.IOException;
+import java.util.Random;
+
+import com.alibaba.fastjson.JSONObject;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.bql.BQLCompiler;
+import com.xiaomi.linden.core.LindenConfig;
+import com.xiaomi.linden.core.LindenDocumentBuilder;
+import com.xiaomi.linden.core.search.LindenDocParser;
+import com.xiaomi.linden.core.search.query.QueryConstructor;
+import com.xiaomi.linden.core.search.query.model.LindenScoreModelStrategyBuilder;
+import com.xiaomi.linden.lucene.collector.FlexiblePruningCollector;
+import com.xiaomi.linden.thrift.common.LindenFieldSchema;
+import com.xiaomi.linden.thrift.common.LindenSchema;
+
+/**
+ * Checks filtered flexible queries driven by FlexibleScorer.advance (leap frog) return the same hits as
+ * walking every posting with nextDoc (query first), top-k pruning flexible queries against exhaustive ones,
+ * and frequency only score models against models decoding positions.
+ */
+public class TestFlexibleScorerAdvance {
+
+  private static final int CATEGORY_NUM = 200;
+  private static final String ADVANCE_MODEL_BQL =
+      "SELECT * FROM LINDEN BY flexible_query is \"hello world lucene\" in (text) USING MODEL advanceModel BEGIN\n"
+      + "   float sum = 0f;\n"
+      + "    for (int i = 0; i < getFieldLength(); ++i) {\n"
+      + "        for (int j = 0; j < getTermLength(); ++j) {\n"
+      + "            if (isMatched(i, j)) {\n"
+      + "                sum += getScore(i, j);\n"
+      + "            }\n"
+      + "        } \n"
+      + "    } \n"
+      + "    return sum;\n"
+      + "END\n";
+  // same scores as ADVANCE_MODEL_BQL, but reads positions, which are always found on matched docs
+  private static final String POSITION_MODEL_BQL =
+      "SELECT * FROM LINDEN BY flexible_query is \"hello world lucene\" in (text) USING MODEL positionModel BEGIN\n"
+      + "   float sum = 0f;\n"
+      + "    for (int i = 0; i < getFieldLength(); ++i) {\n"
+      + "        for (int j = 0; j < getTermLength(); ++j) {\n"
+      + "            if (isMatched(i, j)) {\n"
+      + "                sum += getScore(i, j)\n"
+      + "                       + (position(i, j) >= 0 && positions(i, j).length == freq(i, j) ? 0f : 1000f);\n"
+      + "            }\n"
+      + "        } \n"
+      + "    } \n"
+      + "    return sum;\n"
+      + "END\n";
+  private static final String PRUNING_MODEL_BQL =
+      "SELECT * FROM LINDEN BY flexible_query is \"hello world lucene^3 linden^5\" %s in (text)"
+      + " USING MODEL PLUGIN com.xiaomi.linden.lucene.query.flexiblequery.TestPruningScoreModel";
+  private static final int DOC_NUM = 5000;
+  private static final String[] WORDS = {"hello", "world", "lucene", "linden", "search", "engine", "query", "score"};
+
+  private final LindenConfig lindenConfig;
+  private final IndexSearcher searcher;
+  private final BQLCompiler bqlCompiler;
+  private final Query flexQuery;
+
+  public TestFlexibleScorerAdvance() throws Exception {
+    lindenConfig = createConfig();
+    searcher = createSearcher(lindenConfig, DOC_NUM);
+    bqlCompiler = new BQLCompiler(lindenConfig.getSchema());
+    flexQuery = QueryConstructor.constructQuery(bqlCompiler.compile(ADVANCE_MODEL_BQL).getSearchRequest().getQuery(),
+                                                lindenConfig);
+  }
+
+  private static LindenConfig createConfig() {
+    LindenSchema schema = new LindenSchema().setId("id");
+    schema.addToFields(new LindenFieldSchema().setName("text").setIndexed(true).setTokenized(true));
+    schema.addToFields(new LindenFieldSchema().setName("cat").setIndexed(true));
+    LindenConfig lindenConfig = new LindenConfig().setIndexType(LindenConfig.IndexType.RAM).setSchema(schema);
+    lindenConfig.setPluginPath("./");
+    return lindenConfig;
+  }
+
+  private static IndexSearcher createSearcher(LindenConfig lindenConfig, int docNum) throws IOException {
+    RAMDirectory directory = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(directory, lindenConfig.createIndexWriterConfig());
+    Random random = new Random(0);
+    for (int i = 0; i < docNum; ++i) {
+      StringBuilder text = new StringBuilder();
+      for (int j = 0; j < 12; ++j) {
+        text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+      }
+      JSONObject json = new JSONObject();
+      json.put("id", Integer.toString(i));
+      json.put("text", text.toString());
+      json.put("cat", "c" + (i % CATEGORY_NUM));
+      writer.addDocument(LindenDocParser.parse(LindenDocumentBuilder.build(lindenConfig.getSchema(), json),
+                                               lindenConfig));
+    }
+    writer.close();
+    IndexSearcher searcher = new IndexSearcher(DirectoryReader.open(directory));
+    searcher.setSimilarity(lindenConfig.getSearchSimilarityInstance());
+    return searcher;
+  }
+
+  private static class TermBitsFilter extends Filter {
+
+    private final Term term;
+
+    public TermBitsFilter(Term term) {
+      this.term = term;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+      FixedBitSet bits = new FixedBitSet(context.reader().maxDoc());
+      DocsEnum docsEnum = context.reader().termDocsEnum(term);
+      if (docsEnum != null) {
+        int doc;
+        while ((doc = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+          bits.set(doc);
+        }
+      }
+      return BitsFilteredDocIdSet.wrap(bits, acceptDocs);
+    }
+  }
+
+  /**
+   * @return top 10 hits of the query in every 10th category
+   */
+  private static TopDocs[] searchCategories(IndexSearcher searcher, Query query, FilteredQuery.FilterStrategy strategy)
+      throws IOException {
+    TopDocs[] results = new TopDocs[CATEGORY_NUM / 10];
+    for (int cat = 0; cat < CATEGORY_NUM; cat += 10) {
+      Filter filter = new TermBitsFilter(new Term("cat", "c" + cat));
+      results[cat / 10] = searcher.search(new FilteredQuery(query, filter, strategy), 10);
+    }
+    return results;
+  }
+
+  @Test
+  public void testFilteredFlexibleQuery() throws IOException {
+    TopDocs[] queryFirstResults = searchCategories(searcher, flexQuery, FilteredQuery.QUERY_FIRST_FILTER_STRATEGY);
+    TopDocs[] leapFrogResults = searchCategories(searcher, flexQuery,
+                                                 FilteredQuery.LEAP_FROG_FILTER_FIRST_STRATEGY);
+    for (int i = 0; i < queryFirstResults.length; ++i) {
+      Assert.assertTrue(queryFirstResults[i].totalHits > 0);
+      Assert.assertEquals(queryFirstResults[i].totalHits, leapFrogResults[i].totalHits);
+      Assert.assertEquals(queryFirstResults[i].scoreDocs.length, leapFrogResults[i].scoreDocs.length);
+      for (int j = 0; j < queryFirstResults[i].scoreDocs.length; ++j) {
+        Assert.assertEquals(queryFirstResults[i].scoreDocs[j].doc, leapFrogResults[i].scoreDocs[j].doc);
+        Assert.assertEquals(queryFirstResults[i].scoreDocs[j].score, leapFrogResults[i].scoreDocs[j].score, 0.0001);
+      }
+    }
+  }
+
+  private FlexibleScoreModelStrategy buildStrategy(String bql) throws Exception {
+    Query query = QueryConstructor.constructQuery(bqlCompiler.compile(bql).getSearchRequest().getQuery(),
+                                                  lindenConfig);
+    return (FlexibleScoreModelStrategy) LindenScoreModelStrategyBuilder.buildFlexibleQueryStrategy(
+        (FlexibleQuery) query);
+  }
+
+  @Test
+  public void testNeedsPositions() throws Exception {
+    Assert.assertFalse(buildStrategy(ADVANCE_MODEL_BQL).needsPositions());
+    Assert.assertTrue(buildStrategy(POSITION_MODEL_BQL).needsPositions());
+    // identifiers containing the method names don't read positions
+    String bql = "SELECT * FROM LINDEN BY flexible_query is \"hello\" in (text) USING MODEL positionNameModel BEGIN\n"
+                 + "    float positionWeight = 2f;\n"
+                 + "    return getScore(0, 0) * positionWeight;\n"
+                 + "END\n";
+    Assert.assertFalse(buildStrategy(bql).needsPositions());
+    // the term enum gives access to positions
+    bql = "SELECT * FROM LINDEN BY flexible_query is \"hello\" in (text) USING MODEL termEnumModel BEGIN\n"
+          + "    return termMatchedInfo(0, 0).freq(doc());\n"
+          + "END\n";
+    Assert.assertTrue(buildStrategy(bql).needsPositions());
+  }
+
+  @Test
+  public void testLazyPositions() throws Exception {
+    Query positionQuery = QueryConstructor.constructQuery(
+        bqlCompiler.compile(POSITION_MODEL_BQL).getSearchRequest().getQuery(), lindenConfig);
+    TopDocs expected = searcher.search(positionQuery, 10);
+    TopDocs actual = searcher.search(flexQuery, 10);
+    Assert.assertEquals(expected.totalHits, actual.totalHits);
+    for (int i = 0; i < expected.scoreDocs.length; ++i) {
+      Assert.assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+      Assert.assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0001);
+    }
+  }
+
+  private static TopDocs searchTopK(IndexSearcher searcher, Query query, int numHits, boolean pruning)
+      throws IOException {
+    TopScoreDocCollector collector = TopScoreDocCollector.create(numHits, true);
+    if (pruning) {
+      searcher.search(query, new FlexiblePruningCollector(collector, numHits));
+    } else {
+      searcher.search(query, collector);
+    }
+    return collector.topDocs();
+  }
+
+  @Test
+  public void testPruning() throws Exception {
+    Query exhaustive = QueryConstructor.constructQuery(
+        bqlCompiler.compile(String.format(PRUNING_MODEL_BQL, "")).getSearchRequest().getQuery(), lindenConfig);
+    Query pruning = QueryConstructor.constructQuery(
+        bqlCompiler.compile(String.format(PRUNING_MODEL_BQL, "pruning")).getSearchRequest().getQuery(),
+        lindenConfig);
+    Assert.assertTrue(((FlexibleQuery) pruning).isPruning());
+
+    for (int numHits : new int[]{1, 10, 100}) {
+      TopDocs expected = searchTopK(searcher, exhaustive, numHits, false);
+      TopDocs actual = searchTopK(searcher, pruning, numHits, true);
+      Assert.assertTrue(actual.totalHits <= expected.totalHits);
+      Assert.assertEquals(expected.scoreDocs.length, actual.scoreDocs.length);
+      for (int i = 0; i < expected.scoreDocs.length; ++i) {
+        Assert.assertEquals(expected.scoreDocs[i].doc, actual.scoreDocs[i].doc);
+        Assert.assertEquals(expected.scoreDocs[i].score, actual.scoreDocs[i].score, 0.0001);
+      }
+    }
+  }
+}
@@ -0,0 +1,38 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.lucene.query.flexiblequery;
+
+import java.io.IOException;
+
+public class TestPruningScoreModel extends FlexibleScoreModelStrategy {
+
+  @Override
+  public double computeScore() throws IOException {
+    double sum = 0;
+    for (int i = 0; i < getFieldLength(); ++i) {
+      for (int j = 0; j < getTermLength(); ++j) {
+        if (isMatched(i, j)) {
+          sum += getScore(i, j);
+        }
+      }
+    }
+    return sum;
+  }
+
+  @Override
+  public double upperBound(float[][] termUpperBounds) {
+    return sumUpperBound(termUpperBounds);
+  }
+}
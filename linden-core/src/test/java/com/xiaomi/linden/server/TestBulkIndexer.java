@@ -0,0 +1,208 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.twitter.finagle.WriteException;
+import com.twitter.util.Promise;
+import com.twitter.util.TimeoutException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.xiaomi.linden.client.BulkIndexer;
+import com.xiaomi.linden.client.BulkIndexerConfig;
+import com.xiaomi.linden.client.LindenClient;
+import com.xiaomi.linden.thrift.common.BulkResponse;
+import com.xiaomi.linden.thrift.common.Response;
+
+public class TestBulkIndexer {
+
+  private static final String A1 = "{\"id\":\"a\", \"title\": \"a 1\"}";
+  private static final String A2 = "{\"id\":\"a\", \"title\": \"a 2\"}";
+  private static final String B1 = "{\"id\":\"b\", \"title\": \"b 1\"}";
+  private static final String INCREMENT_A = "{\"type\": \"increment\", \"content\": {\"id\": \"a\", \"clicks\": 1}}";
+
+  private static class Call {
+    private final List<String> contents;
+    private final Promise<BulkResponse> promise = new Promise<>();
+
+    private Call(List<String> contents) {
+      this.contents = contents;
+    }
+  }
+
+  /**
+   * Bulk requests wait until the test answers them.
+   */
+  private static class StubClient extends LindenClient {
+    private final BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+
+    private StubClient() {
+      super("localhost", 0, 1000);
+    }
+
+    @Override
+    public com.twitter.util.Future<BulkResponse> bulkIndexAsync(List<String> contents) {
+      Call call = new Call(new ArrayList<>(contents));
+      calls.add(call);
+      return call.promise;
+    }
+
+    private Call nextCall(String... contents) throws InterruptedException {
+      Call call = calls.poll(10, TimeUnit.SECONDS);
+      Assert.assertNotNull(call);
+      Assert.assertEquals(Arrays.asList(contents), call.contents);
+      return call;
+    }
+
+    private void assertNoCall() throws InterruptedException {
+      Assert.assertNull(calls.poll(100, TimeUnit.MILLISECONDS));
+    }
+  }
+
+  private final StubClient client = new StubClient();
+  // batches are only sent by flush, close or a full buffer, retries at once
+  private final BulkIndexer indexer = new BulkIndexer(
+      client, new BulkIndexerConfig().setFlushInterval(0).setInitialBackoff(1).setMaxBackoff(1));
+
+  private static BulkResponse responses(Response... responses) {
+    BulkResponse bulkResponse = new BulkResponse().setResponses(Arrays.asList(responses));
+    for (Response response : responses) {
+      if (!response.isSuccess()) {
+        bulkResponse.setSuccess(false);
+      }
+    }
+    return bulkResponse;
+  }
+
+  private static Response success() {
+    return new Response();
+  }
+
+  private static Response failure(boolean retryable) {
+    return new Response().setSuccess(false).setError("failed").setRetryable(retryable);
+  }
+
+  @Test
+  public void testRetryableAndTerminalFailures() throws Exception {
+    indexer.add(A1);
+    indexer.add(B1);
+    indexer.flush();
+    client.nextCall(A1, B1).promise.setValue(responses(failure(true), failure(false)));
+    // only the retryable one is sent again
+    client.nextCall(A1).promise.setValue(responses(success()));
+    indexer.close();
+    client.assertNoCall();
+    Assert.assertEquals(1, indexer.getIndexedDocs());
+    Assert.assertEquals(1, indexer.getFailedDocs());
+    Assert.assertEquals(1, indexer.getRetriedDocs());
+  }
+
+  @Test
+  public void testIncrementRetries() throws Exception {
+    // the increment may have been applied before the timeout
+    indexer.add(INCREMENT_A);
+    indexer.flush();
+    client.nextCall(INCREMENT_A).promise.setException(new TimeoutException("timeout"));
+    client.assertNoCall();
+    Assert.assertEquals(1, indexer.getFailedDocs());
+
+    // the increment never left the client
+    indexer.add(INCREMENT_A);
+    indexer.flush();
+    client.nextCall(INCREMENT_A).promise.setException(new WriteException(new IOException("refused")));
+    client.nextCall(INCREMENT_A).promise.setValue(responses(success()));
+    indexer.close();
+    Assert.assertEquals(1, indexer.getIndexedDocs());
+    Assert.assertEquals(1, indexer.getFailedDocs());
+    Assert.assertEquals(1, indexer.getRetriedDocs());
+  }
+
+  @Test
+  public void testWritesOfAnIdInOrder() throws Exception {
+    indexer.add(A1);
+    indexer.flush();
+    Call first = client.nextCall(A1);
+    // the later write of a waits while the earlier one is in flight
+    indexer.add(A2);
+    indexer.add(B1);
+    indexer.flush();
+    client.nextCall(B1).promise.setValue(responses(success()));
+    // and while it is retried
+    first.promise.setValue(responses(failure(true)));
+    Call retry = client.nextCall(A1);
+    indexer.flush();
+    client.assertNoCall();
+    retry.promise.setValue(responses(success()));
+    indexer.flush();
+    client.nextCall(A2).promise.setValue(responses(success()));
+    indexer.close();
+    Assert.assertEquals(3, indexer.getIndexedDocs());
+    Assert.assertEquals(0, indexer.getFailedDocs());
+  }
+
+  @Test
+  public void testLaterWriteOverwritesFailure() throws Exception {
+    indexer.add(A1);
+    indexer.add(A2);
+    indexer.flush();
+    // sending a 1 again would overwrite a 2
+    client.nextCall(A1, A2).promise.setValue(responses(failure(true), success()));
+    indexer.close();
+    client.assertNoCall();
+    Assert.assertEquals(2, indexer.getIndexedDocs());
+    Assert.assertEquals(0, indexer.getRetriedDocs());
+    Assert.assertEquals(1, indexer.getFlushes());
+  }
+
+  @Test
+  public void testCloseDrainsDeferredWrites() throws Exception {
+    indexer.add(A1);
+    indexer.flush();
+    Call first = client.nextCall(A1);
+    indexer.add(A2);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Void> closed = executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          indexer.close();
+          return null;
+        }
+      });
+      client.assertNoCall();
+      first.promise.setValue(responses(success()));
+      // the deferred write is sent once the earlier one finishes, close waits for it
+      Call second = client.nextCall(A2);
+      Assert.assertFalse(closed.isDone());
+      second.promise.setValue(responses(success()));
+      closed.get(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertEquals(2, indexer.getIndexedDocs());
+  }
+}
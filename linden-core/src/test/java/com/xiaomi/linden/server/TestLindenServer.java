@@ -17,9 +17,13 @@ package com.xiaomi.linden.server;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.alibaba.fastjson.JSONObject;
+import com.twitter.util.Await;
+import com.twitter.util.Future;
 import org.apache.commons.io.FileUtils;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -29,9 +33,16 @@ import org.junit.runners.MethodSorters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.xiaomi.linden.client.BulkIndexer;
+import com.xiaomi.linden.client.BulkIndexerConfig;
 import com.xiaomi.linden.client.LindenClient;
+import com.xiaomi.linden.cluster.SmartLindenClient;
+import com.xiaomi.linden.core.LindenSchemaBuilder;
 import com.xiaomi.linden.core.ZooKeeperService;
 import com.xiaomi.linden.service.LindenServer;
+import com.xiaomi.linden.thrift.common.BulkResponse;
+import com.xiaomi.linden.thrift.common.IndexRequestType;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 
 @FixMethodOrder(MethodSorters.NAME_ASCENDING)
@@ -127,6 +138,19 @@ public class TestLindenServer {
     }
   }
 
+  @Test
+  public void asyncClientTest() throws Exception {
+    List<Future<LindenResult>> futures = new ArrayList<>();
+    for (int i = 0; i < 20; ++i) {
+      futures.add(clusterClient.searchAsync("select * from linden by query is 'sName:Hotel'"));
+    }
+    for (LindenResult result : Await.result(Future.collect(futures))) {
+      Assert.assertTrue(result.isSuccess());
+      Assert.assertEquals(53, result.getTotalHits());
+    }
+    Assert.assertFalse(Await.result(client1.deleteAsync("select * from linden")).isSuccess());
+  }
+
   @Test
   public void basicTest() throws Exception {
     assertHits("select * from linden by query is 'sName:Hotel' source", 10, 53, null);
@@ -358,6 +382,46 @@ public class TestLindenServer {
   }
 
 
+  @Test
+  public void multiSearchTest() throws Exception {
+    List<String> bqls = Arrays.asList("select * from linden where id='8880' source",
+                                      "select * from linden limit 0, 5",
+                                      "select * from linden where");
+    List<LindenResult> results = clusterClient.multiSearch(bqls);
+    Assert.assertEquals(3, results.size());
+    LindenResult single = clusterClient.search(bqls.get(0));
+    Assert.assertEquals(1, results.get(0).getHitsSize());
+    Assert.assertEquals(single.getHits().get(0).getId(), results.get(0).getHits().get(0).getId());
+    Assert.assertEquals(single.getHits().get(0).getSource(), results.get(0).getHits().get(0).getSource());
+    Assert.assertEquals(clusterClient.search(bqls.get(1)).getTotalHits(), results.get(1).getTotalHits());
+    Assert.assertEquals(5, results.get(1).getHitsSize());
+    Assert.assertFalse(results.get(2).isSuccess());
+  }
+
+  @Test
+  public void smartClientTest() throws Exception {
+    File schemaXml = new File(TestLindenServer.class.getClassLoader().getResource("service1/schema.xml").getFile());
+    SmartLindenClient smartClient =
+        new SmartLindenClient("localhost:2181/sanitytest", LindenSchemaBuilder.build(schemaXml), 0);
+    Thread.sleep(500);
+    String bql = "select * from linden by query is 'sName:Hotel' source";
+    LindenResult expected = clusterClient.search(bql);
+    LindenResult result = smartClient.search(bql);
+    Assert.assertTrue(result.isSuccess());
+    Assert.assertEquals(expected.getTotalHits(), result.getTotalHits());
+    Assert.assertEquals(expected.getHitsSize(), result.getHitsSize());
+    for (int i = 0; i < result.getHitsSize(); ++i) {
+      Assert.assertEquals(expected.getHits().get(i).getId(), result.getHits().get(i).getId());
+    }
+
+    List<LindenResult> results = smartClient.multiSearch(Arrays.asList("select * from linden where id = '5113'",
+                                                                       "select * from linden where"));
+    Assert.assertEquals(1, results.get(0).getHitsSize());
+    Assert.assertEquals("5113", results.get(0).getHits().get(0).getId());
+    Assert.assertFalse(results.get(1).isSuccess());
+    Assert.assertFalse(smartClient.search("delete from linden where id = '5113'").isSuccess());
+  }
+
   @Test // zIndexTest will be last case
   public void zIndexTest() throws Exception {
     assertHits("select * from linden where id='8880' source route by 0", 1, 1, "8880");
@@ -372,6 +436,34 @@ public class TestLindenServer {
     clusterClient.index(jsonRequst.toString());
     Thread.sleep(1000);
     assertHits("select * from linden where id='8880' source route by 0", 1, 1, "8880");
+
+    // a document without id fails alone
+    jsonRequst.put("content", JSONObject.parse(doc.replace("8880", "8881")));
+    BulkResponse response = clusterClient.bulkIndex(Arrays.asList(jsonRequst.toString(), "{\"sName\":\"KFC\"}"));
+    Assert.assertFalse(response.isSuccess());
+    Assert.assertEquals(2, response.getResponsesSize());
+    Assert.assertTrue(response.getResponses().get(0).isSuccess());
+    Assert.assertFalse(response.getResponses().get(1).isSuccess());
+    Thread.sleep(1000);
+    assertHits("select * from linden where id='8881' source", 1, 1, "8881");
+
+    response = clusterClient.bulkIndexRequests(
+        Arrays.asList(new LindenIndexRequest(IndexRequestType.DELETE, "8881")));
+    Assert.assertTrue(response.isSuccess());
+    Thread.sleep(1000);
+    assertHits("select * from linden where id='8881' source", 0, 0, null);
+
+    BulkIndexer bulkIndexer = new BulkIndexer(clusterClient, new BulkIndexerConfig().setMaxBatchDocs(2));
+    for (String id : Arrays.asList("8882", "8883", "8884")) {
+      jsonRequst.put("content", JSONObject.parse(doc.replace("8880", id)));
+      bulkIndexer.add(jsonRequst.toString());
+    }
+    bulkIndexer.close();
+    Assert.assertEquals(3, bulkIndexer.getIndexedDocs());
+    Assert.assertEquals(0, bulkIndexer.getFailedDocs());
+    Assert.assertEquals(2, bulkIndexer.getFlushes());
+    Thread.sleep(1000);
+    assertHits("select * from linden where id in ('8882', '8883', '8884')", 3, 3, null);
   }
 
 
@@ -0,0 +1,387 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.finagle.WriteException;
+import com.twitter.util.FutureEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.xiaomi.linden.thrift.common.BulkResponse;
+import com.xiaomi.linden.thrift.common.Response;
+
+/**
+ * Buffers index requests and sends them in bulk through LindenClient.
+ * A batch is flushed when it is full or when the flush interval passes. At most maxConcurrentFlushes batches
+ * are in flight, a producer filling one more batch blocks until one of them finishes.
+ * Writes of one document id are applied in the order they are added: a write waits in the buffer while an
+ * earlier write of its id is in flight, retries included.
+ * Documents failing for reasons other than themselves are sent again with exponential backoff, retries count
+ * as in flight. Increments are only sent again when the failed request never left the client, since they
+ * are not idempotent.
+ */
+public class BulkIndexer {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BulkIndexer.class);
+
+  private static final String TYPE = "type";
+  private static final String CONTENT = "content";
+  private static final String DELETE = "delete";
+  private static final String INCREMENT = "increment";
+
+  private final LindenClient client;
+  private final BulkIndexerConfig config;
+  private final Semaphore flushPermits;
+  // runs the interval flushes and the retries, it never blocks
+  private final ScheduledExecutorService scheduler;
+  private List<Item> buffer = new ArrayList<>();
+  private long bufferBytes;
+  // ids of the batches in flight
+  private final Set<String> inFlightIds = new HashSet<>();
+  private volatile boolean closed;
+
+  private final long startNanos = System.nanoTime();
+  private final AtomicLong indexedDocs = new AtomicLong();
+  private final AtomicLong failedDocs = new AtomicLong();
+  private final AtomicLong retriedDocs = new AtomicLong();
+  private final AtomicLong flushes = new AtomicLong();
+
+  private static class Item {
+    private final String content;
+    // null if the request has no id or is not valid json, which the cluster rejects
+    private final String id;
+    private final boolean increment;
+
+    private Item(String content, String id, boolean increment) {
+      this.content = content;
+      this.id = id;
+      this.increment = increment;
+    }
+  }
+
+  public BulkIndexer(LindenClient client) {
+    this(client, new BulkIndexerConfig());
+  }
+
+  public BulkIndexer(LindenClient client, BulkIndexerConfig config) {
+    this.client = client;
+    this.config = config;
+    this.flushPermits = new Semaphore(config.getMaxConcurrentFlushes());
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("linden-bulk-indexer").build());
+    if (config.getFlushInterval() > 0) {
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          // a full pipeline is left to the producers, the scheduler must not wait for it
+          if (flushPermits.tryAcquire()) {
+            List<Item> batch = takeBuffer();
+            if (batch.isEmpty()) {
+              flushPermits.release();
+            } else {
+              send(batch, 0);
+            }
+          }
+        }
+      }, config.getFlushInterval(), config.getFlushInterval(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @param content an index request in JSON string format, as in LindenClient.index
+   */
+  public void add(String content) throws InterruptedException {
+    if (closed) {
+      throw new IllegalStateException("BulkIndexer is closed");
+    }
+    Item item = parse(content);
+    boolean full;
+    synchronized (this) {
+      buffer.add(item);
+      bufferBytes += content.length();
+      full = buffer.size() >= config.getMaxBatchDocs() || bufferBytes >= config.getMaxBatchBytes();
+      // the buffer only holds writes waiting for earlier writes of their ids, wait for one of them to finish
+      while (full && !hasSendable()) {
+        wait();
+        full = buffer.size() >= config.getMaxBatchDocs() || bufferBytes >= config.getMaxBatchBytes();
+      }
+    }
+    if (full) {
+      flushPermits.acquire();
+      List<Item> batch = takeBuffer();
+      if (batch.isEmpty()) {
+        flushPermits.release();
+      } else {
+        send(batch, 0);
+      }
+    }
+  }
+
+  private Item parse(String content) {
+    try {
+      JSONObject json = JSONObject.parseObject(content);
+      String type = json.getString(TYPE);
+      // a request without type is the document itself
+      if (type == null || type.equalsIgnoreCase(DELETE)) {
+        return new Item(content, json.getString(config.getIdField()), false);
+      }
+      JSONObject doc = json.getJSONObject(CONTENT);
+      return new Item(content, doc == null ? null : doc.getString(config.getIdField()),
+                      type.equalsIgnoreCase(INCREMENT));
+    } catch (Exception e) {
+      return new Item(content, null, false);
+    }
+  }
+
+  /**
+   * send the buffered documents without waiting for the result
+   */
+  public void flush() throws InterruptedException {
+    flushPermits.acquire();
+    List<Item> batch = takeBuffer();
+    if (batch.isEmpty()) {
+      flushPermits.release();
+    } else {
+      send(batch, 0);
+    }
+  }
+
+  /**
+   * flush the buffer and wait for all batches in flight, including their retries
+   */
+  public void close() throws InterruptedException {
+    closed = true;
+    // writes waiting for earlier writes of their ids are sent once those finish
+    do {
+      flush();
+      flushPermits.acquire(config.getMaxConcurrentFlushes());
+      flushPermits.release(config.getMaxConcurrentFlushes());
+    } while (!isBufferEmpty());
+    scheduler.shutdown();
+    LOGGER.info("BulkIndexer closed, indexed: {}, failed: {}, retried: {}, flushes: {}.",
+                indexedDocs.get(), failedDocs.get(), retriedDocs.get(), flushes.get());
+  }
+
+  private synchronized boolean isBufferEmpty() {
+    return buffer.isEmpty();
+  }
+
+  private synchronized boolean hasSendable() {
+    for (Item item : buffer) {
+      if (item.id == null || !inFlightIds.contains(item.id)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return buffered writes whose ids are not in flight, which are in flight afterwards
+   */
+  private synchronized List<Item> takeBuffer() {
+    List<Item> batch = new ArrayList<>();
+    Set<String> batchIds = new HashSet<>();
+    Iterator<Item> iterator = buffer.iterator();
+    while (iterator.hasNext()) {
+      Item item = iterator.next();
+      // later writes of an id in the batch join it, they are applied in order within the batch
+      if (item.id == null || batchIds.contains(item.id) || !inFlightIds.contains(item.id)) {
+        batch.add(item);
+        bufferBytes -= item.content.length();
+        iterator.remove();
+        if (item.id != null) {
+          batchIds.add(item.id);
+        }
+      }
+    }
+    inFlightIds.addAll(batchIds);
+    return batch;
+  }
+
+  private synchronized void finish(List<Item> batch) {
+    for (Item item : batch) {
+      if (item.id != null) {
+        inFlightIds.remove(item.id);
+      }
+    }
+    notifyAll();
+  }
+
+  private static List<String> contents(List<Item> batch) {
+    List<String> contents = new ArrayList<>(batch.size());
+    for (Item item : batch) {
+      contents.add(item.content);
+    }
+    return contents;
+  }
+
+  /**
+   * The caller holds a flush permit, which is released when the batch succeeds or is given up.
+   * The ids of the batch are in flight until then.
+   */
+  private void send(final List<Item> batch, final int attempt) {
+    flushes.incrementAndGet();
+    try {
+      client.bulkIndexAsync(contents(batch)).addEventListener(new FutureEventListener<BulkResponse>() {
+        @Override
+        public void onSuccess(BulkResponse response) {
+          List<Item> retries = new ArrayList<>();
+          String error = null;
+          if (response.isSetResponses() && response.getResponsesSize() == batch.size()) {
+            // ids written by a later request of the batch
+            Set<String> overwritten = new HashSet<>();
+            for (int i = batch.size() - 1; i >= 0; --i) {
+              Item item = batch.get(i);
+              Response itemResponse = response.getResponses().get(i);
+              if (itemResponse.isSuccess()) {
+                indexedDocs.incrementAndGet();
+                if (item.id != null && !item.increment) {
+                  overwritten.add(item.id);
+                }
+              } else if (item.id != null && overwritten.contains(item.id)) {
+                // sending it again would overwrite the later write, whose result it is part of
+                indexedDocs.incrementAndGet();
+              } else {
+                error = itemResponse.getError();
+                // a replica may have applied the increment already
+                if (itemResponse.isRetryable() && !item.increment) {
+                  retries.add(item);
+                } else {
+                  giveUp(item, error);
+                }
+              }
+            }
+            Collections.reverse(retries);
+          } else if (response.isSuccess()) {
+            indexedDocs.addAndGet(batch.size());
+          } else {
+            error = response.getError();
+            retries = retriesAfterFailure(batch, false, error);
+          }
+          retryOrFinish(batch, retries, attempt, error);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+          retryOrFinish(batch, retriesAfterFailure(batch, cause instanceof WriteException, cause.toString()), attempt,
+                        cause.toString());
+        }
+      });
+    } catch (Exception e) {
+      retryOrFinish(batch, retriesAfterFailure(batch, false, e.toString()), attempt, e.toString());
+    }
+  }
+
+  /**
+   * @param unsent true if the request never reached the cluster, otherwise it may have been applied or be
+   *               still applying, as after a timeout
+   */
+  private List<Item> retriesAfterFailure(List<Item> batch, boolean unsent, String error) {
+    List<Item> retries = new ArrayList<>(batch.size());
+    for (Item item : batch) {
+      if (unsent || !item.increment) {
+        retries.add(item);
+      } else {
+        giveUp(item, error);
+      }
+    }
+    return retries;
+  }
+
+  private void giveUp(Item item, String error) {
+    failedDocs.incrementAndGet();
+    LOGGER.error("Document {} failed, error: {}", item.id, error);
+  }
+
+  private void retryOrFinish(List<Item> batch, final List<Item> retries, final int attempt, String error) {
+    if (retries.isEmpty()) {
+      finish(batch);
+      flushPermits.release();
+      return;
+    }
+    if (attempt >= config.getMaxRetries()) {
+      failedDocs.addAndGet(retries.size());
+      finish(batch);
+      flushPermits.release();
+      LOGGER.error("{} documents failed after {} retries, last error: {}", retries.size(), attempt, error);
+      return;
+    }
+    // ids of the retried documents stay in flight, the others may be written again
+    Set<String> retryIds = new HashSet<>();
+    for (Item item : retries) {
+      retryIds.add(item.id);
+    }
+    List<Item> done = new ArrayList<>(batch.size());
+    for (Item item : batch) {
+      if (!retryIds.contains(item.id)) {
+        done.add(item);
+      }
+    }
+    finish(done);
+    retriedDocs.addAndGet(retries.size());
+    long backoff = Math.min(config.getMaxBackoff(), config.getInitialBackoff() << Math.min(attempt, 30));
+    LOGGER.warn("{} documents failed, retry in {} ms, error: {}", retries.size(), backoff, error);
+    scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        send(retries, attempt + 1);
+      }
+    }, backoff, TimeUnit.MILLISECONDS);
+  }
+
+  public long getIndexedDocs() {
+    return indexedDocs.get();
+  }
+
+  /**
+   * documents given up after all retries
+   */
+  public long getFailedDocs() {
+    return failedDocs.get();
+  }
+
+  public long getRetriedDocs() {
+    return retriedDocs.get();
+  }
+
+  /**
+   * bulk requests sent, retries included
+   */
+  public long getFlushes() {
+    return flushes.get();
+  }
+
+  /**
+   * indexed documents per second since the indexer was created
+   */
+  public double getThroughput() {
+    long elapsed = System.nanoTime() - startNanos;
+    return elapsed == 0 ? 0 : indexedDocs.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+  }
+}
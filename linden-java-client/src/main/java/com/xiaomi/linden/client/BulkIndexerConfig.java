@@ -0,0 +1,137 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.client;
+
+/**
+ * Batching, concurrency and retry settings of BulkIndexer.
+ */
+public class BulkIndexerConfig {
+
+  private int maxBatchDocs;
+  private long maxBatchBytes;
+  private long flushInterval;
+  private int maxConcurrentFlushes;
+  private int maxRetries;
+  private long initialBackoff;
+  private long maxBackoff;
+  private String idField;
+
+  public BulkIndexerConfig() {
+    this.maxBatchDocs = 1000;
+    this.maxBatchBytes = 5L * 1024 * 1024;
+    this.flushInterval = 1000;
+    this.maxConcurrentFlushes = 4;
+    this.maxRetries = 3;
+    this.initialBackoff = 100;
+    this.maxBackoff = 5000;
+    this.idField = "id";
+  }
+
+  public int getMaxBatchDocs() {
+    return maxBatchDocs;
+  }
+
+  /**
+   * A batch is flushed when it has this many documents.
+   */
+  public BulkIndexerConfig setMaxBatchDocs(int maxBatchDocs) {
+    this.maxBatchDocs = maxBatchDocs;
+    return this;
+  }
+
+  public long getMaxBatchBytes() {
+    return maxBatchBytes;
+  }
+
+  /**
+   * A batch is flushed when the lengths of its documents add up to this many chars.
+   */
+  public BulkIndexerConfig setMaxBatchBytes(long maxBatchBytes) {
+    this.maxBatchBytes = maxBatchBytes;
+    return this;
+  }
+
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  /**
+   * Milliseconds between flushes of a batch which is not full, 0 means batches are flushed only when full.
+   */
+  public BulkIndexerConfig setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+    return this;
+  }
+
+  public int getMaxConcurrentFlushes() {
+    return maxConcurrentFlushes;
+  }
+
+  /**
+   * Batches in flight, adding a document blocks while a full batch waits for one of them to finish.
+   */
+  public BulkIndexerConfig setMaxConcurrentFlushes(int maxConcurrentFlushes) {
+    this.maxConcurrentFlushes = maxConcurrentFlushes;
+    return this;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Times failed documents of a batch are sent again before they are given up.
+   */
+  public BulkIndexerConfig setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+    return this;
+  }
+
+  public long getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  /**
+   * Milliseconds before the first retry, the backoff doubles on every retry.
+   */
+  public BulkIndexerConfig setInitialBackoff(long initialBackoff) {
+    this.initialBackoff = initialBackoff;
+    return this;
+  }
+
+  public long getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  /**
+   * Max milliseconds between two retries.
+   */
+  public BulkIndexerConfig setMaxBackoff(long maxBackoff) {
+    this.maxBackoff = maxBackoff;
+    return this;
+  }
+
+  public String getIdField() {
+    return idField;
+  }
+
+  /**
+   * Id field of the schema, writes of one id are applied in the order they are added.
+   */
+  public BulkIndexerConfig setIdField(String idField) {
+    this.idField = idField;
+    return this;
+  }
+}
@@ -21,21 +21,30 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import com.alibaba.fastjson.JSONObject;
 import com.github.zkclient.ZkClient;
-import com.twitter.finagle.Thrift;
+import com.twitter.finagle.Service;
+import com.twitter.finagle.builder.ClientBuilder;
+import com.twitter.finagle.thrift.ThriftClientFramedCodec;
+import com.twitter.finagle.thrift.ThriftClientRequest;
+import com.twitter.finagle.util.DefaultTimer;
 import com.twitter.thrift.ServiceInstance;
 import com.twitter.util.Await;
 import com.twitter.util.Duration;
+import com.twitter.util.Function;
 import com.twitter.util.Future;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.thrift.protocol.TBinaryProtocol;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xiaomi.linden.common.LindenZKListener;
 import com.xiaomi.linden.common.ZKClientFactory;
 import com.xiaomi.linden.common.util.LindenZKPathManager;
+import com.xiaomi.linden.thrift.common.BulkResponse;
+import com.xiaomi.linden.thrift.common.LindenIndexRequest;
 import com.xiaomi.linden.thrift.common.LindenResult;
 import com.xiaomi.linden.thrift.common.LindenServiceInfo;
 import com.xiaomi.linden.thrift.common.Response;
@@ -49,6 +58,7 @@ public class LindenClient {
 
   private final Map<String, LindenService.ServiceIface> clients = new ConcurrentHashMap<>();
   private volatile ClientInterface clientIface;
+  private final LindenClientConfig config;
   private Integer timeout;
   private Duration duration;
   private ZkClient zkClient;
@@ -57,6 +67,15 @@ public class LindenClient {
 
   private interface ClientInterface {
     LindenService.ServiceIface get();
+
+    /**
+     * @return a node other than the given one, or null if there is none
+     */
+    LindenService.ServiceIface getOther(LindenService.ServiceIface exclude);
+  }
+
+  private interface Call<T> {
+    Future<T> apply(LindenService.ServiceIface iface);
   }
 
   private class RoundRobinClient implements ClientInterface {
@@ -71,6 +90,15 @@ public class LindenClient {
     public LindenService.ServiceIface get() {
       return serviceIfaces[rand.nextInt(serviceIfaces.length)];
     }
+
+    public LindenService.ServiceIface getOther(LindenService.ServiceIface exclude) {
+      if (serviceIfaces.length < 2) {
+        return null;
+      }
+      // the last node stands in for the excluded one
+      LindenService.ServiceIface iface = serviceIfaces[rand.nextInt(serviceIfaces.length - 1)];
+      return iface == exclude ? serviceIfaces[serviceIfaces.length - 1] : iface;
+    }
   }
 
   private class SingleClient implements ClientInterface {
@@ -84,6 +112,10 @@ public class LindenClient {
     public LindenService.ServiceIface get() {
       return serviceIface;
     }
+
+    public LindenService.ServiceIface getOther(LindenService.ServiceIface exclude) {
+      return null;
+    }
   }
 
   public LindenClient(String clusterUrl) {
@@ -95,6 +127,11 @@ public class LindenClient {
   public LindenClient(String clusterUrl, int timeout) { this(clusterUrl, timeout, true); }
 
   public LindenClient(String clusterUrl, int timeout, final boolean roundRobin) {
+    this(clusterUrl, timeout, roundRobin, new LindenClientConfig());
+  }
+
+  public LindenClient(String clusterUrl, int timeout, final boolean roundRobin, LindenClientConfig config) {
+    this.config = config;
     this.timeout = timeout;
     this.duration = Duration.apply(timeout, TimeUnit.MILLISECONDS);
     LindenZKPathManager zkPathManager = new LindenZKPathManager(clusterUrl);
@@ -146,15 +183,33 @@ public class LindenClient {
     String schema = String.format("%s:%s",
                                   serviceInstance.getServiceEndpoint().getHost(),
                                   serviceInstance.getServiceEndpoint().getPort());
-    return Thrift.newIface(schema, LindenService.ServiceIface.class);
+    return newIface(schema);
+  }
+
+  private LindenService.ServiceIface newIface(String hostPort) {
+    Duration idleTime = config.getConnectionIdleTime() > 0
+                        ? Duration.apply(config.getConnectionIdleTime(), TimeUnit.MILLISECONDS) : Duration.Top();
+    Service<ThriftClientRequest, byte[]> service = ClientBuilder.safeBuild(
+        ClientBuilder.get()
+            .hosts(hostPort)
+            .codec(ThriftClientFramedCodec.get())
+            .hostConnectionLimit(config.getMaxInFlightPerHost())
+            .hostConnectionCoresize(config.getCoreConnectionsPerHost())
+            .hostConnectionMaxWaiters(config.getMaxWaitersPerHost())
+            .hostConnectionIdleTime(idleTime));
+    return new LindenService.ServiceToClient(service, new TBinaryProtocol.Factory());
   }
 
   // Single point client
   public LindenClient(String host, int port, int timeout) {
+    this(host, port, timeout, new LindenClientConfig());
+  }
+
+  public LindenClient(String host, int port, int timeout, LindenClientConfig config) {
+    this.config = config;
     this.timeout = timeout;
     this.duration = Duration.apply(timeout, TimeUnit.MILLISECONDS);
-    LindenService.ServiceIface iface = Thrift.newIface(String.format("%s:%d", host, port), LindenService.ServiceIface.class);
-    clientIface = new SingleClient(iface);
+    clientIface = new SingleClient(newIface(String.format("%s:%d", host, port)));
   }
 
   public LindenService.ServiceIface get() {
@@ -162,18 +217,112 @@ public class LindenClient {
   }
 
   public Response index(String content) throws Exception {
-    Future<Response> response = get().handleClusterIndexRequest(content);
-    return timeout == 0 ? Await.result(response) : Await.result(response, duration);
+    return Await.result(indexAsync(content));
+  }
+
+  /**
+   * index documents in one request, the response has one item for every document
+   */
+  public BulkResponse bulkIndex(List<String> contents) throws Exception {
+    return Await.result(bulkIndexAsync(contents));
+  }
+
+  /**
+   * index parsed requests, the cluster forwards them to replicas without any json parsing
+   */
+  public BulkResponse bulkIndexRequests(List<LindenIndexRequest> requests) throws Exception {
+    return Await.result(bulkIndexRequestsAsync(requests));
   }
 
   public LindenResult search(String bql) throws Exception {
-    Future<LindenResult> result = get().handleClusterSearchRequest(bql);
-    return timeout == 0 ? Await.result(result) : Await.result(result, duration);
+    return Await.result(searchAsync(bql));
+  }
+
+  /**
+   * run several searches in one round trip, the results are in the order of bqls
+   */
+  public List<LindenResult> multiSearch(List<String> bqls) throws Exception {
+    return Await.result(multiSearchAsync(bqls));
   }
 
   public Response delete(String bql) throws Exception {
-    Future<Response> response = get().handleClusterDeleteRequest(bql);
-    return timeout == 0 ? Await.result(response) : Await.result(response, duration);
+    return Await.result(deleteAsync(bql));
+  }
+
+  /**
+   * Asynchronous methods do not block the caller, the future fails if the request takes longer than timeout.
+   * Index and delete are sent once, they are not idempotent.
+   */
+  public Future<Response> indexAsync(final String content) {
+    return withTimeout(get().handleClusterIndexRequest(content));
+  }
+
+  public Future<BulkResponse> bulkIndexAsync(final List<String> contents) {
+    return withTimeout(get().handleClusterBulkIndexRequest(contents));
+  }
+
+  public Future<BulkResponse> bulkIndexRequestsAsync(final List<LindenIndexRequest> requests) {
+    return withTimeout(get().handleClusterIndexRequests(requests));
+  }
+
+  public Future<Response> deleteAsync(final String bql) {
+    return withTimeout(get().handleClusterDeleteRequest(bql));
+  }
+
+  /**
+   * a search failing with an exception is retried on another node
+   */
+  public Future<LindenResult> searchAsync(final String bql) {
+    return callWithRetry(get(), new Call<LindenResult>() {
+      @Override
+      public Future<LindenResult> apply(LindenService.ServiceIface iface) {
+        return iface.handleClusterSearchRequest(bql);
+      }
+    }, config.getSearchRetries());
+  }
+
+  public Future<List<LindenResult>> multiSearchAsync(final List<String> bqls) {
+    return callWithRetry(get(), new Call<List<LindenResult>>() {
+      @Override
+      public Future<List<LindenResult>> apply(LindenService.ServiceIface iface) {
+        return iface.handleClusterMultiSearchRequest(bqls);
+      }
+    }, config.getSearchRetries());
+  }
+
+  private <T> Future<T> withTimeout(Future<T> future) {
+    return timeout == 0 ? future : future.within(DefaultTimer.twitter(), duration);
+  }
+
+  /**
+   * all attempts share one deadline of timeout, a request timed out is not retried
+   */
+  private <T> Future<T> callWithRetry(LindenService.ServiceIface iface, Call<T> call, int retries) {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    return withTimeout(attempt(iface, call, retries, deadline));
+  }
+
+  private <T> Future<T> attempt(final LindenService.ServiceIface iface, final Call<T> call, final int retries,
+                                final long deadline) {
+    Future<T> future = call.apply(iface);
+    if (retries <= 0) {
+      return future;
+    }
+    return future.rescue(new Function<Throwable, Future<T>>() {
+      @Override
+      public Future<T> apply(Throwable t) {
+        // the node may still be working on a timed out request, and no time is left for another one anyway
+        if (t instanceof TimeoutException || (timeout != 0 && System.nanoTime() - deadline >= 0)) {
+          return Future.exception(t);
+        }
+        LindenService.ServiceIface other = clientIface.getOther(iface);
+        if (other == null) {
+          return Future.exception(t);
+        }
+        LOGGER.warn("Request failed, retry on another node: {}", t.toString());
+        return attempt(other, call, retries - 1, deadline);
+      }
+    });
   }
 
   public Response executeCommand(String command) throws Exception {
@@ -0,0 +1,98 @@
+// Copyright 2016 Xiaomi, Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.xiaomi.linden.client;
+
+/**
+ * Connection pool and retry settings of LindenClient.
+ * Thrift calls are not multiplexed, a connection serves one request at a time,
+ * so the connection limit of a host is also the max number of requests in flight to it.
+ */
+public class LindenClientConfig {
+
+  private int maxInFlightPerHost;
+  private int coreConnectionsPerHost;
+  private int maxWaitersPerHost;
+  private long connectionIdleTime;
+  private int searchRetries;
+
+  public LindenClientConfig() {
+    this.maxInFlightPerHost = 64;
+    this.coreConnectionsPerHost = 1;
+    this.maxWaitersPerHost = Integer.MAX_VALUE;
+    this.connectionIdleTime = 0;
+    this.searchRetries = 1;
+  }
+
+  public int getMaxInFlightPerHost() {
+    return maxInFlightPerHost;
+  }
+
+  /**
+   * Max connections to a host, requests beyond it wait for a free connection.
+   */
+  public LindenClientConfig setMaxInFlightPerHost(int maxInFlightPerHost) {
+    this.maxInFlightPerHost = maxInFlightPerHost;
+    return this;
+  }
+
+  public int getCoreConnectionsPerHost() {
+    return coreConnectionsPerHost;
+  }
+
+  /**
+   * Connections to a host kept open even if they are idle.
+   */
+  public LindenClientConfig setCoreConnectionsPerHost(int coreConnectionsPerHost) {
+    this.coreConnectionsPerHost = coreConnectionsPerHost;
+    return this;
+  }
+
+  public int getMaxWaitersPerHost() {
+    return maxWaitersPerHost;
+  }
+
+  /**
+   * Requests waiting for a connection to a host, more requests fail at once.
+   */
+  public LindenClientConfig setMaxWaitersPerHost(int maxWaitersPerHost) {
+    this.maxWaitersPerHost = maxWaitersPerHost;
+    return this;
+  }
+
+  public long getConnectionIdleTime() {
+    return connectionIdleTime;
+  }
+
+  /**
+   * Milliseconds before an idle connection beyond the core ones is closed, 0 means never.
+   */
+  public LindenClientConfig setConnectionIdleTime(long connectionIdleTime) {
+    this.connectionIdleTime = connectionIdleTime;
+    return this;
+  }
+
+  public int getSearchRetries() {
+    return searchRetries;
+  }
+
+  /**
+   * Times a search failing with an exception is retried on another node, searches are idempotent.
+   * Retries share the timeout of the client, a search timed out is not retried.
+   */
+  public LindenClientConfig setSearchRetries(int searchRetries) {
+    this.searchRetries = searchRetries;
+    return this;
+  }
+}
@@ -25,6 +25,7 @@ public class LindenFlexibleQueryBuilder extends LindenQueryBuilder {
   private String query;
   private LindenScoreModel model = new LindenScoreModel();
   private boolean isFullMatch = false;
+  private boolean pruning = false;
 
   public LindenFlexibleQueryBuilder setQuery(String query) {
     this.query = query;
@@ -50,6 +51,11 @@ public class LindenFlexibleQueryBuilder extends LindenQueryBuilder {
     return this;
   }
 
+  public LindenFlexibleQueryBuilder setPruning(boolean pruning) {
+    this.pruning = pruning;
+    return this;
+  }
+
   @Override
   public LindenQuery build() {
     LindenFlexibleQuery flexibleQuery =
@@ -57,6 +63,9 @@ public class LindenFlexibleQueryBuilder extends LindenQueryBuilder {
     if (isFullMatch) {
       flexibleQuery.setFullMatch(true);
     }
+    if (pruning) {
+      flexibleQuery.setPruning(true);
+    }
     return new LindenQuery().setFlexQuery(flexibleQuery);
   }
 }
@@ -26,6 +26,8 @@ struct LindenFieldSchema {
 struct LindenSchema {
     1: required string id,
     2: required list<LindenFieldSchema> fields,
+    # store the whole document as a compressed blob, source is read from it instead of field by field
+    3: optional bool storeSource = 0,
 }
 
 struct LindenExplanation {
@@ -44,6 +46,20 @@ struct LindenSnippet {
 struct LindenHit {
 }
 
+# value of a sort field, all unset means no value
+struct LindenSortValue {
+    1: optional string stringValue,
+    2: optional i64 longValue,
+    3: optional double doubleValue,
+}
+
+# search after cursor: sort values of a hit, score if not sorted by fields,
+# then its document id to break ties
+struct LindenSearchAfter {
+    1: optional list<LindenSortValue> sortValues,
+    2: optional string id,
+}
+
 struct LindenHit {
     1: required string id,
     2: required double score,
@@ -52,7 +68,14 @@ struct LindenHit {
     5: optional LindenExplanation explanation,
     6: optional map<string, string> fields,
     7: optional map<string, LindenSnippet> snippets,
-    8: optional list<LindenHit> groupHits
+    8: optional list<LindenHit> groupHits,
+    # set by the cluster between the query and fetch phases of two phase search, never returned to clients
+    9: optional i32 shardId,
+    # host:port of the replica answering the query phase, which the fetch phase asks, never returned to clients
+    12: optional string shardHost,
+    10: optional LindenSearchAfter searchAfter,
+    # typed values of sort fields, in the order of sort fields
+    11: optional list<LindenSortValue> sortValues
 }
 
 struct QueryInfo {
@@ -90,6 +113,10 @@ struct LindenResult {
     8: optional i32 totalGroups,
     9: optional i32 totalGroupHits;
     10: optional list<AggregationResult> aggregationResults,
+    11: optional LindenSearchAfter searchAfter,
+    # some shards or indexes were not searched in time, hits are the top of what was searched
+    12: optional bool partial,
+    13: optional list<i32> timedOutShards,
 }
 
 struct CacheInfo {
@@ -101,6 +128,8 @@ struct CacheInfo {
     6: optional i64 totalLoadTime,
     7: optional double missRate,
     8: optional double averageLoadPenalty,
+    9: optional i64 evictionCount,
+    10: optional i64 ramBytesUsed,
 }
 
 struct JVMInfo {
@@ -117,6 +146,26 @@ struct FileDiskUsageInfo {
     2: optional i64 diskUsage,
 }
 
+# replica stats the cluster uses to select replicas, latencyEwma is in milliseconds
+struct ReplicaInfo {
+    1: required i32 shardId,
+    2: required string hostPort,
+    3: optional double latencyEwma,
+    4: optional i32 inFlight,
+    5: optional i64 requestCount,
+    6: optional i64 failureCount,
+    7: optional bool ejected,
+}
+
+# progress of the indexing manager, throughput is in documents per second since it started
+struct IndexingInfo {
+    1: required i64 indexedCount,
+    2: required i64 failedCount,
+    3: optional double throughput,
+    4: optional list<i32> queueDepths,
+    5: optional i32 parsingDepth,
+}
+
 struct LindenServiceInfo {
     1: required i32 docsNum,
     2: optional CacheInfo cacheInfo,
@@ -124,4 +173,8 @@ struct LindenServiceInfo {
     4: optional list<string> indexNames,
     5: optional list<FileDiskUsageInfo> fileUsedInfos,
     6: optional list<i32> segmentNums,
+    7: optional CacheInfo filterCacheInfo,
+    8: optional CacheInfo shardCacheInfo,
+    9: optional list<ReplicaInfo> replicaInfos,
+    10: optional IndexingInfo indexingInfo,
 }
@@ -130,6 +130,9 @@ struct LindenFlexibleQuery {
     5: optional bool globalIDF = 0,
     6: optional list<LindenSearchField> globalFields
     7: optional double matchRatio,
+    # skip documents which can not enter the top offset + length hits, totalHits is a lower bound then.
+    # only takes effect for score models declaring an upper bound and results sorted by score
+    8: optional bool pruning = 0,
 }
 
 struct LindenQuery {
@@ -306,6 +309,9 @@ struct LindenSearchRequest {
     15: optional list<string> indexNames,
     16: optional GroupParam groupParam,
     17: optional string originQuery,
+    18: optional LindenCommon.LindenSearchAfter searchAfter,
+    # deadline of the request, in milliseconds after it is received. every layer passes on the time left
+    19: optional i32 timeout,
 }
 
 struct LindenDeleteRequest {
@@ -314,6 +320,11 @@ struct LindenDeleteRequest {
     3: optional list<string> indexNames,
 }
 
+struct LindenFetchRequest {
+    1: required list<string> ids,
+    2: required LindenSearchRequest searchRequest,
+}
+
 struct LindenRequest {
     1: optional LindenSearchRequest searchRequest,
     2: optional LindenDeleteRequest deleteRequest
@@ -341,6 +352,8 @@ enum IndexRequestType {
     REPLACE,
     DELETE_INDEX,
     SWAP_INDEX,
+    # add the field values to numeric doc values fields of the document
+    INCREMENT,
 }
 
 struct LindenIndexRequest {
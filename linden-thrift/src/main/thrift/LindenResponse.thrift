@@ -3,4 +3,14 @@ namespace java com.xiaomi.linden.thrift.common
 struct Response {
     1: required bool success = 1,
     2: optional string error,
-}
\ No newline at end of file
+    # the failure is not caused by the request itself, which may succeed when sent again.
+    # the request may have been applied on some replicas
+    3: optional bool retryable,
+}
+struct BulkResponse {
+    # false if any item failed
+    1: required bool success = 1,
+    2: optional string error,
+    # one response for every item, in request order
+    3: optional list<Response> responses,
+}
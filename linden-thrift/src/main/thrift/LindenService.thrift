@@ -6,13 +6,23 @@ include "LindenResponse.thrift"
 
 service LindenService {
     LindenCommon.LindenResult search(1: LindenRequest.LindenSearchRequest request);
+    LindenCommon.LindenResult fetch(1: LindenRequest.LindenFetchRequest request);
+    # one result for every request, searched in parallel on one point in time view of a shard
+    list<LindenCommon.LindenResult> multiSearch(1: list<LindenRequest.LindenSearchRequest> requests);
     LindenResponse.Response delete(1: LindenRequest.LindenDeleteRequest request);
     LindenResponse.Response index(1: string content);
+    LindenResponse.BulkResponse bulkIndex(1: list<string> contents);
+    # parsed index requests, which replicas apply without parsing json again
+    LindenResponse.Response indexRequest(1: LindenRequest.LindenIndexRequest request);
+    LindenResponse.BulkResponse bulkIndexRequests(1: list<LindenRequest.LindenIndexRequest> requests);
     LindenCommon.LindenResult handleBqlRequest(1: string bql);
     LindenResponse.Response executeCommand(1: string command);
 
     LindenResponse.Response handleClusterIndexRequest(1: string content);
+    LindenResponse.BulkResponse handleClusterBulkIndexRequest(1: list<string> contents);
+    LindenResponse.BulkResponse handleClusterIndexRequests(1: list<LindenRequest.LindenIndexRequest> requests);
     LindenCommon.LindenResult handleClusterSearchRequest(1: string bql);
+    list<LindenCommon.LindenResult> handleClusterMultiSearchRequest(1: list<string> bqls);
     LindenResponse.Response handleClusterDeleteRequest(1: string bql);
     LindenCommon.LindenResult handleClusterBqlRequest(1: string bql);
     LindenResponse.Response handleClusterCommand(1: string command);